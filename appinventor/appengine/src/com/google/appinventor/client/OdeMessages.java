@@ -1378,6 +1378,16 @@ public interface OdeMessages extends Messages, AutogeneratedOdeMessages {
       "a build request.")
   String buildServerBusyError();
 
+  @DefaultMessage("The build server is currently busy. Trying again in {0} seconds.")
+  @Description("Message reported when the build server is temporarily too busy to accept a " +
+      "build request and the request will be sent again after the given number of seconds.")
+  String buildServerBusyRetryMessage(int seconds);
+
+  @DefaultMessage("The build is queued and should start in about {0} seconds.")
+  @Description("Message shown in the build output panel when the build server has queued the " +
+      "build and estimated how many seconds it will wait before starting.")
+  String buildQueuedMessage(int seconds);
+
   @DefaultMessage("The build server is not compatible with this version of App Inventor.")
   @Description("Error message reported when the build server is running a different version of " +
       "the App Inventor code.")
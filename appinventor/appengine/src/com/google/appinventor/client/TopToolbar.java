@@ -472,7 +472,7 @@ public class TopToolbar extends Composite {
         String target = YoungAndroidProjectNode.YOUNG_ANDROID_TARGET_ANDROID;
         ChainableCommand cmd = new SaveAllEditorsCommand(
             new GenerateYailCommand(
-                new BuildCommand(target, secondBuildserver,
+                new BuildCommand(target, secondBuildserver, true,
                   new ShowProgressBarCommand(target,
                     new WaitForBuildResultCommand(target,
                       new ShowBarcodeCommand(target)), "BarcodeAction"))));
@@ -17,7 +17,9 @@ import com.google.appinventor.client.explorer.project.Project;
 import com.google.appinventor.client.output.OdeLog;
 import com.google.appinventor.client.settings.project.ProjectSettings;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
+import com.google.appinventor.shared.rpc.project.FilePatch;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.common.collect.Maps;
 import com.google.gwt.user.client.Command;
@@ -51,6 +53,10 @@ public final class EditorManager {
   // TODO(user): Make this configurable.
   private static final int AUTO_SAVE_FORCED_TIMEOUT = 30000;
 
+  // A file is saved with a patch only if the patch is smaller than this
+  // fraction of the file. Otherwise the whole content is sent.
+  private static final double MAX_PATCH_FRACTION = 0.5;
+
   // Fields used for saving and auto-saving.
   private final Set<ProjectSettings> dirtyProjectSettings;
   private final Set<FileEditor> dirtyFileEditors;
@@ -58,6 +64,10 @@ public final class EditorManager {
   private boolean autoSaveIsScheduled;
   private long autoSaveRequestTime;
 
+  // Map of project IDs to the last content of each file that the server
+  // acknowledged saving. Files are saved with a patch against this content.
+  private final Map<Long, Map<String, String>> savedFileContents;
+
   private class DateHolder {
     long date;
     long projectId;
@@ -71,6 +81,7 @@ public final class EditorManager {
 
     dirtyProjectSettings = new HashSet<ProjectSettings>();
     dirtyFileEditors = new HashSet<FileEditor>();
+    savedFileContents = Maps.newHashMap();
 
     autoSaveTimer = new Timer() {
       @Override
@@ -148,6 +159,7 @@ public final class EditorManager {
         if (fileEditor != null) {
           dirtyFileEditors.remove(fileEditor);
         }
+        setSavedFileContent(projectId, fileId, null);
       }
       projectEditor.closeFileEditors(fileIds);
     }
@@ -167,6 +179,7 @@ public final class EditorManager {
     ProjectSettings projectSettings = project.getSettings();
     dirtyProjectSettings.remove(projectSettings);
     openProjectEditors.remove(projectId);
+    savedFileContents.remove(projectId);
   }
 
   /**
@@ -197,6 +210,18 @@ public final class EditorManager {
     scheduleAutoSaveTimer();
   }
 
+  /**
+   * Records the content of a file that a file editor loaded from the server,
+   * so that the first save of the file can send a patch against it.
+   *
+   * @param projectId  project ID
+   * @param fileId  file ID
+   * @param content  content of the file on the server
+   */
+  public void fileLoaded(long projectId, String fileId, String content) {
+    setSavedFileContent(projectId, fileId, content);
+  }
+
   /**
    * Check whether there is an open project editor.
    *
@@ -386,10 +411,10 @@ public final class EditorManager {
         final long projectId = fileDescriptor.getProjectId();
         final String fileId = fileDescriptor.getFileId();
         final String content = fileDescriptor.getContent();
-        Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
-          projectId, fileId, false, content, new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
+        OdeAsyncCallback<Long> callback = new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
             @Override
             public void onSuccess(Long date) {
+              setSavedFileContent(projectId, fileId, content);
               if (dateHolder.date != 0) {
                 // This sets the project modification time to that of one of
                 // the successful file saves. It doesn't really matter which
@@ -409,12 +434,70 @@ public final class EditorManager {
               // Here is where we handle BlocksTruncatedException
               if (caught instanceof BlocksTruncatedException) {
                 Ode.getInstance().blocksTruncatedDialog(projectId, fileId, content, this);
+              } else if (caught instanceof ChecksumedFileException) {
+                // The file on the server isn't the content the patch was made
+                // from (it may have been saved from another session), so we
+                // save the whole content instead.
+                OdeLog.log("Saving all of " + fileId + " because the patch didn't apply: "
+                    + caught.getMessage());
+                setSavedFileContent(projectId, fileId, null);
+                Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+                    projectId, fileId, false, content, this);
               } else {
                 super.onFailure(caught);
               }
             }
-          });
+          };
+        FilePatch patch = createPatch(getSavedFileContent(projectId, fileId), content);
+        if (patch != null) {
+          Ode.getInstance().getProjectService().savePatch(Ode.getInstance().getSessionId(),
+              projectId, fileId, false, patch, callback);
+        } else {
+          Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+              projectId, fileId, false, content, callback);
+        }
+      }
+    }
+  }
+
+  /*
+   * Returns a patch that changes the last saved content of a file into the
+   * given content, or null if the whole content should be saved instead,
+   * because the file hasn't been saved yet or most of it has changed.
+   */
+  private static FilePatch createPatch(String savedContent, String content) {
+    if (savedContent == null) {
+      return null;
+    }
+    try {
+      FilePatch patch = FilePatch.create(savedContent, content);
+      if (patch.getText().length() >= MAX_PATCH_FRACTION * content.length()) {
+        return null;
+      }
+      return patch;
+    } catch (ChecksumedFileException e) {
+      return null;
+    }
+  }
+
+  private String getSavedFileContent(long projectId, String fileId) {
+    Map<String, String> contents = savedFileContents.get(projectId);
+    return contents == null ? null : contents.get(fileId);
+  }
+
+  private void setSavedFileContent(long projectId, String fileId, String content) {
+    Map<String, String> contents = savedFileContents.get(projectId);
+    if (contents == null) {
+      if (content == null) {
+        return;
       }
+      contents = Maps.newHashMap();
+      savedFileContents.put(projectId, contents);
+    }
+    if (content == null) {
+      contents.remove(fileId);
+    } else {
+      contents.put(fileId, content);
     }
   }
 }
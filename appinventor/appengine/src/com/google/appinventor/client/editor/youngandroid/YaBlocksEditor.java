@@ -173,6 +173,7 @@ public final class YaBlocksEditor extends FileEditor
           this.onFailure(e);
           return;
         }
+        Ode.getInstance().getEditorManager().fileLoaded(projectId, fileId, blkFileContent);
         String formJson = myFormEditor.preUpgradeJsonString(); // [lyn, 2014/10/27] added formJson for upgrading
         try {
           blocksArea.loadBlocksContent(formJson, blkFileContent);
@@ -195,7 +196,7 @@ public final class YaBlocksEditor extends FileEditor
         super.onFailure(caught);
       }
     };
-    Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+    ((YaProjectEditor) projectEditor).loadFileContent(fileId, callback);
   }
 
   @Override
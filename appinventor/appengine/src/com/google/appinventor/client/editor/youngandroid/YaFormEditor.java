@@ -207,6 +207,7 @@ public final class YaFormEditor extends SimpleEditor implements FormChangeListen
           this.onFailure(e);
           return;
         }
+        Ode.getInstance().getEditorManager().fileLoaded(projectId, fileId, contents);
         final FileContentHolder fileContentHolder = new FileContentHolder(contents);
         upgradeFile(fileContentHolder, new Command() {
           @Override
@@ -230,7 +231,7 @@ public final class YaFormEditor extends SimpleEditor implements FormChangeListen
         super.onFailure(caught);
       }
     };
-    Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+    ((YaProjectEditor) projectEditor).loadFileContent(fileId, callback);
   }
 
   @Override
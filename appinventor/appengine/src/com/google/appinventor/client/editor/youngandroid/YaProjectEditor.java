@@ -94,6 +94,12 @@ public final class YaProjectEditor extends ProjectEditor implements ProjectChang
   // List of ComponentDatabaseChangeListeners
   private final List<ComponentDatabaseChangeListener> componentDatabaseChangeListeners = new ArrayList<ComponentDatabaseChangeListener>();
 
+  // Contents of the screen sources and extension descriptors, which are all
+  // loaded in one call when the project is opened. Each is used by the first
+  // load of its file, and later loads go to the server.
+  private final Map<String, ChecksumedLoadFile> preloadedFiles =
+      new HashMap<String, ChecksumedLoadFile>();
+
   //State variables to help determine whether we are ready to load Project
   private boolean externalComponentsLoaded = false;
 
@@ -166,8 +172,75 @@ public final class YaProjectEditor extends ProjectEditor implements ProjectChang
   public void processProject() {
     resetExternalComponents();
     resetProjectWarnings();
-    loadExternalComponents();
-    callLoadProject();
+    preloadFiles(new Command() {
+      @Override
+      public void execute() {
+        loadExternalComponents();
+        callLoadProject();
+      }
+    });
+  }
+
+  /*
+   * Loads the sources of all screens and the extension descriptors of the
+   * project in one call, instead of one call per file, and then executes
+   * afterPreloading.
+   */
+  private void preloadFiles(final Command afterPreloading) {
+    final List<String> fileIds = new ArrayList<String>();
+    for (ProjectNode source : projectRootNode.getAllSourceNodes()) {
+      if (source instanceof YoungAndroidFormNode || source instanceof YoungAndroidBlocksNode) {
+        fileIds.add(source.getFileId());
+      }
+    }
+    for (ProjectNode componentNode : getExternalComponentNodes()) {
+      fileIds.add(componentNode.getFileId());
+    }
+    if (fileIds.isEmpty()) {
+      afterPreloading.execute();
+      return;
+    }
+    Ode.getInstance().getProjectService().load2(projectId, fileIds,
+        new AsyncCallback<List<ChecksumedLoadFile>>() {
+          @Override
+          public void onSuccess(List<ChecksumedLoadFile> result) {
+            for (int i = 0; i < result.size(); i++) {
+              preloadedFiles.put(fileIds.get(i), result.get(i));
+            }
+            afterPreloading.execute();
+          }
+
+          @Override
+          public void onFailure(Throwable caught) {
+            // The files are loaded one at a time instead.
+            OdeLog.wlog("Couldn't preload the files of project " + projectId + ": "
+                + caught.getMessage());
+            afterPreloading.execute();
+          }
+        });
+  }
+
+  /**
+   * Loads a file of the project, using its preloaded content if it hasn't
+   * been used yet. Like the RPC, preloaded content is passed to the callback
+   * later, never before this method returns, because callers such as
+   * loadProject add the remaining editors after starting the load.
+   *
+   * @param fileId  file ID
+   * @param callback  callback that receives the file
+   */
+  void loadFileContent(String fileId, final AsyncCallback<ChecksumedLoadFile> callback) {
+    final ChecksumedLoadFile file = preloadedFiles.remove(fileId);
+    if (file != null) {
+      Scheduler.get().scheduleDeferred(new Scheduler.ScheduledCommand() {
+        @Override
+        public void execute() {
+          callback.onSuccess(file);
+        }
+      });
+    } else {
+      Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+    }
   }
 
   // Note: When we add the blocks editors in the loop below we do not actually
@@ -612,7 +685,7 @@ public final class YaProjectEditor extends ProjectEditor implements ProjectChang
         super.onFailure(caught);
       }
     };
-    Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+    loadFileContent(fileId, callback);
   }
 
   /**
@@ -677,7 +750,7 @@ public final class YaProjectEditor extends ProjectEditor implements ProjectChang
     });
   }
 
-  private void loadExternalComponents() {
+  private List<ProjectNode> getExternalComponentNodes() {
     //Get the list of all ComponentNodes to be Added
     List<ProjectNode> componentNodes = new ArrayList<ProjectNode>();
     YoungAndroidComponentsFolder componentsFolder = ((YoungAndroidProjectNode) project.getRootNode()).getComponentsFolder();
@@ -690,6 +763,11 @@ public final class YaProjectEditor extends ProjectEditor implements ProjectChang
         }
       }
     }
+    return componentNodes;
+  }
+
+  private void loadExternalComponents() {
+    List<ProjectNode> componentNodes = getExternalComponentNodes();
     final int componentCount = componentNodes.size();
     for (ProjectNode componentNode : componentNodes) {
       addComponent(componentNode, new Command() {
@@ -16,6 +16,7 @@ import com.google.appinventor.shared.rpc.RpcResult;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.gwt.http.client.Response;
 import com.google.gwt.i18n.client.DateTimeFormat;
+import com.google.gwt.user.client.Timer;
 
 import java.util.Date;
 
@@ -30,6 +31,12 @@ public class BuildCommand extends ChainableCommand {
   // Whether or not to use the second buildserver
   private boolean secondBuildserver = false;
 
+  // Whether the build is for the companion, which the build server starts before APK builds
+  private boolean forCompanion = false;
+
+  // The number of times a build is sent again when the build server is too busy to queue it
+  private static final int MAX_BUSY_RETRIES = 3;
+
   /**
    * Creates a new build command.
    *
@@ -47,9 +54,23 @@ public class BuildCommand extends ChainableCommand {
    * @param nextCommand the command to execute after the build has finished
    */
   public BuildCommand(String target, boolean secondBuildserver, ChainableCommand nextCommand) {
+    this(target, secondBuildserver, false, nextCommand);
+  }
+
+  /**
+   * Creates a new build command, with additional behavior provided by
+   * another ChainableCommand.
+   *
+   * @param target the build target
+   * @param forCompanion whether the build is for the companion
+   * @param nextCommand the command to execute after the build has finished
+   */
+  public BuildCommand(String target, boolean secondBuildserver, boolean forCompanion,
+      ChainableCommand nextCommand) {
     super(nextCommand);
     this.target = target;
     this.secondBuildserver = secondBuildserver;
+    this.forCompanion = forCompanion;
   }
 
   @Override
@@ -59,11 +80,16 @@ public class BuildCommand extends ChainableCommand {
 
   @Override
   public void execute(final ProjectNode node) {
-    final Ode ode = Ode.getInstance();
-    final MessagesOutput messagesOutput = MessagesOutput.getMessagesOutput();
+    MessagesOutput messagesOutput = MessagesOutput.getMessagesOutput();
     messagesOutput.clear();
     messagesOutput.addMessages(MESSAGES.buildRequestedMessage(node.getName(),
         DateTimeFormat.getMediumDateTimeFormat().format(new Date())));
+    build(node, 0);
+  }
+
+  private void build(final ProjectNode node, final int busyRetries) {
+    final Ode ode = Ode.getInstance();
+    final MessagesOutput messagesOutput = MessagesOutput.getMessagesOutput();
 
     OdeAsyncCallback<RpcResult> callback =
         new OdeAsyncCallback<RpcResult>(
@@ -76,6 +102,11 @@ public class BuildCommand extends ChainableCommand {
         Tracking.trackEvent(Tracking.PROJECT_EVENT, Tracking.PROJECT_SUBACTION_BUILD_YA,
                             node.getName(), getElapsedMillis());
         if (result.succeeded()) {
+          // The build server queued the build and estimated when it will start.
+          int secondsUntilStart = getSeconds(result);
+          if (secondsUntilStart > 0) {
+            messagesOutput.addMessages(MESSAGES.buildQueuedMessage(secondsUntilStart));
+          }
           executeNextCommand(node);
         } else {
           // The result is the HTTP response code from the build server.
@@ -83,9 +114,22 @@ public class BuildCommand extends ChainableCommand {
           switch (responseCode) {
             case Response.SC_SERVICE_UNAVAILABLE:
               // SC_SERVICE_UNAVAILABLE (response code 503), means that the build server is too busy
-              // at this time to accept this build request.
+              // at this time to accept this build request. If it said when to try again, send
+              // the build again then.
               // We use ErrorReporter.reportInfo so that the message has yellow background instead of
               // red background.
+              int retryAfter = getSeconds(result);
+              if (retryAfter > 0 && busyRetries < MAX_BUSY_RETRIES) {
+                ErrorReporter.reportInfo(MESSAGES.buildServerBusyRetryMessage(retryAfter));
+                Timer timer = new Timer() {
+                  @Override
+                  public void run() {
+                    build(node, busyRetries + 1);
+                  }
+                };
+                timer.schedule(retryAfter * 1000);
+                return;
+              }
               ErrorReporter.reportInfo(MESSAGES.buildServerBusyError());
               break;
             case Response.SC_CONFLICT:
@@ -115,6 +159,23 @@ public class BuildCommand extends ChainableCommand {
     };
 
     String nonce = ode.generateNonce();
-    ode.getProjectService().build(node.getProjectId(), nonce, target, secondBuildserver, callback);
+    ode.getProjectService().build(node.getProjectId(), nonce, target, secondBuildserver,
+        forCompanion, callback);
+  }
+
+  /*
+   * Returns the number of seconds the build server gave in the extra field of the result, or 0
+   * if it gave none.
+   */
+  private static int getSeconds(RpcResult result) {
+    String extra = result.getExtra();
+    if (extra == null || extra.isEmpty()) {
+      return 0;
+    }
+    try {
+      return Integer.parseInt(extra);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
   }
 }
@@ -540,6 +540,12 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be modified to upgrade to version 5.
       srcCompVersion = 5;
     }
+    if (srcCompVersion < 6) {
+      // The BluetoothClient.ReadInBackground and DataReceivedBatchSize properties and the
+      // BluetoothClient.DataReceived event were added.
+      // No properties need to be modified to upgrade to version 6.
+      srcCompVersion = 6;
+    }
     return srcCompVersion;
   }
 
@@ -566,6 +572,12 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be modified to upgrade to version 5.
       srcCompVersion = 5;
     }
+    if (srcCompVersion < 6) {
+      // The BluetoothServer.ReadInBackground and DataReceivedBatchSize properties and the
+      // BluetoothServer.DataReceived event were added.
+      // No properties need to be modified to upgrade to version 6.
+      srcCompVersion = 6;
+    }
     return srcCompVersion;
   }
   private static int upgradeSliderProperties(Map<String, JSONValue> componentProperties,
@@ -738,6 +750,11 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be added to upgrade to version 4.
       srcCompVersion = 4;
     }
+    if (srcCompVersion < 5) {
+      // The TimerMode and TimerElapsed properties were added.
+      // No properties need to be modified to upgrade to version 5.
+      srcCompVersion = 5;
+    }
     return srcCompVersion;
   }
 
@@ -1530,6 +1547,11 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be modified to upgrade to version 5.
       srcCompVersion = 5;
     }
+    if (srcCompVersion < 6) {
+      // The UploadProgress and DownloadProgress events were added.
+      // No properties need to be modified to upgrade to version 6.
+      srcCompVersion = 6;
+    }
     return srcCompVersion;
   }
 
@@ -10,6 +10,7 @@ import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import javax.annotation.Nullable;
 
@@ -57,6 +58,30 @@ public interface FileExporter {
     boolean includeScreenShots,
     boolean fatalError, boolean forGallery) throws IOException;
 
+  /**
+   * Writes the project source files as a zip to an output stream. Unlike
+   * {@link #exportProjectSourceZip}, the zip is never held in memory as a whole.
+   *
+   * @param userId the userId
+   * @param projectId the project id belonging to the userId
+   * @param includeProjectHistory indicates whether to include a file
+   *        containing the project's history in the zip
+   * @param includeAndroidKeystore indicates whether to include the user's android.keystore file
+   * @param fatalError set to true to cause missing GCS file to throw exception
+   * @param output the stream to write the zip to; it is not closed
+   * @return the number of zipped files
+   * @throws IllegalArgumentException if download request cannot be fulfilled
+   *         (no source files), in which case nothing is written to output
+   * @throws IOException if files cannot be written
+   */
+  int writeProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    boolean includeYail,
+    boolean includeScreenShots,
+    boolean fatalError, boolean forGallery,
+    OutputStream output) throws IOException;
+
   /**
    * Exports all of the user's projects' source files as a zip of zips.
    *
@@ -17,6 +17,7 @@ import com.google.appinventor.shared.storage.StorageUtil;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.ZipEntry;
@@ -76,6 +77,25 @@ public final class FileExporterImpl implements FileExporter {
     }
   }
 
+  @Override
+  public int writeProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    boolean includeYail,
+    boolean includeScreenShots,
+    boolean fatalError,
+    boolean forGallery,
+    OutputStream output) throws IOException {
+    // Stream project source files as a zip.
+    if (storageIo instanceof ObjectifyStorageIo) {
+      return ((ObjectifyStorageIo)storageIo).writeProjectSourceZip(userId, projectId,
+        includeProjectHistory, includeAndroidKeystore, includeYail, includeScreenShots, forGallery, fatalError,
+        output);
+    } else {
+      throw new IllegalArgumentException("Objectify only");
+    }
+  }
+
   @Override
   public ProjectSourceZip exportAllProjectsSourceZip(String userId,
       String zipName) throws IOException {
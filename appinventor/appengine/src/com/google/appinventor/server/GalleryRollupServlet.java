@@ -0,0 +1,53 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.GalleryStorageIo;
+import com.google.appinventor.server.storage.GalleryStorageIoInstanceHolder;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * GalleryRollupServlet -- Roll up the download and like counts of a
+ * gallery app
+ *
+ * This Servlet is called from the task queue manager (part of App
+ * Engine) at the end of each interval in which an app was downloaded or
+ * liked, so that the counts recorded during the interval reach the app
+ * even if it is not downloaded or liked again. Like BlobUpgradeServlet,
+ * it is restricted to admin users only.
+ *
+ */
+public class GalleryRollupServlet extends OdeServlet {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(GalleryRollupServlet.class.getName());
+  private final GalleryStorageIo galleryStorageIo = GalleryStorageIoInstanceHolder.INSTANCE;
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    // App Engine removes this header from requests that do not come from
+    // the task queue.
+    if (req.getHeader("X-AppEngine-QueueName") == null) {
+      resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    long galleryId;
+    int shards;
+    try {
+      galleryId = Long.parseLong(req.getParameter("galleryId"));
+      shards = Integer.parseInt(req.getParameter("shards"));
+    } catch (NumberFormatException e) {
+      LOG.warning("Bad roll-up request for gallery app " + req.getParameter("galleryId"));
+      return;                   // Don't retry a task that can never succeed
+    }
+    galleryStorageIo.rollUpCounters(galleryId, shards);
+  }
+}
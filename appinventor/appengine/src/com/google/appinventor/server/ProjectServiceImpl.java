@@ -23,6 +23,7 @@ import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
+import com.google.appinventor.shared.rpc.project.FilePatch;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.project.ProjectService;
@@ -31,6 +32,7 @@ import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
 import com.google.appinventor.shared.util.Base64Util;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
@@ -42,7 +44,9 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.Channels;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -365,6 +369,23 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
     return getProjectRpcImpl(userId, projectId).load2(userId, projectId, fileId);
   }
 
+  /**
+   * Loads several text files of a project in one call, such as the sources of
+   * all the screens of a project that is being opened. The files are fetched
+   * from storage together.
+   *
+   * @param projectId  project ID
+   * @param fileIds  project nodes whose sources should be loaded
+   *
+   * @return  checksummed file objects, in the order of fileIds
+   */
+  @Override
+  public List<ChecksumedLoadFile> load2(long projectId, List<String> fileIds)
+      throws ChecksumedFileException {
+    final String userId = userInfoProvider.getUserId();
+    return getProjectRpcImpl(userId, projectId).load2(userId, projectId, fileIds);
+  }
+
   /**
    * Attempt to record the project Id and error message when we detect a corruption
    * while loading a project.
@@ -417,14 +438,27 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
    */
   @Override
   public List<FileDescriptorWithContent> load(List<FileDescriptor> files) {
-    List<FileDescriptorWithContent> result = Lists.newArrayList();
     final String userId = userInfoProvider.getUserId();
+    // Load the files of each project together.
+    Map<Long, List<String>> fileIdsByProject = Maps.newLinkedHashMap();
+    for (FileDescriptor file : files) {
+      List<String> fileIds = fileIdsByProject.get(file.getProjectId());
+      if (fileIds == null) {
+        fileIds = Lists.newArrayList();
+        fileIdsByProject.put(file.getProjectId(), fileIds);
+      }
+      fileIds.add(file.getFileId());
+    }
+    Map<Long, Iterator<String>> contentsByProject = Maps.newHashMap();
+    for (Map.Entry<Long, List<String>> entry : fileIdsByProject.entrySet()) {
+      long projectId = entry.getKey();
+      contentsByProject.put(projectId, getProjectRpcImpl(userId, projectId)
+          .load(userId, projectId, entry.getValue()).iterator());
+    }
+    List<FileDescriptorWithContent> result = Lists.newArrayList();
     for (FileDescriptor file : files) {
-      long projectId = file.getProjectId();
-      String fileId = file.getFileId();
-      result.add(new FileDescriptorWithContent(
-          projectId, fileId,
-          getProjectRpcImpl(userId, projectId).load(userId, projectId, fileId)));
+      result.add(new FileDescriptorWithContent(file.getProjectId(), file.getFileId(),
+          contentsByProject.get(file.getProjectId()).next()));
     }
     return result;
   }
@@ -473,6 +507,29 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
         content);
   }
 
+  /**
+   * Saves the content of the file associated with a node in the project tree
+   * by applying a patch to its stored content.
+   *
+   * @param sessionId session id
+   * @param projectId  project ID
+   * @param fileId  project node whose source should be saved
+   * @param force whether to write an empty blocks workspace
+   * @param patch  patch from the stored content to the content to be saved
+   * @return modification date for project
+   *
+   * @see #save2(String, long, String, boolean, String)
+   */
+  @Override
+  public long savePatch(String sessionId, long projectId, String fileId, boolean force,
+      FilePatch patch) throws InvalidSessionException, BlocksTruncatedException,
+      ChecksumedFileException {
+    validateSessionId(sessionId);
+    final String userId = userInfoProvider.getUserId();
+    return getProjectRpcImpl(userId, projectId).savePatch(userId, projectId, fileId, force,
+        patch);
+  }
+
   /**
    * Saves the contents of multiple files.
    *
@@ -509,15 +566,17 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
    *
    * @param projectId  project ID
    * @param target  build target (optional, implementation dependent)
+   * @param forCompanion whether the APK is to be installed with the Companion
    *
    * @return  results of build
    */
   @Override
-  public RpcResult build(long projectId, String nonce, String target, boolean secondBuildserver) {
+  public RpcResult build(long projectId, String nonce, String target, boolean secondBuildserver,
+      boolean forCompanion) {
     // Dispatch
     final String userId = userInfoProvider.getUserId();
     return getProjectRpcImpl(userId, projectId).build(
-      userInfoProvider.getUser(), projectId, nonce, target, secondBuildserver);
+      userInfoProvider.getUser(), projectId, nonce, target, secondBuildserver, forCompanion);
   }
 
   /**
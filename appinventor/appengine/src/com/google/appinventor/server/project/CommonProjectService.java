@@ -11,6 +11,7 @@ import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.RpcResult;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
+import com.google.appinventor.shared.rpc.project.FilePatch;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.project.TextFile;
@@ -23,6 +24,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -204,6 +206,41 @@ public abstract class CommonProjectService {
     return retval;
   }
 
+  /**
+   * Loads several text files of a project at once. This is faster than
+   * loading each file with {@link #load2(String, long, String)}, because the
+   * files are fetched from storage together.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileIds  project nodes whose sources should be loaded
+   *
+   * @return  ChecksumedLoadFile objects, in the order of fileIds
+   */
+  public List<ChecksumedLoadFile> load2(String userId, long projectId, List<String> fileIds)
+      throws ChecksumedFileException {
+    List<ChecksumedLoadFile> files = new ArrayList<ChecksumedLoadFile>(fileIds.size());
+    for (String content : load(userId, projectId, fileIds)) {
+      ChecksumedLoadFile file = new ChecksumedLoadFile();
+      file.setContent(content);
+      files.add(file);
+    }
+    return files;
+  }
+
+  /**
+   * Loads the contents of several text files of a project at once.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileIds  project nodes whose sources should be loaded
+   *
+   * @return  file contents, in the order of fileIds
+   */
+  public List<String> load(String userId, long projectId, List<String> fileIds) {
+    return storageIo.downloadFiles(userId, projectId, fileIds, StorageUtil.DEFAULT_CHARSET);
+  }
+
   /**
    * Attempt to record the project Id and error message when we detect a corruption
    * while loading a project.
@@ -293,6 +330,27 @@ public abstract class CommonProjectService {
     }
   }
 
+  /**
+   * Saves the content of the file associated with a node in the project tree
+   * by applying a patch to its stored content. The patch is only applied if
+   * the stored content is the content it was made from.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileId  project node whose source should be saved
+   * @param force  whether to write an empty blocks workspace
+   * @param patch  patch from the stored content to the content to be saved
+   * @return modification date for project
+   *
+   * @see com.google.appinventor.shared.rpc.project.ProjectService#savePatch(String, long, String, boolean, FilePatch)
+   */
+  public long savePatch(String userId, long projectId, String fileId, boolean force,
+      FilePatch patch) throws BlocksTruncatedException, ChecksumedFileException {
+    String content = patch.apply(storageIo.downloadFile(userId, projectId, fileId,
+        StorageUtil.DEFAULT_CHARSET));
+    return save2(userId, projectId, fileId, force, content);
+  }
+
   /**
    * Saves a screenshot of a current blocks editor. This is called from the client side
    * whenever the user leaves a blocks editor. The data is shipped to us in base64 encoding
@@ -323,10 +381,12 @@ public abstract class CommonProjectService {
    * @param nonce -- random string used to find finished APK
    * @param target  build target (optional, implementation dependent)
    * @param secondBuildserver use second buildserver
+   * @param forCompanion whether the APK is to be installed with the Companion
    *
    * @return  build results
    */
-  public abstract RpcResult build(User user, long projectId, String nonce, String target, boolean secondBuildserver);
+  public abstract RpcResult build(User user, long projectId, String nonce, String target,
+      boolean secondBuildserver, boolean forCompanion);
 
   /**
    * Gets the result of a build command for the project.
@@ -122,6 +122,22 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   // host[:port] to tell build server app host url
   private static final Flag<String> appengineHost =
       Flag.createFlag("appengine.host", "");
+  // Whether to stream project sources to the build server instead of building the whole
+  // zip in memory first. Streaming needs the native URL stream handler
+  // (<url-stream-handler>native</url-stream-handler> in appengine-web.xml), because
+  // URLFetch buffers the whole request anyway.
+  private static final Flag<Boolean> streamToBuildServer =
+      Flag.createFlag("build.server.stream", false);
+  // Size of the chunks in which project sources are streamed to the build server
+  private static final int BUILD_STREAM_CHUNK_SIZE = 64 * 1024;
+
+  // The build server queue lanes. Companion builds are started before APK builds.
+  private static final String COMPANION_LANE = "companion";
+  private static final String RELEASE_LANE = "release";
+
+  // Headers sent by the build server when it queues a build or is too busy to queue it.
+  private static final String ESTIMATED_START_TIME_HEADER = "X-Estimated-Start-Time";
+  private static final String RETRY_AFTER_HEADER = "Retry-After";
   private static final boolean DEBUG = Flag.createFlag("appinventor.debugging", false).get();
 
   public YoungAndroidProjectService(StorageIo storageIo) {
@@ -651,12 +667,14 @@ public final class YoungAndroidProjectService extends CommonProjectService {
    * @param projectId  project id to be built
    * @param nonce random string used to find resulting APK from unauth context
    * @param target  build target (optional, implementation dependent)
+   * @param forCompanion  whether the build is for the companion, which puts it
+   *                      in the build server's companion lane
    *
    * @return an RpcResult reflecting the call to the Build Server
    */
   @Override
   public RpcResult build(User user, long projectId, String nonce, String target,
-    boolean secondBuildserver) {
+    boolean secondBuildserver, boolean forCompanion) {
     String userId = user.getUserId();
     String projectName = storageIo.getProjectName(userId, projectId);
     String outputFileDir = BUILD_FOLDER + '/' + target;
@@ -673,44 +691,58 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     }
     URL buildServerUrl = null;
     ProjectSourceZip zipFile = null;
+    String secondsUntilStart = null;
     try {
       buildServerUrl = new URL(getBuildServerUrlStr(
           user.getUserEmail(),
           userId,
           projectId,
           secondBuildserver,
+          forCompanion,
           outputFileDir));
       HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
       connection.setDoOutput(true);
       connection.setRequestMethod("POST");
 
-      BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
       FileExporter fileExporter = new FileExporterImpl();
-      zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
-          /* includeAndroidKeystore */ true,
-        projectName + ".aia", true, false, true, false);
-      // The code below tests the size of the compressed project before
-      // we send it off to the buildserver. When using URLFetch we know that
-      // this size is limited to 10MB based on Google's documentation.
-      // It isn't clear if this is also enforced in the Java 8 environment
-      // when not using URLFetch. However we are being conservative for now.
-      // Keep in mind that large projects can lead to large APK files which
-      // may not be loadable into many memory restricted devices, so we
-      // may not want to encourage large projects...
-      if (zipFile.getContent().length > 10*1024*1024) { // 10 Megabyte size limit...
-        int zipFileLength = zipFile.getContent().length;
-        String lengthMbs = format((zipFileLength * 1.0)/(1024*1024));
-        RuntimeException exception = new RuntimeException(
-            "Sorry, can't package projects larger than 10Mb."
-            + " Yours is " + lengthMbs + "MB.");
-        CrashReport.createAndLogError(LOG, null,
-            buildErrorMsg("RuntimeException", buildServerUrl, userId, projectId),
-            exception);
-        return new RpcResult(false, "", exception.getMessage());
+      if (streamToBuildServer.get()) {
+        // Write the zip straight to the build server, one file at a time. The size
+        // limit below does not apply because nothing goes through URLFetch.
+        connection.setChunkedStreamingMode(BUILD_STREAM_CHUNK_SIZE);
+        BufferedOutputStream bufferedOutputStream =
+            new BufferedOutputStream(connection.getOutputStream(), BUILD_STREAM_CHUNK_SIZE);
+        fileExporter.writeProjectSourceZip(userId, projectId, false,
+            /* includeAndroidKeystore */ true, true, false, true, false, bufferedOutputStream);
+        bufferedOutputStream.flush();
+        bufferedOutputStream.close();
+      } else {
+        BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
+        zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
+            /* includeAndroidKeystore */ true,
+          projectName + ".aia", true, false, true, false);
+        // The code below tests the size of the compressed project before
+        // we send it off to the buildserver. When using URLFetch we know that
+        // this size is limited to 10MB based on Google's documentation.
+        // It isn't clear if this is also enforced in the Java 8 environment
+        // when not using URLFetch. However we are being conservative for now.
+        // Keep in mind that large projects can lead to large APK files which
+        // may not be loadable into many memory restricted devices, so we
+        // may not want to encourage large projects...
+        if (zipFile.getContent().length > 10*1024*1024) { // 10 Megabyte size limit...
+          int zipFileLength = zipFile.getContent().length;
+          String lengthMbs = format((zipFileLength * 1.0)/(1024*1024));
+          RuntimeException exception = new RuntimeException(
+              "Sorry, can't package projects larger than 10Mb."
+              + " Yours is " + lengthMbs + "MB.");
+          CrashReport.createAndLogError(LOG, null,
+              buildErrorMsg("RuntimeException", buildServerUrl, userId, projectId),
+              exception);
+          return new RpcResult(false, "", exception.getMessage());
+        }
+        bufferedOutputStream.write(zipFile.getContent());
+        bufferedOutputStream.flush();
+        bufferedOutputStream.close();
       }
-      bufferedOutputStream.write(zipFile.getContent());
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
 
       int responseCode = 0;
       responseCode = connection.getResponseCode();
@@ -745,7 +777,11 @@ public final class YoungAndroidProjectService extends CommonProjectService {
           LOG.severe(error);
         }
 
-        return new RpcResult(responseCode, "", StringUtils.escape(error));
+        // A busy build server says how many seconds to wait before trying again.
+        String retryAfter = responseCode == HttpURLConnection.HTTP_UNAVAILABLE
+            ? getSeconds(connection.getHeaderField(RETRY_AFTER_HEADER))
+            : null;
+        return new RpcResult(responseCode, "", StringUtils.escape(error), retryAfter);
       } else {
         // We get here if all went well and we sent the job to the
         // buildserver. Below we read the response, but throw it away.
@@ -756,6 +792,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
         // have a negative effect on some buildserver infrastructures,
         // particularly those based on docker swarm (as of 2018).
         readContent(connection.getInputStream());
+        secondsUntilStart = getSecondsUntil(connection.getHeaderField(ESTIMATED_START_TIME_HEADER));
       }
     } catch (MalformedURLException e) {
       CrashReport.createAndLogError(LOG, null,
@@ -798,7 +835,38 @@ public final class YoungAndroidProjectService extends CommonProjectService {
           buildErrorMsg("RuntimeException", buildServerUrl, userId, projectId), wrappedException);
       return new RpcResult(false, "", wrappedException.getMessage());
     }
-    return new RpcResult(true, "Building " + projectName, "");
+    return new RpcResult(RpcResult.SUCCESS, "Building " + projectName, "", secondsUntilStart);
+  }
+
+  /*
+   * Returns the number of seconds in a Retry-After header, or null if the header is missing or
+   * is an HTTP date, which the build server does not send.
+   */
+  private static String getSeconds(String header) {
+    if (header == null) {
+      return null;
+    }
+    try {
+      return Integer.toString(Math.max(0, Integer.parseInt(header.trim())));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /*
+   * Returns the number of seconds from now until the time in an X-Estimated-Start-Time header,
+   * given in milliseconds since the epoch, or null if the header is missing or malformed.
+   */
+  private static String getSecondsUntil(String header) {
+    if (header == null) {
+      return null;
+    }
+    try {
+      long millis = Long.parseLong(header.trim()) - System.currentTimeMillis();
+      return Long.toString(Math.max(0, millis / 1000));
+    } catch (NumberFormatException e) {
+      return null;
+    }
   }
 
   String buildErrorMsg(String exceptionName, URL buildURL, String userId, long projectId) {
@@ -812,11 +880,12 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   // a little more complicated when we want to get the URL from an App Engine config file or
   // command line argument.
   private String getBuildServerUrlStr(String userName, String userId,
-    long projectId, boolean secondBuildserver, String fileName)
+    long projectId, boolean secondBuildserver, boolean forCompanion, String fileName)
       throws UnsupportedEncodingException, EncryptionException {
     return "http://" + (secondBuildserver ? buildServerHost2.get() : buildServerHost.get()) +
       "/buildserver/build-all-from-zip-async"
       + "?uname=" + URLEncoder.encode(userName, "UTF-8")
+      + "&lane=" + (forCompanion ? COMPANION_LANE : RELEASE_LANE)
       + (sendGitVersion.get()
         ? "&gitBuildVersion="
         + URLEncoder.encode(GitBuildId.getVersion(), "UTF-8")
@@ -0,0 +1,28 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.annotation.Unindexed;
+
+/**
+ * One shard of the download and like counters of a gallery app. Downloads
+ * and likes are counted in a shard picked at random, so that many users
+ * downloading or liking an app at once don't all update the same entity.
+ * The shards are root entities, so each is in its own entity group.
+ *
+ * The shards are never reset: an unlike is counted as a like of -1, and the
+ * counts of all the shards are added up into the GalleryAppData of the app
+ * from time to time.
+ *
+ */
+@Unindexed
+public class GalleryAppCounterShardData {
+  @Id String id;      // gallery id + ":" + shard number
+  int numDownloads;
+  int numLikes;       // likes minus unlikes
+}
@@ -9,6 +9,7 @@ package com.google.appinventor.server.storage;
 import javax.persistence.Id;
 
 import com.googlecode.objectify.annotation.Indexed;
+import com.googlecode.objectify.annotation.Unindexed;
 
 /**
  * this class modelled after those in StoredData.java
@@ -32,6 +33,14 @@ public class GalleryAppData {
   @Indexed public int numDownloads;
   @Indexed public int unreadLikes;
   @Indexed public int unreadDownloads;
+  // Sums of the counts of the GalleryAppCounterShardData of this app that
+  // have been added to numDownloads and numLikes.
+  @Unindexed int rolledUpDownloads;
+  @Unindexed int rolledUpLikes;
+  // The number of counter shards this app's counts have been rolled up
+  // from. The shards are summed up to the largest number ever used, so
+  // lowering gallery.counter.shards does not lose the counts of the others.
+  @Unindexed int counterShards;
   long projectId;
   int status;
   long lastEmailNotificationTimeStamp;
@@ -150,6 +150,15 @@ public interface GalleryStorageIo {
    */
   void incrementDownloads(long galleryId);
 
+  /**
+   * adds the downloads and likes recorded in the counter shards of an app
+   * that have not been added to its counts yet
+   * @param galleryId the id of gallery app
+   * @param shards the number of counter shards the app's counts have been
+   *     recorded in, which may be more than are used now
+   */
+  void rollUpCounters(long galleryId, int shards);
+
   /**
    * deletes an app
    * @param galleryId the id of gallery app to be deleted
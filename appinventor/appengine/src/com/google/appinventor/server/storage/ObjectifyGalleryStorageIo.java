@@ -9,10 +9,19 @@ package com.google.appinventor.server.storage;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.GalleryEmail;
 import com.google.appinventor.server.GallerySearchIndex;
@@ -32,6 +41,7 @@ import com.googlecode.objectify.Key;
 import com.googlecode.objectify.NotFoundException;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Query;
 
 /**
  * Implements the GalleryStorageIo interface using Objectify as the underlying data
@@ -53,6 +63,30 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   private static final int MAX_JOB_RETRIES = 10;
   private static final long TWENTYFOURHOURS = 24*3600*1000; // 24 hours in milliseconds
 
+  // Number of GalleryAppCounterShardData of each gallery app. More shards let
+  // more users download or like an app at once.
+  @VisibleForTesting
+  static final Flag<Integer> counterShards =
+      Flag.createFlag("gallery.counter.shards", 20);
+
+  // Seconds between roll-ups of the counter shards of a gallery app into its
+  // GalleryAppData. The lists of most downloaded and most liked apps, which
+  // are sorted by the rolled up counts, are cached for as long.
+  private static final int COUNTER_ROLLUP_SECONDS = 60;
+
+  // Seconds after the end of a roll-up interval that the task rolling up the
+  // counts recorded during the interval runs, so that the transactions that
+  // recorded them have committed.
+  private static final int COUNTER_ROLLUP_DELAY_SECONDS = 10;
+
+  // Memcache key prefixes
+  private static final String ROLLUP_CACHE_KEY = "galleryCounterRollup:";
+  private static final String MOST_DOWNLOADED_CACHE_KEY = "galleryMostDownloaded:";
+  private static final String MOST_LIKED_CACHE_KEY = "galleryMostLiked:";
+
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+  private final Random random = new Random();
+
   // Use this class to define the work of a job that can be retried. The
   // "datastore" argument to run() is the Objectify object for this job
   // (created with ObjectifyService.beginTransaction()). Note that all operations
@@ -82,6 +116,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     ObjectifyService.register(GalleryAppData.class);
     ObjectifyService.register(GalleryCommentData.class);
     ObjectifyService.register(GalleryAppLikeData.class);
+    ObjectifyService.register(GalleryAppCounterShardData.class);
     ObjectifyService.register(GalleryAppFeatureData.class);
     ObjectifyService.register(GalleryAppTutorialData.class);
     ObjectifyService.register(GalleryAppAttributionData.class);
@@ -197,19 +232,14 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public GalleryAppListResult getMostDownloadedApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed.
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-    int totalCount = datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    return getCachedAppList(datastore, MOST_DOWNLOADED_CACHE_KEY,
+        datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true),
+        start, count);
   }
 
   /**
@@ -221,29 +251,57 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public GalleryAppListResult getMostLikedApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData : datastore.query(GalleryAppData.class)
-           .filter("active", true)
-           .order("-numLikes")
-           .order("-numDownloads")
-           .offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
+    return getCachedAppList(datastore, MOST_LIKED_CACHE_KEY,
+        datastore.query(GalleryAppData.class)
+            .filter("active", true)
+            .order("-numLikes")
+            .order("-numDownloads"),
+        start, count);
+  }
+
+  /*
+   * Returns the apps at positions start to start + count of a query for
+   * active apps, and the number of apps the query finds. The ids of the apps
+   * and the number of apps are cached for COUNTER_ROLLUP_SECONDS, because
+   * counting the apps is expensive and the counts the apps are sorted by
+   * only change that often.
+   */
+  @SuppressWarnings("unchecked")
+  private GalleryAppListResult getCachedAppList(Objectify datastore, String cacheKey,
+      Query<GalleryAppData> query, int start, int count) {
+    String idsCacheKey = cacheKey + start + ":" + count;
+    String countCacheKey = cacheKey + "count";
+    ArrayList<Long> ids = (ArrayList<Long>) memcache.get(idsCacheKey);
+    if (ids == null) {
+      ids = new ArrayList<Long>();
+      for (Key<GalleryAppData> key : query.clone().offset(start).limit(count).fetchKeys()) {
+        ids.add(key.getId());
+      }
+      memcache.put(idsCacheKey, ids, Expiration.byDeltaSeconds(COUNTER_ROLLUP_SECONDS));
+    }
+    Integer totalCount = (Integer) memcache.get(countCacheKey);
+    if (totalCount == null) {
+      totalCount = query.count();
+      memcache.put(countCacheKey, totalCount, Expiration.byDeltaSeconds(COUNTER_ROLLUP_SECONDS));
     }
 
-    // The line below is a PROBLEM. It is *very expensive*
-    // We either need to keep separate track of the number of apps in the
-    // Gallery, or we need to cache this value somewhere so we are
-    // not computing it all the time!
-    int totalCount = datastore.query(GalleryAppData.class).filter("active", true).count();
+    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    Map<Long, GalleryAppData> appData = datastore.get(GalleryAppData.class, ids);
+    for (Long id : ids) {
+      GalleryAppData data = appData.get(id);
+      // Skip apps that were removed since the list was cached.
+      if (data != null && data.active) {
+        GalleryApp gApp = new GalleryApp();
+        makeGalleryApp(data, gApp);
+        apps.add(gApp);
+      }
+    }
     return new GalleryAppListResult(apps, totalCount);
-
   }
 
   /**
@@ -402,22 +460,134 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public void incrementDownloads(final long galleryId) {
+    incrementCounters(galleryId, 1, 0);
+  }
+
+  /*
+   * Adds to the download and like counts of a gallery app in one of its
+   * counter shards, picked at random. The first increment in each
+   * COUNTER_ROLLUP_SECONDS rolls up the counts of the app, and queues a task
+   * that rolls up the increments made during the rest of the interval once it
+   * is over, so that the counts of an app that stops being downloaded or
+   * liked are not left in the shards.
+   */
+  private void incrementCounters(long galleryId, final int downloads, final int likes) {
+    int shards = counterShards.get();
+    final String shardId = counterShardId(galleryId, random.nextInt(shards));
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          GalleryAppCounterShardData shard =
+              datastore.find(GalleryAppCounterShardData.class, shardId);
+          if (shard == null) {
+            shard = new GalleryAppCounterShardData();
+            shard.id = shardId;
+          }
+          shard.numDownloads = shard.numDownloads + downloads;
+          shard.numLikes = shard.numLikes + likes;
+          datastore.put(shard);
+        }
+      });
+    } catch (ObjectifyException e) {
+       throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo", e);
+    }
+    // Only the first request to add this key in each interval succeeds.
+    if (memcache.put(ROLLUP_CACHE_KEY + galleryId, Boolean.TRUE,
+        Expiration.byDeltaSeconds(COUNTER_ROLLUP_SECONDS), SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+      rollUpCounters(galleryId, shards);
+      Queue queue = QueueFactory.getQueue("galleryrollup");
+      queue.add(TaskOptions.Builder.withUrl("/galleryrollup")
+          .param("galleryId", Long.toString(galleryId))
+          .param("shards", Integer.toString(shards))
+          .countdownMillis((COUNTER_ROLLUP_SECONDS + COUNTER_ROLLUP_DELAY_SECONDS) * 1000L));
+    }
+  }
 
+  /**
+   * Adds the counts of the counter shards of a gallery app that haven't been
+   * added yet to the counts in its GalleryAppData.
+   * @param galleryId the id of gallery app
+   * @param shards the number of counter shards the app's counts have been
+   *     recorded in
+   */
+  @Override
+  public void rollUpCounters(final long galleryId, int shards) {
+    Objectify datastore = ObjectifyService.begin();
+    GalleryAppData appData = datastore.find(galleryKey(galleryId));
+    if (appData == null) {
+      return;
+    }
+    // Sum every shard that has ever been written, even if there are fewer
+    // shards now, so that the sums never go down.
+    final int shardCount = Math.max(Math.max(shards, counterShards.get()), appData.counterShards);
+    final int[] sums = sumCounterShards(galleryId, shardCount);
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
           GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
           if (galleryAppData != null) {
-            galleryAppData.numDownloads = galleryAppData.numDownloads + 1;
-            galleryAppData.unreadDownloads = galleryAppData.unreadDownloads + 1;
-            datastore.put(galleryAppData);
+            int downloads = sums[0] - galleryAppData.rolledUpDownloads;
+            int likes = sums[1] - galleryAppData.rolledUpLikes;
+            if (downloads != 0 || likes != 0 || galleryAppData.counterShards < shardCount) {
+              galleryAppData.numDownloads = galleryAppData.numDownloads + downloads;
+              galleryAppData.unreadDownloads =
+                  Math.max(0, galleryAppData.unreadDownloads + downloads);
+              galleryAppData.numLikes = galleryAppData.numLikes + likes;
+              galleryAppData.unreadLikes = Math.max(0, galleryAppData.unreadLikes + likes);
+              galleryAppData.rolledUpDownloads = sums[0];
+              galleryAppData.rolledUpLikes = sums[1];
+              galleryAppData.counterShards =
+                  Math.max(galleryAppData.counterShards, shardCount);
+              datastore.put(galleryAppData);
+            }
           }
         }
       });
     } catch (ObjectifyException e) {
-       throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo", e);
+       throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.rollUpCounters",
+           e);
+    }
+  }
+
+  /*
+   * Returns the sums of the download counts and of the like counts of every
+   * counter shard of a gallery app that is used now or has been rolled up,
+   * and the number of shards summed.
+   */
+  private int[] sumCounterShards(long galleryId) {
+    int shardCount = counterShards.get();
+    GalleryAppData appData = ObjectifyService.begin().find(galleryKey(galleryId));
+    if (appData != null) {
+      shardCount = Math.max(shardCount, appData.counterShards);
     }
+    int[] sums = sumCounterShards(galleryId, shardCount);
+    return new int[] { sums[0], sums[1], shardCount };
+  }
+
+  /*
+   * Returns the sums of the download counts and of the like counts of the
+   * first shardCount counter shards of a gallery app. The shards are in
+   * different entity groups, so they are read outside of any transaction.
+   */
+  private int[] sumCounterShards(long galleryId, int shardCount) {
+    List<String> shardIds = new ArrayList<String>();
+    for (int i = 0; i < shardCount; i++) {
+      shardIds.add(counterShardId(galleryId, i));
+    }
+    int[] sums = new int[2];
+    Objectify datastore = ObjectifyService.begin();
+    for (GalleryAppCounterShardData shard :
+             datastore.get(GalleryAppCounterShardData.class, shardIds).values()) {
+      sums[0] += shard.numDownloads;
+      sums[1] += shard.numLikes;
+    }
+    return sums;
+  }
+
+  private static String counterShardId(long galleryId, int shard) {
+    return galleryId + ":" + shard;
   }
 
   /**
@@ -605,6 +775,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public int increaseLikes(final long galleryId,final String userId) {
     final Result<Integer> numLikes = new Result<Integer>();
+    final Result<Boolean> liked = new Result<Boolean>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
@@ -629,17 +800,17 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
 
             // Retrieve the current number of likes
             numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
-            // Increase app's like/unread like count
-            galleryAppData.numLikes = galleryAppData.numLikes + 1;
-            galleryAppData.unreadLikes = galleryAppData.unreadLikes + 1;
-            datastore.put(galleryAppData);
+            liked.t = true;
           }
         }
       });
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.increaseLike", e);
     }
+    // Increase app's like/unread like count
+    if (liked.t != null) {
+      incrementCounters(galleryId, 0, 1);
+    }
     return numLikes.t;
   }
 
@@ -653,6 +824,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public int decreaseLikes(final long galleryId, final String userId) {
     final Result<Integer> numLikes = new Result<Integer>();
+    final Result<Boolean> unliked = new Result<Boolean>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
@@ -663,22 +835,13 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
             for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
               if(likeData.userId.equals(userId)){
                 datastore.delete(likeData);
+                unliked.t = true;
                 // break;
                 // We don't break because there might be more then one likeData object for this
                 // person
               }
             }
             numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
-            // Increase app's like/unread like count
-            if(galleryAppData.numLikes > 0){
-              galleryAppData.numLikes = galleryAppData.numLikes - 1;
-            }
-
-            if (galleryAppData.unreadLikes > 0) {
-              galleryAppData.unreadLikes = galleryAppData.unreadLikes - 1;
-              datastore.put(galleryAppData);
-            }
           }
         }
       });
@@ -686,6 +849,10 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       throw CrashReport.createAndLogError(LOG, null,
           "error in galleryStorageIo.decreaseLike", e);
     }
+    // Decrease app's like/unread like count
+    if (unliked.t != null) {
+      incrementCounters(galleryId, 0, -1);
+    }
     return numLikes.t;
   }
 
@@ -698,6 +865,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   public int getNumLikes(final long galleryId) {
     final Result<Integer> num = new Result<Integer>();
+    final int[] sums = sumCounterShards(galleryId);
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
@@ -705,7 +873,8 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           Key<GalleryAppData> galleryKey = galleryKey(galleryId);
           //num.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
           GalleryAppData galleryAppData = datastore.find(galleryKey);
-          num.t = galleryAppData.numLikes;
+          // Include the likes that haven't been rolled up yet.
+          num.t = galleryAppData.numLikes + sums[1] - galleryAppData.rolledUpLikes;
         }
       });
     } catch (ObjectifyException e) {
@@ -755,6 +924,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public void salvageGalleryApp(final long galleryId) {
+    final int[] sums = sumCounterShards(galleryId);
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
@@ -781,6 +951,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           num = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
           GalleryAppData galleryAppData = datastore.find(galleryKey);
           galleryAppData.numLikes = num;
+          // The likes counted in the shards are included in num.
+          galleryAppData.rolledUpLikes = sums[1];
+          galleryAppData.counterShards = Math.max(galleryAppData.counterShards, sums[2]);
           datastore.put(galleryAppData);
           LOG.info("salvage on gallerId:" + galleryId + ", total likes:" + galleryAppData.numLikes);
         }
@@ -1311,7 +1484,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     galleryApp.setMoreInfo(appData.moreInfo);
     galleryApp.setCredit(appData.credit);
 
-    galleryApp.setLikes(getNumLikes(appData.id));
+    // Like the downloads, use the likes that have been rolled up, which saves
+    // reading the counter shards of every app in a list.
+    galleryApp.setLikes(appData.numLikes);
   }
 
   private static String collectGalleryAppErrorInfo(final String galleryAppId) {
@@ -6,6 +6,7 @@
 
 package com.google.appinventor.server.storage;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.appidentity.AppIdentityService;
 import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
 import com.google.appengine.api.appidentity.AppIdentityServiceFailureException;
@@ -87,9 +88,14 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -121,6 +127,12 @@ public class ObjectifyStorageIo implements  StorageIo {
   // TODO(user): need a way to modify this. Also, what is really a good value?
   private static final int MAX_JOB_RETRIES = 10;
 
+  // Size of the chunks in which files are read from GCS when exporting a project.
+  private static final int GCS_READ_BUFFER_SIZE = 1024 * 1024;
+
+  // Largest number of threads that read the files of a project from GCS at once.
+  private static final int MAX_DOWNLOAD_THREADS = 8;
+
   private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
 
   private final GcsService gcsService;
@@ -1782,6 +1794,116 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  @Override
+  public List<String> downloadFiles(final String userId, final long projectId,
+      final List<String> fileNames, final String encoding) {
+    List<byte[]> contents = downloadRawFiles(userId, projectId, fileNames);
+    List<String> result = new ArrayList<String>(contents.size());
+    try {
+      for (byte[] content : contents) {
+        result.add(new String(content, encoding));
+      }
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, "
+          + collectProjectErrorInfo(userId, projectId, fileNames.get(result.size())), e);
+    }
+    return result;
+  }
+
+  /*
+   * Downloads the contents of several files of a project. The FileData of all
+   * the files are fetched in one datastore call, and the files stored in GCS
+   * are read in parallel, so this takes about as long as downloading the
+   * largest of the files.
+   */
+  private List<byte[]> downloadRawFiles(final String userId, final long projectId,
+      final List<String> fileNames) {
+    validateGCS();
+    final Map<String, FileData> fileData = new HashMap<String, FileData>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          fileData.clear();
+          Map<String, Key<FileData>> fileKeys = new HashMap<String, Key<FileData>>();
+          for (String fileName : fileNames) {
+            Key<FileData> fileKey = projectFileKey(projectKey(projectId), fileName);
+            fileKeys.put(fileKey.getString(), fileKey);
+          }
+          Map<String, Object> cached = memcache.getAll(fileKeys.keySet());
+          List<Key<FileData>> uncachedKeys = new ArrayList<Key<FileData>>();
+          for (Map.Entry<String, Key<FileData>> entry : fileKeys.entrySet()) {
+            FileData cachedFileData = (FileData) cached.get(entry.getKey());
+            if (cachedFileData != null) {
+              fileData.put(cachedFileData.fileName, cachedFileData);
+            } else {
+              uncachedKeys.add(entry.getValue());
+            }
+          }
+          for (FileData fd : datastore.get(uncachedKeys).values()) {
+            fileData.put(fd.fileName, fd);
+          }
+        }
+      }, false); // Transaction not needed
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+
+    // read the blob/GCS Files outside of the job
+    final byte[][] contents = new byte[fileNames.size()][];
+    List<Integer> gcsFiles = new ArrayList<Integer>();
+    for (int i = 0; i < fileNames.size(); i++) {
+      FileData fd = fileData.get(fileNames.get(i));
+      if (fd != null && isTrue(fd.isGCS)) {
+        gcsFiles.add(i);
+      } else {
+        contents[i] = readFileData(userId, projectId, fileNames.get(i), fd);
+      }
+    }
+    if (gcsFiles.size() == 1) {
+      int i = gcsFiles.get(0);
+      contents[i] = readFileData(userId, projectId, fileNames.get(i), fileData.get(fileNames.get(i)));
+    } else if (gcsFiles.size() > 1) {
+      ExecutorService executor = Executors.newFixedThreadPool(
+          Math.min(gcsFiles.size(), MAX_DOWNLOAD_THREADS),
+          ThreadManager.currentRequestThreadFactory());
+      try {
+        List<Future<?>> reads = new ArrayList<Future<?>>();
+        for (final int i : gcsFiles) {
+          final String fileName = fileNames.get(i);
+          final FileData fd = fileData.get(fileName);
+          reads.add(executor.submit(new Runnable() {
+            @Override
+            public void run() {
+              contents[i] = readFileData(userId, projectId, fileName, fd);
+            }
+          }));
+        }
+        for (Future<?> read : reads) {
+          read.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw CrashReport.createAndLogError(LOG, null,
+            collectUserProjectErrorInfo(userId, projectId), e);
+      } catch (ExecutionException e) {
+        // readFileData has already logged the error.
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw CrashReport.createAndLogError(LOG, null,
+            collectUserProjectErrorInfo(userId, projectId), cause);
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+    return Arrays.asList(contents);
+  }
+
   @Override
   public void recordCorruption(String userId, long projectId, String fileId, String message) {
     Objectify datastore = ObjectifyService.begin();
@@ -1807,7 +1929,6 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public byte[] downloadRawFile(final String userId, final long projectId, final String fileName) {
     validateGCS();
-    final Result<byte[]> result = new Result<byte[]>();
     final Result<FileData> fd = new Result<FileData>();
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1825,7 +1946,16 @@ public class ObjectifyStorageIo implements  StorageIo {
           collectProjectErrorInfo(userId, projectId, fileName), e);
     }
     // read the blob/GCS File outside of the job
-    FileData fileData = fd.t;
+    return readFileData(userId, projectId, fileName, fd.t);
+  }
+
+  /*
+   * Returns the content of a file, reading it from GCS or the blobstore if
+   * it isn't stored in its FileData. This must be called outside of any job.
+   */
+  private byte[] readFileData(String userId, long projectId, String fileName,
+      FileData fileData) {
+    final Result<byte[]> result = new Result<byte[]>();
     if (fileData != null) {
       if (fileData.userId != null && !fileData.userId.equals("")) {
         if (!fileData.userId.equals(userId)) {
@@ -1985,6 +2115,49 @@ public class ObjectifyStorageIo implements  StorageIo {
     final boolean includeScreenShots,
     final boolean forGallery,
     final boolean fatalError) throws IOException {
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    Result<String> projectName = new Result<String>();
+    int fileCount = writeProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, includeScreenShots, forGallery, fatalError,
+        projectName, zipFile);
+
+    if (zipName == null) {
+      zipName = projectName.t + ".aia";
+    }
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount);
+    projectSourceZip.setMetadata(projectName.t);
+    return projectSourceZip;
+  }
+
+  @Override
+  public int writeProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    boolean includeYail,
+    boolean includeScreenShots,
+    boolean forGallery,
+    boolean fatalError,
+    OutputStream output) throws IOException {
+    return writeProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, includeScreenShots, forGallery, fatalError,
+        new Result<String>(), output);
+  }
+
+  /*
+   * Writes the project files as a zip archive to output and returns the number of files
+   * written. Only the content of one file is held in memory at a time; files stored in GCS
+   * are copied to output as they are read. The name of the project is stored in projectName.
+   */
+  private int writeProjectSourceZip(final String userId, final long projectId,
+    final boolean includeProjectHistory,
+    final boolean includeAndroidKeystore,
+    final boolean includeYail,
+    final boolean includeScreenShots,
+    final boolean forGallery,
+    final boolean fatalError,
+    final Result<String> projectName,
+    OutputStream output) throws IOException {
     validateGCS();
     final Result<Integer> fileCount = new Result<Integer>();
     fileCount.t = 0;
@@ -1995,12 +2168,10 @@ public class ObjectifyStorageIo implements  StorageIo {
     // to avoid problems reading blobs in a transaction with the wrong
     // entity group.
     final List<FileData> fileData = new ArrayList<FileData>();
-    final Result<String> projectName = new Result<String>();
     projectName.t = null;
     String fileName = null;
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    final ZipOutputStream out = new ZipOutputStream(zipFile);
+    final ZipOutputStream out = new ZipOutputStream(output);
     out.setComment("Built with MIT App Inventor");
 
     try {
@@ -2055,82 +2226,28 @@ public class ObjectifyStorageIo implements  StorageIo {
       // blobs in the job.
       for (FileData fd : fileData) {
         fileName = fd.fileName;
-        byte[] data = null;
+        out.putNextEntry(new ZipEntry(fileName));
         if (fd.isBlob) {
           try {
             if (fd.blobKey == null) {
               throw new BlobReadException("blobKey is null");
             }
-            data = getBlobstoreBytes(fd.blobKey);
+            byte[] data = getBlobstoreBytes(fd.blobKey);
+            out.write(data, 0, data.length);
           } catch (BlobReadException e) {
             throw CrashReport.createAndLogError(LOG, null,
                 collectProjectErrorInfo(userId, projectId, fileName), e);
           }
         } else if (isTrue(fd.isGCS)) {
           try {
-            int count;
-            boolean npfHappened = false;
-            boolean recovered = false;
-            for (count = 0; count < 5; count++) {
-              GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
-              int bytesRead = 0;
-              int fileSize = 0;
-              ByteBuffer resultBuffer;
-              try {
-                fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
-                resultBuffer = ByteBuffer.allocate(fileSize);
-                GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
-                try {
-                  while (bytesRead < fileSize) {
-                    bytesRead += readChannel.read(resultBuffer);
-                    if (bytesRead < fileSize) {
-                      if (DEBUG) {
-                        LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
-                      }
-                    }
-                  }
-                  recovered = true;
-                  data = resultBuffer.array();
-                  break;        // We got the data, break out of the loop!
-                } finally {
-                  readChannel.close();
-                }
-              } catch (NullPointerException e) {
-                // This happens if the object in GCS is non-existent, which would happen
-                // when people uploaded a zero length object. As of this change, we now
-                // store zero length objects into GCS, but there are plenty of older objects
-                // that are missing in GCS.
-                LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
-                npfHappened = true;
-                resultBuffer = ByteBuffer.allocate(0);
-                data = resultBuffer.array();
-              }
-            }
-
-            // report out on how things went above
-            if (npfHappened) {    // We lost at least once
-              if (recovered) {
-                LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
-                  " count = " + count);
-              } else {
-                LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
-                if (fatalError) {
-                  throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
-                }
-              }
-            }
+            copyGcsFile(fd.gcsName, fatalError, out);
           } catch (IOException e) {
             throw CrashReport.createAndLogError(LOG, null,
               collectProjectErrorInfo(userId, projectId, fileName), e);
           }
-        } else {
-          data = fd.content;
-        }
-        if (data == null) {     // This happens if file creation is interrupted
-          data = new byte[0];
+        } else if (fd.content != null) {     // content is null if file creation is interrupted
+          out.write(fd.content, 0, fd.content.length);
         }
-        out.putNextEntry(new ZipEntry(fileName));
-        out.write(data, 0, data.length);
         out.closeEntry();
         fileCount.t++;
       }
@@ -2186,15 +2303,53 @@ public class ObjectifyStorageIo implements  StorageIo {
       }
     }
 
-    out.close();
+    // Finish rather than close the zip, so that output stays open for the caller.
+    out.finish();
+    return fileCount.t;
+  }
 
-    if (zipName == null) {
-      zipName = projectName.t + ".aia";
+  /*
+   * Copies a file stored in GCS to out, reading it in chunks of GCS_READ_BUFFER_SIZE bytes.
+   */
+  private void copyGcsFile(String gcsName, boolean fatalError, OutputStream out)
+      throws IOException {
+    GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, gcsName);
+    int count;
+    boolean npfHappened = false;
+    boolean recovered = false;
+    for (count = 0; count < 5; count++) {
+      if (gcsService.getMetadata(gcsFileName) == null) {
+        // This happens if the object in GCS is non-existent, which would happen
+        // when people uploaded a zero length object. As of this change, we now
+        // store zero length objects into GCS, but there are plenty of older objects
+        // that are missing in GCS.
+        LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + gcsName);
+        npfHappened = true;
+        continue;
+      }
+      GcsInputChannel readChannel =
+          gcsService.openPrefetchingReadChannel(gcsFileName, 0, GCS_READ_BUFFER_SIZE);
+      try {
+        ByteStreams.copy(Channels.newInputStream(readChannel), out);
+      } finally {
+        readChannel.close();
+      }
+      recovered = true;
+      break;        // We got the data, break out of the loop!
+    }
+
+    // report out on how things went above
+    if (npfHappened) {    // We lost at least once
+      if (recovered) {
+        LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + gcsName +
+          " count = " + count);
+      } else {
+        LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + gcsName);
+        if (fatalError) {
+          throw new IOException("FATAL Error reading file from GCS filename = " + gcsName);
+        }
+      }
     }
-    ProjectSourceZip projectSourceZip =
-        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
-    projectSourceZip.setMetadata(projectName.t);
-    return projectSourceZip;
   }
 
   @Override
@@ -19,6 +19,7 @@ import com.google.appinventor.shared.rpc.user.SplashConfig;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -509,6 +510,19 @@ public interface StorageIo {
    */
   String downloadFile(String userId, long projectId, String fileId, String encoding);
 
+  /**
+   * Downloads the data of several text files of a project at once. This is
+   * faster than downloading each file with {@link #downloadFile}.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileIds  file IDs
+   * @param encoding  encoding of the text files
+   *
+   * @return  text file contents, in the order of fileIds
+   */
+  List<String> downloadFiles(String userId, long projectId, List<String> fileIds,
+      String encoding);
+
   /**
    * Records a "corruption" record so we can analyze if corruption is
    * happening.
@@ -590,6 +604,30 @@ public interface StorageIo {
     final boolean forGallery,
     final boolean fatalError) throws IOException;
 
+  /**
+   *  Writes project files as a zip archive to an output stream, without
+   *  holding the whole archive in memory.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param includeProjectHistory  whether or not to include the project history
+   * @param includeAndroidKeystore  whether or not to include the Android keystore
+   * @param includeYail include any yail files in the project
+   * @param includeScreenShots include any screen shots stored with the project
+   * @param forGallery flag to indicate we are exporting for the gallery
+   * @param fatalError set true to cause missing GCS file to throw exception
+   * @param output  the stream to write the zip archive to; it is not closed
+   *
+   * @return  the number of files in the zip archive
+   */
+  int writeProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    boolean includeYail,
+    boolean includeScreenShots,
+    boolean forGallery,
+    boolean fatalError,
+    OutputStream output) throws IOException;
+
   /**
    * Find a user's id given their email address. Note that this query is case
    * sensitive!
@@ -34,34 +34,35 @@ public class ChecksumedLoadFile implements Serializable {
   private String checksum;
 
   public String getContent() throws ChecksumedFileException {
-    MessageDigest md = null;
-    try {
-      md = MessageDigest.getInstance("MD5");
-      byte [] retval = md.digest(content.getBytes("UTF-8"));
-      String hexval = byteArrayToHexString(retval);
-      if (!hexval.equals(checksum)) {
-        throw new ChecksumedFileException("Checksum doesn't match " + hexval + " " + checksum);
-      }
-      return content;
-    } catch (java.security.NoSuchAlgorithmException e) {
-      throw new ChecksumedFileException(e.toString());
-    } catch (java.io.UnsupportedEncodingException e) { // We need to catch this because it can
-      throw new ChecksumedFileException(e.toString()); // be thrown by the .getBytes() call above
+    String hexval = computeChecksum(content);
+    if (!hexval.equals(checksum)) {
+      throw new ChecksumedFileException("Checksum doesn't match " + hexval + " " + checksum);
     }
+    return content;
   }
 
   public void setContent(String content) throws ChecksumedFileException {
-    MessageDigest md = null;
+    this.checksum = computeChecksum(content);
+    this.content = content;
+  }
+
+  /**
+   * Returns the checksum of the given file content, as a hex string of the
+   * MD5 digest of its UTF-8 encoding. This is also used to check the
+   * content that a {@link FilePatch} is applied to.
+   *
+   * @param content  file content
+   * @return  checksum of the content
+   */
+  public static String computeChecksum(String content) throws ChecksumedFileException {
     try {
-      md = MessageDigest.getInstance("MD5");
+      MessageDigest md = MessageDigest.getInstance("MD5");
       byte [] retval = md.digest(content.getBytes("UTF-8"));
-      String hexval = byteArrayToHexString(retval);
-      this.checksum = hexval;
-      this.content = content;
+      return byteArrayToHexString(retval);
     } catch (java.security.NoSuchAlgorithmException e) {
       throw new ChecksumedFileException(e.toString());
-    } catch (java.io.UnsupportedEncodingException e) {
-      throw new ChecksumedFileException(e.toString());
+    } catch (java.io.UnsupportedEncodingException e) { // We need to catch this because it can
+      throw new ChecksumedFileException(e.toString()); // be thrown by the .getBytes() call above
     }
   }
 
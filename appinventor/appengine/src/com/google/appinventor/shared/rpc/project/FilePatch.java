@@ -0,0 +1,118 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import java.io.Serializable;
+
+/**
+ * Describes a change to the content of a text file, in particular a .bky or
+ * .scm file, so that the client can send the server the part of a file that
+ * changed instead of its whole content.
+ *
+ * The patch replaces the text between two positions of the content it was
+ * made from with new text. Most edits in the designer and the blocks editor
+ * change one region of the file, so this is usually much smaller than the
+ * file. The patch also holds the checksums (see
+ * {@link ChecksumedLoadFile#computeChecksum(String)}) of the content it was
+ * made from and of the content it makes, so that it is never applied to any
+ * other content, and so that corruption of the patch is detected.
+ *
+ */
+public class FilePatch implements Serializable {
+
+  // For serialization
+  private static final long serialVersionUID = 5213084207361190426L;
+
+  private String baseChecksum;
+  private int start;
+  private int end;
+  private String text;
+  private String checksum;
+
+  /**
+   * Default constructor (for serialization only).
+   */
+  @SuppressWarnings("unused")
+  private FilePatch() {
+  }
+
+  private FilePatch(String baseChecksum, int start, int end, String text, String checksum) {
+    this.baseChecksum = baseChecksum;
+    this.start = start;
+    this.end = end;
+    this.text = text;
+    this.checksum = checksum;
+  }
+
+  /**
+   * Creates a patch that changes the base content into the given content.
+   * The text before and after the changed region is left out of the patch.
+   *
+   * @param base  content the patch is applied to
+   * @param content  content the patch makes
+   * @return  patch
+   */
+  public static FilePatch create(String base, String content) throws ChecksumedFileException {
+    int baseLength = base.length();
+    int contentLength = content.length();
+    int start = 0;
+    int maxStart = Math.min(baseLength, contentLength);
+    while (start < maxStart && base.charAt(start) == content.charAt(start)) {
+      start++;
+    }
+    int suffix = 0;
+    int maxSuffix = maxStart - start;
+    while (suffix < maxSuffix
+        && base.charAt(baseLength - 1 - suffix) == content.charAt(contentLength - 1 - suffix)) {
+      suffix++;
+    }
+    // Don't split a surrogate pair, so that the text is still valid UTF-16.
+    if (start > 0 && Character.isHighSurrogate(content.charAt(start - 1))) {
+      start--;
+    }
+    if (suffix > 0 && Character.isLowSurrogate(content.charAt(contentLength - suffix))) {
+      suffix--;
+    }
+    return new FilePatch(ChecksumedLoadFile.computeChecksum(base), start, baseLength - suffix,
+        content.substring(start, contentLength - suffix),
+        ChecksumedLoadFile.computeChecksum(content));
+  }
+
+  /**
+   * Applies the patch to the given content.
+   *
+   * @param base  content to apply the patch to
+   * @return  the patched content
+   * @throws ChecksumedFileException if the base content is not the content
+   *         the patch was made from, or if the patched content does not have
+   *         the expected checksum
+   */
+  public String apply(String base) throws ChecksumedFileException {
+    String hexval = ChecksumedLoadFile.computeChecksum(base);
+    if (!hexval.equals(baseChecksum)) {
+      throw new ChecksumedFileException("Base checksum doesn't match " + hexval + " "
+          + baseChecksum);
+    }
+    if (start < 0 || start > end || end > base.length()) {
+      throw new ChecksumedFileException("Patch doesn't fit content");
+    }
+    String content = base.substring(0, start) + text + base.substring(end);
+    hexval = ChecksumedLoadFile.computeChecksum(content);
+    if (!hexval.equals(checksum)) {
+      throw new ChecksumedFileException("Checksum doesn't match " + hexval + " " + checksum);
+    }
+    return content;
+  }
+
+  /**
+   * Returns the text that replaces the changed region of the base content.
+   *
+   * @return  replacement text
+   */
+  public String getText() {
+    return text;
+  }
+}
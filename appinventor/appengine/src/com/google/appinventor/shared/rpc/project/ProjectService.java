@@ -181,6 +181,19 @@ public interface ProjectService extends RemoteService {
    */
   ChecksumedLoadFile load2(long projectId, String fileId) throws ChecksumedFileException;
 
+  /**
+   * Loads several text files of a project in one call, such as the sources
+   * of all the screens of a project that is being opened. This is faster
+   * than loading each file with {@link #load2(long, String)}.
+   *
+   * @param projectId  project ID
+   * @param fileIds  project nodes whose sources should be loaded
+   *
+   * @return  checksummed file objects, in the order of fileIds
+   */
+  List<ChecksumedLoadFile> load2(long projectId, List<String> fileIds)
+      throws ChecksumedFileException;
+
   /**
    * Attempt to record the project Id and error message when we detect a corruption
    * while loading a project.
@@ -251,6 +264,27 @@ public interface ProjectService extends RemoteService {
   long save2(String sessionId, long projectId, String fileId, boolean force, String content) throws InvalidSessionException,
       BlocksTruncatedException;
 
+  /**
+   * Saves the content of the file associated with a node in the project tree
+   * by applying a patch to the content that is stored on the server. Like
+   * save2, this can throw a BlocksTruncatedException if an attempt is made to
+   * save a trivial blocks file.
+   *
+   * @param sessionId current session id
+   * @param projectId  project ID
+   * @param fileId  project node whose source should be saved
+   * @param force  whether to write an empty blocks workspace
+   * @param patch  patch from the stored content to the content to be saved
+   * @return modification date for project
+   * @throws ChecksumedFileException if the stored content is not the content
+   *         the patch was made from; the client should then call save2 with
+   *         the whole content
+   *
+   * @see #save2(String, long, String, boolean, String)
+   */
+  long savePatch(String sessionId, long projectId, String fileId, boolean force, FilePatch patch)
+      throws InvalidSessionException, BlocksTruncatedException, ChecksumedFileException;
+
   /**
    * Saves the contents of multiple files.
    *
@@ -282,10 +316,17 @@ public interface ProjectService extends RemoteService {
    * @param nonce used to access the built project -- random string
    * @param target  build target (optional, implementation dependent)
    * @param secondBuildserver whether to use the second buildserver
-   *
-   * @return  results of invoking the build command
+   * @param forCompanion whether the APK is to be installed with the Companion by scanning a QR
+   *     code, which puts the build ahead of the builds of APKs to download when the build server
+   *     queues builds
+   *
+   * @return  results of invoking the build command. When the build was accepted, the extra
+   *     string holds the number of seconds until it is expected to start; when the build server
+   *     was too busy, it holds the number of seconds to wait before trying again. It is null if
+   *     the build server did not say.
    */
-  RpcResult build(long projectId, String nonce, String target, boolean secondBuildserver);
+  RpcResult build(long projectId, String nonce, String target, boolean secondBuildserver,
+      boolean forCompanion);
 
   /**
    * Gets the result of a build command for the project from the back-end.
@@ -106,6 +106,12 @@ public interface ProjectServiceAsync {
    */
   void load2(long projectId, String fileId, AsyncCallback<ChecksumedLoadFile> callback);
 
+  /**
+   * @see ProjectService#load2(long, List)
+   */
+  void load2(long projectId, List<String> fileIds,
+      AsyncCallback<List<ChecksumedLoadFile>> callback);
+
   /**
    * @see ProjectService#recordCorruption(long, String, String)
    */
@@ -136,6 +142,12 @@ public interface ProjectServiceAsync {
    */
   void save2(String sessionId, long projectId, String fileId, boolean force, String source, AsyncCallback<Long> callback);
 
+  /**
+   * @see ProjectService#savePatch(String, long, String, boolean, FilePatch)
+   */
+  void savePatch(String sessionId, long projectId, String fileId, boolean force, FilePatch patch,
+      AsyncCallback<Long> callback);
+
   /**
    * @see ProjectService#save(String, List)
    */
@@ -149,9 +161,10 @@ public interface ProjectServiceAsync {
     AsyncCallback<RpcResult> callback);
 
   /**
-   * @see ProjectService#build(long, String, String, boolean)
+   * @see ProjectService#build(long, String, String, boolean, boolean)
    */
-  void build(long projectId, String nonce, String target, boolean secondBuildserver, AsyncCallback<RpcResult> callback);
+  void build(long projectId, String nonce, String target, boolean secondBuildserver,
+      boolean forCompanion, AsyncCallback<RpcResult> callback);
 
   /**
    * @see ProjectService#getBuildResult(long, String)
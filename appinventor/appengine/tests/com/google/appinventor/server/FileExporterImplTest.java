@@ -42,6 +42,8 @@ public class FileExporterImplTest extends LocalDatastoreTestCase {
   private static final String FORM1_CONTENT = "Form A\nEnd Form";
   private static final String IMAGE1_NAME = "Image.jpg";
   private static final byte[] IMAGE_CONTENT = { (byte) 0, (byte) 1, (byte) 32, (byte) 255};
+  private static final String ASSET1_NAME = "assets/kitty.png";
+  private static final byte[] ASSET1_CONTENT = { (byte) 137, (byte) 80, (byte) 78, (byte) 71};
   private static final String TARGET1_NAME = "Project1.apk";
   private static final String TARGET1_QUALIFIED_NAME = "build/target1/" + TARGET1_NAME;
   private static final byte[] TARGET1_CONTENT = "pk1".getBytes();
@@ -135,6 +137,43 @@ public class FileExporterImplTest extends LocalDatastoreTestCase {
     }
   }
 
+  public void testWriteProjectSourceZip() throws Exception {
+    // Assets are stored in GCS, which is read in chunks rather than all at once.
+    storageIo.addSourceFilesToProject(USER_ID, projectId, false, ASSET1_NAME);
+    storageIo.uploadRawFile(projectId, ASSET1_NAME, USER_ID, true, ASSET1_CONTENT);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int fileCount = exporter.writeProjectSourceZip(USER_ID, projectId,
+      true, false, false, false, false, false, output);
+    Map<String, byte[]> content = testExportProjectSourceZipHelper(
+        new ProjectSourceZip(PROJECT_NAME + ".aia", output.toByteArray(), fileCount));
+    assertEquals(4, content.size());
+    assertTrue(Arrays.equals(ASSET1_CONTENT, content.get(ASSET1_NAME)));
+    assertEquals(HISTORY, new String(content.get(FileExporter.REMIX_INFORMATION_FILE_PATH),
+        StorageUtil.DEFAULT_CHARSET));
+
+    // The streamed zip has the same files as the one built in memory.
+    ProjectSourceZip project = exporter.exportProjectSourceZip(USER_ID, projectId,
+      true, false, null, false, false, false, false);
+    Map<String, byte[]> exported = testExportProjectSourceZipHelper(project);
+    assertEquals(exported.keySet(), content.keySet());
+    for (String fileName : exported.keySet()) {
+      assertTrue(Arrays.equals(exported.get(fileName), content.get(fileName)));
+    }
+  }
+
+  public void testWriteProjectSourceZipWithNonExistingProject() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try {
+      exporter.writeProjectSourceZip(USER_ID, projectId + 1, false, false, false, false, false,
+          false, output);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    // Nothing is sent when there is nothing to send.
+    assertEquals(0, output.size());
+  }
+
   public void testExportProjectOutputFileWithTarget() throws IOException {
     RawFile file = exporter.exportProjectOutputFile(USER_ID, projectId, "target1");
     assertEquals(TARGET1_NAME, file.getFileName());
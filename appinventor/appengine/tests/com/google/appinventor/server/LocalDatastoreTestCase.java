@@ -9,21 +9,29 @@ package com.google.appinventor.server;
 import com.google.appinventor.common.testutils.TestUtils;
 
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
 import com.google.apphosting.utils.config.GenerationDirectory;
 
 import junit.framework.TestCase;
 
 /**
- * Abstract base class for tests that need local datastore.
+ * Abstract base class for tests that need local datastore. Memcache and the
+ * task queues declared in queue.xml are available too. Tasks are queued but
+ * not run.
  *
  * @author lizlooney@google.com
  */
 public abstract class LocalDatastoreTestCase extends TestCase {
   private static final String APPENGINE_GENERATED_DIR = TestUtils.APP_INVENTOR_ROOT_DIR +
       "/appengine/build/tests/appengine-generated";
+  private static final String QUEUE_XML = TestUtils.APP_INVENTOR_ROOT_DIR +
+      "/appengine/war/WEB-INF/queue.xml";
   private final LocalServiceTestHelper helper =
-      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(),
+          new LocalMemcacheServiceTestConfig(),
+          new LocalTaskQueueTestConfig().setQueueXmlPath(QUEUE_XML));
 
   @Override
   protected void setUp() throws Exception {
@@ -16,8 +16,10 @@ import com.google.appinventor.server.encryption.KeyczarEncryptor;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
 import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
+import com.google.appinventor.shared.rpc.project.FilePatch;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.project.UserProject;
@@ -293,6 +295,41 @@ public class ProjectServiceTest {
     PowerMock.verifyAll();
   }
 
+  @Test
+  public void testSavePatch() throws Exception {
+    // Since only USER_ID_ONE is used, we don't care how many times
+    // getUserId is called
+    expect(localUserMock.getUserId()).andReturn(USER_ID_ONE).anyTimes();
+    PowerMock.replayAll();
+    do_init();
+
+    NewYoungAndroidProjectParameters params = new NewYoungAndroidProjectParameters(
+        PACKAGE_BASE + PROJECT1_NAME);
+    long projectId = projectServiceImpl.newProject(
+        YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE, PROJECT1_NAME, params).getProjectId();
+    String fileId = findFileIdByName(projectServiceImpl.getProject(projectId),
+        YOUNG_ANDROID_FORM_NAME + YoungAndroidSourceAnalyzer.FORM_PROPERTIES_EXTENSION);
+    String content = projectServiceImpl.load(projectId, fileId);
+
+    // A patch against the stored content is applied.
+    String newContent = content.replace("\"Title\":\"Screen1\"", "\"Title\":\"Hello\"");
+    long modificationDate = projectServiceImpl.savePatch("test-session", projectId, fileId, false,
+        FilePatch.create(content, newContent));
+    assertEquals(newContent, projectServiceImpl.load(projectId, fileId));
+    checkModificationDateMatchesStored(modificationDate, USER_ID_ONE, projectId);
+
+    // A patch against other content is rejected and the stored content is left alone.
+    try {
+      projectServiceImpl.savePatch("test-session", projectId, fileId, false,
+          FilePatch.create(content, YOUNG_ANDROID_COMMENT + content));
+      fail();
+    } catch (ChecksumedFileException e) {
+      // expected
+    }
+    assertEquals(newContent, projectServiceImpl.load(projectId, fileId));
+    PowerMock.verifyAll();
+  }
+
   @Test
   public void testCopyProject() throws Exception {
     // Since only USER_ID_ONE is used in this test, we don't care how
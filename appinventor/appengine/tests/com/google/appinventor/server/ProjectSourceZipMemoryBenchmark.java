@@ -0,0 +1,141 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.StorageIo;
+import com.google.appinventor.server.storage.StorageIoInstanceHolder;
+import com.google.appinventor.shared.rpc.project.Project;
+import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
+import com.google.appinventor.shared.rpc.project.TextFile;
+import com.google.appinventor.shared.storage.StorageUtil;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares the peak heap of zipping project sources in memory with streaming them.
+ */
+public class ProjectSourceZipMemoryBenchmark extends LocalDatastoreTestCase {
+  private static final String USER_ID = "1";
+  private static final String FORM1_QUALIFIED_NAME = "com.yourdomain.Screen1";
+  private static final int ASSET_SIZE = 1024 * 1024;
+  private static final int[] PROJECT_SIZES_MB = { 5, 20, 50 };
+
+  private StorageIo storageIo;
+  private FileExporter exporter;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    storageIo = StorageIoInstanceHolder.getInstance();
+    exporter = new FileExporterImpl();
+  }
+
+  public void testPeakHeapUsage() throws Exception {
+    for (int sizeMb : PROJECT_SIZES_MB) {
+      final long projectId = createProject(sizeMb);
+
+      long buffered = measurePeakHeapUsage(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            ProjectSourceZip zipFile = exporter.exportProjectSourceZip(USER_ID, projectId,
+                false, true, null, true, false, true, false);
+            ByteStreams.nullOutputStream().write(zipFile.getContent());
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+
+      final CountingOutputStream output = new CountingOutputStream(ByteStreams.nullOutputStream());
+      long streamed = measurePeakHeapUsage(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            exporter.writeProjectSourceZip(USER_ID, projectId,
+                false, true, true, false, true, false, output);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+
+      System.out.println(sizeMb + "MB project (" + output.getCount() + " bytes zipped): "
+          + "buffered peak " + toMb(buffered) + "MB, streamed peak " + toMb(streamed) + "MB");
+      assertTrue(output.getCount() >= sizeMb * (long) ASSET_SIZE);
+      storageIo.deleteProject(USER_ID, projectId);
+    }
+  }
+
+  /*
+   * Creates a project whose assets add up to sizeMb megabytes. The assets are random, so they
+   * do not compress, just like the images and sounds in real projects.
+   */
+  private long createProject(int sizeMb) throws Exception {
+    Project project = new Project("Project" + sizeMb);
+    project.setProjectType("FakeProjectType");
+    project.addTextFile(new TextFile(FORM1_QUALIFIED_NAME, ""));
+    long projectId = storageIo.createProject(USER_ID, project, "");
+    storageIo.uploadFile(projectId, FORM1_QUALIFIED_NAME, USER_ID, "Form A\nEnd Form",
+        StorageUtil.DEFAULT_CHARSET);
+    Random random = new Random(sizeMb);
+    for (int i = 0; i < sizeMb; i++) {
+      String assetName = "assets/asset" + i + ".bin";
+      byte[] content = new byte[ASSET_SIZE];
+      random.nextBytes(content);
+      storageIo.addSourceFilesToProject(USER_ID, projectId, false, assetName);
+      storageIo.uploadRawFile(projectId, assetName, USER_ID, true, content);
+    }
+    return projectId;
+  }
+
+  /*
+   * Runs the export while sampling the used heap, and returns the largest increase seen over
+   * the heap in use before the export started.
+   */
+  private static long measurePeakHeapUsage(Runnable export) throws InterruptedException {
+    final Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    final long baseline = runtime.totalMemory() - runtime.freeMemory();
+    final long[] peak = { baseline };
+    final boolean[] done = { false };
+    Thread sampler = new Thread() {
+      @Override
+      public void run() {
+        while (true) {
+          synchronized (done) {
+            if (done[0]) {
+              return;
+            }
+          }
+          peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory());
+          try {
+            Thread.sleep(1);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+    };
+    sampler.start();
+    try {
+      export.run();
+    } finally {
+      synchronized (done) {
+        done[0] = true;
+      }
+      sampler.join();
+    }
+    return peak[0] - baseline;
+  }
+
+  private static String toMb(long bytes) {
+    return String.format("%.1f", bytes / (1024.0 * 1024.0));
+  }
+}
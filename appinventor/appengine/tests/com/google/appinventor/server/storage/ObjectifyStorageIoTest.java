@@ -7,10 +7,13 @@
 package com.google.appinventor.server.storage;
 
 import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appinventor.server.LocalDatastoreTestCase;
 import com.google.appinventor.server.storage.StoredData.ProjectData;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.component.Component;
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+import com.google.appinventor.shared.rpc.project.GalleryAppListResult;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
@@ -20,6 +23,8 @@ import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
 
 import com.google.common.base.Charsets;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
@@ -325,6 +330,35 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertFalse(storage.getProjectOutputFiles(USER_ID, projectId).contains(FILE_NAME_OUTPUT));
   }
 
+  public void testDownloadFiles() throws Exception {
+    final String USER_ID = "1250";
+    final String USER_EMAIL = "newuser1250@test.com";
+    final String USER_ID2 = "1251";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = storage.createProject(USER_ID, project, SETTINGS);
+
+    assertEquals(Arrays.asList(FILE_CONTENT2, FILE_CONTENT1, FILE_CONTENT2),
+        storage.downloadFiles(USER_ID, projectId,
+            Arrays.asList(FILE_NAME2, FILE_NAME1, FILE_NAME2), StorageUtil.DEFAULT_CHARSET));
+    assertTrue(storage.downloadFiles(USER_ID, projectId, new ArrayList<String>(),
+        StorageUtil.DEFAULT_CHARSET).isEmpty());
+    try {
+      storage.downloadFiles(USER_ID, projectId, Arrays.asList(FILE_NAME1, "src/NoSuchFile.scm"),
+          StorageUtil.DEFAULT_CHARSET);
+      fail();
+    } catch (Exception e) {
+      assertTrue(e.getCause() instanceof FileNotFoundException);
+    }
+    try {
+      storage.downloadFiles(USER_ID2, projectId, Arrays.asList(FILE_NAME1),
+          StorageUtil.DEFAULT_CHARSET);
+      fail();
+    } catch (Exception e) {
+      assertTrue(e instanceof UnauthorizedAccessException
+                 || e.getCause() instanceof UnauthorizedAccessException);
+    }
+  }
+
   public void testAddRemoveUserFile() {
     // Note that neither FILE_NAME1 nor FILE_NAME_OUTPUT should exist
     // at the start of this test
@@ -556,6 +590,127 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     }
   }
 
+  public void testGalleryCountersAreSharded() {
+    final String USER_ID = "1100";
+    ObjectifyGalleryStorageIo.counterShards.setForTest(4);
+    ObjectifyGalleryStorageIo gallery = new ObjectifyGalleryStorageIo();
+    long galleryId = createGalleryApp(gallery, USER_ID, "App");
+
+    for (int i = 0; i < 10; i++) {
+      gallery.incrementDownloads(galleryId);
+    }
+    gallery.increaseLikes(galleryId, "liker1");
+    gallery.increaseLikes(galleryId, "liker2");
+    gallery.increaseLikes(galleryId, "liker2");  // already liked, not counted
+    gallery.decreaseLikes(galleryId, "liker1");
+
+    // Every increment went to one of the four shards of the app.
+    Objectify datastore = ObjectifyService.begin();
+    int downloads = 0;
+    int likes = 0;
+    for (GalleryAppCounterShardData shard : datastore.query(GalleryAppCounterShardData.class)) {
+      assertTrue(shard.id, shard.id.matches(galleryId + ":[0-3]"));
+      downloads += shard.numDownloads;
+      likes += shard.numLikes;
+    }
+    assertEquals(10, downloads);
+    assertEquals(1, likes);
+
+    // Only the first download was rolled up, but the likes include the shards.
+    assertEquals(1, gallery.getGalleryApp(galleryId).getDownloads());
+    assertEquals(1, gallery.getNumLikes(galleryId));
+
+    gallery.rollUpCounters(galleryId, 4);
+    GalleryApp app = gallery.getGalleryApp(galleryId);
+    assertEquals(10, app.getDownloads());
+    assertEquals(1, app.getLikes());
+    ObjectifyGalleryStorageIo.counterShards.setForTest(20);
+  }
+
+  public void testGalleryRollUpSumsEveryShardEverUsed() {
+    final String USER_ID = "1200";
+    ObjectifyGalleryStorageIo.counterShards.setForTest(8);
+    ObjectifyGalleryStorageIo gallery = new ObjectifyGalleryStorageIo();
+    long galleryId = createGalleryApp(gallery, USER_ID, "App");
+
+    for (int i = 0; i < 20; i++) {
+      gallery.incrementDownloads(galleryId);
+    }
+    gallery.rollUpCounters(galleryId, 8);
+    assertEquals(20, gallery.getGalleryApp(galleryId).getDownloads());
+
+    // Rolling up again adds nothing.
+    gallery.rollUpCounters(galleryId, 8);
+    assertEquals(20, gallery.getGalleryApp(galleryId).getDownloads());
+
+    // With fewer shards, the counts in the shards that are no longer used
+    // are still part of the sum, so the count does not go down.
+    ObjectifyGalleryStorageIo.counterShards.setForTest(2);
+    for (int i = 0; i < 5; i++) {
+      gallery.incrementDownloads(galleryId);
+    }
+    gallery.rollUpCounters(galleryId, 2);
+    assertEquals(25, gallery.getGalleryApp(galleryId).getDownloads());
+    ObjectifyGalleryStorageIo.counterShards.setForTest(20);
+  }
+
+  public void testGalleryCachedListIsInvalidated() {
+    final String USER_ID = "1300";
+    ObjectifyGalleryStorageIo.counterShards.setForTest(4);
+    ObjectifyGalleryStorageIo gallery = new ObjectifyGalleryStorageIo();
+    long app1 = createGalleryApp(gallery, USER_ID, "App1");
+    long app2 = createGalleryApp(gallery, USER_ID, "App2");
+    long app3 = createGalleryApp(gallery, USER_ID, "App3");
+    downloadAndRollUp(gallery, app1, 3);
+    downloadAndRollUp(gallery, app2, 2);
+    downloadAndRollUp(gallery, app3, 1);
+
+    GalleryAppListResult result = gallery.getMostDownloadedApps(0, 10);
+    assertEquals(Arrays.asList(app1, app2, app3), galleryAppIds(result));
+    assertEquals(3, result.getTotalCount());
+
+    // The order is cached, but the apps in the list are read again.
+    downloadAndRollUp(gallery, app3, 5);
+    result = gallery.getMostDownloadedApps(0, 10);
+    assertEquals(Arrays.asList(app1, app2, app3), galleryAppIds(result));
+    assertEquals(6, result.getApps().get(2).getDownloads());
+
+    // An app removed after the list was cached is left out of it.
+    gallery.deleteApp(app2);
+    result = gallery.getMostDownloadedApps(0, 10);
+    assertEquals(Arrays.asList(app1, app3), galleryAppIds(result));
+
+    // Once the cached list expires, the list is sorted and counted again.
+    MemcacheServiceFactory.getMemcacheService().clearAll();
+    result = gallery.getMostDownloadedApps(0, 10);
+    assertEquals(Arrays.asList(app3, app1), galleryAppIds(result));
+    assertEquals(2, result.getTotalCount());
+    ObjectifyGalleryStorageIo.counterShards.setForTest(20);
+  }
+
+  private long createGalleryApp(ObjectifyGalleryStorageIo gallery, String userId, String title) {
+    storage.getUser(userId, "user" + userId + "@test.com");
+    long projectId = createProject(userId, title, FAKE_PROJECT_TYPE, FILE_NAME1);
+    return gallery.createGalleryApp(title, title, "", "", "", projectId, userId)
+        .getGalleryAppId();
+  }
+
+  private void downloadAndRollUp(ObjectifyGalleryStorageIo gallery, long galleryId,
+      int downloads) {
+    for (int i = 0; i < downloads; i++) {
+      gallery.incrementDownloads(galleryId);
+    }
+    gallery.rollUpCounters(galleryId, ObjectifyGalleryStorageIo.counterShards.get());
+  }
+
+  private List<Long> galleryAppIds(GalleryAppListResult result) {
+    List<Long> ids = new ArrayList<Long>();
+    for (GalleryApp app : result.getApps()) {
+      ids.add(app.getGalleryAppId());
+    }
+    return ids;
+  }
+
   private long createProject(String userId, String name, String type, String fileName) {
     return createProject(userId, name, type, fileName, storage);
   }
@@ -0,0 +1,62 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FilePatch}.
+ */
+public class FilePatchTest extends TestCase {
+  private static final String BASE =
+      "<xml><block type=\"controls_if\" x=\"10\" y=\"20\"></block></xml>";
+
+  public void testChangeInMiddle() throws Exception {
+    String content = BASE.replace("x=\"10\"", "x=\"150\"");
+    FilePatch patch = FilePatch.create(BASE, content);
+    assertEquals("5", patch.getText());
+    assertEquals(content, patch.apply(BASE));
+  }
+
+  public void testInsertAndDelete() throws Exception {
+    String content = BASE.replace("</xml>", "<block type=\"logic_boolean\"></block></xml>");
+    assertEquals(content, FilePatch.create(BASE, content).apply(BASE));
+    assertEquals(BASE, FilePatch.create(content, BASE).apply(content));
+    assertEquals("", FilePatch.create(content, BASE).getText());
+  }
+
+  public void testRepeatedText() throws Exception {
+    assertEquals("aaaa", FilePatch.create("aa", "aaaa").apply("aa"));
+    assertEquals("aa", FilePatch.create("aaaa", "aa").apply("aaaa"));
+    assertEquals("", FilePatch.create("abc", "").apply("abc"));
+    assertEquals("abc", FilePatch.create("", "abc").apply(""));
+  }
+
+  public void testSameContent() throws Exception {
+    FilePatch patch = FilePatch.create(BASE, BASE);
+    assertEquals("", patch.getText());
+    assertEquals(BASE, patch.apply(BASE));
+  }
+
+  public void testSurrogatePairs() throws Exception {
+    // The two emoji (U+1F600 and U+1F601) share their high surrogate.
+    String base = "Text=\"\uD83D\uDE00\"";
+    String content = "Text=\"\uD83D\uDE01\"";
+    FilePatch patch = FilePatch.create(base, content);
+    assertEquals("\uD83D\uDE01", patch.getText());
+    assertEquals(content, patch.apply(base));
+  }
+
+  public void testWrongBase() throws Exception {
+    FilePatch patch = FilePatch.create(BASE, BASE + "\n");
+    try {
+      patch.apply(BASE.replace("controls_if", "controls_for"));
+      fail();
+    } catch (ChecksumedFileException e) {
+      // expected
+    }
+  }
+}
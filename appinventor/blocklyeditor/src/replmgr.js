@@ -436,13 +436,35 @@ Blockly.ReplMgr.putYail = (function() {
                 webrtcisopen = true;
                 top.ConnectProgressBar_setProgress(30, Blockly.Msg.DIALOG_SECURE_ESTABLISHED);
                 console.log('webrtc data connection open!');
+                // The companion sends return values in batches, and large
+                // batches deflated in binary messages if we ask for
+                // that. Inflating is asynchronous, so messages are handled
+                // one after another on a promise chain to keep them in order.
+                var received = Promise.resolve();
+                webrtcdata.binaryType = 'arraybuffer';
                 webrtcdata.onmessage = function(ev) {
-                    console.log("webrtc(onmessage): " + ev.data);
-                    var json = goog.json.parse(ev.data);
-                    if (json.status == 'OK') {
-                        context.processRetvals(json.values);
-                    }
+                    received = received.then(function() {
+                        if (typeof ev.data == 'string') {
+                            return ev.data;
+                        }
+                        return Blockly.ReplMgr.inflate(ev.data);
+                    }).then(function(data) {
+                        console.log("webrtc(onmessage): " + data);
+                        var json = goog.json.parse(data);
+                        if (json.status == 'OK') {
+                            context.processRetvals(json.values);
+                        }
+                    }).then(null, function(err) {
+                        console.log("webrtc(onmessage): Error: " + err);
+                    });
                 };
+                if (Blockly.ReplMgr.canInflate()) {
+                    // Older companions do not have setCompressionEnabled. Kawa
+                    // rejects a call to a missing static method when it compiles
+                    // the expression, before try-catch can catch anything, so
+                    // look the method up by reflection when the call is run.
+                    webrtcdata.send("(try-catch (invoke (invoke (java.lang.Class:forName \"com.google.appinventor.components.runtime.util.RetValManager\") 'getMethod \"setCompressionEnabled\" java.lang.Boolean:TYPE) 'invoke #!null #t) (exception java.lang.Throwable #f))");
+                }
                 // Ready to actually exchange data
                 webrtcrunning = true;
                 top.webrtcdata = webrtcdata; // For debugging
@@ -1289,6 +1311,18 @@ Blockly.ReplMgr.startAdbDevice = function(rs, usb) {
     interval = setInterval(mainloop, 1000); // Once per second
 };
 
+// Whether the browser can inflate the compressed messages the companion sends
+Blockly.ReplMgr.canInflate = function() {
+    return typeof top['DecompressionStream'] == 'function' &&
+        typeof Blob.prototype.stream == 'function';
+};
+
+// Inflate a message deflated by the companion, returning a promise of its text
+Blockly.ReplMgr.inflate = function(data) {
+    var stream = new Blob([data]).stream().pipeThrough(new top['DecompressionStream']('deflate'));
+    return new Response(stream).text();
+};
+
 // Convert non-ASCII Characters to kawa unicode escape
 Blockly.ReplMgr.quoteUnicode = function(input) {
     if (!input)
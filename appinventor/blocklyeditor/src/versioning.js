@@ -1244,7 +1244,12 @@ Blockly.Versioning.AllUpgradeMaps =
 
     // The BluetoothClient.Secure property was added.
     // No blocks need to be modified to upgrade to version 5.
-    5: "noUpgrade"
+    5: "noUpgrade",
+
+    // The BluetoothClient.ReadInBackground and DataReceivedBatchSize properties and the
+    // BluetoothClient.DataReceived event were added.
+    // No blocks need to be modified to upgrade to version 6.
+    6: "noUpgrade"
 
   }, // End BluetoothClient upgraders
 
@@ -1270,7 +1275,12 @@ Blockly.Versioning.AllUpgradeMaps =
 
     // The BluetoothServer.Secure property was added.
     // No blocks need to be modified to upgrade to version 5.
-    5: "noUpgrade"
+    5: "noUpgrade",
+
+    // The BluetoothServer.ReadInBackground and DataReceivedBatchSize properties and the
+    // BluetoothServer.DataReceived event were added.
+    // No blocks need to be modified to upgrade to version 6.
+    6: "noUpgrade"
 
   }, // End BluetoothServer upgraders
 
@@ -1414,7 +1424,10 @@ Blockly.Versioning.AllUpgradeMaps =
     3: "noUpgrade",
 
     // MakeDate, MakeTime, MakeInstantFromParts methods added
-    4: "noUpgrade"
+    4: "noUpgrade",
+
+    // TimerMode and TimerElapsed properties added
+    5: "noUpgrade"
 
   }, // End Clock upgraders
 
@@ -2571,7 +2584,10 @@ Blockly.Versioning.AllUpgradeMaps =
     4: "noUpgrade",
       
     // AI2: Added method UriDecode
-    5: "noUpgrade"
+    5: "noUpgrade",
+
+    // AI2: Added events UploadProgress and DownloadProgress
+    6: "noUpgrade"
 
   }, // End Web upgraders
 
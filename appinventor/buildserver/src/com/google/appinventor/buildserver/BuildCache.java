@@ -0,0 +1,231 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A content-addressed, on-disk cache of build outputs.
+ *
+ * <p>Entries are grouped by kind (for example, "apk" for signed APKs and "dex"
+ * for the dex files compiled from a project's YAIL) and are identified by a
+ * key that is a hash of every input that affects the output. Each entry is a
+ * directory of files. Entries are written to a temporary directory and then
+ * renamed into place, so readers never see a partial entry.</p>
+ *
+ * <p>The total size of the cache is kept below a disk budget by deleting the
+ * least recently used entries. The last-modified time of an entry's directory
+ * records when it was last used.</p>
+ */
+final class BuildCache {
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildCache.class.getName());
+
+  private final File directory;
+  private final long maxBytes;
+
+  // Approximate size of the cache, in bytes. Recomputed when the cache is pruned.
+  private final AtomicLong sizeInBytes = new AtomicLong(0);
+  private final AtomicInteger evictions = new AtomicInteger(0);
+  private final ConcurrentMap<String, Counters> counters =
+      new ConcurrentHashMap<String, Counters>();
+
+  // Used to generate unique names for entries that are being written.
+  private final AtomicInteger pendingEntries = new AtomicInteger(0);
+
+  /**
+   * Creates a BuildCache.
+   *
+   * @param directory the directory that holds the cache entries
+   * @param maxBytes the maximum total size of the cache entries, in bytes
+   */
+  BuildCache(File directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    directory.mkdirs();
+    // Remove entries that were being written when the server last stopped.
+    File[] children = directory.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        if (child.getName().startsWith("pending-")) {
+          FileUtils.deleteQuietly(child);
+        }
+      }
+    }
+    prune();
+  }
+
+  /**
+   * Returns a new hasher for computing cache keys.
+   */
+  static Hasher newHasher() {
+    return Hashing.sha256().newHasher();
+  }
+
+  /**
+   * Adds a string, followed by a separator, to a cache key.
+   */
+  static Hasher putString(Hasher hasher, String value) {
+    return hasher.putString(value, Charsets.UTF_8).putByte((byte) 0);
+  }
+
+  /**
+   * Adds the contents of a file to a cache key.
+   */
+  static Hasher putFile(Hasher hasher, File file) throws IOException {
+    HashCode contentHash = Files.hash(file, Hashing.sha256());
+    return hasher.putBytes(contentHash.asBytes());
+  }
+
+  /**
+   * Looks up a cache entry.
+   *
+   * @param kind the kind of the entry
+   * @param key the key of the entry
+   * @return the directory holding the entry's files, or null if there is no such entry
+   */
+  File lookup(String kind, String key) {
+    File entry = getEntryDirectory(kind, key);
+    if (entry.isDirectory()) {
+      entry.setLastModified(System.currentTimeMillis());
+      getCounters(kind).hits.incrementAndGet();
+      return entry;
+    }
+    getCounters(kind).misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Stores a cache entry. Storing is best effort: failures are logged and otherwise ignored.
+   *
+   * @param kind the kind of the entry
+   * @param key the key of the entry
+   * @param files the files of the entry, keyed by the names they have in the entry
+   */
+  void store(String kind, String key, Map<String, File> files) {
+    File entry = getEntryDirectory(kind, key);
+    if (entry.isDirectory()) {
+      return;
+    }
+    File pending = new File(directory,
+        "pending-" + System.currentTimeMillis() + "-" + pendingEntries.incrementAndGet());
+    try {
+      long bytes = 0;
+      pending.mkdirs();
+      for (Map.Entry<String, File> file : files.entrySet()) {
+        Files.copy(file.getValue(), new File(pending, file.getKey()));
+        bytes += file.getValue().length();
+      }
+      entry.getParentFile().mkdirs();
+      if (pending.renameTo(entry)) {
+        getCounters(kind).stores.incrementAndGet();
+        if (sizeInBytes.addAndGet(bytes) > maxBytes) {
+          prune();
+        }
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to store " + kind + " " + key + " in the build cache", e);
+    } finally {
+      FileUtils.deleteQuietly(pending);
+    }
+  }
+
+  /**
+   * Returns the cache statistics, keyed by the names used on the /buildserver/vars page.
+   */
+  Map<String, String> getVariables() {
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    variables.put("build-cache-maximum-size", maxBytes + "");
+    variables.put("build-cache-size", sizeInBytes.get() + "");
+    variables.put("build-cache-evictions", evictions.get() + "");
+    for (Map.Entry<String, Counters> entry : counters.entrySet()) {
+      String prefix = "build-cache-" + entry.getKey() + "-";
+      variables.put(prefix + "hits", entry.getValue().hits.get() + "");
+      variables.put(prefix + "misses", entry.getValue().misses.get() + "");
+      variables.put(prefix + "stores", entry.getValue().stores.get() + "");
+    }
+    return variables;
+  }
+
+  long getSizeInBytes() {
+    return sizeInBytes.get();
+  }
+
+  /*
+   * Deletes least recently used entries until the cache fits in its budget.
+   */
+  private synchronized void prune() {
+    File[] kinds = directory.listFiles();
+    if (kinds == null) {
+      return;
+    }
+    Map<File, Long> entrySizes = new LinkedHashMap<File, Long>();
+    long total = 0;
+    for (File kind : kinds) {
+      File[] entries = kind.getName().startsWith("pending-") ? null : kind.listFiles();
+      if (entries == null) {
+        continue;
+      }
+      for (File entry : entries) {
+        long size = FileUtils.sizeOfDirectory(entry);
+        entrySizes.put(entry, size);
+        total += size;
+      }
+    }
+    File[] leastRecentlyUsed = entrySizes.keySet().toArray(new File[0]);
+    Arrays.sort(leastRecentlyUsed, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.compare(a.lastModified(), b.lastModified());
+      }
+    });
+    for (int i = 0; i < leastRecentlyUsed.length && total > maxBytes; i++) {
+      File entry = leastRecentlyUsed[i];
+      FileUtils.deleteQuietly(entry);
+      total -= entrySizes.get(entry);
+      evictions.incrementAndGet();
+    }
+    sizeInBytes.set(total);
+  }
+
+  private File getEntryDirectory(String kind, String key) {
+    return new File(new File(directory, kind), key);
+  }
+
+  private Counters getCounters(String kind) {
+    Counters kindCounters = counters.get(kind);
+    if (kindCounters == null) {
+      counters.putIfAbsent(kind, new Counters());
+      kindCounters = counters.get(kind);
+    }
+    return kindCounters;
+  }
+
+  private static class Counters {
+    private final AtomicInteger hits = new AtomicInteger(0);
+    private final AtomicInteger misses = new AtomicInteger(0);
+    private final AtomicInteger stores = new AtomicInteger(0);
+  }
+}
@@ -0,0 +1,28 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link Executor} that runs build tasks and limits the number of
+ * simultaneous builds.
+ */
+interface BuildExecutor extends Executor {
+
+  /**
+   * Returns the maximum number of active tasks. 0 means unlimited.
+   */
+  int getMaxActiveTasks();
+
+  int getActiveTaskCount();
+
+  /**
+   * Returns the number of tasks that have been accepted but have not started yet.
+   */
+  int getQueuedTaskCount();
+
+  int getCompletedTaskCount();
+}
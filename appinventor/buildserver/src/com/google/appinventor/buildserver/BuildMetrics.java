@@ -0,0 +1,185 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms and counters for the builds, build stages and child processes run by this
+ * build server, exported in the Prometheus text format on /buildserver/metrics.
+ *
+ * <p>Stages are labelled with their {@link StageGraph} names and child processes with the name
+ * of the tool that ran, so the metrics of a fleet of build servers show which stage takes the
+ * most time and which tool uses the most memory.</p>
+ */
+final class BuildMetrics {
+  private static final BuildMetrics INSTANCE = new BuildMetrics();
+
+  private final ConcurrentMap<String, LatencyHistogram> buildLatency =
+      new ConcurrentHashMap<String, LatencyHistogram>();
+  private final ConcurrentMap<String, LatencyHistogram> stageLatency =
+      new ConcurrentHashMap<String, LatencyHistogram>();
+  private final ConcurrentMap<String, AtomicLong> stageFailures =
+      new ConcurrentHashMap<String, AtomicLong>();
+  private final ConcurrentMap<String, ToolStats> tools = new ConcurrentHashMap<String, ToolStats>();
+
+  /**
+   * Returns the metrics of this build server.
+   */
+  static BuildMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Records a build.
+   *
+   * @param succeeded whether the build succeeded
+   * @param millis the wall clock time the build took, in milliseconds
+   */
+  void recordBuild(boolean succeeded, long millis) {
+    get(buildLatency, succeeded ? "success" : "failure").observe(millis);
+  }
+
+  /**
+   * Records a stage of a build.
+   */
+  void recordStage(StageTiming timing) {
+    get(stageLatency, timing.getName()).observe(timing.getWallMillis());
+    if (!timing.succeeded()) {
+      AtomicLong failures = stageFailures.get(timing.getName());
+      if (failures == null) {
+        stageFailures.putIfAbsent(timing.getName(), new AtomicLong());
+        failures = stageFailures.get(timing.getName());
+      }
+      failures.incrementAndGet();
+    }
+  }
+
+  /**
+   * Records a child process.
+   */
+  void recordProcess(ProcessSpan span) {
+    ToolStats stats = tools.get(span.getTool());
+    if (stats == null) {
+      tools.putIfAbsent(span.getTool(), new ToolStats());
+      stats = tools.get(span.getTool());
+    }
+    stats.latency.observe(span.getWallMillis());
+    if (span.getExitCode() != 0) {
+      stats.failures.incrementAndGet();
+    }
+    if (span.getPeakRssBytes() >= 0) {
+      long peak;
+      do {
+        peak = stats.maxPeakRssBytes.get();
+      } while (span.getPeakRssBytes() > peak &&
+          !stats.maxPeakRssBytes.compareAndSet(peak, span.getPeakRssBytes()));
+    }
+    if (span.getBytesRead() >= 0) {
+      stats.bytesRead.addAndGet(span.getBytesRead());
+    }
+    if (span.getBytesWritten() >= 0) {
+      stats.bytesWritten.addAndGet(span.getBytesWritten());
+    }
+  }
+
+  /**
+   * Returns the metrics in the Prometheus text exposition format.
+   */
+  String toPrometheusText() {
+    StringBuilder out = new StringBuilder();
+    appendHelp(out, "buildserver_build_duration_seconds", "histogram",
+        "Wall clock time of builds.");
+    for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(buildLatency).entrySet()) {
+      entry.getValue().appendTo(out, "buildserver_build_duration_seconds",
+          label("result", entry.getKey()));
+    }
+
+    appendHelp(out, "buildserver_stage_duration_seconds", "histogram",
+        "Wall clock time of build stages, including the child processes they wait for.");
+    for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(stageLatency).entrySet()) {
+      entry.getValue().appendTo(out, "buildserver_stage_duration_seconds",
+          label("stage", entry.getKey()));
+    }
+    appendHelp(out, "buildserver_stage_failures_total", "counter",
+        "Build stages that failed.");
+    for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(stageFailures).entrySet()) {
+      appendSample(out, "buildserver_stage_failures_total", label("stage", entry.getKey()),
+          entry.getValue().get());
+    }
+
+    Map<String, ToolStats> sortedTools = new TreeMap<>(tools);
+    appendHelp(out, "buildserver_process_duration_seconds", "histogram",
+        "Wall clock time of child processes.");
+    for (Map.Entry<String, ToolStats> entry : sortedTools.entrySet()) {
+      entry.getValue().latency.appendTo(out, "buildserver_process_duration_seconds",
+          label("tool", entry.getKey()));
+    }
+    appendHelp(out, "buildserver_process_failures_total", "counter",
+        "Child processes that exited with a non-zero exit code or could not be started.");
+    for (Map.Entry<String, ToolStats> entry : sortedTools.entrySet()) {
+      appendSample(out, "buildserver_process_failures_total", label("tool", entry.getKey()),
+          entry.getValue().failures.get());
+    }
+    appendHelp(out, "buildserver_process_peak_rss_bytes_max", "gauge",
+        "Largest peak resident set size of a child process.");
+    for (Map.Entry<String, ToolStats> entry : sortedTools.entrySet()) {
+      appendSample(out, "buildserver_process_peak_rss_bytes_max", label("tool", entry.getKey()),
+          entry.getValue().maxPeakRssBytes.get());
+    }
+    appendHelp(out, "buildserver_process_read_bytes_total", "counter",
+        "Bytes read by child processes.");
+    for (Map.Entry<String, ToolStats> entry : sortedTools.entrySet()) {
+      appendSample(out, "buildserver_process_read_bytes_total", label("tool", entry.getKey()),
+          entry.getValue().bytesRead.get());
+    }
+    appendHelp(out, "buildserver_process_written_bytes_total", "counter",
+        "Bytes written by child processes.");
+    for (Map.Entry<String, ToolStats> entry : sortedTools.entrySet()) {
+      appendSample(out, "buildserver_process_written_bytes_total", label("tool", entry.getKey()),
+          entry.getValue().bytesWritten.get());
+    }
+    return out.toString();
+  }
+
+  private static LatencyHistogram get(ConcurrentMap<String, LatencyHistogram> histograms,
+      String key) {
+    LatencyHistogram histogram = histograms.get(key);
+    if (histogram == null) {
+      histograms.putIfAbsent(key, new LatencyHistogram());
+      histogram = histograms.get(key);
+    }
+    return histogram;
+  }
+
+  private static void appendHelp(StringBuilder out, String name, String type, String help) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void appendSample(StringBuilder out, String name, String labels, long value) {
+    out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+  }
+
+  private static String label(String name, String value) {
+    return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") +
+        "\"";
+  }
+
+  /*
+   * The statistics of the child processes that ran one tool.
+   */
+  private static class ToolStats {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong maxPeakRssBytes = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+  }
+}
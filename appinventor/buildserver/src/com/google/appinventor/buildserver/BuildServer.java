@@ -13,6 +13,7 @@ import com.google.common.io.Files;
 import com.sun.grizzly.http.SelectorThread;
 import com.sun.jersey.api.container.grizzly.GrizzlyServerFactory;
 
+import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.kohsuke.args4j.CmdLineException;
@@ -44,6 +45,7 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -151,6 +153,55 @@ public class BuildServer {
             usage = "the directory to cache the pre-dexed libraries")
     String dexCacheDir = null;
 
+    @Option(name = "--maxSimultaneousKawaCompiles",
+      usage = "Maximum number of Kawa compiles that can run in parallel across all builds. "
+        + "0 means computed from the available memory and --childProcessRamMb.")
+    int maxSimultaneousKawaCompiles = 0;
+
+    @Option(name = "--maxSimultaneousDxPasses",
+      usage = "Maximum number of dx passes that can run in parallel across all builds. "
+        + "0 means computed from the available memory and --childProcessRamMb.")
+    int maxSimultaneousDxPasses = 0;
+
+    @Option(name = "--kawaWorkers",
+      usage = "Number of warm Kawa compiler processes to keep for reuse between builds. "
+        + "0 means every build launches its own Kawa process.")
+    int kawaWorkers = 0;
+
+    @Option(name = "--kawaWorkerMaxCompiles",
+      usage = "Number of compilations after which a warm Kawa compiler process is replaced.")
+    int kawaWorkerMaxCompiles = 100;
+
+    @Option(name = "--kawaWorkerTimeoutSeconds",
+      usage = "Time a warm Kawa compiler process may take to start or to compile before it is "
+        + "stopped and the build falls back to a new Kawa process.")
+    int kawaWorkerTimeoutSeconds = 600;
+
+    @Option(name = "--buildCacheDir",
+      usage = "The directory in which to cache APKs and dex files of earlier builds. "
+        + "If not specified, nothing is cached.")
+    String buildCacheDir = null;
+
+    @Option(name = "--buildCacheMaxMb",
+      usage = "Maximum disk space used by the build cache, in MB.")
+    int buildCacheMaxMb = 4096;
+
+    @Option(name = "--resourceCacheDir",
+      usage = "The directory into which the runtime libraries and tools are extracted. They are "
+        + "reused by later build servers with the same libraries and tools. If not specified, "
+        + "a directory under java.io.tmpdir is used.")
+    String resourceCacheDir = null;
+
+    @Option(name = "--maxQueuedBuilds",
+      usage = "Maximum number of builds that can wait for one of the --maxSimultaneousBuilds "
+        + "slots. 0 means builds are rejected when all slots are busy.")
+    int maxQueuedBuilds = 0;
+
+    @Option(name = "--maxBuildsPerUser",
+      usage = "When builds are queued, the maximum number of running builds, and of waiting "
+        + "builds, per user. 0 means unlimited.")
+    int maxBuildsPerUser = 2;
+
   }
 
   private static final CommandLineOptions commandLineOptions = new CommandLineOptions();
@@ -165,6 +216,13 @@ public class BuildServer {
   private static final MediaType ZIP_MEDIA_TYPE =
     new MediaType("application", "zip", ImmutableMap.of("charset", "utf-8"));
 
+  // The response header of an accepted async build request that holds the estimated time, in
+  // milliseconds since the epoch, at which the build will start.
+  private static final String ESTIMATED_START_TIME_HEADER = "X-Estimated-Start-Time";
+
+  // The Retry-After value, in seconds, of a rejected async build request when builds are queued.
+  private static final int RETRY_AFTER_SECONDS = 60;
+
   private static final AtomicInteger buildCount = new AtomicInteger(0);
 
   // The number of build requests for this server run
@@ -186,7 +244,10 @@ public class BuildServer {
   // NOTE(lizlooney) - the buildExecutor must be created after the command line options are
   // processed in main(). If it is created here, the number of simultaneous builds will always be
   // the default value, even if the --maxSimultaneousBuilds option is on the command line.
-  private static NonQueuingExecutor buildExecutor;
+  private static BuildExecutor buildExecutor;
+
+  // The same executor as buildExecutor if builds are queued, otherwise null.
+  private static QueuingExecutor buildQueue;
 
   // The input zip file. It will be deleted in cleanUp.
   private File inputZip;
@@ -303,6 +364,25 @@ public class BuildServer {
     maximumActiveBuildTasks = Math.max(maximumActiveBuildTasks, buildExecutor.getActiveTaskCount());
     variables.put("maximum-simultaneous-build-tasks-occurred", maximumActiveBuildTasks + "");
     variables.put("active-build-tasks", buildExecutor.getActiveTaskCount() + "");
+    if (buildQueue != null) {
+      variables.putAll(buildQueue.getVariables());
+    }
+
+    // Kawa and DX stages
+    variables.putAll(Compiler.getStageScheduler().getVariables());
+    KawaWorkerPool kawaWorkerPool = Compiler.getKawaWorkerPool();
+    if (kawaWorkerPool != null) {
+      variables.putAll(kawaWorkerPool.getVariables());
+    }
+
+    // Resource cache
+    variables.putAll(Compiler.getResourceCache().getVariables());
+
+    // Build cache
+    BuildCache buildCache = Compiler.getBuildCache();
+    if (buildCache != null) {
+      variables.putAll(buildCache.getVariables());
+    }
 
     StringBuilder html = new StringBuilder();
     html.append("<html><body><tt>");
@@ -314,6 +394,18 @@ public class BuildServer {
     return Response.ok(html.toString(), MediaType.TEXT_HTML_TYPE).build();
   }
 
+  /**
+   * Returns the latency histograms of the builds, build stages and child processes, and the
+   * resources used by the child processes, in the Prometheus text format.
+   */
+  @GET
+  @Path("metrics")
+  @Produces(MediaType.TEXT_PLAIN)
+  public Response metrics() {
+    return Response.ok(BuildMetrics.getInstance().toPrometheusText(),
+        "text/plain; version=0.0.4").build();
+  }
+
   /**
    * Indicate that the server is shutting down.
    *
@@ -446,10 +538,16 @@ public class BuildServer {
    * The status code returned here will be seen by the server in YoungAndroidProjectService.build
    * as connection.getResponseCode().
    *
+   * If the build server was started with --maxQueuedBuilds, a request that arrives while all
+   * build slots are busy waits in the queue instead of being rejected. The X-Estimated-Start-Time
+   * header of the response holds the estimated start time of the build, in milliseconds since the
+   * epoch.
+   *
    * @param userName  The user name to be used in making the CN entry in the generated keystore.
    * @param gitBuildVersion  The value of GitBuildId.getVersion() sent from
    *     YoungAndroidProjectService.build.
    * @param callbackUrlStr An url to send the build results back to.
+   * @param lane  The queue lane of the build, "companion" or "release" (the default).
    * @param inputZipFile  The zip file representing the App Inventor source code.
    * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503).
    */
@@ -460,12 +558,14 @@ public class BuildServer {
     @QueryParam("uname") final String userName,
     @QueryParam("callback") final String callbackUrlStr,
     @QueryParam("gitBuildVersion") final String gitBuildVersion,
+    @QueryParam("lane") final String lane,
     final File inputZipFile) throws IOException {
     // Set the inputZip field so we can delete the input zip file later in
     // cleanUp.
     inputZip = inputZipFile;
     inputZip.deleteOnExit(); // In case build server is killed before cleanUp executes.
     String requesting_host = (new URL(callbackUrlStr)).getHost();
+    long estimatedStartTime = System.currentTimeMillis();
 
     //for the request for update part, the file should be empty
     if (inputZip.length() == 0L) {
@@ -561,7 +661,12 @@ public class BuildServer {
           }
         };
       try {
-        buildExecutor.execute(buildTask);
+        if (buildQueue != null) {
+          estimatedStartTime = buildQueue.execute(userName == null ? "" : userName,
+              QueuingExecutor.Lane.fromName(lane), buildTask);
+        } else {
+          buildExecutor.execute(buildTask);
+        }
       } catch (RejectedExecutionException e) {
         // This request was rejected because all threads in the build
         // executor are busy.
@@ -573,13 +678,20 @@ public class BuildServer {
         // overloading or maintenance of the server. The implication
         // is that this is a temporary condition which will be
         // alleviated after some delay."
-        return Response.status(Response.Status.SERVICE_UNAVAILABLE).type(MediaType.TEXT_PLAIN_TYPE).entity("The build server is currently at maximum capacity.").build();
+        Response.ResponseBuilder response = Response.status(Response.Status.SERVICE_UNAVAILABLE)
+          .type(MediaType.TEXT_PLAIN_TYPE).entity("The build server is currently at maximum capacity.");
+        if (buildQueue != null) {
+          // Tell the client when it is worth trying again, rather than having it retry blindly.
+          response.header("Retry-After", RETRY_AFTER_SECONDS);
+        }
+        return response.build();
       }
     }
     // Note: The code below should no longer be invoked. Progress reports
     // are now handled via a callback mechanism. The "50" here is just a plug
     // number.
     return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
+      .header(ESTIMATED_START_TIME_HEADER, estimatedStartTime)
       .entity("" + 50).build();
   }
 
@@ -620,6 +732,11 @@ public class BuildServer {
     if (buildResult.getFormName() != null) {
       buildOutputJsonObj.put("formName", buildResult.getFormName());
     }
+    JSONArray stages = new JSONArray();
+    for (StageTiming timing : buildResult.getStageTimings()) {
+      stages.put(timing.toJson());
+    }
+    buildOutputJsonObj.put("stages", stages);
     return buildOutputJsonObj.toString();
   }
 
@@ -705,8 +822,12 @@ public class BuildServer {
             return;
           }
           while (true) {
-            int tasks = buildExecutor.getActiveTaskCount();
+            int tasks = buildExecutor.getActiveTaskCount() + buildExecutor.getQueuedTaskCount();
             if (tasks <= 0) {
+              KawaWorkerPool kawaWorkerPool = Compiler.getKawaWorkerPool();
+              if (kawaWorkerPool != null) {
+                kawaWorkerPool.shutdown();
+              }
               try {
                 Thread.sleep(10000); // One final wait so people can get
                                      // their barcode
@@ -725,7 +846,49 @@ public class BuildServer {
 
 
     // Now that the command line options have been processed, we can create the buildExecutor.
-    buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    if (commandLineOptions.maxQueuedBuilds > 0 && commandLineOptions.maxSimultaneousBuilds > 0) {
+      buildQueue = new QueuingExecutor(commandLineOptions.maxSimultaneousBuilds,
+          commandLineOptions.maxQueuedBuilds, commandLineOptions.maxBuildsPerUser);
+      buildExecutor = buildQueue;
+    } else {
+      if (commandLineOptions.maxQueuedBuilds > 0) {
+        LOG.warning("--maxQueuedBuilds is ignored because the number of simultaneous builds is unlimited.");
+      }
+      buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    }
+    if (commandLineOptions.resourceCacheDir != null) {
+      Compiler.setResourceCacheDirectory(new File(commandLineOptions.resourceCacheDir));
+    }
+    long extractStart = System.currentTimeMillis();
+    try {
+      Compiler.extractResources();
+      LOG.info("Resources extracted in " + (System.currentTimeMillis() - extractStart) + " ms");
+    } catch (IOException | JSONException | RuntimeException e) {
+      // Builds extract the resources they need themselves.
+      LOG.log(Level.WARNING, "Unable to extract resources at startup", e);
+    }
+    // Idle warm Kawa workers stay resident, so they take part of the memory for child processes.
+    Compiler.setStageScheduler(StageScheduler.create(
+        commandLineOptions.maxSimultaneousKawaCompiles,
+        commandLineOptions.maxSimultaneousDxPasses,
+        commandLineOptions.childProcessRamMb,
+        Math.max(0, commandLineOptions.kawaWorkers)));
+    // Pre-dexing a library is a dx pass of its own, so each pre-dex takes a dx permit. There is
+    // no point in having more pre-dex threads than permits.
+    DexExecTask.setMaxParallelPreDexes(
+        Compiler.getStageScheduler().getPermits(StageScheduler.Stage.DX));
+    if (commandLineOptions.dexCacheDir != null) {
+      startDexCacheWarmUp();
+    }
+    if (commandLineOptions.kawaWorkers > 0) {
+      Compiler.setKawaWorkerPool(new KawaWorkerPool(commandLineOptions.kawaWorkers,
+          commandLineOptions.kawaWorkerMaxCompiles,
+          commandLineOptions.kawaWorkerTimeoutSeconds * 1000L));
+    }
+    if (commandLineOptions.buildCacheDir != null) {
+      Compiler.setBuildCache(new BuildCache(new File(commandLineOptions.buildCacheDir),
+          commandLineOptions.buildCacheMaxMb * 1024L * 1024L));
+    }
 
     int port = commandLineOptions.port;
     SelectorThread threadSelector = GrizzlyServerFactory.create("http://localhost:" + port + "/");
@@ -738,13 +901,44 @@ public class BuildServer {
     } else {
       LOG.info("Maximum simultanous builds = " + commandLineOptions.maxSimultaneousBuilds);
     }
+    if (buildQueue != null) {
+      LOG.info("Maximum queued builds = " + commandLineOptions.maxQueuedBuilds);
+    }
     LOG.info("Visit: http://" + hostAddress + ":" + port +
       "/buildserver/health for server health");
     LOG.info("Visit: http://" + hostAddress + ":" + port +
       "/buildserver/vars for server values");
+    LOG.info("Visit: http://" + hostAddress + ":" + port +
+      "/buildserver/metrics for build metrics");
     LOG.info("Server running");
   }
 
+  /*
+   * Pre-dexes the component libraries in the background, so that the first builds after the
+   * build server starts do not pay for it.
+   */
+  private static void startDexCacheWarmUp() {
+    Thread warmUp = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        long start = System.currentTimeMillis();
+        try {
+          if (Compiler.preDexComponentLibraries(commandLineOptions.dexCacheDir,
+              commandLineOptions.childProcessRamMb)) {
+            LOG.info("Dex cache warm-up finished in "
+                + (System.currentTimeMillis() - start) + " ms");
+          } else {
+            LOG.warning("Dex cache warm-up failed to pre-dex some libraries");
+          }
+        } catch (Exception e) {
+          LOG.log(Level.WARNING, "Dex cache warm-up failed", e);
+        }
+      }
+    }, "dex-cache-warm-up");
+    warmUp.setDaemon(true);
+    warmUp.start();
+  }
+
   private static class DeleteFileOnCloseFileInputStream extends FileInputStream {
     private final File file;
 
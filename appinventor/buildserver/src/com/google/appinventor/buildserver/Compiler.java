@@ -8,6 +8,7 @@ package com.google.appinventor.buildserver;
 
 import com.google.appinventor.buildserver.util.AARLibraries;
 import com.google.appinventor.buildserver.util.AARLibrary;
+import com.google.appinventor.common.version.GitBuildId;
 import com.google.appinventor.components.common.ComponentDescriptorConstants;
 import com.google.appinventor.components.common.YaVersion;
 import com.google.common.annotations.VisibleForTesting;
@@ -15,6 +16,8 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
 import com.android.ide.common.internal.AaptCruncher;
@@ -32,6 +35,7 @@ import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -45,14 +49,21 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -79,8 +90,32 @@ public final class Compiler {
 
   public static int currentProgress = 10;
 
-  // Kawa and DX processes can use a lot of memory. We only launch one Kawa or DX process at a time.
-  private static final Object SYNC_KAWA_OR_DX = new Object();
+  // Kawa and DX processes can use a lot of memory. The stage scheduler limits how many of each
+  // are launched at a time. By default we only launch one Kawa and one DX process at a time; the
+  // build server replaces the scheduler with one sized for the machine it runs on.
+  private static volatile StageScheduler stageScheduler = new StageScheduler(1, 1);
+
+  // Warm Kawa compiler processes, or null if every build launches its own Kawa process.
+  private static volatile KawaWorkerPool kawaWorkerPool = null;
+
+  // Cache of build outputs shared by all builds, or null if nothing is cached.
+  private static volatile BuildCache buildCache = null;
+  private static final String DEX_CACHE_KIND = "dex";
+  // Lists the dex files of a dex cache entry and their sizes, one "name size" per line.
+  @VisibleForTesting
+  static final String DEX_CACHE_MANIFEST = "dex-files.txt";
+
+  // Runs the stages of all builds. The stages that launch Kawa and DX still wait for the stage
+  // scheduler, so the number of threads only bounds the number of stages that can wait at once.
+  private static final ExecutorService stageExecutor = Executors.newCachedThreadPool(
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "build-stage");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
 
   private static final String SLASH = File.separator;
   private static final String COLON = File.pathSeparator;
@@ -88,6 +123,10 @@ public final class Compiler {
 
   public static final String RUNTIME_FILES_DIR = "/" + "files" + "/";
 
+  // Makes runtime.scm compile component method calls and property accesses into direct calls.
+  // See call-component-method in runtime.scm.
+  static final String STATIC_COMPONENT_CALLS = "-Dyail.static.component.calls=true";
+
 
   // Native library directory names
   private static final String LIBS_DIR_NAME = "libs";
@@ -139,6 +178,9 @@ public final class Compiler {
       "/tools/windows/aapt";
   private static final String WINDOWS_ZIPALIGN_TOOL =
       "/tools/windows/zipalign";
+  // The Linux aapt finds this library through its RPATH, $ORIGIN/lib64.
+  private static final String LINUX_AAPT_LIBRARY =
+      "/tools/linux/lib64/libc++.so";
 
   @VisibleForTesting
   static final String YAIL_RUNTIME = RUNTIME_FILES_DIR + "runtime.scm";
@@ -157,7 +199,6 @@ public final class Compiler {
       new ConcurrentHashMap<String, Set<String>>();
   private final ConcurrentMap<String, Set<String>> minSdksNeeded =
       new ConcurrentHashMap<String, Set<String>>();
-  private final Set<String> uniqueLibsNeeded = Sets.newHashSet();
   private final ConcurrentMap<String, Map<String, Map<String, Set<String>>>> conditionals =
       new ConcurrentHashMap<>();
   /**
@@ -202,13 +243,15 @@ public final class Compiler {
       new ConcurrentHashMap<String, Set<String>>();
 
   /**
-   * Map used to hold the names and paths of resources that we've written out
-   * as temp files.
-   * Don't use this map directly. Please call getResource() with one of the
-   * constants above to get the (temp file) path to a resource.
+   * The files that resources have been extracted to.
+   * Don't use this cache directly. Please call getResource() with one of the
+   * constants above to get the path to a resource.
    */
-  private static final ConcurrentMap<String, File> resources =
-      new ConcurrentHashMap<String, File>();
+  // Computed by getRuntimeFingerprint() the first time a cache key needs it.
+  private static volatile String runtimeFingerprint = null;
+
+  private static volatile ResourceCache resourceCache =
+      new ResourceCache(ResourceCache.getDefaultDirectory());
 
   // TODO(user,lizlooney): i18n here and in lines below that call String.format(...)
   private static final String COMPILATION_ERROR =
@@ -267,7 +310,13 @@ public final class Compiler {
 
   private File libsDir; // The directory that will contain any native libraries for packaging
   private String dexCacheDir;
-  private boolean hasSecondDex = false; // True if classes2.dex should be added to the APK
+  private int dexFileCount = 1; // The number of classes*.dex files that are added to the APK
+
+  // The dx task and its inputs, with the libraries replaced by their pre-dexed versions, set up
+  // by preDexLibraries for runDx. The first primaryDexInputCount inputs go in classes.dex.
+  private DexExecTask dexTask;
+  private List<File> dexInputs;
+  private int primaryDexInputCount;
 
   private JSONArray simpleCompsBuildInfo;
   private JSONArray extCompsBuildInfo;
@@ -282,6 +331,7 @@ public final class Compiler {
   private static final Logger LOG = Logger.getLogger(Compiler.class.getName());
 
   private BuildServer.ProgressReporter reporter; // Used to report progress of the build
+  private int lastProgress; // The highest progress reported, guarded by this
 
   /*
    * Generate the set of Android permissions needed by this project.
@@ -1065,6 +1115,7 @@ public final class Compiler {
    * @param userErrors stream to write user-visible error messages
    * @param keystoreFilePath
    * @param childProcessRam   maximum RAM for child processes, in MBs.
+   * @param stageTimings  list to add the timings of the build stages to, or null
    * @return  {@code true} if the compilation succeeds, {@code false} otherwise
    * @throws JSONException
    * @throws IOException
@@ -1074,7 +1125,9 @@ public final class Compiler {
                                 boolean isForCompanion, boolean isForEmulator,
                                 boolean includeDangerousPermissions, String keystoreFilePath,
                                 int childProcessRam, String dexCacheDir, String outputFileName,
-                                BuildServer.ProgressReporter reporter) throws IOException, JSONException {
+                                BuildServer.ProgressReporter reporter,
+                                List<StageTiming> stageTimings)
+      throws IOException, JSONException {
     long start = System.currentTimeMillis();
 
     // Create a new compiler instance for the compilation
@@ -1097,109 +1150,255 @@ public final class Compiler {
     compiler.generateBroadcastReceiver();
 
     // Create build directory.
-    File buildDir = createDir(project.getBuildDirectory());
-
-    // Prepare application icon.
-    out.println("________Preparing application icon");
-    File resDir = createDir(buildDir, "res");
-    File drawableDir = createDir(resDir, "drawable");
-    if (!compiler.prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
-      return false;
+    final File buildDir = createDir(project.getBuildDirectory());
+    final File resDir = createDir(buildDir, "res");
+    final File deployDir = createDir(buildDir, "deploy");
+    final File tmpDir = createDir(buildDir, "tmp");
+    final String dexedClassesDir = tmpDir.getAbsolutePath();
+    final String tmpPackageName = deployDir.getAbsolutePath() + SLASH +
+        project.getProjectName() + ".ap_";
+    final File manifestFile = new File(buildDir, "AndroidManifest.xml");
+    final File classesDir = createDir(buildDir, "classes");
+    String fileName = outputFileName;
+    if (fileName == null) {
+      fileName = project.getProjectName() + ".apk";
     }
-    if (reporter != null) {
-      reporter.report(15);        // Have to call directly because we are in a
-    }                             // Static context
+    final String apkAbsolutePath = deployDir.getAbsolutePath() + SLASH + fileName;
 
-    // Create anim directory and animation xml files
-    out.println("________Creating animation xml");
-    File animDir = createDir(resDir, "anim");
-    if (!compiler.createAnimationXml(animDir)) {
-      return false;
+    StageGraph stages = compiler.createStages(buildDir, resDir, manifestFile, tmpPackageName,
+        classesDir, tmpDir, dexedClassesDir, apkAbsolutePath, keystoreFilePath);
+    boolean success;
+    try {
+      success = stages.run(stageExecutor);
+    } catch (IOException | JSONException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    } finally {
+      compiler.recordStages(stages.getTimings(), stageTimings);
     }
-
-    // Create values directory and style xml files
-    out.println("________Creating style xml");
-    File styleDir = createDir(resDir, "values");
-    File style11Dir = createDir(resDir, "values-v11");
-    File style14Dir = createDir(resDir, "values-v14");
-    File style21Dir = createDir(resDir, "values-v21");
-    File style23Dir = createDir(resDir, "values-v23");
-    if (!compiler.createValuesXml(styleDir, "") ||
-        !compiler.createValuesXml(style11Dir, "-v11") ||
-        !compiler.createValuesXml(style14Dir, "-v14") ||
-        !compiler.createValuesXml(style21Dir, "-v21") ||
-        !compiler.createValuesXml(style23Dir, "-v23")) {
+    BuildMetrics.getInstance().recordBuild(success, System.currentTimeMillis() - start);
+    if (!success) {
       return false;
     }
 
-    out.println("________Creating provider_path xml");
-    File providerDir = createDir(resDir, "xml");
-    if (!compiler.createProviderXml(providerDir)) {
-      return false;
+    out.println("Build finished in " +
+        ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
+
+    return true;
+  }
+
+  /*
+   * Adds the timings of the stages that ran to the build server metrics and to stageTimings, if
+   * it is not null, and logs them as the trace of the build.
+   */
+  private void recordStages(List<StageTiming> timings, List<StageTiming> stageTimings) {
+    if (stageTimings != null) {
+      stageTimings.addAll(timings);
+    }
+    JSONArray trace = new JSONArray();
+    StringBuilder criticalPath = new StringBuilder();
+    for (StageTiming timing : timings) {
+      BuildMetrics.getInstance().recordStage(timing);
+      try {
+        trace.put(timing.toJson());
+      } catch (JSONException e) {
+        LOG.log(Level.WARNING, "Unable to trace stage " + timing.getName(), e);
+      }
+      if (timing.isCritical()) {
+        criticalPath.append(criticalPath.length() == 0 ? "" : " -> ").append(timing.getName())
+            .append(" (").append(timing.getWallMillis()).append(" ms)");
+      }
     }
+    LOG.info("Build trace of " + project.getProjectName() + ": " + trace);
+    LOG.info("Critical path: " + criticalPath);
+  }
 
-    out.println("________Creating network_security_config xml");
-    if (!compiler.createNetworkConfigXml(providerDir)) {
-      return false;
+  /*
+   * Creates the stages of the build. Each stage depends on the stages whose output it reads or
+   * whose side effects on this compiler it relies on, and on nothing else, so that stages such
+   * as the creation of the resource files, or the Kawa compile and aapt, can run at the same
+   * time.
+   */
+  private StageGraph createStages(final File buildDir, final File resDir, final File manifestFile,
+      final String tmpPackageName, final File classesDir, final File tmpDir,
+      final String dexedClassesDir, final String apkAbsolutePath, final String keystoreFilePath) {
+    StageGraph stages = new StageGraph();
+
+    // Prepare application icon.
+    stages.add("icon", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        out.println("________Preparing application icon");
+        File drawableDir = createDir(resDir, "drawable");
+        if (!prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
+          return false;
+        }
+        setProgress(15);
+        return true;
+      }
+    });
+
+    // Create anim directory and animation xml files
+    stages.add("animation-xml", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        out.println("________Creating animation xml");
+        return createAnimationXml(createDir(resDir, "anim"));
+      }
+    });
+
+    // Create values directory and style xml files
+    final List<String> valuesStages = new ArrayList<String>();
+    for (final String suffix : new String[] { "", "-v11", "-v14", "-v21", "-v23" }) {
+      String name = "values" + suffix + "-xml";
+      valuesStages.add(name);
+      stages.add(name, new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          out.println("________Creating style xml" + suffix);
+          return createValuesXml(createDir(resDir, "values" + suffix), suffix);
+        }
+      });
     }
 
+    final File providerDir = createDir(resDir, "xml");
+    stages.add("provider-xml", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        out.println("________Creating provider_path xml");
+        return createProviderXml(providerDir);
+      }
+    });
+    stages.add("network-config-xml", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        out.println("________Creating network_security_config xml");
+        return createNetworkConfigXml(providerDir);
+      }
+    });
+
     // Generate AndroidManifest.xml
-    out.println("________Generating manifest file");
-    File manifestFile = new File(buildDir, "AndroidManifest.xml");
-    if (!compiler.writeAndroidManifest(manifestFile)) {
-      return false;
-    }
-    if (reporter != null) {
-      reporter.report(20);
-    }
+    stages.add("manifest", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        out.println("________Generating manifest file");
+        if (!writeAndroidManifest(manifestFile)) {
+          return false;
+        }
+        setProgress(20);
+        return true;
+      }
+    });
 
     // Insert native libraries
-    out.println("________Attaching native libraries");
-    if (!compiler.insertNativeLibs(buildDir)) {
-      return false;
-    }
-
-    // Attach Android AAR Library dependencies
-    out.println("________Attaching Android Archive (AAR) libraries");
-    if (!compiler.attachAarLibraries(buildDir)) {
-      return false;
-    }
+    stages.add("native-libs", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        out.println("________Attaching native libraries");
+        return insertNativeLibs(buildDir);
+      }
+    });
+
+    // Attach Android AAR Library dependencies. This removes the AARs from libsNeeded, so the
+    // stages that read libsNeeded depend on it.
+    stages.add("aar-libraries", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        out.println("________Attaching Android Archive (AAR) libraries");
+        return attachAarLibraries(buildDir);
+      }
+    });
 
     // Add raw assets to sub-directory of project assets.
-    out.println("________Attaching component assets");
-    if (!compiler.attachCompAssets()) {
-      return false;
-    }
+    stages.add("component-assets", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        out.println("________Attaching component assets");
+        return attachCompAssets();
+      }
+    });
 
     // Invoke aapt to package everything up
-    out.println("________Invoking AAPT");
-    File deployDir = createDir(buildDir, "deploy");
-    String tmpPackageName = deployDir.getAbsolutePath() + SLASH +
-        project.getProjectName() + ".ap_";
-    File srcJavaDir = createDir(buildDir, "generated/src");
-    File rJavaDir = createDir(buildDir, "generated/symbols");
-    if (!compiler.runAaptPackage(manifestFile, resDir, tmpPackageName, srcJavaDir, rJavaDir)) {
-      return false;
-    }
-    if (reporter != null) {
-      reporter.report(30);
+    List<String> resourceStages = new ArrayList<String>(valuesStages);
+    Collections.addAll(resourceStages, "icon", "animation-xml", "provider-xml",
+        "network-config-xml", "manifest", "aar-libraries", "component-assets");
+    stages.add("aapt", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        out.println("________Invoking AAPT");
+        File srcJavaDir = createDir(buildDir, "generated/src");
+        File rJavaDir = createDir(buildDir, "generated/symbols");
+        if (!runAaptPackage(manifestFile, resDir, tmpPackageName, srcJavaDir, rJavaDir)) {
+          return false;
+        }
+        setProgress(30);
+        return true;
+      }
+    }, resourceStages.toArray(new String[resourceStages.size()]));
+
+    // The dex files only depend on the YAIL sources and the libraries, so a build whose sources
+    // and libraries have not changed can reuse the dex files of an earlier build. The key
+    // includes the R.txt written by aapt.
+    final String[] dexCacheKey = new String[1];
+    final boolean[] usingCachedDex = new boolean[1];
+    stages.add("dex-cache-lookup", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        dexCacheKey[0] = computeDexCacheKey();
+        if (dexCacheKey[0] != null && restoreCachedDex(dexCacheKey[0], tmpDir)) {
+          out.println("________Using cached dex files");
+          usingCachedDex[0] = true;
+        }
+        return true;
+      }
+    }, "aapt", "aar-libraries");
+
+    // Without a build cache, the libraries are pre-dexed, and the YAIL sources of projects without
+    // AAR libraries compiled, while aapt runs. With one, they wait for the cache lookup, which may
+    // make them unnecessary.
+    final String compileAfter = buildCache == null ? "aar-libraries" : "dex-cache-lookup";
+
+    // Write the R classes of the AAR libraries to classesDir.
+    stages.add("r-classes", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return usingCachedDex[0] || generateRClasses(classesDir);
+      }
+    }, "aapt", "dex-cache-lookup");
+
+    // The R classes of the AAR libraries are written to classesDir, which is on Kawa's class path
+    // when there are AAR libraries, so Kawa must not start until they have been written.
+    List<String> kawaStages = new ArrayList<String>();
+    Collections.addAll(kawaStages, "aar-libraries", compileAfter);
+    if (hasAarLibraries()) {
+      kawaStages.add("r-classes");
     }
 
     // Create class files.
-    out.println("________Compiling source files");
-    File classesDir = createDir(buildDir, "classes");
-    if (!compiler.generateRClasses(classesDir)) {
-      return false;
-    }
-    if (!compiler.generateClasses(classesDir)) {
-      return false;
-    }
-    if (reporter != null) {
-      reporter.report(35);
-    }
+    stages.add("kawa", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        if (usingCachedDex[0]) {
+          return true;
+        }
+        out.println("________Compiling source files");
+        if (!generateClasses(classesDir)) {
+          return false;
+        }
+        setProgress(35);
+        return true;
+      }
+    }, kawaStages.toArray(new String[kawaStages.size()]));
+
+    stages.add("pre-dex", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return usingCachedDex[0] || preDexLibraries(classesDir);
+      }
+    }, "aar-libraries", compileAfter);
 
     // Invoke dx on class files
-    out.println("________Invoking DX");
     // TODO(markf): Running DX is now pretty slow (~25 sec overhead the first time and ~15 sec
     // overhead for subsequent runs).  I think it's because of the need to dx the entire
     // kawa runtime every time.  We should probably only do that once and then copy all the
@@ -1215,49 +1414,178 @@ public final class Compiler {
     // method of identifying via a hash of the path won't work when files
     // are copied into temporary storage) and processed via a hacked up version of
     // Android SDK's Dex Ant task
-    File tmpDir = createDir(buildDir, "tmp");
-    String dexedClassesDir = tmpDir.getAbsolutePath();
-    if (!compiler.runDx(classesDir, dexedClassesDir, false)) {
-      return false;
-    }
-    if (reporter != null) {
-      reporter.report(85);
-    }
+    stages.add("dx", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        if (usingCachedDex[0]) {
+          return true;
+        }
+        out.println("________Invoking DX");
+        if (!runDx(dexedClassesDir)) {
+          return false;
+        }
+        if (dexCacheKey[0] != null) {
+          storeCachedDex(dexCacheKey[0], tmpDir);
+        }
+        return true;
+      }
+    }, "kawa", "r-classes", "pre-dex");
 
     // Seal the apk with ApkBuilder
-    out.println("________Invoking ApkBuilder");
-    String fileName = outputFileName;
-    if (fileName == null) {
-      fileName = project.getProjectName() + ".apk";
-    }
-    String apkAbsolutePath = deployDir.getAbsolutePath() + SLASH + fileName;
-    if (!compiler.runApkBuilder(apkAbsolutePath, tmpPackageName, dexedClassesDir)) {
-      return false;
+    stages.add("apkbuilder", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        setProgress(85);
+        out.println("________Invoking ApkBuilder");
+        if (!runApkBuilder(apkAbsolutePath, tmpPackageName, dexedClassesDir)) {
+          return false;
+        }
+        setProgress(95);
+        return true;
+      }
+    }, "aapt", "native-libs", "dx");
+
+    // ZipAlign the apk file
+    stages.add("zipalign", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        out.println("________ZipAligning the apk file");
+        return runZipAlign(apkAbsolutePath, tmpDir);
+      }
+    }, "apkbuilder");
+
+    // Sign the apk file
+    stages.add("sign", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        out.println("________Signing the apk file");
+        if (!runApkSigner(apkAbsolutePath, keystoreFilePath)) {
+          return false;
+        }
+        setProgress(100);
+        return true;
+      }
+    }, "zipalign");
+
+    return stages;
+  }
+
+  /*
+   * Computes the build cache key for the dex files of this project, or returns null if the dex
+   * files should not be cached. The key covers everything that goes into the dex files: the
+   * runtime fingerprint of the build server (which covers the runtime and component libraries), the
+   * package name, the YAIL sources, the libraries needed by the components and the resource
+   * symbols from which the R classes of the AAR libraries are generated.
+   */
+  private String computeDexCacheKey() {
+    if (buildCache == null) {
+      return null;
     }
-    if (reporter != null) {
-      reporter.report(95);
+    try {
+      Hasher hasher = BuildCache.newHasher();
+      BuildCache.putString(hasher, getRuntimeFingerprint());
+      BuildCache.putString(hasher, project.getMainClass());
+      List<Project.SourceDescriptor> sources = new ArrayList<>(project.getSources());
+      Collections.sort(sources, new Comparator<Project.SourceDescriptor>() {
+        @Override
+        public int compare(Project.SourceDescriptor a, Project.SourceDescriptor b) {
+          return a.getQualifiedName().compareTo(b.getQualifiedName());
+        }
+      });
+      for (Project.SourceDescriptor source : sources) {
+        BuildCache.putString(hasher, source.getQualifiedName());
+        BuildCache.putFile(hasher, source.getFile());
+      }
+      for (String type : new TreeSet<>(libsNeeded.keySet())) {
+        for (String lib : new TreeSet<>(libsNeeded.get(type))) {
+          BuildCache.putString(hasher, lib);
+          if (extCompTypes.contains(type)) {
+            BuildCache.putFile(hasher, new File(getExtCompDirPath(type) + RUNTIME_FILES_DIR + lib));
+          }
+        }
+      }
+      for (String type : new TreeSet<>(extCompTypes)) {
+        BuildCache.putString(hasher, type);
+        BuildCache.putFile(hasher, new File(getExtCompDirPath(type) + SIMPLE_ANDROID_RUNTIME_JAR));
+      }
+      // The exploded AARs live in per-build directories, so order their jars by content.
+      Set<String> aarClassesHashes = new TreeSet<>();
+      for (File classesJar : explodedAarLibs.getClasses()) {
+        if (classesJar != null) {
+          aarClassesHashes.add(Files.hash(classesJar, Hashing.sha256()).toString());
+        }
+      }
+      for (String aarClassesHash : aarClassesHashes) {
+        BuildCache.putString(hasher, aarClassesHash);
+      }
+      if (appRTxt != null && appRTxt.exists()) {
+        BuildCache.putFile(hasher, appRTxt);
+      }
+      return hasher.hash().toString();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to compute the dex cache key", e);
+      return null;
     }
+  }
 
-    // ZipAlign the apk file
-    out.println("________ZipAligning the apk file");
-    if (!compiler.runZipAlign(apkAbsolutePath, tmpDir)) {
+  /*
+   * Copies the cached dex files for the given key into dexedClassesDir. Returns false if there
+   * are no cached dex files for the key, or if the entry was evicted while it was being copied.
+   * The entry lists its dex files and their sizes, and each copy is checked against the list, so
+   * that a partly evicted entry is never taken for one with fewer dex files.
+   */
+  @VisibleForTesting
+  boolean restoreCachedDex(String key, File dexedClassesDir) {
+    File entry = buildCache.lookup(DEX_CACHE_KIND, key);
+    if (entry == null) {
       return false;
     }
-
-    // Sign the apk file
-    out.println("________Signing the apk file");
-    if (!compiler.runApkSigner(apkAbsolutePath, keystoreFilePath)) {
+    List<File> copies = new ArrayList<File>();
+    try {
+      List<String> manifest = Files.readLines(new File(entry, DEX_CACHE_MANIFEST), Charsets.UTF_8);
+      for (String line : manifest) {
+        String[] fields = line.split(" ");
+        File copy = new File(dexedClassesDir, fields[0]);
+        copies.add(copy);
+        Files.copy(new File(entry, fields[0]), copy);
+        if (copy.length() != Long.parseLong(fields[1])) {
+          throw new IOException("Cached " + fields[0] + " has " + copy.length() + " bytes, not "
+              + fields[1]);
+        }
+      }
+      if (manifest.isEmpty()) {
+        throw new IOException("No dex files listed in " + DEX_CACHE_MANIFEST);
+      }
+      dexFileCount = manifest.size();
+      return true;
+    } catch (IOException | RuntimeException e) {
+      // The entry may have been evicted while we were copying it.
+      LOG.log(Level.WARNING, "Unable to restore cached dex files", e);
+      for (File copy : copies) {
+        copy.delete();
+      }
       return false;
     }
+  }
 
-    if (reporter != null) {
-      reporter.report(100);
+  @VisibleForTesting
+  void storeCachedDex(String key, File dexedClassesDir) {
+    Map<String, File> files = new HashMap<>();
+    StringBuilder manifest = new StringBuilder();
+    for (int i = 1; i <= dexFileCount; i++) {
+      File dexFile = new File(dexedClassesDir, getDexFileName(i));
+      files.put(getDexFileName(i), dexFile);
+      manifest.append(getDexFileName(i)).append(' ').append(dexFile.length()).append('\n');
+    }
+    File manifestFile = new File(dexedClassesDir.getParentFile(), DEX_CACHE_MANIFEST);
+    try {
+      Files.write(manifest, manifestFile, Charsets.UTF_8);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to write " + DEX_CACHE_MANIFEST, e);
+      return;
     }
-
-    out.println("Build finished in " +
-        ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
-
-    return true;
+    files.put(DEX_CACHE_MANIFEST, manifestFile);
+    buildCache.store(DEX_CACHE_KIND, key, files);
   }
 
   /*
@@ -1317,9 +1645,9 @@ public final class Compiler {
       ApkBuilder apkBuilder =
           new ApkBuilder(apkAbsolutePath, zipArchive,
             dexedClassesDir + File.separator + "classes.dex", null, System.out);
-      if (hasSecondDex) {
-        apkBuilder.addFile(new File(dexedClassesDir + File.separator + "classes2.dex"),
-          "classes2.dex");
+      for (int i = 2; i <= dexFileCount; i++) {
+        apkBuilder.addFile(new File(dexedClassesDir + File.separator + getDexFileName(i)),
+          getDexFileName(i));
       }
       if (nativeLibsNeeded.size() != 0) { // Need to add native libraries...
         apkBuilder.addNativeLibraries(libsDir);
@@ -1369,14 +1697,32 @@ public final class Compiler {
 
   }
 
+  /*
+   * Returns the paths of the libraries needed by the components of the project, in the order in
+   * which they are put on the Kawa class path, or null if a component type is unknown. Each
+   * library appears only once. This is important because when we Dex the libraries, a given
+   * library can only appear once.
+   */
+  private Set<String> getComponentLibraries() {
+    Set<String> libraries = new LinkedHashSet<String>();
+    for (String type : libsNeeded.keySet()) {
+      for (String lib : libsNeeded.get(type)) {
+        String pathSuffix = RUNTIME_FILES_DIR + lib;
+        if (simpleCompTypes.contains(type)) {
+          libraries.add(getResource(pathSuffix));
+        } else if (extCompTypes.contains(type)) {
+          libraries.add(getExtCompDirPath(type) + pathSuffix);
+        } else {
+          return null;
+        }
+      }
+    }
+    return libraries;
+  }
+
   /*
    * Runs the Kawa compiler in a separate process to generate classes. Returns false if not able to
    * create a class file for every source file in the project.
-   *
-   * As a side effect, we generate uniqueLibsNeeded which contains a set of libraries used by
-   * runDx. Each library appears in the set only once (which is why it is a set!). This is
-   * important because when we Dex the libraries, a given library can only appear once.
-   *
    */
   private boolean generateClasses(File classesDir) {
     try {
@@ -1443,38 +1789,35 @@ public final class Compiler {
       }
 
       // Add component library names to classpath
-      for (String type : libsNeeded.keySet()) {
-        for (String lib : libsNeeded.get(type)) {
-          String sourcePath = "";
-          String pathSuffix = RUNTIME_FILES_DIR + lib;
-
-          if (simpleCompTypes.contains(type)) {
-            sourcePath = getResource(pathSuffix);
-          } else if (extCompTypes.contains(type)) {
-            sourcePath = getExtCompDirPath(type) + pathSuffix;
-          } else {
-            userErrors.print(String.format(ERROR_IN_STAGE, "Compile"));
-            return false;
-          }
-
-          uniqueLibsNeeded.add(sourcePath);
-
-          classpath.append(sourcePath);
-          classpath.append(COLON);
-        }
+      Set<String> componentLibraries = getComponentLibraries();
+      if (componentLibraries == null) {
+        userErrors.print(String.format(ERROR_IN_STAGE, "Compile"));
+        return false;
       }
+      for (String sourcePath : componentLibraries) {
+        classpath.append(sourcePath);
+        classpath.append(COLON);
+      }
+
+      // The class path so far is the same for every build that uses the same components, unless
+      // the project has extensions. A warm Kawa worker can be shared by such builds. The R classes
+      // generated for the AAR libraries below are left out of the worker's class path since YAIL
+      // does not refer to them.
+      boolean canUseKawaWorker = extCompTypes.isEmpty();
+      String kawaWorkerClasspath = classpath.toString() + getResource(ANDROID_RUNTIME);
 
       // Add dependencies for classes.jar in any AAR libraries
       for (File classesJar : explodedAarLibs.getClasses()) {
         if (classesJar != null) {  // true for optimized AARs in App Inventor libs
           final String abspath = classesJar.getAbsolutePath();
-          uniqueLibsNeeded.add(abspath);
           classpath.append(abspath);
           classpath.append(COLON);
+          canUseKawaWorker = false;
         }
       }
+      // The R classes of the AAR libraries have been written to classesDir by now.
       if (explodedAarLibs.size() > 0) {
-        classpath.append(explodedAarLibs.getOutputDirectory().getAbsolutePath());
+        classpath.append(classesDir.getAbsolutePath());
         classpath.append(COLON);
       }
 
@@ -1483,15 +1826,9 @@ public final class Compiler {
       System.out.println("Libraries Classpath = " + classpath);
 
       String yailRuntime = getResource(YAIL_RUNTIME);
-      List<String> kawaCommandArgs = Lists.newArrayList();
+      List<String> kawaCompileArgs = Lists.newArrayList();
       int mx = childProcessRamMb - 200;
-      Collections.addAll(kawaCommandArgs,
-          System.getProperty("java.home") + "/bin/java",
-          "-Dfile.encoding=UTF-8",
-          "-mx" + mx + "M",
-          "-cp", classpath.toString(),
-          "kawa.repl",
-          "-f", yailRuntime,
+      Collections.addAll(kawaCompileArgs,
           "-d", classesDir.getAbsolutePath(),
           "-P", Signatures.getPackageName(project.getMainClass()) + ".",
           "-C");
@@ -1500,8 +1837,18 @@ public final class Compiler {
       // including the name of the tmp directory that contains them. We may be able to avoid that
       // by using source file names that are relative to the project root and using the project
       // root as the working directory for the Kawa compiler process.
-      kawaCommandArgs.addAll(sourceFileNames);
-      kawaCommandArgs.add(yailRuntime);
+      kawaCompileArgs.addAll(sourceFileNames);
+      kawaCompileArgs.add(yailRuntime);
+      List<String> kawaCommandArgs = Lists.newArrayList();
+      Collections.addAll(kawaCommandArgs,
+          System.getProperty("java.home") + "/bin/java",
+          "-Dfile.encoding=UTF-8",
+          STATIC_COMPONENT_CALLS,
+          "-mx" + mx + "M",
+          "-cp", classpath.toString(),
+          "kawa.repl",
+          "-f", yailRuntime);
+      kawaCommandArgs.addAll(kawaCompileArgs);
       String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
 
       long start = System.currentTimeMillis();
@@ -1509,10 +1856,28 @@ public final class Compiler {
       // them to the protocol buffer for logging purposes. (See
       // buildserver/ProjectBuilder.processCompilerOutout.
       ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
-      boolean kawaSuccess;
-      synchronized (SYNC_KAWA_OR_DX) {
-        kawaSuccess = Execution.execute(null, kawaCommandLine,
-            System.out, new PrintStream(kawaOutputStream));
+      boolean kawaSuccess = false;
+      StageScheduler scheduler = stageScheduler;
+      scheduler.acquire(StageScheduler.Stage.KAWA);
+      try {
+        KawaWorkerPool pool = kawaWorkerPool;
+        boolean compiledInWorker = false;
+        if (pool != null && canUseKawaWorker) {
+          try {
+            kawaSuccess = pool.compile(kawaWorkerClasspath, mx, yailRuntime, kawaCompileArgs,
+                System.out, new PrintStream(kawaOutputStream));
+            compiledInWorker = true;
+          } catch (IOException e) {
+            // The worker could not start, died or hung. Compile in a fresh process instead.
+            LOG.log(Level.WARNING, "Kawa worker failed, compiling in a new Kawa process", e);
+          }
+        }
+        if (!compiledInWorker) {
+          kawaSuccess = Execution.execute(null, kawaCommandLine,
+              System.out, new PrintStream(kawaOutputStream));
+        }
+      } finally {
+        scheduler.release(StageScheduler.Stage.KAWA);
       }
       if (!kawaSuccess) {
         LOG.log(Level.SEVERE, "Kawa compile has failed.");
@@ -1661,10 +2026,26 @@ public final class Compiler {
     return true;
   }
 
-  private boolean runDx(File classesDir, String dexedClassesDir, boolean secondTry) {
+  @VisibleForTesting
+  int getDexFileCount() {
+    return dexFileCount;
+  }
+
+  /*
+   * Returns the name of the given dex file of the APK: classes.dex, classes2.dex, classes3.dex...
+   */
+  private static String getDexFileName(int number) {
+    return number == 1 ? "classes.dex" : "classes" + number + ".dex";
+  }
+
+  /*
+   * Sets up the dx task and pre-dexes the libraries. The libraries do not depend on the classes
+   * compiled from the YAIL sources, so this can run while Kawa is compiling them. The inputs of
+   * the dx passes are kept for runDx.
+   */
+  private boolean preDexLibraries(File classesDir) {
     List<File> libList = new ArrayList<File>();
     List<File> inputList = new ArrayList<File>();
-    List<File> class2List = new ArrayList<File>();
     inputList.add(classesDir); //this is a directory, and won't be cached into the dex cache
     inputList.add(new File(getResource(SIMPLE_ANDROID_RUNTIME_JAR)));
     inputList.add(new File(getResource(KAWA_RUNTIME)));
@@ -1674,19 +2055,19 @@ public final class Compiler {
       inputList.add(new File(getResource(jar)));
     }
 
-    for (String lib : uniqueLibsNeeded) {
+    Set<String> componentLibraries = getComponentLibraries();
+    if (componentLibraries == null) {
+      userErrors.print(String.format(ERROR_IN_STAGE, "DX"));
+      return false;
+    }
+    for (String lib : componentLibraries) {
       libList.add(new File(lib));
     }
-
-    // BEGIN DEBUG -- XXX --
-    // System.err.println("runDx -- libraries");
-    // for (File aFile : inputList) {
-    //   System.err.println(" inputList => " + aFile.getAbsolutePath());
-    // }
-    // for (File aFile : libList) {
-    //   System.err.println(" libList => " + aFile.getAbsolutePath());
-    // }
-    // END DEBUG -- XXX --
+    for (File classesJar : explodedAarLibs.getClasses()) {
+      if (classesJar != null) {  // true for optimized AARs in App Inventor libs
+        libList.add(classesJar);
+      }
+    }
 
     // attach the jars of external comps to the libraries list
     Set<String> addedExtJars = new HashSet<String>();
@@ -1698,30 +2079,8 @@ public final class Compiler {
       }
     }
 
-    int offset = libList.size();
-    // Note: The choice of 12 libraries is arbitrary. We note that things
-    // worked to put all libraries into the first classes.dex file when we
-    // had 16 libraries and broke at 17. So this is a conservative number
-    // to try.
-    if (!secondTry) {           // First time through, try base + 12 libraries
-      if (offset > 12)
-        offset = 12;
-    } else {
-      offset = 0;               // Add NO libraries the second time through!
-    }
-    for (int i = 0; i < offset; i++) {
-      inputList.add(libList.get(i));
-    }
-
-    if (libList.size() - offset > 0) { // Any left over for classes2?
-      for (int i = offset; i < libList.size(); i++) {
-        class2List.add(libList.get(i));
-      }
-    }
-
     DexExecTask dexTask = new DexExecTask();
     dexTask.setExecutable(getResource(DX_JAR));
-    dexTask.setOutput(dexedClassesDir + File.separator + "classes.dex");
     dexTask.setChildProcessRamMb(childProcessRamMb);
     if (dexCacheDir == null) {
       dexTask.setDisableDexMerger(true);
@@ -1730,31 +2089,35 @@ public final class Compiler {
       dexTask.setDexedLibs(dexCacheDir);
     }
 
+    // Pre-dex the libraries first, so that the packer can read their sizes from the dex cache.
+    List<File> inputs = new ArrayList<File>(inputList);
+    inputs.addAll(libList);
+    if (!dexTask.preDexLibraries(inputs)) {
+      LOG.warning("YAIL compiler - DX execution failed.");
+      err.println("YAIL compiler - DX execution failed.");
+      userErrors.print(String.format(ERROR_IN_STAGE, "DX"));
+      return false;
+    }
+    this.dexTask = dexTask;
+    this.dexInputs = inputs;
+    this.primaryDexInputCount = inputList.size();
+    return true;
+  }
+
+  private boolean runDx(String dexedClassesDir) {
     long startDx = System.currentTimeMillis();
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
     boolean dxSuccess;
-    synchronized (SYNC_KAWA_OR_DX) {
+    StageScheduler scheduler = stageScheduler;
+    scheduler.acquire(StageScheduler.Stage.DX);
+    try {
       setProgress(50);
-      dxSuccess = dexTask.execute(inputList);
-      if (dxSuccess && (class2List.size() > 0)) {
-        setProgress(60);
-        dexTask.setOutput(dexedClassesDir + File.separator + "classes2.dex");
-        inputList = new ArrayList<File>();
-        dxSuccess = dexTask.execute(class2List);
-        setProgress(75);
-        hasSecondDex = true;
-      } else if (!dxSuccess) {  // The initial dx blew out, try more conservative
-        LOG.info("DX execution failed, trying with fewer libraries.");
-        if (secondTry) {        // Already tried the more conservative approach!
-          LOG.warning("YAIL compiler - DX execution failed (secondTry!).");
-          err.println("YAIL compiler - DX execution failed.");
-          userErrors.print(String.format(ERROR_IN_STAGE, "DX"));
-          return false;
-        } else {
-          return runDx(classesDir, dexedClassesDir, true);
-        }
-      }
+      dxSuccess = packAndDex(dexTask, dexInputs.subList(0, primaryDexInputCount),
+          dexInputs.subList(primaryDexInputCount, dexInputs.size()), dexedClassesDir);
+      setProgress(75);
+    } finally {
+      scheduler.release(StageScheduler.Stage.DX);
     }
     if (!dxSuccess) {
       LOG.warning("YAIL compiler - DX execution failed.");
@@ -1770,6 +2133,31 @@ public final class Compiler {
     return true;
   }
 
+  /*
+   * Packs the pre-dexed inputs into as few dex files as possible, and runs dx once for each dex
+   * file. The primary inputs, i.e. the app's classes and the App Inventor runtime, are always put
+   * in classes.dex.
+   */
+  private boolean packAndDex(DexExecTask dexTask, List<File> primaryInputs, List<File> libraries,
+      String dexedClassesDir) {
+    List<List<File>> dexFiles;
+    try {
+      dexFiles = DexPacker.pack(primaryInputs, libraries);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+    for (int i = 0; i < dexFiles.size(); i++) {
+      setProgress(50 + 25 * i / dexFiles.size());
+      dexTask.setOutput(dexedClassesDir + File.separator + getDexFileName(i + 1));
+      if (!dexTask.convert(new ArrayList<File>(dexFiles.get(i)))) {
+        return false;
+      }
+    }
+    dexFileCount = dexFiles.size();
+    return true;
+  }
+
   private boolean runAaptPackage(File manifestFile, File resDir, String tmpPackageName, File sourceOutputDir, File symbolOutputDir) {
     // Need to make sure assets directory exists otherwise aapt will fail.
     final File mergedAssetsDir = createDir(project.getBuildDirectory(), ASSET_DIR_NAME);
@@ -1823,7 +2211,6 @@ public final class Compiler {
       appRTxt = new File(symbolOutputDir, "R.txt");
     }
     String[] aaptPackageCommandLine = aaptPackageCommandLineArgs.toArray(new String[aaptPackageCommandLineArgs.size()]);
-    libSetup();                 // Setup /tmp/lib64 on Linux
     long startAapt = System.currentTimeMillis();
     // Using System.err and System.out on purpose. Don't want to pollute build messages with
     // tools output
@@ -2012,6 +2399,24 @@ public final class Compiler {
     return explodedAarLibs.mergeResources(mergedResDir, mainResDir, cruncher);
   }
 
+  /*
+   * Returns whether attachAarLibraries will attach any AAR libraries. This is known before the
+   * build starts, since the support libraries and the libraries the components need are.
+   */
+  private boolean hasAarLibraries() {
+    if (SUPPORT_AARS.length > 0) {
+      return true;
+    }
+    for (Set<String> libs : libsNeeded.values()) {
+      for (String lib : libs) {
+        if (lib.endsWith(".aar")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   private boolean generateRClasses(File outputDir) {
     if (explodedAarLibs.size() == 0) {
       return true;  // nothing to see here
@@ -2033,63 +2438,186 @@ public final class Compiler {
   }
 
   /**
-   * Writes out the given resource as a temp file and returns the absolute path.
-   * Caches the location of the files, so we can reuse them.
+   * Sets the scheduler used to limit the number of simultaneous Kawa and DX processes.
    *
-   * @param resourcePath the name of the resource
+   * @param scheduler the scheduler to use for subsequent builds
    */
-  static synchronized String getResource(String resourcePath) {
-    try {
-      File file = resources.get(resourcePath);
-      if (file == null) {
-        String basename = PathUtil.basename(resourcePath);
-        String prefix;
-        String suffix;
-        int lastDot = basename.lastIndexOf(".");
-        if (lastDot != -1) {
-          prefix = basename.substring(0, lastDot);
-          suffix = basename.substring(lastDot);
-        } else {
-          prefix = basename;
-          suffix = "";
-        }
-        while (prefix.length() < 3) {
-          prefix = prefix + "_";
-        }
-        file = File.createTempFile(prefix, suffix);
-        file.setExecutable(true);
-        file.deleteOnExit();
-        file.getParentFile().mkdirs();
-        Files.copy(Resources.newInputStreamSupplier(Compiler.class.getResource(resourcePath)),
-            file);
-        resources.put(resourcePath, file);
-      }
-      return file.getAbsolutePath();
-    } catch (NullPointerException e) {
-      throw new IllegalStateException("Unable to find required library: " + resourcePath, e);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+  static void setStageScheduler(StageScheduler scheduler) {
+    stageScheduler = scheduler;
+  }
+
+  static StageScheduler getStageScheduler() {
+    return stageScheduler;
+  }
+
+  /**
+   * Sets the pool of warm Kawa compiler processes used by builds that have neither extensions
+   * nor AAR libraries.
+   *
+   * @param pool the pool to use, or null to launch a Kawa process for every build
+   */
+  static void setKawaWorkerPool(KawaWorkerPool pool) {
+    kawaWorkerPool = pool;
+  }
+
+  static KawaWorkerPool getKawaWorkerPool() {
+    return kawaWorkerPool;
+  }
+
+  /**
+   * Sets the cache of build outputs.
+   *
+   * @param cache the cache to use, or null to disable caching
+   */
+  static void setBuildCache(BuildCache cache) {
+    buildCache = cache;
+  }
+
+  static BuildCache getBuildCache() {
+    return buildCache;
+  }
+
+  /**
+   * Pre-dexes the App Inventor runtime and the libraries of all of the built-in components into
+   * the dex cache, so that the first builds after the build server starts do not have to.
+   *
+   * @param dexCacheDir the directory of the dex cache
+   * @param childProcessRam maximum RAM for each dx process, in MB
+   * @return  {@code true} if all of the libraries were pre-dexed successfully
+   */
+  static boolean preDexComponentLibraries(String dexCacheDir, int childProcessRam)
+      throws IOException, JSONException {
+    List<File> libraries = new ArrayList<File>();
+    libraries.add(new File(getResource(SIMPLE_ANDROID_RUNTIME_JAR)));
+    libraries.add(new File(getResource(KAWA_RUNTIME)));
+    libraries.add(new File(getResource(ACRA_RUNTIME)));
+    for (String jar : SUPPORT_JARS) {
+      libraries.add(new File(getResource(jar)));
     }
+    for (String lib : getAllComponentLibraries()) {
+      // AAR libraries are exploded per build, so only their classes jars can be pre-dexed, and
+      // that happens during the build.
+      if (lib.endsWith(".jar")) {
+        libraries.add(new File(getResource(RUNTIME_FILES_DIR + lib)));
+      }
+    }
+
+    createDir(new File(dexCacheDir));
+    DexExecTask dexTask = new DexExecTask();
+    dexTask.setExecutable(getResource(DX_JAR));
+    dexTask.setChildProcessRamMb(childProcessRam);
+    dexTask.setDexedLibs(dexCacheDir);
+    return dexTask.preDexLibraries(libraries);
   }
 
   /*
-   * This code is only invoked on Linux. It copies libc++.so into /tmp/lib64. This
-   * is needed on linux to run the aapt tool.
+   * Returns the names of the libraries of all of the built-in components.
    */
-  private void libSetup() {
+  private static Set<String> getAllComponentLibraries() throws IOException, JSONException {
+    JSONArray buildInfo = new JSONArray(Resources.toString(
+        Compiler.class.getResource(COMP_BUILD_INFO), Charsets.UTF_8));
+    Set<String> componentLibraries = new TreeSet<String>();
+    for (int i = 0; i < buildInfo.length(); ++i) {
+      JSONArray libs = buildInfo.getJSONObject(i)
+          .optJSONArray(ComponentDescriptorConstants.LIBRARIES_TARGET);
+      for (int j = 0; libs != null && j < libs.length(); ++j) {
+        componentLibraries.add(libs.getString(j));
+      }
+    }
+    return componentLibraries;
+  }
+
+  /**
+   * Sets the directory that resources are extracted into. Resources that were extracted into
+   * it by an earlier build server with the same resources are reused.
+   *
+   * @param directory the directory
+   */
+  static void setResourceCacheDirectory(File directory) {
+    resourceCache = new ResourceCache(directory);
+  }
+
+  static ResourceCache getResourceCache() {
+    return resourceCache;
+  }
+
+  /**
+   * Extracts the resources used by every build: the App Inventor and Android runtimes, the
+   * tools for this OS, and the libraries of all of the built-in components. Builds that start
+   * afterwards do not have to wait for them to be extracted.
+   */
+  static void extractResources() throws IOException, JSONException {
+    List<String> resourcePaths = getRuntimeResourcePaths();
     String osName = System.getProperty("os.name");
-    if (!osName.equals("Linux")) {
-      return;                   // Nothing to do (yet) for MacOS and Windows
+    if (osName.equals("Mac OS X")) {
+      Collections.addAll(resourcePaths, MAC_AAPT_TOOL, MAC_ZIPALIGN_TOOL);
+    } else if (osName.equals("Linux")) {
+      Collections.addAll(resourcePaths, LINUX_AAPT_TOOL, LINUX_ZIPALIGN_TOOL);
+    } else if (osName.startsWith("Windows")) {
+      Collections.addAll(resourcePaths, WINDOWS_AAPT_TOOL, WINDOWS_ZIPALIGN_TOOL);
+    }
+    for (String resourcePath : resourcePaths) {
+      getResource(resourcePath);
+    }
+  }
+
+  /**
+   * Returns a hash of the build server's git fingerprint and of the content of the runtimes and
+   * libraries in {@link #getRuntimeResourcePaths}. Build cache keys use it rather than the git
+   * version, which is "none" in every untagged checkout.
+   */
+  static String getRuntimeFingerprint() throws IOException {
+    String fingerprint = runtimeFingerprint;
+    if (fingerprint == null) {
+      List<String> resourcePaths;
+      try {
+        resourcePaths = getRuntimeResourcePaths();
+      } catch (JSONException e) {
+        throw new IOException("Unable to read " + COMP_BUILD_INFO, e);
+      }
+      Hasher hasher = BuildCache.newHasher();
+      BuildCache.putString(hasher, GitBuildId.getFingerprint());
+      for (String resourcePath : resourcePaths) {
+        BuildCache.putString(hasher, resourcePath);
+        BuildCache.putString(hasher, resourceCache.getContentHash(resourcePath));
+      }
+      fingerprint = hasher.hash().toString();
+      runtimeFingerprint = fingerprint;
+    }
+    return fingerprint;
+  }
+
+  /*
+   * Returns the resource paths of the runtimes, the build tools that are jars, and the libraries
+   * of all of the built-in components.
+   */
+  private static List<String> getRuntimeResourcePaths() throws IOException, JSONException {
+    List<String> resourcePaths = Lists.newArrayList(ACRA_RUNTIME, ANDROID_RUNTIME, DX_JAR,
+        KAWA_RUNTIME, SIMPLE_ANDROID_RUNTIME_JAR, APKSIGNER_JAR, YAIL_RUNTIME);
+    Collections.addAll(resourcePaths, SUPPORT_JARS);
+    for (String aar : SUPPORT_AARS) {
+      resourcePaths.add(RUNTIME_FILES_DIR + aar);
+    }
+    for (String lib : getAllComponentLibraries()) {
+      resourcePaths.add(RUNTIME_FILES_DIR + lib);
     }
+    return resourcePaths;
+  }
+
+  /**
+   * Extracts the given resource to a file, if it has not been extracted already, and returns
+   * the absolute path of the file. The Linux aapt is extracted with the library it loads.
+   *
+   * @param resourcePath the name of the resource
+   */
+  static String getResource(String resourcePath) {
     try {
-      File outFile = new File("/tmp/lib64/libc++.so");
-      if (outFile.exists()) {    // Don't do it more then once!
-        return;
+      if (resourcePath.equals(LINUX_AAPT_TOOL)) {
+        return resourceCache.get(resourcePath, LINUX_AAPT_LIBRARY).getAbsolutePath();
       }
-      File tmpLibDir = new File("/tmp/lib64");
-      tmpLibDir.mkdirs();
-      Files.copy(Resources.newInputStreamSupplier(Compiler.class.getResource("/tools/linux/lib64/libc++.so")),
-        outFile);
+      return resourceCache.get(resourcePath).getAbsolutePath();
+    } catch (FileNotFoundException e) {
+      throw new IllegalStateException("Unable to find required library: " + resourcePath, e);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -2241,7 +2769,13 @@ public final class Compiler {
     return dir;
   }
 
-  private void setProgress(int increments) {
+  // Stages that run at the same time may report progress out of order, so the progress reported
+  // never goes down.
+  private synchronized void setProgress(int increments) {
+    if (increments <= lastProgress) {
+      return;
+    }
+    lastProgress = increments;
     LOG.info("The current progress is "
               + increments + "%");
     if (reporter != null) {
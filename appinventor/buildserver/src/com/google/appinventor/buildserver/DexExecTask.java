@@ -24,8 +24,15 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
@@ -44,10 +51,41 @@ public class DexExecTask  {
     private boolean mNoLocals = false;
     private int mChildProcessRamMb = 1024;
     private boolean mDisableDexMerger = false;
-    private static Map<String, String> alreadyChecked = new HashMap<String, String>();
+    // Content hashes of library jars, keyed by path, size and modification time so that a jar
+    // that is replaced in place is hashed again.
+    private static final ConcurrentMap<String, String> alreadyChecked =
+        new ConcurrentHashMap<String, String>();
 
-    private static Object semaphore = new Object(); // Used to protect dex cache creation
+    // The pre-dexes that are running, keyed by the file name of the pre-dexed library, which
+    // contains the hash of the library's content. A build that needs a library that another
+    // build is pre-dexing waits for that pre-dex instead of starting its own.
+    private static final ConcurrentMap<String, Future<Boolean>> preDexesInProgress =
+        new ConcurrentHashMap<String, Future<Boolean>>();
 
+    // Runs the dx processes that pre-dex libraries. Each one also takes a DX permit from the
+    // compiler's StageScheduler, so pre-dexes and dx passes together stay within its limit.
+    private static volatile ExecutorService preDexExecutor = newPreDexExecutor(1);
+
+    /**
+     * Sets the number of libraries that can be pre-dexed in parallel, across all builds.
+     * @param maxParallelPreDexes the number of libraries.
+     */
+    public static void setMaxParallelPreDexes(int maxParallelPreDexes) {
+        ExecutorService oldExecutor = preDexExecutor;
+        preDexExecutor = newPreDexExecutor(maxParallelPreDexes);
+        oldExecutor.shutdown();
+    }
+
+    private static ExecutorService newPreDexExecutor(int threads) {
+        return Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pre-dex");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
 
     /**
      * Sets the value of the "executable" attribute.
@@ -93,49 +131,113 @@ public class DexExecTask  {
         mDisableDexMerger = disable;
     }
 
-    private boolean preDexLibraries(List<File> inputs) {
+    /**
+     * Replaces each library jar in the inputs with its pre-dexed version, pre-dexing the
+     * libraries that are not in the cache yet in parallel.
+     * @param inputs the inputs of the dx task.
+     * @return true if all of the libraries were pre-dexed successfully.
+     */
+    boolean preDexLibraries(List<File> inputs) {
         if (mDisableDexMerger || inputs.size() == 1) {
             // only one input, no need to put a pre-dexed version, even if this path is
             // just a jar file (case for proguard'ed builds)
             return true;
         }
 
-        synchronized(semaphore) {
+        ExecutorService executor = preDexExecutor;
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        final int count = inputs.size();
+        for (int i = 0 ; i < count; i++) {
+            final File input = inputs.get(i);
+            if (input.isFile()) {
+                // check if this libs needs to be pre-dexed
+                String fileName = getDexFileName(input);
+                final File dexedLib = new File(mDexedLibs, fileName);
+
+                if (dexedLib.isFile() == false) {
+                    FutureTask<Boolean> preDex = new PreDexTask(fileName, new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return preDexLibrary(input, dexedLib);
+                        }
+                    });
+                    Future<Boolean> inProgress = preDexesInProgress.putIfAbsent(fileName, preDex);
+                    if (inProgress == null) {
+                        executor.execute(preDex);
+                        results.add(preDex);
+                    } else {
+                        results.add(inProgress);
+                    }
+                } else {
+                    System.out.println(
+                        String.format("Using Pre-Dexed %1$s <- %2$s",
+                          fileName, input.getAbsolutePath()));
+                }
 
-            final int count = inputs.size();
-            boolean allSuccessful = true;
-            for (int i = 0 ; i < count; i++) {
-                File input = inputs.get(i);
-                if (input.isFile()) {
-                    // check if this libs needs to be pre-dexed
-                    String fileName = getDexFileName(input);
-                    File dexedLib = new File(mDexedLibs, fileName);
-                    String dexedLibPath = dexedLib.getAbsolutePath();
+                // replace the input with the pre-dex libs.
+                inputs.set(i, dexedLib);
+            }
+        }
 
-                    if (dexedLib.isFile() == false/*||
-                                                    dexedLib.lastModified() < input.lastModified()*/) {
+        boolean allSuccessful = true;
+        for (Future<Boolean> result : results) {
+            try {
+                allSuccessful = result.get() && allSuccessful;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                allSuccessful = false;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                allSuccessful = false;
+            }
+        }
+        return allSuccessful;
+    }
 
-                        System.out.println(
-                            String.format("Pre-Dexing %1$s -> %2$s",
-                              input.getAbsolutePath(), fileName));
+    private boolean preDexLibrary(File input, File dexedLib) {
+        if (dexedLib.isFile()) {
+            // Another build pre-dexed this library after we checked.
+            return true;
+        }
 
-                        if (dexedLib.isFile()) {
-                            dexedLib.delete();
-                        }
+        System.out.println(
+            String.format("Pre-Dexing %1$s -> %2$s",
+              input.getAbsolutePath(), dexedLib.getName()));
 
-                        boolean dexSuccess = runDx(input, dexedLibPath, false /*showInput*/);
-                        allSuccessful = allSuccessful && dexSuccess;
-                    } else {
-                        System.out.println(
-                            String.format("Using Pre-Dexed %1$s <- %2$s",
-                              fileName, input.getAbsolutePath()));
-                    }
+        // dx writes to a temporary file that is renamed when it is complete, so that a
+        // failed or interrupted dx never leaves a partial library in the cache.
+        File tempLib;
+        try {
+            tempLib = File.createTempFile("pre-dex-", ".jar", dexedLib.getParentFile());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        StageScheduler scheduler = Compiler.getStageScheduler();
+        scheduler.acquire(StageScheduler.Stage.DX);
+        try {
+            return runDx(input, tempLib.getAbsolutePath(), false /*showInput*/)
+                && tempLib.renameTo(dexedLib);
+        } finally {
+            scheduler.release(StageScheduler.Stage.DX);
+            tempLib.delete();
+        }
+    }
 
-                    // replace the input with the pre-dex libs.
-                    inputs.set(i, dexedLib);
-                }
-            }
-            return allSuccessful;
+    /**
+     * A pre-dex that removes itself from {@link #preDexesInProgress} when it is done.
+     */
+    private static class PreDexTask extends FutureTask<Boolean> {
+        private final String fileName;
+
+        PreDexTask(String fileName, Callable<Boolean> callable) {
+            super(callable);
+            this.fileName = fileName;
+        }
+
+        @Override
+        protected void done() {
+            preDexesInProgress.remove(fileName, this);
         }
     }
 
@@ -145,14 +247,16 @@ public class DexExecTask  {
     }
 
     private String getHashFor(File inputFile) {
-        String retval = alreadyChecked.get(inputFile.getAbsolutePath());
+        String key = inputFile.getAbsolutePath() + ":" + inputFile.length() + ":"
+            + inputFile.lastModified();
+        String retval = alreadyChecked.get(key);
         if (retval != null) return retval;
         // add a hash of the original file path
         try {
             HashFunction hashFunction = Hashing.md5();
             HashCode hashCode = hashFunction.hashBytes(Files.readAllBytes(inputFile.toPath()));
             retval = hashCode.toString();
-            alreadyChecked.put(inputFile.getAbsolutePath(), retval);
+            alreadyChecked.put(key, retval);
             return retval;
         } catch (IOException e) {
             e.printStackTrace();
@@ -165,6 +269,15 @@ public class DexExecTask  {
         boolean successPredex = preDexLibraries(paths);
         if (!successPredex) return false;
 
+        return convert(paths);
+    }
+
+    /**
+     * Runs dx on inputs whose libraries have already been pre-dexed.
+     * @param paths the inputs of the dx task.
+     * @return true if dx succeeded.
+     */
+    boolean convert(List<File> paths) {
         System.out.println(String.format(
                 "Converting compiled files and external libraries into %1$s...", mOutput));
 
@@ -0,0 +1,356 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Decides which dx inputs go into which dex file of an APK.
+ *
+ * <p>A dex file can refer to at most 65536 methods and 65536 fields. The
+ * packer measures the method and field references of each input and packs
+ * the inputs into as few dex files as it can, so that dx only has to run
+ * once for each dex file. Pre-dexed libraries are measured by reading the
+ * header of their dex file. Other inputs, such as the classes compiled from
+ * YAIL, are measured by reading the constant pools of their class files.</p>
+ *
+ * <p>The sum of the references of the inputs of a dex file is never less
+ * than the number of distinct references in the merged dex file, so the
+ * packer never gives dx more than it can fit in one dex file.</p>
+ */
+final class DexPacker {
+
+  // The maximum number of method references, and of field references, in a dex file.
+  static final int MAX_REFERENCES_PER_DEX = 65536;
+
+  // References left free in each dex file. Measuring class files misses the few references
+  // that dx adds, such as synthetic fields.
+  private static final int HEADROOM = 1024;
+
+  // Offsets of the field_ids_size and method_ids_size fields in the header of a dex file.
+  private static final int DEX_FIELD_IDS_SIZE_OFFSET = 0x50;
+  private static final int DEX_METHOD_IDS_SIZE_OFFSET = 0x58;
+  private static final int DEX_HEADER_SIZE = 0x70;
+
+  // Constant pool tags of class files.
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_FLOAT = 4;
+  private static final int CONSTANT_LONG = 5;
+  private static final int CONSTANT_DOUBLE = 6;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+  private static final int CONSTANT_METHOD_HANDLE = 15;
+  private static final int CONSTANT_METHOD_TYPE = 16;
+  private static final int CONSTANT_DYNAMIC = 17;
+  private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+  private static final int CONSTANT_MODULE = 19;
+  private static final int CONSTANT_PACKAGE = 20;
+
+  // The measured references of library jars, keyed by path, size and modification time.
+  private static final ConcurrentMap<String, References> measuredJars =
+      new ConcurrentHashMap<String, References>();
+
+  private DexPacker() {
+  }
+
+  /**
+   * The number of method and field references of a dx input.
+   */
+  static final class References {
+    final int methods;
+    final int fields;
+
+    References(int methods, int fields) {
+      this.methods = methods;
+      this.fields = fields;
+    }
+  }
+
+  /**
+   * Packs the inputs into dex files.
+   *
+   * @param primaryInputs the inputs that must be in classes.dex
+   * @param libraries the inputs that can be in any dex file
+   * @return the inputs of each dex file, starting with classes.dex
+   * @throws IOException if an input cannot be read
+   */
+  static List<List<File>> pack(List<File> primaryInputs, final List<File> libraries)
+      throws IOException {
+    List<DexFile> dexFiles = new ArrayList<DexFile>();
+    DexFile primary = new DexFile();
+    for (File input : primaryInputs) {
+      primary.add(input, measure(input));
+    }
+    dexFiles.add(primary);
+
+    // First fit decreasing: place the biggest libraries first, each in the first dex file with
+    // room for it. Ties are broken by path so that the same inputs always give the same packing.
+    final List<References> sizes = new ArrayList<References>();
+    for (File library : libraries) {
+      sizes.add(measure(library));
+    }
+    List<Integer> order = new ArrayList<Integer>();
+    for (int i = 0; i < libraries.size(); i++) {
+      order.add(i);
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int bySize = Integer.compare(sizes.get(b).methods, sizes.get(a).methods);
+        if (bySize != 0) {
+          return bySize;
+        }
+        return libraries.get(a).getAbsolutePath().compareTo(
+            libraries.get(b).getAbsolutePath());
+      }
+    });
+    for (int i : order) {
+      File library = libraries.get(i);
+      References references = sizes.get(i);
+      DexFile target = null;
+      for (DexFile dexFile : dexFiles) {
+        if (dexFile.hasRoomFor(references)) {
+          target = dexFile;
+          break;
+        }
+      }
+      if (target == null) {
+        // A library that is too big for a dex file of its own gets one anyway; dx will report it.
+        target = new DexFile();
+        dexFiles.add(target);
+      }
+      target.add(library, references);
+    }
+
+    List<List<File>> result = new ArrayList<List<File>>();
+    for (DexFile dexFile : dexFiles) {
+      result.add(dexFile.inputs);
+    }
+    return result;
+  }
+
+  /**
+   * Measures the method and field references of a dx input.
+   *
+   * @param input a pre-dexed library, a jar of class files, or a directory of class files
+   * @return the references of the input
+   * @throws IOException if the input cannot be read
+   */
+  static References measure(File input) throws IOException {
+    if (input.isDirectory()) {
+      ReferenceCollector collector = new ReferenceCollector();
+      collectDirectory(input, collector);
+      return collector.getReferences();
+    }
+    String key = input.getAbsolutePath() + ":" + input.length() + ":" + input.lastModified();
+    References references = measuredJars.get(key);
+    if (references == null) {
+      references = measureJar(input);
+      measuredJars.put(key, references);
+    }
+    return references;
+  }
+
+  private static References measureJar(File jar) throws IOException {
+    int dexMethods = 0;
+    int dexFields = 0;
+    boolean hasDex = false;
+    ReferenceCollector collector = new ReferenceCollector();
+    ZipInputStream zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(jar)));
+    try {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        String name = entry.getName();
+        if (name.endsWith(".dex")) {
+          byte[] header = new byte[DEX_HEADER_SIZE];
+          ByteStreams.readFully(zip, header);
+          dexFields += readLittleEndianInt(header, DEX_FIELD_IDS_SIZE_OFFSET);
+          dexMethods += readLittleEndianInt(header, DEX_METHOD_IDS_SIZE_OFFSET);
+          hasDex = true;
+        } else if (name.endsWith(".class")) {
+          collector.collect(zip);
+        }
+      }
+    } finally {
+      zip.close();
+    }
+    return hasDex ? new References(dexMethods, dexFields) : collector.getReferences();
+  }
+
+  private static void collectDirectory(File directory, ReferenceCollector collector)
+      throws IOException {
+    File[] children = directory.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (child.isDirectory()) {
+        collectDirectory(child, collector);
+      } else if (child.getName().endsWith(".class")) {
+        InputStream in = new BufferedInputStream(new FileInputStream(child));
+        try {
+          collector.collect(in);
+        } finally {
+          in.close();
+        }
+      }
+    }
+  }
+
+  private static int readLittleEndianInt(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff)
+        | (bytes[offset + 1] & 0xff) << 8
+        | (bytes[offset + 2] & 0xff) << 16
+        | (bytes[offset + 3] & 0xff) << 24;
+  }
+
+  /*
+   * Collects the distinct methods and fields that class files declare or refer to.
+   */
+  private static class ReferenceCollector {
+    private final Set<String> methods = new HashSet<String>();
+    private final Set<String> fields = new HashSet<String>();
+
+    References getReferences() {
+      return new References(methods.size(), fields.size());
+    }
+
+    void collect(InputStream classFile) throws IOException {
+      DataInputStream in = new DataInputStream(
+          new ByteArrayInputStream(ByteStreams.toByteArray(classFile)));
+      in.readInt();  // magic
+      in.readUnsignedShort();  // minor_version
+      in.readUnsignedShort();  // major_version
+      int count = in.readUnsignedShort();
+      int[] tags = new int[count];
+      int[] first = new int[count];
+      int[] second = new int[count];
+      String[] utf8 = new String[count];
+      for (int i = 1; i < count; i++) {
+        int tag = in.readUnsignedByte();
+        tags[i] = tag;
+        switch (tag) {
+          case CONSTANT_UTF8:
+            utf8[i] = in.readUTF();
+            break;
+          case CONSTANT_CLASS:
+          case CONSTANT_STRING:
+          case CONSTANT_METHOD_TYPE:
+          case CONSTANT_MODULE:
+          case CONSTANT_PACKAGE:
+            first[i] = in.readUnsignedShort();
+            break;
+          case CONSTANT_FIELDREF:
+          case CONSTANT_METHODREF:
+          case CONSTANT_INTERFACE_METHODREF:
+          case CONSTANT_NAME_AND_TYPE:
+          case CONSTANT_DYNAMIC:
+          case CONSTANT_INVOKE_DYNAMIC:
+            first[i] = in.readUnsignedShort();
+            second[i] = in.readUnsignedShort();
+            break;
+          case CONSTANT_INTEGER:
+          case CONSTANT_FLOAT:
+            in.readInt();
+            break;
+          case CONSTANT_LONG:
+          case CONSTANT_DOUBLE:
+            in.readLong();
+            i++;  // These constants take two entries.
+            break;
+          case CONSTANT_METHOD_HANDLE:
+            in.readUnsignedByte();
+            in.readUnsignedShort();
+            break;
+          default:
+            throw new IOException("Unknown constant pool tag " + tag);
+        }
+      }
+
+      for (int i = 1; i < count; i++) {
+        if (tags[i] == CONSTANT_FIELDREF || tags[i] == CONSTANT_METHODREF
+            || tags[i] == CONSTANT_INTERFACE_METHODREF) {
+          String owner = utf8[first[first[i]]];
+          int nameAndType = second[i];
+          String member = owner + "." + utf8[first[nameAndType]] + ":" + utf8[second[nameAndType]];
+          if (tags[i] == CONSTANT_FIELDREF) {
+            fields.add(member);
+          } else {
+            methods.add(member);
+          }
+        }
+      }
+
+      in.readUnsignedShort();  // access_flags
+      String thisClass = utf8[first[in.readUnsignedShort()]];
+      in.readUnsignedShort();  // super_class
+      int interfaces = in.readUnsignedShort();
+      for (int i = 0; i < interfaces; i++) {
+        in.readUnsignedShort();
+      }
+      collectMembers(in, thisClass, utf8, fields);
+      collectMembers(in, thisClass, utf8, methods);
+    }
+
+    private static void collectMembers(DataInputStream in, String thisClass, String[] utf8,
+        Set<String> members) throws IOException {
+      int count = in.readUnsignedShort();
+      for (int i = 0; i < count; i++) {
+        in.readUnsignedShort();  // access_flags
+        String name = utf8[in.readUnsignedShort()];
+        String descriptor = utf8[in.readUnsignedShort()];
+        members.add(thisClass + "." + name + ":" + descriptor);
+        int attributes = in.readUnsignedShort();
+        for (int j = 0; j < attributes; j++) {
+          in.readUnsignedShort();  // attribute_name_index
+          ByteStreams.skipFully(in, in.readInt() & 0xffffffffL);
+        }
+      }
+    }
+  }
+
+  /*
+   * A dex file that is being packed.
+   */
+  private static class DexFile {
+    private final List<File> inputs = new ArrayList<File>();
+    private int methods = 0;
+    private int fields = 0;
+
+    boolean hasRoomFor(References references) {
+      return methods + references.methods <= MAX_REFERENCES_PER_DEX - HEADROOM
+          && fields + references.fields <= MAX_REFERENCES_PER_DEX - HEADROOM;
+    }
+
+    void add(File input, References references) {
+      inputs.add(input);
+      methods += references.methods;
+      fields += references.fields;
+    }
+  }
+}
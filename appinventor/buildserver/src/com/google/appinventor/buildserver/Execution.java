@@ -11,17 +11,22 @@ import com.google.common.base.Preconditions;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.lang.reflect.Field;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Utility class for command execution and I/O redirection.
  *
+ * <p>Every command that is executed is recorded as a {@link ProcessSpan}, which is logged, added
+ * to the {@link BuildMetrics} and, if the command was run by a build stage, to the stage's
+ * timing.</p>
  */
 public final class Execution {
 
@@ -29,6 +34,9 @@ public final class Execution {
   private static final Logger LOG = Logger.getLogger(Execution.class.getName());
   private static final Joiner joiner = Joiner.on(" ");
 
+  // How often the resource usage of a running child process is sampled.
+  private static final long SAMPLE_INTERVAL_MS = 50;
+
   /*
    * Input stream handler used for stdout and stderr redirection.
    */
@@ -87,6 +95,91 @@ public final class Execution {
     }
   }
 
+  /*
+   * Samples the peak resident set size and the bytes read and written by a child process from
+   * /proc while it runs. The process is gone from /proc once it exits, so the last sample is
+   * what is reported.
+   */
+  private static class ProcessSampler extends Thread {
+    private final File statusFile;
+    private final File ioFile;
+    private volatile long peakRssBytes = -1;
+    private volatile long bytesRead = -1;
+    private volatile long bytesWritten = -1;
+
+    ProcessSampler(long pid) {
+      this.statusFile = new File("/proc/" + pid + "/status");
+      this.ioFile = new File("/proc/" + pid + "/io");
+      setDaemon(true);
+      sample();
+      start();
+    }
+
+    @Override
+    public void run() {
+      while (!isInterrupted()) {
+        try {
+          Thread.sleep(SAMPLE_INTERVAL_MS);
+        } catch (InterruptedException e) {
+          return;
+        }
+        sample();
+      }
+    }
+
+    private void sample() {
+      long peak = readValue(statusFile, "VmHWM:");
+      if (peak >= 0) {
+        peakRssBytes = Math.max(peakRssBytes, peak * 1024);  // VmHWM is in kB
+      }
+      long read = readValue(ioFile, "rchar:");
+      if (read >= 0) {
+        bytesRead = read;
+      }
+      long written = readValue(ioFile, "wchar:");
+      if (written >= 0) {
+        bytesWritten = written;
+      }
+    }
+
+    /*
+     * Returns the number that follows the given key in a /proc file, or -1 if the file or the
+     * key cannot be read.
+     */
+    private static long readValue(File file, String key) {
+      try {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (line.startsWith(key)) {
+              String[] fields = line.substring(key.length()).trim().split("\\s+");
+              return Long.parseLong(fields[0]);
+            }
+          }
+        } finally {
+          reader.close();
+        }
+      } catch (IOException | NumberFormatException e) {
+        // The process has exited, or this is not Linux.
+      }
+      return -1;
+    }
+
+    /*
+     * Stops sampling and returns the span of the process.
+     */
+    ProcessSpan finish(String tool, long wallMillis, int exitCode) {
+      interrupt();
+      try {
+        join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return new ProcessSpan(tool, wallMillis, exitCode, peakRssBytes, bytesRead, bytesWritten);
+    }
+  }
+
   private Execution() {
   }
 
@@ -107,14 +200,21 @@ public final class Execution {
     		command[i] = command[i].replace("\"", "\\\"");
     	}
     }
+    long start = System.currentTimeMillis();
+    ProcessSampler sampler = null;
+    int exitCode = -1;
     try {
       Process process = Runtime.getRuntime().exec(command, null, workingDir);
+      sampler = startSampler(process);
       new RedirectStreamHandler(new PrintWriter(out, true), process.getInputStream());
       new RedirectStreamHandler(new PrintWriter(err, true), process.getErrorStream());
-      return process.waitFor() == 0;
+      exitCode = process.waitFor();
+      return exitCode == 0;
     } catch (Exception e) {
       LOG.log(Level.WARNING, "____Execution failure: ", e);
       return false;
+    } finally {
+      record(command, start, exitCode, sampler);
     }
   }
 
@@ -131,16 +231,104 @@ public final class Execution {
   public static int execute(File workingDir, String[] command, StringBuffer out,
       StringBuffer err) throws IOException {
     LOG.log(Level.INFO, "____Executing " + joiner.join(command));
-    Process process = Runtime.getRuntime().exec(command, null, workingDir);
-    Thread outThread = new RedirectStreamToStringBuffer(out, process.getInputStream());
-    Thread errThread = new RedirectStreamToStringBuffer(err, process.getErrorStream());
+    long start = System.currentTimeMillis();
+    ProcessSampler sampler = null;
+    int exitCode = -1;
     try {
-      process.waitFor();
-      outThread.join();
-      errThread.join();
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
+      Process process = Runtime.getRuntime().exec(command, null, workingDir);
+      sampler = startSampler(process);
+      Thread outThread = new RedirectStreamToStringBuffer(out, process.getInputStream());
+      Thread errThread = new RedirectStreamToStringBuffer(err, process.getErrorStream());
+      try {
+        process.waitFor();
+        outThread.join();
+        errThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      exitCode = process.exitValue();
+      return exitCode;
+    } finally {
+      record(command, start, exitCode, sampler);
+    }
+  }
+
+  /*
+   * Starts sampling the resource usage of a process, or returns null if its process id is not
+   * known or there is no /proc to sample it from.
+   */
+  private static ProcessSampler startSampler(Process process) {
+    long pid = getPid(process);
+    if (pid < 0 || !new File("/proc/" + pid).isDirectory()) {
+      return null;
     }
-    return process.exitValue();
+    return new ProcessSampler(pid);
+  }
+
+  /*
+   * Returns the process id of a process, or -1 if it is not known.
+   */
+  private static long getPid(Process process) {
+    try {
+      // Process.pid() was added in Java 9.
+      return ((Number) Process.class.getMethod("pid").invoke(process)).longValue();
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Fall back to the field of the Java 7 and 8 UNIXProcess.
+    }
+    try {
+      Field field = process.getClass().getDeclaredField("pid");
+      field.setAccessible(true);
+      return field.getInt(process);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return -1;
+    }
+  }
+
+  /*
+   * Records the span of a command that has finished, or that could not be started.
+   */
+  private static void record(String[] command, long start, int exitCode, ProcessSampler sampler) {
+    String tool = getToolName(command);
+    long wallMillis = System.currentTimeMillis() - start;
+    ProcessSpan span = sampler == null
+        ? new ProcessSpan(tool, wallMillis, exitCode, -1, -1, -1)
+        : sampler.finish(tool, wallMillis, exitCode);
+    LOG.log(Level.INFO, "____Executed " + span);
+    BuildMetrics.getInstance().recordProcess(span);
+    StageGraph.recordProcess(span);
+  }
+
+  /**
+   * Returns the name of the tool that a command runs, for labelling its span: the name of the
+   * executable or, if the executable is java, the name of the jar or the main class.
+   */
+  static String getToolName(String[] command) {
+    if (command.length == 0) {
+      return "unknown";
+    }
+    String executable = baseName(command[0]);
+    if (executable.endsWith(".exe")) {
+      executable = executable.substring(0, executable.length() - ".exe".length());
+    }
+    if (!executable.equals("java")) {
+      return executable;
+    }
+    for (int i = 1; i < command.length; i++) {
+      String arg = command[i];
+      if (arg.equals("-jar") && i + 1 < command.length) {
+        String jar = baseName(command[i + 1]);
+        return jar.endsWith(".jar") ? jar.substring(0, jar.length() - ".jar".length()) : jar;
+      } else if (arg.equals("-cp") || arg.equals("-classpath")) {
+        i++;
+      } else if (!arg.startsWith("-")) {
+        return arg;
+      }
+    }
+    return executable;
+  }
+
+  // Accepts both / and \ as separators, so that tool names do not depend on the OS.
+  private static String baseName(String path) {
+    return path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
   }
 }
@@ -0,0 +1,147 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Main entry point for a long-lived Kawa compiler process.
+ *
+ * <p>The daemon loads the YAIL runtime once at startup and then compiles
+ * sources on request, so that builds do not pay for JVM startup and for
+ * loading runtime.scm every time. It is launched and driven by
+ * {@link KawaWorkerPool}.</p>
+ *
+ * <p>The protocol uses {@link DataInputStream} and {@link DataOutputStream}
+ * framing over stdin and stdout:</p>
+ * <ul>
+ * <li>After loading the runtime, the daemon writes the int {@link #READY}.
+ * <li>Each request is an int argument count followed by that many UTF
+ *     strings. The arguments are the Kawa command line arguments that follow
+ *     {@code -f runtime.scm}, e.g. {@code -d dir -P prefix -C files...}.
+ * <li>Each response is an int status (0 for success), followed by the
+ *     captured standard output and standard error of the compilation, each
+ *     written as an int length and that many bytes.
+ * </ul>
+ *
+ * <p>Kawa calls {@code System.exit} when a source file has errors. In that
+ * case a shutdown hook sends the response with {@link #EXITED} as the status,
+ * and the process ends. The pool then starts a fresh daemon for the next
+ * request.</p>
+ *
+ * <p>Kawa is not on the build server's compile classpath, only on the
+ * classpath of the daemon process, so it is called by reflection.</p>
+ */
+public final class KawaCompilerDaemon {
+
+  static final int READY = 0x4b415741;  // "KAWA"
+  static final int SUCCESS = 0;
+  static final int FAILED = 1;
+  static final int EXITED = 2;
+
+  private static DataOutputStream responses;
+  private static ByteArrayOutputStream capturedOut;
+  private static ByteArrayOutputStream capturedErr;
+  private static boolean inRequest = false;
+
+  private KawaCompilerDaemon() {
+  }
+
+  /**
+   * Main entry point.
+   *
+   * @param args the path of the YAIL runtime to load
+   */
+  public static void main(String[] args) throws Exception {
+    responses = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+    // Anything written to standard output outside of a request would corrupt the protocol.
+    PrintStream realErr = System.err;
+    System.setOut(realErr);
+
+    Method processArgs = Class.forName("kawa.repl")
+        .getMethod("processArgs", String[].class, int.class, int.class);
+    processArgs.invoke(null, new String[] { "-f", args[0] }, 0, 2);
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        sendResponse(EXITED);
+      }
+    });
+    synchronized (KawaCompilerDaemon.class) {
+      responses.writeInt(READY);
+      responses.flush();
+    }
+
+    DataInputStream requests = new DataInputStream(new BufferedInputStream(System.in));
+    while (true) {
+      String[] compileArgs;
+      try {
+        compileArgs = new String[requests.readInt()];
+        for (int i = 0; i < compileArgs.length; i++) {
+          compileArgs[i] = requests.readUTF();
+        }
+      } catch (EOFException e) {
+        // The pool closed our input, so we are done.
+        return;
+      }
+
+      synchronized (KawaCompilerDaemon.class) {
+        capturedOut = new ByteArrayOutputStream();
+        capturedErr = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(capturedOut, true));
+        System.setErr(new PrintStream(capturedErr, true));
+        inRequest = true;
+      }
+      int status = SUCCESS;
+      try {
+        processArgs.invoke(null, compileArgs, 0, compileArgs.length);
+      } catch (InvocationTargetException e) {
+        e.getCause().printStackTrace();
+        status = FAILED;
+      } catch (Throwable t) {
+        t.printStackTrace();
+        status = FAILED;
+      }
+      sendResponse(status);
+      System.setOut(realErr);
+      System.setErr(realErr);
+    }
+  }
+
+  private static synchronized void sendResponse(int status) {
+    if (!inRequest) {
+      return;
+    }
+    inRequest = false;
+    try {
+      System.out.flush();
+      System.err.flush();
+      responses.writeInt(status);
+      writeBytes(capturedOut.toByteArray());
+      writeBytes(capturedErr.toByteArray());
+      responses.flush();
+    } catch (IOException e) {
+      // The pool has gone away. There is no one left to tell.
+    }
+  }
+
+  private static void writeBytes(byte[] bytes) throws IOException {
+    responses.writeInt(bytes.length);
+    responses.write(bytes);
+  }
+}
@@ -0,0 +1,338 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Joiner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of warm {@link KawaCompilerDaemon} processes.
+ *
+ * <p>Each worker is a child JVM that has already loaded the YAIL runtime. A
+ * worker can only be reused by builds that have the same class path and
+ * memory limit, so idle workers are kept per key. At most
+ * {@code maxIdleWorkers} idle workers are kept in total; the least recently
+ * used one is stopped when there is no room for another. Workers are retired
+ * after {@code maxCompilesPerWorker} compilations so that state accumulated by
+ * Kawa does not grow without bound. A worker that does not answer within
+ * {@code timeoutMillis} is stopped, and the caller is expected to run the
+ * compilation in a fresh Kawa process instead.</p>
+ */
+final class KawaWorkerPool {
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(KawaWorkerPool.class.getName());
+
+  private static final String COLON = File.pathSeparator;
+
+  private final int maxIdleWorkers;
+  private final int maxCompilesPerWorker;
+  private final long timeoutMillis;
+
+  // Idle workers, least recently used first.
+  private final LinkedList<Worker> idleWorkers = new LinkedList<Worker>();
+
+  // Stops workers that do not answer in time.
+  private final Timer watchdog = new Timer("Kawa worker watchdog", true);
+
+  private final AtomicInteger workersStarted = new AtomicInteger(0);
+  private final AtomicInteger compiles = new AtomicInteger(0);
+  private final AtomicInteger compilesOnWarmWorkers = new AtomicInteger(0);
+  private final AtomicInteger workersTimedOut = new AtomicInteger(0);
+
+  /**
+   * Creates a KawaWorkerPool.
+   *
+   * @param maxIdleWorkers the maximum number of idle workers kept alive
+   * @param maxCompilesPerWorker the number of compilations after which a worker is retired
+   * @param timeoutMillis the time a worker may take to start or to compile before it is stopped
+   */
+  KawaWorkerPool(int maxIdleWorkers, int maxCompilesPerWorker, long timeoutMillis) {
+    this.maxIdleWorkers = maxIdleWorkers;
+    this.maxCompilesPerWorker = maxCompilesPerWorker;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Compiles YAIL sources in a warm worker, starting a new worker if there is no idle one
+   * for the given class path and memory limit.
+   *
+   * @param classpath the class path for the compilation
+   * @param mx  the maximum heap size of the worker, in MB
+   * @param yailRuntime the path of runtime.scm
+   * @param compileArgs the Kawa arguments that follow {@code -f runtime.scm}
+   * @param out stream to which the standard output of the compilation is copied
+   * @param err stream to which the standard error of the compilation is copied
+   * @return  {@code true} if the compilation succeeds, {@code false} if the sources have errors
+   * @throws IOException if a worker cannot be started, or fails or times out before it answers;
+   *     nothing has been written to {@code out} or {@code err} in that case
+   */
+  boolean compile(String classpath, int mx, String yailRuntime, List<String> compileArgs,
+      PrintStream out, PrintStream err) throws IOException {
+    String key = mx + COLON + yailRuntime + COLON + classpath;
+    compiles.incrementAndGet();
+    Worker worker = takeIdleWorker(key);
+    if (worker != null) {
+      compilesOnWarmWorkers.incrementAndGet();
+    } else {
+      worker = new Worker(key, classpath, mx, yailRuntime);
+      TimerTask timeout = watch(worker);
+      try {
+        worker.awaitReady();
+      } catch (IOException e) {
+        worker.stop();
+        throw worker.timedOut ? timedOut("start") : e;
+      } finally {
+        timeout.cancel();
+      }
+      workersStarted.incrementAndGet();
+    }
+
+    int status;
+    TimerTask timeout = watch(worker);
+    try {
+      status = worker.compile(compileArgs, out, err);
+    } catch (IOException e) {
+      worker.stop();
+      throw worker.timedOut ? timedOut("compile") : e;
+    } finally {
+      timeout.cancel();
+    }
+    // The watchdog may have fired just after the worker answered.
+    if (worker.timedOut || status == KawaCompilerDaemon.EXITED
+        || worker.compileCount >= maxCompilesPerWorker) {
+      worker.stop();
+    } else {
+      returnIdleWorker(worker);
+    }
+    return status == KawaCompilerDaemon.SUCCESS;
+  }
+
+  /**
+   * Stops all of the idle workers.
+   */
+  void shutdown() {
+    List<Worker> workers;
+    synchronized (idleWorkers) {
+      workers = new ArrayList<Worker>(idleWorkers);
+      idleWorkers.clear();
+    }
+    for (Worker worker : workers) {
+      worker.stop();
+    }
+    watchdog.cancel();
+  }
+
+  /*
+   * Stops the worker if it has not answered when the timeout expires. The returned task must be
+   * cancelled once the worker answers.
+   */
+  private TimerTask watch(final Worker worker) {
+    TimerTask task = new TimerTask() {
+      @Override
+      public void run() {
+        workersTimedOut.incrementAndGet();
+        worker.timedOut = true;
+        // Only destroy the process here. Closing its input could block while the build thread
+        // is writing a request.
+        worker.process.destroy();
+      }
+    };
+    watchdog.schedule(task, timeoutMillis);
+    return task;
+  }
+
+  private IOException timedOut(String action) {
+    return new IOException("Kawa worker did not " + action + " within " + timeoutMillis + " ms");
+  }
+
+  int getWorkersStarted() {
+    return workersStarted.get();
+  }
+
+  int getIdleWorkerCount() {
+    synchronized (idleWorkers) {
+      return idleWorkers.size();
+    }
+  }
+
+  /**
+   * Returns the pool statistics, keyed by the names used on the /buildserver/vars page.
+   */
+  Map<String, String> getVariables() {
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    variables.put("kawa-workers-maximum-idle", maxIdleWorkers + "");
+    variables.put("kawa-workers-idle", getIdleWorkerCount() + "");
+    variables.put("kawa-workers-started", workersStarted.get() + "");
+    variables.put("kawa-worker-compiles", compiles.get() + "");
+    variables.put("kawa-worker-compiles-on-warm-workers", compilesOnWarmWorkers.get() + "");
+    variables.put("kawa-workers-timed-out", workersTimedOut.get() + "");
+    return variables;
+  }
+
+  private Worker takeIdleWorker(String key) {
+    synchronized (idleWorkers) {
+      Iterator<Worker> iterator = idleWorkers.descendingIterator();
+      while (iterator.hasNext()) {
+        Worker worker = iterator.next();
+        if (worker.key.equals(key)) {
+          iterator.remove();
+          return worker;
+        }
+      }
+    }
+    return null;
+  }
+
+  private void returnIdleWorker(Worker worker) {
+    Worker evicted = null;
+    synchronized (idleWorkers) {
+      if (idleWorkers.size() >= maxIdleWorkers) {
+        evicted = idleWorkers.poll();
+      }
+      if (maxIdleWorkers > 0) {
+        idleWorkers.add(worker);
+      } else {
+        evicted = worker;
+      }
+    }
+    if (evicted != null) {
+      evicted.stop();
+    }
+  }
+
+  /*
+   * Returns the class path entry that contains KawaCompilerDaemon, i.e., the build server jar.
+   */
+  private static String getDaemonClasspath() throws IOException {
+    try {
+      return new File(KawaCompilerDaemon.class.getProtectionDomain().getCodeSource()
+          .getLocation().toURI()).getAbsolutePath();
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /*
+   * A single KawaCompilerDaemon process.
+   */
+  private static class Worker {
+    private final String key;
+    private final Process process;
+    private final DataOutputStream requests;
+    private final DataInputStream responses;
+    private int compileCount = 0;
+    // Set by the watchdog when it stops the worker.
+    private volatile boolean timedOut = false;
+
+    Worker(String key, String classpath, int mx, String yailRuntime) throws IOException {
+      this.key = key;
+      String[] command = {
+          System.getProperty("java.home") + "/bin/java",
+          "-Dfile.encoding=UTF-8",
+          Compiler.STATIC_COMPONENT_CALLS,
+          "-mx" + mx + "M",
+          "-cp", classpath + COLON + getDaemonClasspath(),
+          KawaCompilerDaemon.class.getName(),
+          yailRuntime
+      };
+      LOG.info("Starting Kawa worker: " + Joiner.on(" ").join(command));
+      process = Runtime.getRuntime().exec(command);
+      new ErrorStreamDrainer(process.getErrorStream()).start();
+      requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+      responses = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+    }
+
+    void awaitReady() throws IOException {
+      if (responses.readInt() != KawaCompilerDaemon.READY) {
+        throw new IOException("Kawa worker did not start");
+      }
+    }
+
+    int compile(List<String> compileArgs, PrintStream out, PrintStream err) throws IOException {
+      compileCount++;
+      requests.writeInt(compileArgs.size());
+      for (String arg : compileArgs) {
+        requests.writeUTF(arg);
+      }
+      requests.flush();
+      int status = responses.readInt();
+      byte[] stdout = readBytes();
+      byte[] stderr = readBytes();
+      if (timedOut) {
+        // The daemon's shutdown hook answers for a process destroyed by the watchdog.
+        throw new IOException("Kawa worker was stopped");
+      }
+      out.write(stdout);
+      err.write(stderr);
+      out.flush();
+      err.flush();
+      return status;
+    }
+
+    private byte[] readBytes() throws IOException {
+      byte[] bytes = new byte[responses.readInt()];
+      responses.readFully(bytes);
+      return bytes;
+    }
+
+    void stop() {
+      try {
+        // Closing its input makes the daemon exit normally.
+        requests.close();
+      } catch (IOException e) {
+        // The process is destroyed below in any case.
+      }
+      process.destroy();
+    }
+  }
+
+  /*
+   * Copies output that a worker writes outside of a compilation to our standard error.
+   */
+  private static class ErrorStreamDrainer extends Thread {
+    private final InputStream input;
+
+    ErrorStreamDrainer(InputStream input) {
+      this.input = input;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+        String line;
+        while ((line = reader.readLine()) != null) {
+          System.err.println(line);
+        }
+      } catch (IOException e) {
+        // OK to ignore, the worker is gone.
+      }
+    }
+  }
+}
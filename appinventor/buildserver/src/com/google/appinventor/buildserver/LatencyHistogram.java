@@ -0,0 +1,62 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+/**
+ * A histogram of latencies with fixed buckets, in the form that Prometheus expects: each bucket
+ * counts the observations that are less than or equal to its upper bound, so the counts are
+ * cumulative, and the last bucket counts every observation.
+ */
+final class LatencyHistogram {
+  /**
+   * The upper bounds of the buckets, in seconds. Build stages take from a few milliseconds to a
+   * few minutes.
+   */
+  static final double[] BUCKET_BOUNDS =
+      { 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 25, 50, 100, 250 };
+
+  private final long[] counts = new long[BUCKET_BOUNDS.length + 1];
+  private long count;
+  private double sum;
+
+  /**
+   * Records one observation.
+   *
+   * @param millis the latency, in milliseconds
+   */
+  synchronized void observe(long millis) {
+    double seconds = millis / 1000.0;
+    int i = 0;
+    while (i < BUCKET_BOUNDS.length && seconds > BUCKET_BOUNDS[i]) {
+      i++;
+    }
+    counts[i]++;
+    count++;
+    sum += seconds;
+  }
+
+  /**
+   * Appends the histogram to a Prometheus text exposition.
+   *
+   * @param out the exposition
+   * @param name the name of the metric
+   * @param labels the labels of this histogram, such as {@code stage="aapt"}
+   */
+  synchronized void appendTo(StringBuilder out, String name, String labels) {
+    long cumulative = 0;
+    for (int i = 0; i <= BUCKET_BOUNDS.length; i++) {
+      cumulative += counts[i];
+      out.append(name).append("_bucket{").append(labels).append(",le=\"")
+          .append(i < BUCKET_BOUNDS.length ? Double.toString(BUCKET_BOUNDS[i]) : "+Inf")
+          .append("\"} ").append(cumulative).append('\n');
+    }
+    out.append(name).append("_sum{").append(labels).append("} ").append(sum).append('\n');
+    out.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+  }
+
+  synchronized long getCount() {
+    return count;
+  }
+}
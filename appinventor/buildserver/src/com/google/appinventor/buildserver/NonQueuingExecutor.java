@@ -5,20 +5,19 @@
 // http://www.apache.org/licenses/LICENSE-2.0
 package com.google.appinventor.buildserver;
 
-import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
- * An {@link Executor} used for executing tasks using a thread pool.
+ * A {@link BuildExecutor} used for executing tasks using a thread pool.
  *
  * <p>This ExecutorService allows only a certain number of simultaneous tasks.
  * Additional tasks are rejected, not queued.</p>
  *
  * @author lizlooney@google.com (Liz Looney)
  */
-final class NonQueuingExecutor implements Executor {
+final class NonQueuingExecutor implements BuildExecutor {
   // The maximum number of active tasks. O means unlimited.
   private final int maxActiveTasks;
 
@@ -72,6 +71,10 @@ final class NonQueuingExecutor implements Executor {
     return activeTaskCount.get();
   }
 
+  public int getQueuedTaskCount() {
+    return 0;
+  }
+
   public int getCompletedTaskCount() {
     return completedTaskCount.get();
   }
@@ -0,0 +1,89 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * A child process launched by {@link Execution}, and the resources it used.
+ *
+ * <p>The peak resident set size and the bytes read and written are sampled from /proc while the
+ * process runs, so they are only known on Linux, and only for processes that run long enough to
+ * be sampled. They are -1 when they are not known.</p>
+ */
+public class ProcessSpan {
+  private final String tool;
+  private final long wallMillis;
+  private final int exitCode;
+  private final long peakRssBytes;
+  private final long bytesRead;
+  private final long bytesWritten;
+
+  /**
+   * Creates a new ProcessSpan.
+   *
+   * @param tool the name of the tool that ran, such as aapt or dx
+   * @param wallMillis the wall clock time the process ran for, in milliseconds
+   * @param exitCode the exit code of the process, or -1 if it could not be started
+   * @param peakRssBytes the peak resident set size of the process, or -1
+   * @param bytesRead the number of bytes the process read, or -1
+   * @param bytesWritten the number of bytes the process wrote, or -1
+   */
+  public ProcessSpan(String tool, long wallMillis, int exitCode, long peakRssBytes, long bytesRead,
+      long bytesWritten) {
+    this.tool = tool;
+    this.wallMillis = wallMillis;
+    this.exitCode = exitCode;
+    this.peakRssBytes = peakRssBytes;
+    this.bytesRead = bytesRead;
+    this.bytesWritten = bytesWritten;
+  }
+
+  public String getTool() {
+    return tool;
+  }
+
+  public long getWallMillis() {
+    return wallMillis;
+  }
+
+  public int getExitCode() {
+    return exitCode;
+  }
+
+  public long getPeakRssBytes() {
+    return peakRssBytes;
+  }
+
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * Returns the span as a JSON object, as it appears in the build output and the build trace.
+   */
+  public JSONObject toJson() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("tool", tool);
+    json.put("wall", wallMillis);
+    json.put("exitCode", exitCode);
+    json.put("peakRss", peakRssBytes);
+    json.put("bytesRead", bytesRead);
+    json.put("bytesWritten", bytesWritten);
+    return json;
+  }
+
+  @Override
+  public String toString() {
+    return tool + ": wall " + wallMillis +
+        " ms, exit code " + exitCode + ", peak rss " + peakRssBytes + " bytes, read " +
+        bytesRead + " bytes, written " + bytesWritten + " bytes";
+  }
+}
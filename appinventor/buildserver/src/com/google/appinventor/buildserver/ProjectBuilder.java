@@ -13,6 +13,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
 import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
 import com.google.common.io.Resources;
@@ -79,6 +80,11 @@ public final class ProjectBuilder {
   private static final String ALL_COMPONENT_TYPES =
       Compiler.RUNTIME_FILES_DIR + "simple_components.txt";
 
+  // Build cache kind and file names for APKs
+  private static final String APK_CACHE_KIND = "apk";
+  private static final String APK_CACHE_APK = "app.apk";
+  private static final String APK_CACHE_MESSAGES = "messages.txt";
+
   public File getOutputApk() {
     return outputApk;
   }
@@ -145,6 +151,24 @@ public final class ProjectBuilder {
         // Create project object from project properties file.
         Project project = getProjectProperties(projectRoot);
 
+        // A project that is built again without changes gets the APK of the earlier build. We
+        // only do this when the project brought its own keystore, since otherwise the APK would
+        // be signed with a key that this build does not return.
+        BuildCache buildCache = Compiler.getBuildCache();
+        String apkCacheKey = null;
+        if (buildCache != null && !saveKeystore) {
+          apkCacheKey = computeApkCacheKey(projectRoot, sourceFiles, isForCompanion,
+              isForEmulator, includeDangerousPermissions, extraExtensions, outputFileName);
+          Result cachedResult = restoreCachedApk(buildCache, apkCacheKey, project, outputDir,
+              outputFileName);
+          if (cachedResult != null) {
+            if (reporter != null) {
+              reporter.report(100);
+            }
+            return cachedResult;
+          }
+        }
+
         File buildTmpDir = new File(projectRoot, "build/tmp");
         buildTmpDir.mkdirs();
 
@@ -165,10 +189,11 @@ public final class ProjectBuilder {
         Map<String, Set<String>> componentBlocks = getComponentBlocks(sourceFiles);
 
         // Invoke YoungAndroid compiler
+        List<StageTiming> stageTimings = new ArrayList<>();
         boolean success =
             Compiler.compile(project, componentTypes, componentBlocks, console, console, userErrors,
                 isForCompanion, isForEmulator, includeDangerousPermissions, keyStorePath,
-                childProcessRam, dexCachePath, outputFileName, reporter);
+                childProcessRam, dexCachePath, outputFileName, reporter, stageTimings);
         console.close();
         userErrors.close();
 
@@ -194,9 +219,19 @@ public final class ProjectBuilder {
               outputKeystore = new File(outputDir, KEYSTORE_FILE_NAME);
               Files.copy(keyStoreFile, outputKeystore);
             }
+            if (apkCacheKey != null) {
+              File messagesFile = new File(buildTmpDir, APK_CACHE_MESSAGES);
+              Files.write(messages, messagesFile, Charsets.UTF_8);
+              Map<String, File> cacheFiles = new HashMap<>();
+              cacheFiles.put(APK_CACHE_APK, outputFile);
+              cacheFiles.put(APK_CACHE_MESSAGES, messagesFile);
+              buildCache.store(APK_CACHE_KIND, apkCacheKey, cacheFiles);
+            }
           }
         }
-        return new Result(success, messages, errors.toString(PathUtil.DEFAULT_CHARSET));
+        Result result = new Result(success, messages, errors.toString(PathUtil.DEFAULT_CHARSET));
+        result.setStageTimings(stageTimings);
+        return result;
       } finally {
         // On some platforms (OS/X), the java.io.tmpdir contains a symlink. We need to use the
         // canonical path here so that Files.deleteRecursively will work.
@@ -211,6 +246,59 @@ public final class ProjectBuilder {
     }
   }
 
+  /*
+   * Computes the build cache key for the APK of a project. The key covers the runtime fingerprint
+   * of the build server, the build options and the name and content of every file in the project.
+   */
+  private static String computeApkCacheKey(File projectRoot, List<String> sourceFiles,
+      boolean isForCompanion, boolean isForEmulator, boolean includeDangerousPermissions,
+      String[] extraExtensions, String outputFileName) throws IOException {
+    Hasher hasher = BuildCache.newHasher();
+    BuildCache.putString(hasher, Compiler.getRuntimeFingerprint());
+    BuildCache.putString(hasher, isForCompanion + " " + isForEmulator + " " +
+        includeDangerousPermissions + " " + Arrays.toString(extraExtensions) + " " +
+        outputFileName);
+    String rootPath = projectRoot.getPath();
+    List<String> sortedFiles = new ArrayList<>(sourceFiles);
+    Collections.sort(sortedFiles);
+    for (String fileName : sortedFiles) {
+      File file = new File(fileName);
+      if (file.isFile()) {
+        BuildCache.putString(hasher, fileName.substring(rootPath.length()));
+        BuildCache.putFile(hasher, file);
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  /*
+   * Copies the cached APK for the given key into outputDir and returns the result of the build
+   * that produced it, or returns null if there is no cached APK for the key.
+   */
+  private Result restoreCachedApk(BuildCache buildCache, String key, Project project,
+      File outputDir, String outputFileName) {
+    File entry = buildCache.lookup(APK_CACHE_KIND, key);
+    if (entry == null) {
+      return null;
+    }
+    String fileName = outputFileName;
+    if (fileName == null) {
+      fileName = project.getProjectName() + ".apk";
+    }
+    try {
+      String messages = Files.toString(new File(entry, APK_CACHE_MESSAGES), Charsets.UTF_8);
+      outputApk = new File(outputDir, fileName);
+      Files.copy(new File(entry, APK_CACHE_APK), outputApk);
+      LOG.info("Using cached APK " + key);
+      return new Result(true, messages, "");
+    } catch (IOException e) {
+      // The entry may have been evicted while we were copying it.
+      LOG.warning("Unable to restore cached APK " + key + ": " + e);
+      outputApk = null;
+      return null;
+    }
+  }
+
   private static Set<String> getAllComponentTypes() throws IOException {
     Set<String> compSet = Sets.newHashSet();
     String[] components = Resources.toString(
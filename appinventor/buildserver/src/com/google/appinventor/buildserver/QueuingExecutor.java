@@ -0,0 +1,300 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * A {@link BuildExecutor} that queues tasks when all of its slots are busy.
+ *
+ * <p>At most {@code maxActiveTasks} tasks run at the same time. Additional
+ * tasks wait in a bounded queue; a task is rejected only when the queue is
+ * full. Waiting tasks are started in order of their {@link Lane}, and first
+ * come, first served within a lane.</p>
+ *
+ * <p>So that a single user cannot take all of the slots, each user may have
+ * at most {@code maxTasksPerUser} running tasks and at most
+ * {@code maxTasksPerUser} waiting tasks. A waiting task whose user already
+ * has the maximum number of running tasks is passed over until one of them
+ * finishes.</p>
+ */
+final class QueuingExecutor implements BuildExecutor {
+
+  /**
+   * The priority lanes of the queue, highest priority first.
+   */
+  enum Lane {
+    // Builds that someone is waiting on interactively, e.g. builds of the companion app.
+    COMPANION("companion"),
+    // Builds of release APKs.
+    RELEASE("release");
+
+    private final String name;
+
+    Lane(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Returns the lane with the given name, or {@link #RELEASE} if there is no such lane.
+     */
+    static Lane fromName(String name) {
+      for (Lane lane : values()) {
+        if (lane.name.equals(name)) {
+          return lane;
+        }
+      }
+      return RELEASE;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  // The build duration assumed for estimates until a build has completed.
+  private static final long DEFAULT_TASK_DURATION_MILLIS = 60000;
+
+  // The number of recent wait times from which the wait time percentiles are computed.
+  private static final int WAIT_TIME_SAMPLES = 1000;
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(QueuingExecutor.class.getName());
+
+  private final int maxActiveTasks;
+  private final int maxQueuedTasks;
+  private final int maxTasksPerUser;
+
+  // All of the following fields are guarded by this.
+  private final Map<Lane, LinkedList<Task>> queues = new EnumMap<Lane, LinkedList<Task>>(Lane.class);
+  private final Map<String, Integer> activeTasksPerUser = new HashMap<String, Integer>();
+  private final Map<String, Integer> queuedTasksPerUser = new HashMap<String, Integer>();
+  private int activeTaskCount = 0;
+  private int queuedTaskCount = 0;
+  private int completedTaskCount = 0;
+  private long totalTaskDurationMillis = 0;
+  private int maximumQueuedTasks = 0;
+  private int rejectedBecauseQueueFull = 0;
+  private int rejectedBecauseUserLimit = 0;
+  private final long[] waitTimes = new long[WAIT_TIME_SAMPLES];
+  private int waitTimeCount = 0;
+
+  /**
+   * Creates a QueuingExecutor.
+   *
+   * @param maxActiveTasks the maximum number of active tasks, must be positive
+   * @param maxQueuedTasks the maximum number of waiting tasks
+   * @param maxTasksPerUser the maximum number of active tasks, and of waiting tasks, per user.
+   *     0 means unlimited.
+   */
+  QueuingExecutor(int maxActiveTasks, int maxQueuedTasks, int maxTasksPerUser) {
+    if (maxActiveTasks <= 0) {
+      throw new IllegalArgumentException("maxActiveTasks must be positive");
+    }
+    this.maxActiveTasks = maxActiveTasks;
+    this.maxQueuedTasks = maxQueuedTasks;
+    this.maxTasksPerUser = maxTasksPerUser;
+    for (Lane lane : Lane.values()) {
+      queues.put(lane, new LinkedList<Task>());
+    }
+  }
+
+  @Override
+  public void execute(Runnable runnable) {
+    execute("", Lane.RELEASE, runnable);
+  }
+
+  /**
+   * Runs a task now, or queues it if all slots are busy.
+   *
+   * @param user the user the task is for
+   * @param lane the lane of the task
+   * @param runnable the task
+   * @return the estimated time, in milliseconds since the epoch, at which the task will start
+   * @throws RejectedExecutionException if the queue is full or the user already has the
+   *     maximum number of waiting tasks
+   */
+  synchronized long execute(String user, Lane lane, Runnable runnable) {
+    Task task = new Task(user, runnable);
+    if (canStart(user)) {
+      start(task);
+      return task.enqueueTime;
+    }
+    if (queuedTaskCount >= maxQueuedTasks) {
+      rejectedBecauseQueueFull++;
+      throw new RejectedExecutionException("The build queue is full");
+    }
+    if (maxTasksPerUser > 0 && count(queuedTasksPerUser, user) >= maxTasksPerUser) {
+      rejectedBecauseUserLimit++;
+      throw new RejectedExecutionException("User " + user + " has too many waiting builds");
+    }
+
+    LinkedList<Task> queue = queues.get(lane);
+    queue.add(task);
+    increment(queuedTasksPerUser, user);
+    queuedTaskCount++;
+    maximumQueuedTasks = Math.max(maximumQueuedTasks, queuedTaskCount);
+    LOG.info("Queued build for " + user + " in lane " + lane + ", " + queuedTaskCount
+        + " builds waiting");
+
+    // Estimate how long it will be until this task reaches the front of the queue.
+    int tasksAhead = 0;
+    for (Lane otherLane : Lane.values()) {
+      if (otherLane == lane) {
+        tasksAhead += queue.size() - 1;
+        break;
+      }
+      tasksAhead += queues.get(otherLane).size();
+    }
+    return task.enqueueTime + (tasksAhead / maxActiveTasks + 1) * getAverageTaskDurationMillis();
+  }
+
+  @Override
+  public int getMaxActiveTasks() {
+    return maxActiveTasks;
+  }
+
+  @Override
+  public synchronized int getActiveTaskCount() {
+    return activeTaskCount;
+  }
+
+  @Override
+  public synchronized int getQueuedTaskCount() {
+    return queuedTaskCount;
+  }
+
+  @Override
+  public synchronized int getCompletedTaskCount() {
+    return completedTaskCount;
+  }
+
+  /**
+   * Returns the queue statistics, keyed by the names used on the /buildserver/vars page.
+   */
+  synchronized Map<String, String> getVariables() {
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    variables.put("build-queue-maximum-size", maxQueuedTasks + "");
+    variables.put("build-queue-maximum-builds-per-user",
+        maxTasksPerUser == 0 ? "unlimited" : maxTasksPerUser + "");
+    variables.put("build-queue-size", queuedTaskCount + "");
+    for (Lane lane : Lane.values()) {
+      variables.put("build-queue-" + lane + "-size", queues.get(lane).size() + "");
+    }
+    variables.put("build-queue-maximum-size-occurred", maximumQueuedTasks + "");
+    variables.put("build-queue-rejections-queue-full", rejectedBecauseQueueFull + "");
+    variables.put("build-queue-rejections-user-limit", rejectedBecauseUserLimit + "");
+    variables.put("build-queue-average-build-time-in-ms", getAverageTaskDurationMillis() + "");
+    long[] sortedWaitTimes = Arrays.copyOf(waitTimes, Math.min(waitTimeCount, WAIT_TIME_SAMPLES));
+    Arrays.sort(sortedWaitTimes);
+    for (int percentile : new int[] { 50, 90, 99 }) {
+      variables.put("build-queue-wait-p" + percentile + "-in-ms",
+          percentile(sortedWaitTimes, percentile) + "");
+    }
+    return variables;
+  }
+
+  private static long percentile(long[] sortedValues, int percentile) {
+    if (sortedValues.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile / 100.0 * sortedValues.length) - 1;
+    return sortedValues[Math.max(index, 0)];
+  }
+
+  private long getAverageTaskDurationMillis() {
+    return completedTaskCount == 0
+        ? DEFAULT_TASK_DURATION_MILLIS
+        : totalTaskDurationMillis / completedTaskCount;
+  }
+
+  private boolean canStart(String user) {
+    return activeTaskCount < maxActiveTasks
+        && (maxTasksPerUser == 0 || count(activeTasksPerUser, user) < maxTasksPerUser);
+  }
+
+  private void start(final Task task) {
+    long now = System.currentTimeMillis();
+    waitTimes[waitTimeCount++ % WAIT_TIME_SAMPLES] = now - task.enqueueTime;
+    increment(activeTasksPerUser, task.user);
+    activeTaskCount++;
+    final long startTime = now;
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.runnable.run();
+        } finally {
+          finished(task, System.currentTimeMillis() - startTime);
+        }
+      }
+    });
+    thread.start();
+  }
+
+  private synchronized void finished(Task task, long durationMillis) {
+    decrement(activeTasksPerUser, task.user);
+    activeTaskCount--;
+    completedTaskCount++;
+    totalTaskDurationMillis += durationMillis;
+    startQueuedTasks();
+  }
+
+  /*
+   * Starts waiting tasks, highest priority lane first, while there are free slots.
+   */
+  private void startQueuedTasks() {
+    for (Lane lane : Lane.values()) {
+      Iterator<Task> iterator = queues.get(lane).iterator();
+      while (activeTaskCount < maxActiveTasks && iterator.hasNext()) {
+        Task task = iterator.next();
+        if (canStart(task.user)) {
+          iterator.remove();
+          decrement(queuedTasksPerUser, task.user);
+          queuedTaskCount--;
+          start(task);
+        }
+      }
+    }
+  }
+
+  private static int count(Map<String, Integer> counts, String user) {
+    Integer count = counts.get(user);
+    return count == null ? 0 : count;
+  }
+
+  private static void increment(Map<String, Integer> counts, String user) {
+    counts.put(user, count(counts, user) + 1);
+  }
+
+  private static void decrement(Map<String, Integer> counts, String user) {
+    int count = count(counts, user) - 1;
+    if (count <= 0) {
+      counts.remove(user);
+    } else {
+      counts.put(user, count);
+    }
+  }
+
+  private static class Task {
+    private final String user;
+    private final Runnable runnable;
+    private final long enqueueTime = System.currentTimeMillis();
+
+    Task(String user, Runnable runnable) {
+      this.user = user;
+      this.runnable = runnable;
+    }
+  }
+}
@@ -0,0 +1,329 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+
+/**
+ * Extracts the resources of the build server, such as the runtime jars and the Android tools,
+ * to files that can be passed to child processes.
+ *
+ * <p>Each resource is extracted to a directory named after a hash of its content, and the file
+ * keeps the name of the resource. The files are left in place when the build server exits, so a
+ * build server that is restarted with the same resources uses the files that are already there
+ * instead of extracting them again. A resource that has changed gets a new directory.</p>
+ *
+ * <p>For resources in a jar, the hash is the CRC-32 and size that the jar records for the entry,
+ * so checking whether a resource has been extracted does not read it. Files are extracted to a
+ * temporary name and renamed, so a build server that is killed while extracting does not leave
+ * a partial file behind.</p>
+ *
+ * <p>The extracted tools are executed, so the cache directory must belong to the user running the
+ * build server and be private to it: it is created with owner-only permissions, and one that
+ * belongs to another user is refused. A file left by an earlier build server is also checked
+ * against the hash of the resource, once per process, before it is used.</p>
+ *
+ * <p>A tool can be extracted with the shared libraries it loads. They are extracted into a
+ * {@code lib64} directory next to the tool, where a tool whose RPATH includes
+ * {@code $ORIGIN/lib64} finds them.</p>
+ *
+ * <p>Looking up a resource that has been extracted does not lock. A resource that has not been
+ * extracted yet is extracted by the first thread that looks it up, and the other threads that
+ * look it up wait for it.</p>
+ */
+final class ResourceCache {
+  // Changes when the layout of the cache directory changes.
+  private static final String LAYOUT_VERSION = "v1";
+
+  // The directory, next to a tool, that its shared libraries are extracted into.
+  private static final String LIBRARY_DIRECTORY = "lib64";
+
+  private static final Set<PosixFilePermission> OWNER_ONLY =
+      PosixFilePermissions.fromString("rwx------");
+
+  private final File root;
+  private final File directory;
+  private boolean directoryChecked = false;
+  private final ConcurrentMap<String, Future<File>> files =
+      new ConcurrentHashMap<String, Future<File>>();
+  private final AtomicInteger extractedCount = new AtomicInteger(0);
+  private final AtomicInteger reusedCount = new AtomicInteger(0);
+
+  /**
+   * Creates a new ResourceCache.
+   *
+   * @param directory the directory to extract the resources into
+   */
+  ResourceCache(File directory) {
+    this.root = directory;
+    this.directory = new File(directory, LAYOUT_VERSION);
+  }
+
+  /**
+   * Returns the directory that resources are extracted into when none is given on the command
+   * line. It is private to the user, since the extracted tools are executed.
+   */
+  static File getDefaultDirectory() {
+    return new File(System.getProperty("java.io.tmpdir"),
+        "appinventor-resources-" + System.getProperty("user.name"));
+  }
+
+  /**
+   * Returns the file that a resource has been extracted to, extracting it if needed.
+   *
+   * @param resourcePath the absolute path of the resource
+   * @throws FileNotFoundException if there is no such resource
+   * @throws IOException if the resource cannot be extracted
+   */
+  File get(String resourcePath) throws IOException {
+    return get(resourcePath, new String[0]);
+  }
+
+  /**
+   * Returns the file that a resource has been extracted to, extracting it and the given shared
+   * libraries if needed. The libraries are extracted into the {@code lib64} directory next to
+   * the file. A resource must be given the same libraries every time it is looked up.
+   *
+   * @param resourcePath the absolute path of the resource
+   * @param libraryPaths the absolute paths of the libraries that the resource loads
+   * @throws FileNotFoundException if there is no such resource or library
+   * @throws IOException if the resource or a library cannot be extracted
+   */
+  File get(final String resourcePath, final String... libraryPaths) throws IOException {
+    Future<File> file = files.get(resourcePath);
+    if (file == null) {
+      FutureTask<File> extraction = new FutureTask<File>(new Callable<File>() {
+        @Override
+        public File call() throws IOException {
+          File extracted = extract(resourcePath, null);
+          File libraryDir = new File(extracted.getParentFile(), LIBRARY_DIRECTORY);
+          for (String libraryPath : libraryPaths) {
+            extract(libraryPath, libraryDir);
+          }
+          return extracted;
+        }
+      });
+      file = files.putIfAbsent(resourcePath, extraction);
+      if (file == null) {
+        file = extraction;
+        extraction.run();
+      }
+    }
+    try {
+      return file.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while extracting " + resourcePath, e);
+    } catch (ExecutionException e) {
+      // Let the next lookup try again.
+      files.remove(resourcePath, file);
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Returns the hash of the content of a resource, extracting it if needed. It is the name of
+   * the directory the resource is extracted to.
+   *
+   * @param resourcePath the absolute path of the resource
+   * @throws FileNotFoundException if there is no such resource
+   * @throws IOException if the resource cannot be extracted
+   */
+  String getContentHash(String resourcePath) throws IOException {
+    return get(resourcePath).getParentFile().getName();
+  }
+
+  /**
+   * Returns the statistics of the cache, keyed by the names used on the /buildserver/vars page.
+   */
+  Map<String, String> getVariables() {
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    variables.put("resource-cache-directory", directory.getAbsolutePath());
+    variables.put("resource-cache-resources", files.size() + "");
+    variables.put("resource-cache-extracted", extractedCount.get() + "");
+    variables.put("resource-cache-reused", reusedCount.get() + "");
+    return variables;
+  }
+
+  /*
+   * Extracts a resource, if it has not been extracted already, into the given directory, or
+   * into the directory named after its hash if dir is null.
+   */
+  private File extract(String resourcePath, File dir) throws IOException {
+    URL url = ResourceCache.class.getResource(resourcePath);
+    if (url == null) {
+      throw new FileNotFoundException("No resource " + resourcePath);
+    }
+    checkDirectory();
+    ContentKey key = getContentKey(url);
+    if (dir == null) {
+      dir = new File(directory, key.hash);
+    }
+    File file = new File(dir, PathUtil.basename(resourcePath));
+    // Each resource is extracted once per process, so a file that is already there is checked
+    // once before it is trusted.
+    if (file.isFile() && key.matches(file)) {
+      reusedCount.incrementAndGet();
+    } else {
+      if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+        throw new IOException("Unable to create " + dir);
+      }
+      File tmpFile = File.createTempFile("extract", ".tmp", dir);
+      try {
+        Files.copy(Resources.newInputStreamSupplier(url), tmpFile);
+        tmpFile.setExecutable(true);
+        // Another build server sharing the directory may have extracted the same content.
+        if (!tmpFile.renameTo(file) && !(file.isFile() && key.matches(file))) {
+          throw new IOException("Unable to rename " + tmpFile + " to " + file);
+        }
+      } finally {
+        tmpFile.delete();
+      }
+      extractedCount.incrementAndGet();
+    }
+    if (!file.canExecute()) {
+      file.setExecutable(true);
+    }
+    return file;
+  }
+
+  /*
+   * Creates the cache directory if needed, owner-only, and checks that it is not a link and
+   * belongs to the user running the build server. On file systems without POSIX attributes,
+   * such as on Windows, it is only created.
+   */
+  private synchronized void checkDirectory() throws IOException {
+    if (directoryChecked) {
+      return;
+    }
+    Path path = root.toPath();
+    PosixFileAttributeView view = java.nio.file.Files.getFileAttributeView(path,
+        PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+    if (!java.nio.file.Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+      if (view != null) {
+        java.nio.file.Files.createDirectories(path,
+            PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+      } else {
+        java.nio.file.Files.createDirectories(path);
+      }
+    }
+    if (view != null) {
+      PosixFileAttributes attributes = view.readAttributes();
+      if (!attributes.isDirectory()) {
+        throw new IOException("Resource cache " + root + " is not a directory");
+      }
+      UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService()
+          .lookupPrincipalByName(System.getProperty("user.name"));
+      if (!attributes.owner().equals(user)) {
+        throw new IOException("Resource cache " + root + " belongs to " + attributes.owner() +
+            ", not " + user);
+      }
+      if (!attributes.permissions().equals(OWNER_ONLY)) {
+        view.setPermissions(OWNER_ONLY);
+      }
+    }
+    if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Unable to create " + directory);
+    }
+    directoryChecked = true;
+  }
+
+  /*
+   * Returns the hash and size of the content of a resource. For a resource in a jar, these are
+   * read from the jar's directory. Otherwise the resource is read and hashed.
+   */
+  private static ContentKey getContentKey(URL url) throws IOException {
+    URLConnection connection = url.openConnection();
+    if (connection instanceof JarURLConnection) {
+      JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+      if (entry != null && entry.getCrc() != -1 && entry.getSize() != -1) {
+        return new ContentKey(String.format("crc32-%08x-%d", entry.getCrc(), entry.getSize()),
+            entry.getSize(), Hashing.crc32(), String.format("%08x", entry.getCrc()));
+      }
+    }
+    Hasher hasher = Hashing.sha1().newHasher();
+    long size = 0;
+    InputStream in = connection.getInputStream();
+    try {
+      byte[] buffer = new byte[64 * 1024];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        hasher.putBytes(buffer, 0, count);
+        size += count;
+      }
+    } finally {
+      in.close();
+    }
+    String digest = hasher.hash().toString();
+    return new ContentKey("sha1-" + digest, size, Hashing.sha1(), digest);
+  }
+
+  private static class ContentKey {
+    private final String hash;
+    private final long size;
+    private final HashFunction function;
+    private final String digest;
+
+    ContentKey(String hash, long size, HashFunction function, String digest) {
+      this.hash = hash;
+      this.size = size;
+      this.function = function;
+      this.digest = digest;
+    }
+
+    /*
+     * Checks whether a file has this content, by its size and then its hash.
+     */
+    boolean matches(File file) throws IOException {
+      if (file.length() != size) {
+        return false;
+      }
+      HashCode code = Files.hash(file, function);
+      // A CRC-32 is formatted as the jar records it rather than in byte order.
+      String fileDigest = function.bits() == 32 ? String.format("%08x", code.asInt())
+          : code.toString();
+      return fileDigest.equals(digest);
+    }
+  }
+}
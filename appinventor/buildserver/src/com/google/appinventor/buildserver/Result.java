@@ -6,6 +6,8 @@
 
 package com.google.appinventor.buildserver;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -43,6 +45,8 @@ public class Result {
   private String error;
   // The name of the form being built when an error occurred
   private String formName;
+  // The timings of the build stages, if this is the result of a build
+  private List<StageTiming> stageTimings = Collections.emptyList();
   
   // Logging support
   private static final Logger LOG = Logger.getLogger(Result.class.getName());
@@ -152,6 +156,22 @@ public class Result {
     return formName;
   }
 
+  /**
+   * Returns the timings of the build stages that ran, in the order they started.
+   */
+  public List<StageTiming> getStageTimings() {
+    return stageTimings;
+  }
+
+  /**
+   * Sets the timings of the build stages that ran.
+   *
+   * @param stageTimings the timings, in the order the stages started
+   */
+  public void setStageTimings(List<StageTiming> stageTimings) {
+    this.stageTimings = stageTimings;
+  }
+
   /**
    * Indicates whether this succeeded
    *
@@ -0,0 +1,246 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages of a build and the stages each of them depends on.
+ *
+ * <p>{@link #run(Executor)} starts each stage as soon as all of the stages it depends on have
+ * succeeded, so stages that do not depend on each other run at the same time. A stage fails by
+ * returning false or throwing. Once a stage has failed no more stages are started, and the
+ * stages that are running are allowed to finish.</p>
+ *
+ * <p>The wall clock and CPU time of every stage that ran are recorded, along with the child
+ * processes it ran and the stages on the critical path of the build.</p>
+ */
+final class StageGraph {
+  private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+  // The stage that the current thread is running, if any.
+  private static final ThreadLocal<Node> currentStage = new ThreadLocal<Node>();
+
+  private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+  private long originNanos;
+
+  /**
+   * Adds a stage. The stages it depends on must have been added already, so the graph cannot
+   * have cycles.
+   *
+   * @param name the name of the stage, which must be unique
+   * @param body the work of the stage, returning false if the stage failed
+   * @param dependencies the names of the stages that must succeed before this one starts
+   */
+  void add(String name, Callable<Boolean> body, String... dependencies) {
+    if (nodes.containsKey(name)) {
+      throw new IllegalArgumentException("Duplicate stage " + name);
+    }
+    Node node = new Node(name, body);
+    for (String dependency : dependencies) {
+      Node prerequisite = nodes.get(dependency);
+      if (prerequisite == null) {
+        throw new IllegalArgumentException("Stage " + name + " depends on unknown stage " +
+            dependency);
+      }
+      if (node.prerequisites.add(prerequisite)) {
+        prerequisite.dependents.add(node);
+      }
+    }
+    nodes.put(name, node);
+  }
+
+  /**
+   * Records a child process run by the stage that the current thread is running. Does nothing if
+   * the current thread is not running a stage.
+   */
+  static void recordProcess(ProcessSpan span) {
+    Node node = currentStage.get();
+    if (node != null) {
+      node.processes.add(span);
+    }
+  }
+
+  /**
+   * Runs the stages, and waits for the ones that were started to finish.
+   *
+   * @param executor the executor that runs the stages
+   * @return true if every stage succeeded
+   * @throws Exception the exception thrown by the first stage that threw one
+   */
+  boolean run(Executor executor) throws Exception {
+    originNanos = System.nanoTime();
+    CompletionService<Node> completion = new ExecutorCompletionService<Node>(executor);
+    Map<Node, Integer> waitingFor = new LinkedHashMap<Node, Integer>();
+    int running = 0;
+    for (Node node : nodes.values()) {
+      waitingFor.put(node, node.prerequisites.size());
+      if (node.prerequisites.isEmpty()) {
+        completion.submit(node);
+        running++;
+      }
+    }
+    boolean failed = false;
+    boolean interrupted = false;
+    Throwable exception = null;
+    while (running > 0) {
+      Node done;
+      try {
+        done = completion.take().get();
+      } catch (InterruptedException e) {
+        // The stages that are running cannot be abandoned, since they use the build directory.
+        interrupted = true;
+        failed = true;
+        continue;
+      } catch (ExecutionException e) {
+        // Node.call catches exceptions, so this is an Error.
+        running--;
+        failed = true;
+        if (exception == null) {
+          exception = e.getCause();
+        }
+        continue;
+      }
+      running--;
+      if (!done.succeeded) {
+        failed = true;
+        if (exception == null) {
+          exception = done.exception;
+        }
+      } else if (!failed) {
+        for (Node dependent : done.dependents) {
+          int count = waitingFor.get(dependent) - 1;
+          waitingFor.put(dependent, count);
+          if (count == 0) {
+            completion.submit(dependent);
+            running++;
+          }
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (exception instanceof Error) {
+      throw (Error) exception;
+    } else if (exception != null) {
+      throw (Exception) exception;
+    }
+    return !failed;
+  }
+
+  /**
+   * Returns the timings of the stages that ran, in the order they started.
+   */
+  List<StageTiming> getTimings() {
+    List<Node> ran = new ArrayList<Node>();
+    for (Node node : nodes.values()) {
+      if (node.ran) {
+        ran.add(node);
+      }
+    }
+    Set<Node> critical = getCriticalPath(ran);
+    Collections.sort(ran, new Comparator<Node>() {
+      @Override
+      public int compare(Node a, Node b) {
+        return Long.compare(a.startNanos, b.startNanos);
+      }
+    });
+    List<StageTiming> timings = new ArrayList<StageTiming>(ran.size());
+    for (Node node : ran) {
+      timings.add(new StageTiming(node.name,
+          TimeUnit.NANOSECONDS.toMillis(node.startNanos - originNanos),
+          TimeUnit.NANOSECONDS.toMillis(node.endNanos - node.startNanos),
+          node.cpuNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(node.cpuNanos),
+          node.succeeded, critical.contains(node), node.processes));
+    }
+    return timings;
+  }
+
+  /*
+   * Returns the stages on the critical path: the stage that finished last, the stage it waited
+   * for longest, the stage that one waited for longest, and so on.
+   */
+  private static Set<Node> getCriticalPath(List<Node> ran) {
+    Set<Node> path = new HashSet<Node>();
+    Node last = null;
+    for (Node node : ran) {
+      if (last == null || node.endNanos > last.endNanos) {
+        last = node;
+      }
+    }
+    while (last != null) {
+      path.add(last);
+      Node latest = null;
+      for (Node prerequisite : last.prerequisites) {
+        if (latest == null || prerequisite.endNanos > latest.endNanos) {
+          latest = prerequisite;
+        }
+      }
+      last = latest;
+    }
+    return path;
+  }
+
+  /*
+   * A stage and the stages it depends on. Its fields are written by the thread that runs it, and
+   * read after the completion service hands it back to the thread that runs the graph.
+   */
+  private static class Node implements Callable<Node> {
+    private final String name;
+    private final Callable<Boolean> body;
+    private final Set<Node> prerequisites = new HashSet<Node>();
+    private final List<Node> dependents = new ArrayList<Node>();
+    private final List<ProcessSpan> processes = new ArrayList<ProcessSpan>();
+    private long startNanos;
+    private long endNanos;
+    private long cpuNanos = -1;
+    private boolean ran;
+    private boolean succeeded;
+    private Exception exception;
+
+    Node(String name, Callable<Boolean> body) {
+      this.name = name;
+      this.body = body;
+    }
+
+    @Override
+    public Node call() {
+      boolean measureCpu = THREAD_BEAN.isCurrentThreadCpuTimeSupported();
+      long startCpu = measureCpu ? THREAD_BEAN.getCurrentThreadCpuTime() : 0;
+      startNanos = System.nanoTime();
+      currentStage.set(this);
+      try {
+        succeeded = Boolean.TRUE.equals(body.call());
+      } catch (Exception e) {
+        exception = e;
+        succeeded = false;
+      } finally {
+        currentStage.remove();
+        endNanos = System.nanoTime();
+        ran = true;
+        if (measureCpu) {
+          cpuNanos = THREAD_BEAN.getCurrentThreadCpuTime() - startCpu;
+        }
+      }
+      return this;
+    }
+  }
+}
@@ -0,0 +1,246 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Limits the number of heavy build stages (Kawa compiles and dx passes) that
+ * may run at the same time across all of the builds in this server.
+ *
+ * <p>Each stage has its own pool of permits. A build thread that wants to run
+ * a stage calls {@link #acquire(Stage)} before launching the child process and
+ * {@link #release(Stage)} when it is done. Threads that cannot get a permit
+ * wait in FIFO order, and the time they spend waiting is recorded so that it
+ * can be reported on the /buildserver/vars page.</p>
+ */
+final class StageScheduler {
+
+  /**
+   * The build stages that are limited by the scheduler.
+   */
+  enum Stage {
+    KAWA("kawa"),
+    DX("dx");
+
+    private final String varName;
+
+    Stage(String varName) {
+      this.varName = varName;
+    }
+
+    String getVarName() {
+      return varName;
+    }
+  }
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(StageScheduler.class.getName());
+
+  // Memory, in MB, that we leave for the operating system and other processes when computing
+  // the default number of permits.
+  private static final long RESERVED_SYSTEM_RAM_MB = 1024;
+
+  private final Map<Stage, StageLimit> limits = new EnumMap<Stage, StageLimit>(Stage.class);
+
+  /**
+   * Creates a StageScheduler.
+   *
+   * @param kawaPermits the maximum number of simultaneous Kawa compiles
+   * @param dxPermits the maximum number of simultaneous dx passes
+   */
+  StageScheduler(int kawaPermits, int dxPermits) {
+    limits.put(Stage.KAWA, new StageLimit(kawaPermits));
+    limits.put(Stage.DX, new StageLimit(dxPermits));
+  }
+
+  /**
+   * Creates a StageScheduler whose permits are derived from the memory and the processors
+   * available on this machine. A value greater than 0 for either argument overrides the
+   * computed number of permits for that stage.
+   *
+   * @param kawaPermits the maximum number of simultaneous Kawa compiles, or 0 to compute it
+   * @param dxPermits the maximum number of simultaneous dx passes, or 0 to compute it
+   * @param childProcessRamMb the maximum ram that can be used by a child process, in MB
+   */
+  static StageScheduler create(int kawaPermits, int dxPermits, int childProcessRamMb) {
+    return create(kawaPermits, dxPermits, childProcessRamMb, 0);
+  }
+
+  /**
+   * Creates a StageScheduler like {@link #create(int, int, int)}, leaving room in the memory
+   * budget for child processes that stay resident between stages, such as idle warm Kawa
+   * workers.
+   *
+   * @param kawaPermits the maximum number of simultaneous Kawa compiles, or 0 to compute it
+   * @param dxPermits the maximum number of simultaneous dx passes, or 0 to compute it
+   * @param childProcessRamMb the maximum ram that can be used by a child process, in MB
+   * @param residentProcesses the number of resident child processes, each using up to
+   *     childProcessRamMb
+   */
+  static StageScheduler create(int kawaPermits, int dxPermits, int childProcessRamMb,
+      int residentProcesses) {
+    int budget = computeChildProcessBudget(childProcessRamMb, residentProcesses);
+    // Kawa and dx processes run at the same time, so they share the budget.
+    int defaultKawaPermits = Math.max(1, budget / 2);
+    int defaultDxPermits = Math.max(1, budget - defaultKawaPermits);
+    if (kawaPermits <= 0) {
+      kawaPermits = defaultKawaPermits;
+    }
+    if (dxPermits <= 0) {
+      dxPermits = defaultDxPermits;
+    }
+    LOG.info("Maximum simultaneous Kawa compiles = " + kawaPermits +
+        ", maximum simultaneous dx passes = " + dxPermits);
+    return new StageScheduler(kawaPermits, dxPermits);
+  }
+
+  /*
+   * Returns the number of child processes, each using childProcessRamMb, that fit in the
+   * physical memory of this machine, after leaving room for this JVM, the operating system and
+   * the resident child processes.
+   */
+  private static int computeChildProcessBudget(int childProcessRamMb, int residentProcesses) {
+    if (childProcessRamMb <= 0) {
+      return 1;
+    }
+    long serverMb = Runtime.getRuntime().maxMemory() / (1024 * 1024);
+    long physicalMb = readPhysicalMemoryMb();
+    if (physicalMb <= 0) {
+      // We don't know how much memory the machine has, only that it can hold this JVM.
+      physicalMb = serverMb;
+    }
+    return computeChildProcessBudget(physicalMb - serverMb - RESERVED_SYSTEM_RAM_MB,
+        Runtime.getRuntime().availableProcessors(), childProcessRamMb, residentProcesses);
+  }
+
+  /**
+   * Returns the number of child processes, each using childProcessRamMb, that fit in
+   * availableMb after the resident child processes. The result is never more than the number of
+   * processors and never less than 1.
+   */
+  static int computeChildProcessBudget(long availableMb, int processors, int childProcessRamMb,
+      int residentProcesses) {
+    long budget = (availableMb - (long) residentProcesses * childProcessRamMb) / childProcessRamMb;
+    return (int) Math.max(1, Math.min(processors, budget));
+  }
+
+  /*
+   * Returns the MemTotal value from /proc/meminfo, in MB, or -1 if it cannot be read.
+   */
+  private static long readPhysicalMemoryMb() {
+    try (BufferedReader reader = new BufferedReader(new FileReader("/proc/meminfo"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("MemTotal:")) {
+          // The line looks like "MemTotal:       16318480 kB"
+          String[] fields = line.substring("MemTotal:".length()).trim().split("\\s+");
+          return Long.parseLong(fields[0]) / 1024;
+        }
+      }
+    } catch (IOException e) {
+      LOG.info("Unable to read /proc/meminfo: " + e);
+    } catch (NumberFormatException e) {
+      LOG.info("Unable to parse /proc/meminfo: " + e);
+    }
+    return -1;
+  }
+
+  /**
+   * Blocks until a permit for the given stage is available.
+   *
+   * @param stage the stage about to be run
+   */
+  void acquire(Stage stage) {
+    limits.get(stage).acquire();
+  }
+
+  /**
+   * Releases a permit previously obtained with {@link #acquire(Stage)}.
+   *
+   * @param stage the stage that has finished
+   */
+  void release(Stage stage) {
+    limits.get(stage).release();
+  }
+
+  int getPermits(Stage stage) {
+    return limits.get(stage).permits;
+  }
+
+  int getActiveCount(Stage stage) {
+    return limits.get(stage).active.get();
+  }
+
+  int getQueuedCount(Stage stage) {
+    return limits.get(stage).semaphore.getQueueLength();
+  }
+
+  /**
+   * Returns the scheduler statistics, keyed by the names used on the /buildserver/vars page.
+   */
+  Map<String, String> getVariables() {
+    Map<String, String> variables = new LinkedHashMap<String, String>();
+    for (Map.Entry<Stage, StageLimit> entry : limits.entrySet()) {
+      String prefix = entry.getKey().getVarName() + "-stage-";
+      StageLimit limit = entry.getValue();
+      long acquisitions = limit.acquisitions.get();
+      long totalWait = limit.totalWaitMillis.get();
+      variables.put(prefix + "permits", limit.permits + "");
+      variables.put(prefix + "active", limit.active.get() + "");
+      variables.put(prefix + "queued", limit.semaphore.getQueueLength() + "");
+      variables.put(prefix + "runs", acquisitions + "");
+      variables.put(prefix + "total-queue-wait-in-ms", totalWait + "");
+      variables.put(prefix + "average-queue-wait-in-ms",
+          (acquisitions == 0 ? 0 : totalWait / acquisitions) + "");
+      variables.put(prefix + "maximum-queue-wait-in-ms", limit.maxWaitMillis.get() + "");
+    }
+    return variables;
+  }
+
+  /*
+   * The permits and the statistics of a single stage.
+   */
+  private static class StageLimit {
+    private final int permits;
+    private final Semaphore semaphore;
+    private final AtomicInteger active = new AtomicInteger(0);
+    private final AtomicLong acquisitions = new AtomicLong(0);
+    private final AtomicLong totalWaitMillis = new AtomicLong(0);
+    private final AtomicLong maxWaitMillis = new AtomicLong(0);
+
+    StageLimit(int permits) {
+      this.permits = Math.max(1, permits);
+      this.semaphore = new Semaphore(this.permits, true);
+    }
+
+    void acquire() {
+      long start = System.currentTimeMillis();
+      semaphore.acquireUninterruptibly();
+      long waited = System.currentTimeMillis() - start;
+      active.incrementAndGet();
+      acquisitions.incrementAndGet();
+      totalWaitMillis.addAndGet(waited);
+      long max = maxWaitMillis.get();
+      while (waited > max && !maxWaitMillis.compareAndSet(max, waited)) {
+        max = maxWaitMillis.get();
+      }
+    }
+
+    void release() {
+      active.decrementAndGet();
+      semaphore.release();
+    }
+  }
+}
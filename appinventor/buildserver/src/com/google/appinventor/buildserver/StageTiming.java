@@ -0,0 +1,115 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The time taken by one stage of a build.
+ *
+ * <p>The CPU time is that of the build server thread that ran the stage. It does not include
+ * the time used by child processes, such as aapt, Kawa and dx, so for those stages the wall
+ * clock time is the one to look at, along with the {@link ProcessSpan}s of the processes.</p>
+ */
+public class StageTiming {
+  private final String name;
+  private final long startMillis;
+  private final long wallMillis;
+  private final long cpuMillis;
+  private final boolean succeeded;
+  private final boolean critical;
+  private final List<ProcessSpan> processes;
+
+  /**
+   * Creates a new StageTiming.
+   *
+   * @param name the name of the stage
+   * @param startMillis when the stage started, in milliseconds since the start of the build
+   * @param wallMillis the wall clock time taken by the stage, in milliseconds
+   * @param cpuMillis the CPU time taken by the stage, in milliseconds, or -1 if it is not known
+   * @param succeeded whether the stage succeeded
+   * @param critical whether the stage is on the critical path of the build
+   * @param processes the child processes run by the stage
+   */
+  public StageTiming(String name, long startMillis, long wallMillis, long cpuMillis,
+      boolean succeeded, boolean critical, List<ProcessSpan> processes) {
+    this.name = name;
+    this.startMillis = startMillis;
+    this.wallMillis = wallMillis;
+    this.cpuMillis = cpuMillis;
+    this.succeeded = succeeded;
+    this.critical = critical;
+    this.processes = Collections.unmodifiableList(new ArrayList<ProcessSpan>(processes));
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  public long getWallMillis() {
+    return wallMillis;
+  }
+
+  public long getCpuMillis() {
+    return cpuMillis;
+  }
+
+  public boolean succeeded() {
+    return succeeded;
+  }
+
+  /**
+   * Returns whether the stage is on the critical path, the chain of stages, each waiting for
+   * the one before it, that ends with the last stage to finish. Only making these stages faster
+   * makes the build faster.
+   */
+  public boolean isCritical() {
+    return critical;
+  }
+
+  /**
+   * Returns the child processes run by the stage, in the order they finished.
+   */
+  public List<ProcessSpan> getProcesses() {
+    return processes;
+  }
+
+  /**
+   * Returns the timing as a JSON object, as it appears in the build output and the build trace.
+   */
+  public JSONObject toJson() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("name", name);
+    json.put("start", startMillis);
+    json.put("wall", wallMillis);
+    json.put("cpu", cpuMillis);
+    json.put("succeeded", succeeded);
+    json.put("critical", critical);
+    if (!processes.isEmpty()) {
+      JSONArray processArray = new JSONArray();
+      for (ProcessSpan process : processes) {
+        processArray.put(process.toJson());
+      }
+      json.put("processes", processArray);
+    }
+    return json;
+  }
+
+  @Override
+  public String toString() {
+    return name + ": start " + startMillis + " ms, wall " + wallMillis + " ms, cpu " +
+        cpuMillis + " ms" + (critical ? " (critical)" : "") + (succeeded ? "" : " (failed)");
+  }
+}
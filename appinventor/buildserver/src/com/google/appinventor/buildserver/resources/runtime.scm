@@ -188,15 +188,114 @@
         *non-coercible-value*)))
 
 
+;;; Component calls and property accesses name their component and
+;;; member with quoted symbols, for example
+;;;   (call-component-method 'Sound1 'Vibrate (*list-for-runtime* duration) '(number))
+;;;   (set-and-coerce-property! 'Button3 'FontSize 14 'number)
+;;;   (get-property 'Label1 'Text)
+;;; When the build server compiles an app it sets the Java system property
+;;; yail.static.component.calls.  The calls then expand into invocations on
+;;; the field that add-component defines for the component.  The field has the
+;;; component's class as its type, so Kawa resolves the method when it compiles
+;;; the app and emits a direct call, with each argument coerced to the type
+;;; given in the call.  In the REPL, and whenever the names are not literal,
+;;; the calls expand into the procedures below, which look up the component
+;;; and the method while the app runs.  Both kinds of call signal the same
+;;; runtime errors, and both dispatch a PermissionException to the
+;;; PermissionDenied event.
+
+(define-syntax call-component-method
+  (lambda (stx)
+    (syntax-case stx (quote *list-for-runtime*)
+      ((_ (quote component-name) (quote method-name) (*list-for-runtime* arg ...) (quote (type ...)))
+       (java.lang.Boolean:getBoolean "yail.static.component.calls")
+       #'(%static-call-component-method component-name method-name () ((arg type) ...)))
+      ((_ component-name method-name arglist typelist)
+       #'(dynamic-call-component-method component-name method-name arglist typelist)))))
+
+;;; Binds each argument and its coerced value in turn, then calls the method
+;;; once all of them are bound.
+(define-syntax %static-call-component-method
+  (syntax-rules ()
+    ((_ component-name method-name ((value coerced) ...) ())
+     (if (all-coercible? (list coerced ...))
+         (begin
+           (%verify-component component-name)
+           (sanitize-component-data
+            (try-catch
+             (invoke component-name 'method-name coerced ...)
+             (exception com.google.appinventor.components.runtime.errors.PermissionException
+                        (dispatch-permission-denied component-name 'method-name exception)))))
+         (generate-runtime-type-error 'method-name (list value ...))))
+    ((_ component-name method-name (bound ...) ((arg type) more ...))
+     (let* ((value arg)
+            (coerced (%coerce-arg value type)))
+       (%static-call-component-method component-name method-name
+                                      (bound ... (value coerced)) (more ...))))))
+
+(define-syntax set-and-coerce-property!
+  (lambda (stx)
+    (syntax-case stx (quote)
+      ((_ (quote component-name) (quote prop-name) property-value (quote property-type))
+       (java.lang.Boolean:getBoolean "yail.static.component.calls")
+       #'(let ((value property-value))
+           (%verify-component component-name)
+           (let ((coerced (%coerce-arg value property-type)))
+             (if (all-coercible? (list coerced))
+                 (try-catch
+                  (invoke component-name 'prop-name coerced)
+                  (exception com.google.appinventor.components.runtime.errors.PermissionException
+                             (dispatch-permission-denied component-name 'prop-name exception)))
+                 (generate-runtime-type-error 'prop-name (list value))))))
+      ((_ component prop-sym property-value property-type)
+       #'(dynamic-set-and-coerce-property! component prop-sym property-value property-type)))))
+
+(define-syntax get-property
+  (lambda (stx)
+    (syntax-case stx (quote)
+      ((_ (quote component-name) (quote prop-name))
+       (java.lang.Boolean:getBoolean "yail.static.component.calls")
+       #'(begin
+           (%verify-component component-name)
+           (sanitize-component-data (invoke component-name 'prop-name))))
+      ((_ component prop-name)
+       #'(dynamic-get-property component prop-name)))))
+
+;;; The check of coerce-to-component-and-verify (below) on the field of a
+;;; component, which is null if the component was never created.  It is a
+;;; separate step, rather than an expression returning the component, so that
+;;; the field keeps its type in the call that follows.
+(define-syntax %verify-component
+  (syntax-rules ()
+    ((_ component-name)
+     (if (not (instance? component-name com.google.appinventor.components.runtime.Component))
+         (signal-runtime-error
+          (string-append "Cannot find the component: "
+                         (get-display-representation 'component-name))
+          "Problem with application")))))
+
+;;; The part of coerce-arg (below) that depends on the type, chosen when the
+;;; call is compiled rather than when it runs.
+(define-syntax %coerce-arg
+  (syntax-rules (number text boolean list InstantInTime component any)
+    ((_ arg number) (coerce-to-number (sanitize-atomic arg)))
+    ((_ arg text) (coerce-to-text (sanitize-atomic arg)))
+    ((_ arg boolean) (coerce-to-boolean (sanitize-atomic arg)))
+    ((_ arg list) (coerce-to-yail-list (sanitize-atomic arg)))
+    ((_ arg InstantInTime) (coerce-to-instant (sanitize-atomic arg)))
+    ((_ arg component) (coerce-to-component (sanitize-atomic arg)))
+    ((_ arg any) (sanitize-atomic arg))
+    ((_ arg type) (coerce-arg arg 'type))))
+
 ;;; Call a component's property setter method with argument coercion
-;;; Ex: (set-and-coerce-property! 'Button3 'FontSize 14 'number)
+;;; Ex: (dynamic-set-and-coerce-property! 'Button3 'FontSize 14 'number)
 ;;; Note: see also %set-expanded-property below
-(define (set-and-coerce-property! component prop-sym property-value property-type)
+(define (dynamic-set-and-coerce-property! component prop-sym property-value property-type)
   (let ((component (coerce-to-component-and-verify component)))
     (%set-and-coerce-property! component prop-sym property-value property-type)))
 
-;;; (get-property 'Label1 'Text)
-(define (get-property component prop-name)
+;;; (dynamic-get-property 'Label1 'Text)
+(define (dynamic-get-property component prop-name)
   (let ((component (coerce-to-component-and-verify component)))
     (sanitize-component-data (invoke component prop-name))))
 
@@ -422,60 +521,47 @@
                               registeredComponentName :: java.lang.String
                               eventName :: java.lang.String
                               args :: java.lang.Object[]) :: boolean
-           ;; Check that the component object that generated the event
-           ;; matches the component object associated with the
-           ;; component name that registered the event.  This is
-           ;; necessary, in part, due to the late binding that we want
-           ;; for event handlers and component names.
-           (let ((registeredObject (string->symbol registeredComponentName)))
-                 (if (is-bound-in-form-environment registeredObject)
-                     (if (eq? (lookup-in-form-environment registeredObject) componentObject)
-                        (let ((handler (lookup-handler registeredComponentName eventName)))
-                                ;; Note: This try-catch was originally part of the
-                                ;; generated handler from define-event.  It was moved
-                                ;; here because Kawa seems be unable to eval a
-                                ;; try-catch without compiling it and we can't support
-                                ;; compilation in anything (e.g. define-event) that
-                                ;; might get sent to the REPL!
-                                (try-catch
-                                 (begin
-                                   (apply handler (gnu.lists.LList:makeList args 0))
-                                   #t)
-                                 ;; PermissionException should be caught by a permissions-aware component and
-                                 ;; handled correctly at the point it is caught. However, older extensions
-                                 ;; might not be updated yet for SDK 23's dangerous permissions model, so if
-                                 ;; an exception bubbles all the way up to here we can still catch and report
-                                 ;; it. However, the best context we have for the PermissionDenied event is
-                                 ;; that it occurred in the just-exited event handler code.
-                                 (exception com.google.appinventor.components.runtime.errors.PermissionException
-                                  (begin
-                                    (exception:printStackTrace)
-                                    ;; Test to see if the event we are handling is the
-                                    ;; PermissionDenied of the current form. If so, then we will
-                                    ;; need to avoid re-invoking PermissionDenied.
-                                    (if (and (eq? (this) componentObject)
-                                             (equal? eventName "PermissionNeeded"))
-                                        ;; Error is occurring in the PermissionDenied handler, so we
-                                        ;; use the more general exception handler to prevent going
-                                        ;; into an infinite loop.
-                                        (process-exception exception)
-                                        ((this):PermissionDenied componentObject eventName
-                                                                 (exception:getPermissionNeeded)))
-                                    #f))
-                                 (exception java.lang.Throwable
-                                  (begin
-                                    (android-log-form (exception:getMessage))
+         (let ((handler (lookup-event-handler componentObject registeredComponentName eventName)))
+           (if handler
+               ;; Note: This try-catch was originally part of the
+               ;; generated handler from define-event.  It was moved
+               ;; here because Kawa seems be unable to eval a
+               ;; try-catch without compiling it and we can't support
+               ;; compilation in anything (e.g. define-event) that
+               ;; might get sent to the REPL!
+               (try-catch
+                (begin
+                  (apply handler (gnu.lists.LList:makeList args 0))
+                  #t)
+                ;; PermissionException should be caught by a permissions-aware component and
+                ;; handled correctly at the point it is caught. However, older extensions
+                ;; might not be updated yet for SDK 23's dangerous permissions model, so if
+                ;; an exception bubbles all the way up to here we can still catch and report
+                ;; it. However, the best context we have for the PermissionDenied event is
+                ;; that it occurred in the just-exited event handler code.
+                (exception com.google.appinventor.components.runtime.errors.PermissionException
+                 (begin
+                   (exception:printStackTrace)
+                   ;; Test to see if the event we are handling is the
+                   ;; PermissionDenied of the current form. If so, then we will
+                   ;; need to avoid re-invoking PermissionDenied.
+                   (if (and (eq? (this) componentObject)
+                            (equal? eventName "PermissionNeeded"))
+                       ;; Error is occurring in the PermissionDenied handler, so we
+                       ;; use the more general exception handler to prevent going
+                       ;; into an infinite loop.
+                       (process-exception exception)
+                       ((this):PermissionDenied componentObject eventName
+                                                (exception:getPermissionNeeded)))
+                   #f))
+                (exception java.lang.Throwable
+                 (begin
+                   (android-log-form (exception:getMessage))
 ;;; Comment out the line below to inhibit a stack trace on a RunTimeError
-                                    (exception:printStackTrace)
-                                    (process-exception exception)
-                                    #f))))
-                        #f)
-                     ;; else unregister event for registeredComponentName
-                     (begin
-                       (com.google.appinventor.components.runtime.EventDispatcher:unregisterEventForDelegation
-                         (as com.google.appinventor.components.runtime.HandlesEventDispatching (this))
-                         registeredComponentName eventName)
-                       #f))))
+                   (exception:printStackTrace)
+                   (process-exception exception)
+                   #f)))
+               #f)))
 
        (define (dispatchGenericEvent componentObject :: com.google.appinventor.components.runtime.Component
                                      eventName :: java.lang.String
@@ -525,6 +611,40 @@
            (com.google.appinventor.components.runtime.EventDispatcher:makeFullEventName
             componentName eventName))))
 
+       ;; Returns the handler for an event raised by componentObject, if
+       ;; componentObject is the component named registeredComponentName, and
+       ;; #f otherwise.  Handlers are recorded in the event dispatcher, so
+       ;; that most events are dispatched with a single lookup.
+       (define (lookup-event-handler componentObject :: com.google.appinventor.components.runtime.Component
+                                     registeredComponentName :: java.lang.String
+                                     eventName :: java.lang.String)
+         (let ((handler (com.google.appinventor.components.runtime.EventDispatcher:lookupEventHandler
+                         (as com.google.appinventor.components.runtime.HandlesEventDispatching (this))
+                         componentObject registeredComponentName eventName)))
+           (if (not (eq? handler #!null))
+               handler
+               ;; Check that the component object that generated the event
+               ;; matches the component object associated with the
+               ;; component name that registered the event.  This is
+               ;; necessary, in part, due to the late binding that we want
+               ;; for event handlers and component names.
+               (let ((registeredObject (string->symbol registeredComponentName)))
+                 (if (is-bound-in-form-environment registeredObject)
+                     (if (eq? (lookup-in-form-environment registeredObject) componentObject)
+                         (let ((handler (lookup-handler registeredComponentName eventName)))
+                           (when handler
+                             (com.google.appinventor.components.runtime.EventDispatcher:registerEventHandler
+                              (as com.google.appinventor.components.runtime.HandlesEventDispatching (this))
+                              componentObject registeredComponentName eventName handler))
+                           handler)
+                         #f)
+                     ;; else unregister event for registeredComponentName
+                     (begin
+                       (com.google.appinventor.components.runtime.EventDispatcher:unregisterEventForDelegation
+                         (as com.google.appinventor.components.runtime.HandlesEventDispatching (this))
+                         registeredComponentName eventName)
+                       #f))))))
+
        ;; This defines the Simple Form's abstract $define method. The Simple Form
        ;; implementation will call this to cause initialization.
        (define ($define) :: void
@@ -541,6 +661,29 @@
                         (cdr event-info)))
                      events))
 
+         ;; Record the handler of each event with the Simple event dispatcher,
+         ;; so that it can find the handler for a component's event without
+         ;; asking us about every component with a handler for the event.
+         ;; This has to wait until the components have been created.
+         (define (register-event-handlers events)
+           (define-alias SimpleEventDispatcher
+             <com.google.appinventor.components.runtime.EventDispatcher>)
+           (for-each (lambda (event-info)
+                       (let* ((component-name (symbol->string (car event-info)))
+                              (event-name (symbol->string (cdr event-info)))
+                              (component-object (lookup-in-form-environment (car event-info)))
+                              (handler (lookup-handler component-name event-name)))
+                         (when (and component-object handler)
+                           (SimpleEventDispatcher:registerEventHandler
+                            (as com.google.appinventor.components.runtime.HandlesEventDispatching (this))
+                            component-object component-name event-name handler))))
+                     events)
+           ;; The REPL registers events as they are defined, so its handlers are
+           ;; recorded as they are looked up instead.
+           (unless isrepl
+             (SimpleEventDispatcher:completeEventHandlers
+              (as com.google.appinventor.components.runtime.HandlesEventDispatching (this)))))
+
          ;; Add the initial global variable bindings to the global variable environment
          (define (init-global-variables var-val-pairs)
            ;; (android-log-form (format #f "initializing global vars: ~A" var-val-pairs))
@@ -625,6 +768,7 @@
             ;; need the theme set before creating components.
             (for-each force (reverse form-do-after-creation))
             (create-components components)
+            (register-event-handlers events-to-register)
             ;; These next three clauses need to be in this order:
             ;; Properties can't be set until after the global variables are
             ;; assigned.   And some properties can't be set after the components are
@@ -785,6 +929,14 @@
          (begin expr ...)
          (add-to-form-do-after-creation (delay (begin expr ...)))))))
 
+;; The event dispatcher records the handler of each component's events when
+;; it is first looked up.  The records must be forgotten whenever the REPL
+;; changes the components or the event handlers of the form.
+(define (clear-current-form-event-handlers)
+  (when (not (eq? *this-form* #!null))
+    (com.google.appinventor.components.runtime.EventDispatcher:clearEventHandlers
+     (as com.google.appinventor.components.runtime.HandlesEventDispatching *this-form*))))
+
 ;; The following environments are really just for testing.
 (define *test-environment* (gnu.mapping.Environment:make 'test-env))
 (define *test-global-var-environment* (gnu.mapping.Environment:make 'test-global-var-env))
@@ -793,6 +945,7 @@
                     ;  (android-log (format #f "Adding ~A to env ~A with value ~A" name
                     ;                                     (if (not (eq? *this-form* #!null)) (*:.form-environment *this-form*) 'null)
                     ;                                     object))
+  (clear-current-form-event-handlers)
   (if (not (eq? *this-form* #!null))
       (gnu.mapping.Environment:put (*:.form-environment *this-form*) name object)
       ;; The following is really for testing.  In normal situations *this-form* should be non-null
@@ -810,6 +963,7 @@
         default-value)))
 
 (define (delete-from-current-form-environment name :: gnu.mapping.Symbol)
+  (clear-current-form-event-handlers)
   (if (not (eq? *this-form* #!null))
       (gnu.mapping.Environment:remove (*:.form-environment *this-form*) name)
       ;; The following is really for testing.  In normal situations *this-form* should be non-null
@@ -843,6 +997,7 @@
         default-value)))
 
 (define (reset-current-form-environment)
+  (clear-current-form-event-handlers)
   (if (not (eq? *this-form* #!null))
       (let ((form-name (*:.form-name-symbol *this-form*)))
         ;; Create a new environment
@@ -1026,6 +1181,8 @@
 ;;; Call the component method with the given list of args, coercing to the given types.
 ;;; For example:
 ;;;  (call-component-method 'Sound1 'Vibrate (*list-for-runtime* duration) (*list-for-runtime* 'number))
+;;; call-component-method is a macro (see above).  This procedure is the part of it that looks up
+;;; the component and the method when the call runs.
 
 ;;; Note that the result is coming back from a component, so we have to sanitize it
 ;;; Warning: We are living dangrously here by assuming that the component method can handle the
@@ -1042,17 +1199,18 @@
 ;;; values they will receive.
 
 
-(define (call-component-method component-name method-name arglist typelist)
+(define (dynamic-call-component-method component-name method-name arglist typelist)
   (let ((coerced-args (coerce-args method-name arglist typelist)))
     (let ((result
            (if (all-coercible? coerced-args)
-               (try-catch
-                (apply invoke
-                       `(,(lookup-in-current-form-environment component-name)
-                         ,method-name
-                         ,@coerced-args))
-                (exception PermissionException
-                           (*:dispatchPermissionDeniedEvent (SimpleForm:getActiveForm) (lookup-in-current-form-environment component-name) method-name exception)))
+               (let ((component (coerce-to-component-and-verify component-name)))
+                 (try-catch
+                  (apply invoke
+                         `(,component
+                           ,method-name
+                           ,@coerced-args))
+                  (exception PermissionException
+                             (dispatch-permission-denied component method-name exception))))
                (generate-runtime-type-error method-name arglist))))
       ;; TODO(markf): this should probably be generalized but for now this is OK, I think
       (sanitize-component-data result))))
@@ -1254,9 +1412,14 @@
         (try-catch
          (invoke comp prop-name coerced-arg)
          (exception PermissionException
-                    (*:dispatchPermissionDeniedEvent (SimpleForm:getActiveForm) comp prop-name exception)))
+                    (dispatch-permission-denied comp prop-name exception)))
         (generate-runtime-type-error prop-name (list property-value)))))
 
+;;; Reports that a component method or property setter was denied a
+;;; permission to the PermissionDenied event of the active form.
+(define (dispatch-permission-denied component method-name exception)
+  (*:dispatchPermissionDeniedEvent (SimpleForm:getActiveForm) component method-name exception))
+
 
 ;;; This handles the special case of setting a subcomponent layout.
 ;;; An example of a call to this is
@@ -2108,8 +2271,9 @@ list, use the make-yail-list constructor with no arguments.
 
 
 ;; Implements the Blocks length operation
+;; YailList keeps an index of its items, so this takes constant time
 (define (yail-list-length yail-list)
-  (length (yail-list-contents yail-list)))
+  (*:size (as YailList yail-list)))
 
 ;; These are removed, to simplify the API to lists
 ;; ;; Implements the Blocks first operation
@@ -2154,7 +2318,7 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "Select list item: List index too large")
-    (list-ref (yail-list-contents yail-list) (- index 1)))))
+    (*:getObject (as YailList yail-list) (- index 1)))))
 
 
 ;; Implements the Blocks set list item operation
@@ -2173,7 +2337,7 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "List index too large")))
-  (set-car! (list-tail (yail-list-contents yail-list) (- index 1)) value))
+  (*:setObject (as YailList yail-list) (- index 1) value))
 
 
 
@@ -2204,8 +2368,7 @@ list, use the make-yail-list constructor with no arguments.
                    len
                    (get-display-representation yail-list))
            "List index too large"))
-      (let ((pair-pointing-to-deletion (list-tail yail-list (- index2 1))))
-        (set-cdr! pair-pointing-to-deletion (cddr pair-pointing-to-deletion))))))
+      (*:removeObject (as YailList yail-list) (- index2 1)))))
 
 
 ;; Implements the Blocks insert list item operation
@@ -2234,11 +2397,7 @@ list, use the make-yail-list constructor with no arguments.
                    (get-display-representation yail-list)
                    len+1)
            "List index too large"))
-      (let ((contents (yail-list-contents yail-list)))
-        (if (= index2 1)
-            (set-yail-list-contents! yail-list (cons item contents))
-            (let ((at-item (list-tail contents (- index2 2))))
-              (set-cdr! at-item (cons item (cdr at-item)))))))))
+      (*:insertObject (as YailList yail-list) (- index2 1) item))))
 
 ;; Extends list A by appending the elements of list B to it
 ;; Modifies list A
@@ -2248,14 +2407,7 @@ list, use the make-yail-list constructor with no arguments.
   ;; between the augmented list and the source of the added elements.
   ;; But like Python, we do a shallow copy, so that substructure is
   ;; shared.
-  (define (list-copy l)
-    (if (null? l)
-    '()
-    (cons (car l) (list-copy (cdr l)))))
-  ;; We have to operate on the yail-list itself, not the contents, because
-  ;; the contents might be empty
-  (set-cdr! (list-tail yail-list-A (length (yail-list-contents yail-list-A)))
-        (list-copy (yail-list-contents yail-list-B))))
+  (*:appendList (as YailList yail-list-A) (as YailList yail-list-B)))
 
 
 ;; Extend list A by appending the items to it
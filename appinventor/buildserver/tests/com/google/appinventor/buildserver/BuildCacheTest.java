@@ -0,0 +1,84 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests BuildCache class.
+ */
+public class BuildCacheTest extends TestCase {
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteQuietly(tempDir);
+  }
+
+  public void testStoreAndLookup() throws Exception {
+    BuildCache cache = new BuildCache(new File(tempDir, "cache"), 1024 * 1024);
+    assertNull(cache.lookup("dex", "key1"));
+
+    cache.store("dex", "key1", ImmutableMap.of("classes.dex", writeFile("a", 100)));
+    File entry = cache.lookup("dex", "key1");
+    assertNotNull(entry);
+    assertEquals(100, new File(entry, "classes.dex").length());
+    assertNull(cache.lookup("apk", "key1"));
+
+    Map<String, String> variables = cache.getVariables();
+    assertEquals("1", variables.get("build-cache-dex-hits"));
+    assertEquals("1", variables.get("build-cache-dex-misses"));
+    assertEquals("1", variables.get("build-cache-dex-stores"));
+    assertEquals("1", variables.get("build-cache-apk-misses"));
+  }
+
+  public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+    BuildCache cache = new BuildCache(new File(tempDir, "cache"), 250);
+    cache.store("apk", "old", ImmutableMap.of("app.apk", writeFile("old", 100)));
+    cache.store("apk", "used", ImmutableMap.of("app.apk", writeFile("used", 100)));
+    new File(tempDir, "cache/apk/old").setLastModified(System.currentTimeMillis() - 60000);
+    new File(tempDir, "cache/apk/used").setLastModified(System.currentTimeMillis() - 30000);
+
+    cache.store("apk", "new", ImmutableMap.of("app.apk", writeFile("new", 100)));
+    assertNull(cache.lookup("apk", "old"));
+    assertNotNull(cache.lookup("apk", "used"));
+    assertNotNull(cache.lookup("apk", "new"));
+    assertEquals(200, cache.getSizeInBytes());
+    assertEquals("1", cache.getVariables().get("build-cache-evictions"));
+  }
+
+  public void testKeyDependsOnContent() throws Exception {
+    File file = writeFile("a", 10);
+    String key1 = BuildCache.putFile(BuildCache.putString(BuildCache.newHasher(), "Screen1"), file)
+        .hash().toString();
+    String key2 = BuildCache.putFile(BuildCache.putString(BuildCache.newHasher(), "Screen1"), file)
+        .hash().toString();
+    Files.append("x", file, Charsets.UTF_8);
+    String key3 = BuildCache.putFile(BuildCache.putString(BuildCache.newHasher(), "Screen1"), file)
+        .hash().toString();
+    assertEquals(key1, key2);
+    assertFalse(key1.equals(key3));
+  }
+
+  private File writeFile(String name, int length) throws Exception {
+    File file = new File(tempDir, name);
+    Files.write(new byte[length], file);
+    return file;
+  }
+}
@@ -0,0 +1,61 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildMetrics class.
+ */
+public class BuildMetricsTest extends TestCase {
+  public void testStageHistogram() {
+    BuildMetrics metrics = new BuildMetrics();
+    metrics.recordStage(timing("aapt", 40, true));
+    metrics.recordStage(timing("aapt", 3000, true));
+    metrics.recordStage(timing("aapt", 400000, false));
+    String text = metrics.toPrometheusText();
+    assertTrue(text.contains("# TYPE buildserver_stage_duration_seconds histogram\n"));
+    assertTrue(text.contains("buildserver_stage_duration_seconds_bucket{stage=\"aapt\",le=\"0.01\"} 0\n"));
+    assertTrue(text.contains("buildserver_stage_duration_seconds_bucket{stage=\"aapt\",le=\"0.05\"} 1\n"));
+    assertTrue(text.contains("buildserver_stage_duration_seconds_bucket{stage=\"aapt\",le=\"2.5\"} 1\n"));
+    assertTrue(text.contains("buildserver_stage_duration_seconds_bucket{stage=\"aapt\",le=\"5.0\"} 2\n"));
+    assertTrue(text.contains("buildserver_stage_duration_seconds_bucket{stage=\"aapt\",le=\"250.0\"} 2\n"));
+    assertTrue(text.contains("buildserver_stage_duration_seconds_bucket{stage=\"aapt\",le=\"+Inf\"} 3\n"));
+    assertTrue(text.contains("buildserver_stage_duration_seconds_sum{stage=\"aapt\"} 403.04\n"));
+    assertTrue(text.contains("buildserver_stage_duration_seconds_count{stage=\"aapt\"} 3\n"));
+    assertTrue(text.contains("buildserver_stage_failures_total{stage=\"aapt\"} 1\n"));
+  }
+
+  public void testProcessMetrics() {
+    BuildMetrics metrics = new BuildMetrics();
+    metrics.recordProcess(new ProcessSpan("dx", 1200, 0, 300 << 20, 1000, 200));
+    metrics.recordProcess(new ProcessSpan("dx", 800, 1, 500 << 20, 3000, 400));
+    metrics.recordProcess(new ProcessSpan("dx", 5, 0, -1, -1, -1));
+    metrics.recordProcess(new ProcessSpan("ab\"c", 5, 0, -1, -1, -1));
+    String text = metrics.toPrometheusText();
+    assertTrue(text.contains("buildserver_process_duration_seconds_count{tool=\"dx\"} 3\n"));
+    assertTrue(text.contains("buildserver_process_failures_total{tool=\"dx\"} 1\n"));
+    assertTrue(text.contains("buildserver_process_peak_rss_bytes_max{tool=\"dx\"} " + (500 << 20) + "\n"));
+    assertTrue(text.contains("buildserver_process_read_bytes_total{tool=\"dx\"} 4000\n"));
+    assertTrue(text.contains("buildserver_process_written_bytes_total{tool=\"dx\"} 600\n"));
+    assertTrue(text.contains("buildserver_process_failures_total{tool=\"ab\\\"c\"} 0\n"));
+  }
+
+  public void testBuildHistogram() {
+    BuildMetrics metrics = new BuildMetrics();
+    metrics.recordBuild(true, 20000);
+    metrics.recordBuild(false, 1000);
+    String text = metrics.toPrometheusText();
+    assertTrue(text.contains("buildserver_build_duration_seconds_count{result=\"success\"} 1\n"));
+    assertTrue(text.contains("buildserver_build_duration_seconds_count{result=\"failure\"} 1\n"));
+  }
+
+  private static StageTiming timing(String name, long wallMillis, boolean succeeded) {
+    return new StageTiming(name, 0, wallMillis, -1, succeeded, false,
+        Collections.<ProcessSpan>emptyList());
+  }
+}
@@ -6,11 +6,18 @@
 
 package com.google.appinventor.buildserver;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
 import java.util.Map;
 import java.util.Set;
 
@@ -130,4 +137,66 @@ public class CompilerTest extends TestCase {
     // Finally, test for the name attribute of the <intent-filter>'s <action> subelement
     assertTrue(activityElementString.contains("name=\"android.intent.action.MAIN\""));
   }
+
+  public void testExtractedAaptRuns() throws Exception {
+    if (!System.getProperty("os.name").equals("Linux")) {
+      return;  // Only the Linux aapt loads a library extracted next to it.
+    }
+    File tempDir = Files.createTempDir();
+    Compiler.setResourceCacheDirectory(tempDir);
+    try {
+      String aapt = Compiler.getResource("/tools/linux/aapt");
+      Process process = new ProcessBuilder(aapt, "version").redirectErrorStream(true).start();
+      String output = new String(ByteStreams.toByteArray(process.getInputStream()), "UTF-8");
+      assertEquals(output, 0, process.waitFor());
+      assertTrue(output, output.contains("Android Asset Packaging Tool"));
+    } finally {
+      Compiler.setResourceCacheDirectory(ResourceCache.getDefaultDirectory());
+      FileUtils.deleteQuietly(tempDir);
+    }
+  }
+
+  public void testPartlyEvictedDexEntryIsNotRestored() throws Exception {
+    File tempDir = Files.createTempDir();
+    BuildCache previousCache = Compiler.getBuildCache();
+    BuildCache cache = new BuildCache(new File(tempDir, "cache"), 1024 * 1024);
+    Compiler.setBuildCache(cache);
+    try {
+      Compiler compiler = new Compiler(null, Sets.<String>newHashSet(),
+          Maps.<String, Set<String>>newHashMap(), System.out, System.err, System.err, false, false,
+          false, 2048, null, null);
+      File built = new File(tempDir, "built");
+      built.mkdirs();
+      Files.write(new byte[100], new File(built, "classes.dex"));
+      Files.write(new byte[50], new File(built, "classes2.dex"));
+      Files.write("classes.dex 100\nclasses2.dex 50\n", new File(built, "manifest"),
+          Charsets.UTF_8);
+      cache.store("dex", "key", ImmutableMap.of("classes.dex", new File(built, "classes.dex"),
+          "classes2.dex", new File(built, "classes2.dex"),
+          Compiler.DEX_CACHE_MANIFEST, new File(built, "manifest")));
+
+      File restored = new File(tempDir, "restored/tmp");
+      restored.mkdirs();
+      assertTrue(compiler.restoreCachedDex("key", restored));
+      assertEquals(2, compiler.getDexFileCount());
+      assertEquals(50, new File(restored, "classes2.dex").length());
+
+      // An entry stored from the restored files lists both of them.
+      compiler.storeCachedDex("copy", restored);
+      File copy = new File(tempDir, "copy");
+      copy.mkdirs();
+      assertTrue(compiler.restoreCachedDex("copy", copy));
+      assertEquals(2, compiler.getDexFileCount());
+
+      // Pruning removed classes2.dex of the entry while it was being read.
+      assertTrue(new File(cache.lookup("dex", "key"), "classes2.dex").delete());
+      File partial = new File(tempDir, "partial");
+      partial.mkdirs();
+      assertFalse(compiler.restoreCachedDex("key", partial));
+      assertFalse(new File(partial, "classes.dex").exists());
+    } finally {
+      Compiler.setBuildCache(previousCache);
+      FileUtils.deleteQuietly(tempDir);
+    }
+  }
 }
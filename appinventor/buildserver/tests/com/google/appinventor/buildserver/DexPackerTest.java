@@ -0,0 +1,113 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests DexPacker class.
+ */
+public class DexPackerTest extends TestCase {
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteQuietly(tempDir);
+  }
+
+  public void testMeasurePreDexedLibrary() throws Exception {
+    DexPacker.References references = DexPacker.measure(writePreDexedLibrary("lib", 1234, 567));
+    assertEquals(1234, references.methods);
+    assertEquals(567, references.fields);
+  }
+
+  public void testMeasureClassFiles() throws Exception {
+    File classesDir = new File(tempDir, "classes");
+    File classFile = new File(classesDir, "DexPackerTest.class");
+    classesDir.mkdirs();
+    InputStream in = getClass().getResourceAsStream("DexPackerTest.class");
+    try {
+      Files.write(ByteStreams.toByteArray(in), classFile);
+    } finally {
+      in.close();
+    }
+    DexPacker.References references = DexPacker.measure(classesDir);
+    // At least the methods that this class declares.
+    assertTrue(references.methods >= getClass().getDeclaredMethods().length);
+    assertTrue(references.fields >= 1);
+  }
+
+  public void testLibrariesArePackedIntoFewestDexFiles() throws Exception {
+    File primary = writePreDexedLibrary("runtime", 10000, 100);
+    File big = writePreDexedLibrary("big", 40000, 100);
+    File medium = writePreDexedLibrary("medium", 30000, 100);
+    File small = writePreDexedLibrary("small", 12000, 100);
+
+    List<List<File>> dexFiles = DexPacker.pack(Arrays.asList(primary),
+        Arrays.asList(small, medium, big));
+    assertEquals(2, dexFiles.size());
+    assertEquals(Arrays.asList(primary, big, small), dexFiles.get(0));
+    assertEquals(Arrays.asList(medium), dexFiles.get(1));
+  }
+
+  public void testFieldsAreLimitedToo() throws Exception {
+    File primary = writePreDexedLibrary("runtime", 100, 40000);
+    File fields = writePreDexedLibrary("fields", 100, 40000);
+
+    List<List<File>> dexFiles = DexPacker.pack(Arrays.asList(primary), Arrays.asList(fields));
+    assertEquals(2, dexFiles.size());
+  }
+
+  public void testNoLibraries() throws Exception {
+    File primary = writePreDexedLibrary("runtime", 100, 100);
+    List<List<File>> dexFiles = DexPacker.pack(Arrays.asList(primary),
+        Collections.<File>emptyList());
+    assertEquals(1, dexFiles.size());
+  }
+
+  /*
+   * Writes a jar like the ones in the dex cache, with just enough of a dex header to be measured.
+   */
+  private File writePreDexedLibrary(String name, int methods, int fields) throws Exception {
+    byte[] header = new byte[0x70];
+    writeLittleEndianInt(header, 0x50, fields);
+    writeLittleEndianInt(header, 0x58, methods);
+    File jar = new File(tempDir, name + ".jar");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      out.putNextEntry(new ZipEntry("classes.dex"));
+      out.write(header);
+      out.closeEntry();
+    } finally {
+      out.close();
+    }
+    return jar;
+  }
+
+  private static void writeLittleEndianInt(byte[] bytes, int offset, int value) {
+    for (int i = 0; i < 4; i++) {
+      bytes[offset + i] = (byte) (value >>> (8 * i));
+    }
+  }
+}
@@ -0,0 +1,75 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests Execution class.
+ */
+public class ExecutionTest extends TestCase {
+  public void testToolName() {
+    assertEquals("aapt", Execution.getToolName(new String[] { "/sdk/linux/aapt", "package" }));
+    assertEquals("zipalign", Execution.getToolName(new String[] { "C:\\sdk\\zipalign.exe" }));
+    assertEquals("dx", Execution.getToolName(
+        new String[] { "/jdk/bin/java", "-mx1024M", "-jar", "/tmp/dx.jar", "--dex" }));
+    assertEquals("kawa.repl", Execution.getToolName(
+        new String[] { "/jdk/bin/java", "-Dfile.encoding=UTF-8", "-cp", "a.jar:b.jar",
+            "kawa.repl", "-f", "runtime.scm" }));
+  }
+
+  public void testStageRecordsProcess() throws Exception {
+    if (!new File("/proc/self/io").exists()) {
+      return;  // The resource usage of processes is only sampled on Linux.
+    }
+    StageGraph graph = new StageGraph();
+    graph.add("copy", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        // The shell itself reads a file and writes it, with builtins, so that the sampled
+        // process does the I/O, and then waits long enough to be sampled.
+        return Execution.execute(null, new String[] { "/bin/sh", "-c",
+            "while read line; do echo \"$line\"; done < /etc/passwd > /dev/null; sleep 0.2" },
+            System.out, System.err);
+      }
+    });
+    graph.add("fail", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        Execution.execute(null, new String[] { "/bin/sh", "-c", "exit 3" }, System.out,
+            System.err);
+        return true;
+      }
+    });
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      assertTrue(graph.run(executor));
+    } finally {
+      executor.shutdown();
+    }
+
+    for (StageTiming timing : graph.getTimings()) {
+      List<ProcessSpan> processes = timing.getProcesses();
+      assertEquals(1, processes.size());
+      ProcessSpan span = processes.get(0);
+      assertEquals("sh", span.getTool());
+      if (timing.getName().equals("copy")) {
+        assertEquals(0, span.getExitCode());
+        assertTrue(span.getWallMillis() >= 200);
+        assertTrue(span.getPeakRssBytes() > 0);
+        assertTrue(span.getBytesRead() > 0);
+        assertTrue(span.getBytesWritten() > 0);
+      } else {
+        assertEquals(3, span.getExitCode());
+      }
+    }
+  }
+}
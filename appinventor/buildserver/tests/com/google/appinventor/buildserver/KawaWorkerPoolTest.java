@@ -0,0 +1,107 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests KawaWorkerPool and KawaCompilerDaemon classes.
+ */
+public class KawaWorkerPoolTest extends TestCase {
+  private File tempDir;
+  private File runtime;
+  private String classpath;
+  private KawaWorkerPool pool;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+    // A stand-in for runtime.scm: the sources below only compile if this macro is loaded.
+    runtime = new File(tempDir, "runtime.scm");
+    Files.write("(define-syntax twice (syntax-rules () ((_ x) (* 2 x))))\n", runtime,
+        Charsets.UTF_8);
+    classpath = new File(kawa.repl.class.getProtectionDomain().getCodeSource().getLocation()
+        .toURI()).getAbsolutePath();
+    pool = new KawaWorkerPool(1, 100, 60000);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    pool.shutdown();
+    FileUtils.deleteQuietly(tempDir);
+  }
+
+  public void testWorkerIsReused() throws Exception {
+    File source = writeSource("Screen1.scm", "(define (answer) (twice 21))\n");
+    for (String packageName : new String[] { "first", "second" }) {
+      File classesDir = new File(tempDir, packageName);
+      classesDir.mkdirs();
+      assertTrue(compile(classesDir, packageName, source, new ByteArrayOutputStream()));
+      assertTrue(new File(classesDir, packageName + "/Screen1.class").exists());
+    }
+    assertEquals(1, pool.getWorkersStarted());
+    assertEquals(1, pool.getIdleWorkerCount());
+  }
+
+  public void testWorkerIsReplacedAfterError() throws Exception {
+    File badSource = writeSource("Bad.scm", "(define (answer) (twice 21)\n");
+    File classesDir = new File(tempDir, "classes");
+    classesDir.mkdirs();
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    assertFalse(compile(classesDir, "bad", badSource, errors));
+    assertTrue(errors.toString().contains("Bad.scm"));
+    assertEquals(0, pool.getIdleWorkerCount());
+
+    File source = writeSource("Screen1.scm", "(define (answer) (twice 21))\n");
+    assertTrue(compile(classesDir, "good", source, new ByteArrayOutputStream()));
+    assertEquals(2, pool.getWorkersStarted());
+  }
+
+  public void testWorkerIsStoppedAfterTimeout() throws Exception {
+    pool.shutdown();
+    pool = new KawaWorkerPool(1, 100, 5000);
+    // The macro transformer runs at compile time and does not return before the timeout.
+    File source = writeSource("Slow.scm", "(define-syntax slow (lambda (form) "
+        + "(java.lang.Thread:sleep 60000) 1))\n(define (answer) (slow))\n");
+    File classesDir = new File(tempDir, "classes");
+    classesDir.mkdirs();
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    try {
+      compile(classesDir, "slow", source, errors);
+      fail("Expected the worker to time out");
+    } catch (IOException e) {
+      // The caller compiles in a fresh process instead.
+    }
+    assertEquals(0, errors.size());
+    assertEquals(0, pool.getIdleWorkerCount());
+    assertEquals("1", pool.getVariables().get("kawa-workers-timed-out"));
+  }
+
+  private File writeSource(String name, String content) throws Exception {
+    File source = new File(tempDir, name);
+    Files.write(content, source, Charsets.UTF_8);
+    return source;
+  }
+
+  private boolean compile(File classesDir, String packageName, File source,
+      ByteArrayOutputStream errors) throws IOException {
+    List<String> args = Arrays.asList("-d", classesDir.getAbsolutePath(),
+        "-P", packageName + ".", "-C", source.getAbsolutePath());
+    return pool.compile(classpath, 256, runtime.getAbsolutePath(), args,
+        new PrintStream(new ByteArrayOutputStream()), new PrintStream(errors));
+  }
+}
@@ -0,0 +1,111 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests QueuingExecutor class.
+ */
+public class QueuingExecutorTest extends TestCase {
+  private final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+  private final CountDownLatch finish = new CountDownLatch(1);
+
+  @Override
+  protected void tearDown() throws Exception {
+    finish.countDown();
+  }
+
+  public void testCompanionLaneIsServedFirst() throws Exception {
+    QueuingExecutor executor = new QueuingExecutor(1, 10, 0);
+    CountDownLatch finishFirst = new CountDownLatch(1);
+    executor.execute("a", QueuingExecutor.Lane.RELEASE, new Task("first", finishFirst));
+    executor.execute("b", QueuingExecutor.Lane.RELEASE, new Task("release", finish));
+    executor.execute("c", QueuingExecutor.Lane.COMPANION, new Task("companion", finish));
+    assertEquals(1, executor.getActiveTaskCount());
+    assertEquals(2, executor.getQueuedTaskCount());
+
+    finishFirst.countDown();
+    waitForStarts(2);
+    assertEquals("companion", started.get(1));
+    assertEquals(1, executor.getQueuedTaskCount());
+  }
+
+  public void testUserCannotTakeAllSlots() throws Exception {
+    QueuingExecutor executor = new QueuingExecutor(3, 10, 2);
+    executor.execute("student", QueuingExecutor.Lane.RELEASE, new Task("s1", finish));
+    executor.execute("student", QueuingExecutor.Lane.RELEASE, new Task("s2", finish));
+    executor.execute("student", QueuingExecutor.Lane.RELEASE, new Task("s3", finish));
+    executor.execute("student", QueuingExecutor.Lane.RELEASE, new Task("s4", finish));
+    try {
+      executor.execute("student", QueuingExecutor.Lane.RELEASE, new Task("s5", finish));
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    // The third slot is still free for another user.
+    executor.execute("teacher", QueuingExecutor.Lane.RELEASE, new Task("t1", finish));
+    waitForStarts(3);
+    assertTrue(started.contains("t1"));
+    assertEquals(3, executor.getActiveTaskCount());
+    assertEquals(2, executor.getQueuedTaskCount());
+    assertEquals("1", executor.getVariables().get("build-queue-rejections-user-limit"));
+  }
+
+  public void testQueueIsBounded() throws Exception {
+    QueuingExecutor executor = new QueuingExecutor(1, 1, 0);
+    long now = System.currentTimeMillis();
+    assertTrue(executor.execute("a", QueuingExecutor.Lane.RELEASE, new Task("a", finish)) >= now);
+    long estimate = executor.execute("b", QueuingExecutor.Lane.RELEASE, new Task("b", finish));
+    assertTrue(estimate > now);
+    try {
+      executor.execute("c", QueuingExecutor.Lane.RELEASE, new Task("c", finish));
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    Map<String, String> variables = executor.getVariables();
+    assertEquals("1", variables.get("build-queue-size"));
+    assertEquals("1", variables.get("build-queue-release-size"));
+    assertEquals("1", variables.get("build-queue-rejections-queue-full"));
+  }
+
+  private void waitForStarts(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (started.size() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, started.size());
+  }
+
+  private class Task implements Runnable {
+    private final String name;
+    private final CountDownLatch done;
+
+    Task(String name, CountDownLatch done) {
+      this.name = name;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      started.add(name);
+      try {
+        done.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        // Finish early.
+      }
+    }
+  }
+}
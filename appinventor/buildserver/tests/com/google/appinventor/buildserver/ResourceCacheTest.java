@@ -0,0 +1,161 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests ResourceCache class.
+ */
+public class ResourceCacheTest extends TestCase {
+  // A resource in a jar, and one in a directory, on the test class path.
+  private static final String JAR_RESOURCE = "/junit/framework/TestCase.class";
+  private static final String FILE_RESOURCE =
+      "/com/google/appinventor/buildserver/ResourceCache.class";
+
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteQuietly(tempDir);
+  }
+
+  public void testExtract() throws Exception {
+    ResourceCache cache = new ResourceCache(tempDir);
+    for (String resourcePath : new String[] { JAR_RESOURCE, FILE_RESOURCE }) {
+      File file = cache.get(resourcePath);
+      assertEquals(PathUtil.basename(resourcePath), file.getName());
+      assertTrue(file.canExecute());
+      assertTrue(Arrays.equals(
+          ByteStreams.toByteArray(Resources.newInputStreamSupplier(
+              ResourceCache.class.getResource(resourcePath))),
+          Files.toByteArray(file)));
+      assertSame(file, cache.get(resourcePath));
+    }
+    assertTrue(cache.get(JAR_RESOURCE).getParentFile().getName().startsWith("crc32-"));
+    assertTrue(cache.get(FILE_RESOURCE).getParentFile().getName().startsWith("sha1-"));
+    assertEquals("2", cache.getVariables().get("resource-cache-extracted"));
+  }
+
+  public void testContentHash() throws Exception {
+    String hash = new ResourceCache(tempDir).getContentHash(JAR_RESOURCE);
+    // The hash depends only on the content, not on the directory.
+    File otherDir = new File(tempDir, "other");
+    assertEquals(hash, new ResourceCache(otherDir).getContentHash(JAR_RESOURCE));
+    assertFalse(hash.equals(new ResourceCache(tempDir).getContentHash(FILE_RESOURCE)));
+  }
+
+  public void testReusedAfterRestart() throws Exception {
+    File first = new ResourceCache(tempDir).get(JAR_RESOURCE);
+    long modified = first.lastModified();
+
+    ResourceCache cache = new ResourceCache(tempDir);
+    File second = cache.get(JAR_RESOURCE);
+    assertEquals(first, second);
+    assertEquals(modified, second.lastModified());
+    Map<String, String> variables = cache.getVariables();
+    assertEquals("0", variables.get("resource-cache-extracted"));
+    assertEquals("1", variables.get("resource-cache-reused"));
+  }
+
+  public void testPartialFileIsReplaced() throws Exception {
+    File file = new ResourceCache(tempDir).get(JAR_RESOURCE);
+    long length = file.length();
+    Files.write(new byte[10], file);
+
+    ResourceCache cache = new ResourceCache(tempDir);
+    assertEquals(length, cache.get(JAR_RESOURCE).length());
+    assertEquals("1", cache.getVariables().get("resource-cache-extracted"));
+    // No temporary files are left behind.
+    assertEquals(1, file.getParentFile().list().length);
+  }
+
+  public void testChangedFileIsReplaced() throws Exception {
+    File file = new ResourceCache(tempDir).get(JAR_RESOURCE);
+    byte[] content = Files.toByteArray(file);
+    // Same size, different content.
+    Files.write(new byte[content.length], file);
+
+    ResourceCache cache = new ResourceCache(tempDir);
+    assertTrue(Arrays.equals(content, Files.toByteArray(cache.get(JAR_RESOURCE))));
+    assertEquals("1", cache.getVariables().get("resource-cache-extracted"));
+    assertEquals("0", cache.getVariables().get("resource-cache-reused"));
+  }
+
+  public void testDirectoryIsOwnerOnly() throws Exception {
+    if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      return;
+    }
+    File dir = new File(tempDir, "cache");
+    new ResourceCache(dir).get(JAR_RESOURCE);
+    assertEquals("rwx------",
+        PosixFilePermissions.toString(java.nio.file.Files.getPosixFilePermissions(dir.toPath())));
+
+    // An existing directory is made owner-only too.
+    File shared = new File(tempDir, "shared");
+    shared.mkdir();
+    java.nio.file.Files.setPosixFilePermissions(shared.toPath(),
+        PosixFilePermissions.fromString("rwxrwxrwx"));
+    new ResourceCache(shared).get(JAR_RESOURCE);
+    assertEquals("rwx------",
+        PosixFilePermissions.toString(java.nio.file.Files.getPosixFilePermissions(shared.toPath())));
+  }
+
+  public void testConcurrentLookups() throws Exception {
+    final ResourceCache cache = new ResourceCache(tempDir);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<File>> files = new ArrayList<Future<File>>();
+      for (int i = 0; i < 32; i++) {
+        files.add(executor.submit(new Callable<File>() {
+          @Override
+          public File call() throws Exception {
+            return cache.get(JAR_RESOURCE);
+          }
+        }));
+      }
+      for (Future<File> file : files) {
+        assertEquals(files.get(0).get(), file.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals("1", cache.getVariables().get("resource-cache-extracted"));
+  }
+
+  public void testMissingResource() throws Exception {
+    ResourceCache cache = new ResourceCache(tempDir);
+    try {
+      cache.get("/files/no-such-library.jar");
+      fail();
+    } catch (FileNotFoundException e) {
+      // this is the intended behavior
+    }
+  }
+}
@@ -0,0 +1,150 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests StageGraph class.
+ */
+public class StageGraphTest extends TestCase {
+  private ExecutorService executor;
+  private List<String> finished;
+
+  @Override
+  protected void setUp() {
+    executor = Executors.newCachedThreadPool();
+    finished = Collections.synchronizedList(new ArrayList<String>());
+  }
+
+  @Override
+  protected void tearDown() {
+    executor.shutdownNow();
+  }
+
+  public void testIndependentStagesRunAtTheSameTime() throws Exception {
+    // Each stage waits for the other to start, so the graph only finishes if they run together.
+    final CountDownLatch started = new CountDownLatch(2);
+    StageGraph graph = new StageGraph();
+    graph.add("a", waitFor(started));
+    graph.add("b", waitFor(started));
+    assertTrue(graph.run(executor));
+    assertEquals(2, graph.getTimings().size());
+  }
+
+  public void testStageWaitsForDependencies() throws Exception {
+    StageGraph graph = new StageGraph();
+    graph.add("slow", sleep("slow", 100, true));
+    graph.add("fast", sleep("fast", 0, true));
+    graph.add("last", sleep("last", 0, true), "slow", "fast");
+    assertTrue(graph.run(executor));
+    assertEquals("last", finished.get(2));
+
+    List<StageTiming> timings = graph.getTimings();
+    assertEquals(3, timings.size());
+    assertEquals("last", timings.get(2).getName());
+    assertTrue(timings.get(2).getStartMillis() >= 100);
+    assertTrue(find(timings, "slow").getWallMillis() >= 100);
+  }
+
+  public void testFailureStopsLaterStages() throws Exception {
+    StageGraph graph = new StageGraph();
+    graph.add("fails", sleep("fails", 0, false));
+    graph.add("running", sleep("running", 100, true));
+    graph.add("after", sleep("after", 0, true), "fails");
+    graph.add("later", sleep("later", 0, true), "running");
+    assertFalse(graph.run(executor));
+
+    // The stage that was running when the other one failed is allowed to finish.
+    assertEquals(2, finished.size());
+    assertTrue(finished.contains("running"));
+    List<StageTiming> timings = graph.getTimings();
+    assertEquals(2, timings.size());
+    assertFalse(find(timings, "fails").succeeded());
+    assertTrue(find(timings, "running").succeeded());
+  }
+
+  public void testExceptionIsRethrown() throws Exception {
+    StageGraph graph = new StageGraph();
+    graph.add("throws", new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws IOException {
+        throw new IOException("disk full");
+      }
+    });
+    try {
+      graph.run(executor);
+      fail();
+    } catch (IOException e) {
+      assertEquals("disk full", e.getMessage());
+    }
+  }
+
+  public void testCriticalPath() throws Exception {
+    StageGraph graph = new StageGraph();
+    graph.add("short", sleep("short", 0, true));
+    graph.add("long", sleep("long", 150, true));
+    graph.add("side", sleep("side", 0, true), "short");
+    graph.add("end", sleep("end", 0, true), "short", "long");
+    assertTrue(graph.run(executor));
+
+    List<StageTiming> timings = graph.getTimings();
+    assertTrue(find(timings, "long").isCritical());
+    assertTrue(find(timings, "end").isCritical());
+    assertFalse(find(timings, "short").isCritical());
+    assertFalse(find(timings, "side").isCritical());
+  }
+
+  public void testUnknownDependency() {
+    StageGraph graph = new StageGraph();
+    try {
+      graph.add("a", sleep("a", 0, true), "b");
+      fail();
+    } catch (IllegalArgumentException e) {
+      // this is the intended behavior
+    }
+  }
+
+  private Callable<Boolean> sleep(final String name, final long millis, final boolean result) {
+    return new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws InterruptedException {
+        Thread.sleep(millis);
+        finished.add(name);
+        return result;
+      }
+    };
+  }
+
+  private static Callable<Boolean> waitFor(final CountDownLatch started) {
+    return new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws InterruptedException {
+        started.countDown();
+        return started.await(5, TimeUnit.SECONDS);
+      }
+    };
+  }
+
+  private static StageTiming find(List<StageTiming> timings, String name) {
+    for (StageTiming timing : timings) {
+      if (timing.getName().equals(name)) {
+        return timing;
+      }
+    }
+    fail("No timing for " + name);
+    return null;
+  }
+}
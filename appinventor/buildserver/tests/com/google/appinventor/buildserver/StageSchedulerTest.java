@@ -0,0 +1,76 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests StageScheduler class.
+ */
+public class StageSchedulerTest extends TestCase {
+  public void testAdditionalStageWaitsForPermit() throws Exception {
+    final StageScheduler scheduler = new StageScheduler(2, 1);
+    scheduler.acquire(StageScheduler.Stage.KAWA);
+    scheduler.acquire(StageScheduler.Stage.KAWA);
+    assertEquals(2, scheduler.getActiveCount(StageScheduler.Stage.KAWA));
+
+    // The DX stage has its own permits, so it is not blocked by the Kawa stage.
+    scheduler.acquire(StageScheduler.Stage.DX);
+    assertEquals(1, scheduler.getActiveCount(StageScheduler.Stage.DX));
+    scheduler.release(StageScheduler.Stage.DX);
+
+    // A third Kawa compile must wait until one of the first two finishes.
+    Thread waiter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        scheduler.acquire(StageScheduler.Stage.KAWA);
+        scheduler.release(StageScheduler.Stage.KAWA);
+      }
+    });
+    waiter.start();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (scheduler.getQueuedCount(StageScheduler.Stage.KAWA) == 0
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, scheduler.getQueuedCount(StageScheduler.Stage.KAWA));
+    Thread.sleep(50);
+    assertTrue(waiter.isAlive());
+
+    scheduler.release(StageScheduler.Stage.KAWA);
+    waiter.join(5000);
+    assertFalse(waiter.isAlive());
+    scheduler.release(StageScheduler.Stage.KAWA);
+
+    assertEquals(0, scheduler.getActiveCount(StageScheduler.Stage.KAWA));
+    Map<String, String> variables = scheduler.getVariables();
+    assertEquals("2", variables.get("kawa-stage-permits"));
+    assertEquals("3", variables.get("kawa-stage-runs"));
+    assertEquals("1", variables.get("dx-stage-runs"));
+    assertTrue(Long.parseLong(variables.get("kawa-stage-maximum-queue-wait-in-ms")) >= 50);
+  }
+
+  public void testCreateUsesExplicitPermits() {
+    StageScheduler scheduler = StageScheduler.create(3, 4, 2048);
+    assertEquals(3, scheduler.getPermits(StageScheduler.Stage.KAWA));
+    assertEquals(4, scheduler.getPermits(StageScheduler.Stage.DX));
+  }
+
+  public void testCreateComputesAtLeastOnePermit() {
+    StageScheduler scheduler = StageScheduler.create(0, 0, Integer.MAX_VALUE);
+    assertEquals(1, scheduler.getPermits(StageScheduler.Stage.KAWA));
+    assertEquals(1, scheduler.getPermits(StageScheduler.Stage.DX));
+  }
+
+  public void testResidentProcessesReduceBudget() {
+    assertEquals(8, StageScheduler.computeChildProcessBudget(8192, 16, 1024, 0));
+    assertEquals(6, StageScheduler.computeChildProcessBudget(8192, 16, 1024, 2));
+    assertEquals(1, StageScheduler.computeChildProcessBudget(8192, 16, 1024, 10));
+    // There is memory to spare, so the processors are the limit.
+    assertEquals(4, StageScheduler.computeChildProcessBudget(8192, 4, 1024, 2));
+  }
+}
@@ -0,0 +1,120 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import static com.google.appinventor.common.testutils.BenchmarkUtils.perSecond;
+import static com.google.appinventor.common.testutils.BenchmarkUtils.report;
+
+import com.google.appinventor.components.runtime.Component;
+import com.google.appinventor.components.runtime.HandlesEventDispatching;
+import gnu.mapping.Environment;
+import gnu.mapping.Procedure;
+import junit.framework.TestCase;
+import kawa.standard.Scheme;
+
+/**
+ * Compares YAIL component calls compiled into direct calls with reflective calls.
+ */
+public class YailComponentCallBenchmark extends TestCase {
+  private static final String STATIC_COMPONENT_CALLS_PROPERTY = "yail.static.component.calls";
+  private static final int WARMUP_CALLS = 100000;
+  private static final int MEASURED_CALLS = 1000000;
+
+  /**
+   * Stands in for a component.
+   */
+  public static class Counter implements Component {
+    private double total;
+
+    @Override
+    public HandlesEventDispatching getDispatchDelegate() {
+      return null;
+    }
+
+    public double Add(double amount) {
+      total += amount;
+      return total;
+    }
+
+    public double Total() {
+      return total;
+    }
+
+    public void Total(double total) {
+      this.total = total;
+    }
+  }
+
+  private Scheme scheme;
+
+  @Override
+  public void setUp() throws Exception {
+    scheme = new Scheme();
+    String yailRuntimeLibrary = Compiler.getResource(Compiler.YAIL_RUNTIME);
+    try {
+      scheme.eval("(load \"" + yailRuntimeLibrary + "\")");
+      // The loops are called from Java, so the runtime's definitions must be
+      // found outside of scheme.eval.
+      Environment.setCurrent(scheme.getEnvironment());
+    } catch (Exception e) {
+      throw e;
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  public void testCallsPerSecond() throws Throwable {
+    measure("method calls",
+        "(call-component-method 'Counter1 'Add (*list-for-runtime* 1) '(number))");
+    measure("property sets",
+        "(set-and-coerce-property! 'Counter1 'Total (+ (Counter1:Total) 1) 'number)");
+    measure("property gets",
+        "(begin (get-property 'Counter1 'Total) (Counter1:Add 1))");
+  }
+
+  private void measure(String name, String call) throws Throwable {
+    long dynamicNanos = timeLoop(call, false);
+    long staticNanos = timeLoop(call, true);
+    report("%s: dynamic %s, static %s", name, perSecond(MEASURED_CALLS, dynamicNanos),
+        perSecond(MEASURED_CALLS, staticNanos));
+  }
+
+  /*
+   * Times a loop that runs the given YAIL call. Each run of the call must add
+   * 1 to the total of Counter1.
+   */
+  private long timeLoop(String call, boolean staticCalls) throws Throwable {
+    Procedure loop = compileLoop(call, staticCalls);
+    loop.apply1(WARMUP_CALLS);
+    long start = System.nanoTime();
+    Object total = loop.apply1(MEASURED_CALLS);
+    long nanos = System.nanoTime() - start;
+    assertEquals((double) WARMUP_CALLS + MEASURED_CALLS, ((Number) total).doubleValue());
+    return nanos;
+  }
+
+  /*
+   * Returns a procedure that runs the call a given number of times on a new
+   * Counter1 and returns the total of the counter. The new Counter1 replaces
+   * the previous one in the form environment, where dynamic calls find it.
+   */
+  private Procedure compileLoop(String call, boolean staticCalls) throws Throwable {
+    if (staticCalls) {
+      System.setProperty(STATIC_COMPONENT_CALLS_PROPERTY, "true");
+    }
+    try {
+      return (Procedure) scheme.eval(
+          "(let ((Counter1 :: " + Counter.class.getName() + " (make "
+              + Counter.class.getName() + ")))"
+          + "  (add-to-current-form-environment 'Counter1 Counter1)"
+          + "  (lambda (n)"
+          + "    (do ((i 0 (+ i 1))) ((= i n) (Counter1:Total))"
+          + "      " + call + ")))");
+    } finally {
+      System.clearProperty(STATIC_COMPONENT_CALLS_PROPERTY);
+    }
+  }
+}
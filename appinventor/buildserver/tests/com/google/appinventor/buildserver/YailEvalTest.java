@@ -7,6 +7,9 @@
 package com.google.appinventor.buildserver;
 
 import com.google.appinventor.common.testutils.TestUtils;
+import com.google.appinventor.components.runtime.Component;
+import com.google.appinventor.components.runtime.HandlesEventDispatching;
+import com.google.appinventor.components.runtime.errors.PermissionException;
 import com.google.appinventor.components.runtime.errors.YailRuntimeError;
 
 import gnu.math.DFloNum;
@@ -42,6 +45,41 @@ public class YailEvalTest extends TestCase {
   private static final String ENCODED_OPEN = "&1";
   private static final String ENCODED_CLOSE = "&2";
 
+  private static final String STATIC_COMPONENT_CALLS_PROPERTY = "yail.static.component.calls";
+
+  /**
+   * Stands in for a component in the tests of component calls.
+   */
+  public static class TestComponent implements Component {
+    private double total;
+
+    @Override
+    public HandlesEventDispatching getDispatchDelegate() {
+      return null;
+    }
+
+    public double Add(double amount) {
+      total += amount;
+      return total;
+    }
+
+    public double Total() {
+      return total;
+    }
+
+    public void Total(double total) {
+      this.total = total;
+    }
+
+    public void Locate() {
+      throw new PermissionException("ACCESS_FINE_LOCATION");
+    }
+
+    public void Tracking(boolean tracking) {
+      throw new PermissionException("ACCESS_FINE_LOCATION");
+    }
+  }
+
   @Override
   public void setUp() throws Exception {
     scheme = new Scheme();
@@ -200,6 +238,111 @@ public class YailEvalTest extends TestCase {
     }
   }
 
+  public void testStaticComponentCalls() throws Throwable {
+    assertComponentCall("3.0", "(begin "
+        + "(set-and-coerce-property! 'TestComponent1 'Total \"1\" 'number) "
+        + "(call-component-method 'TestComponent1 'Add (*list-for-runtime* 2) '(number)) "
+        + "(get-property 'TestComponent1 'Total))");
+  }
+
+  public void testStaticComponentCallCoercionFailure() throws Throwable {
+    assertComponentCallError(
+        "(call-component-method 'TestComponent1 'Add (*list-for-runtime* \"foo\") '(number))");
+    assertComponentCallError(
+        "(set-and-coerce-property! 'TestComponent1 'Total \"foo\" 'number)");
+  }
+
+  public void testStaticComponentCallPermissionDenied() throws Throwable {
+    String[] calls = {
+        "(call-component-method 'TestComponent1 'Locate (*list-for-runtime*) '())",
+        "(set-and-coerce-property! 'TestComponent1 'Tracking #t 'boolean)"
+    };
+    for (String call : calls) {
+      assertPermissionDenied(call, false);
+      assertPermissionDenied(call, true);
+    }
+  }
+
+  public void testStaticComponentCallMissingComponent() throws Throwable {
+    String[] calls = {
+        "(call-component-method 'Missing1 'Add (*list-for-runtime* 2) '(number))",
+        "(set-and-coerce-property! 'Missing1 'Total 1 'number)",
+        "(get-property 'Missing1 'Total)"
+    };
+    for (String call : calls) {
+      String dynamicResult = evalComponentCall("Missing1", false, call, false);
+      assertEquals(call, "Cannot find the component: Missing1", dynamicResult);
+      assertEquals(call, dynamicResult, evalComponentCall("Missing1", false, call, true));
+    }
+  }
+
+  /*
+   * Asserts that a call on TestComponent1 gives the expected result both
+   * when the build server compiles it and in the REPL.
+   */
+  private void assertComponentCall(String expected, String call) throws Throwable {
+    assertEquals(expected, evalComponentCall("TestComponent1", true, call, false));
+    assertEquals(expected, evalComponentCall("TestComponent1", true, call, true));
+  }
+
+  /*
+   * Asserts that a call on TestComponent1 signals the same runtime error
+   * both when the build server compiles it and in the REPL.
+   */
+  private void assertComponentCallError(String call) throws Throwable {
+    String dynamicResult = evalComponentCall("TestComponent1", true, call, false);
+    assertTrue(dynamicResult, dynamicResult.startsWith("The operation "));
+    assertEquals(dynamicResult, evalComponentCall("TestComponent1", true, call, true));
+  }
+
+  /*
+   * Asserts that the PermissionException thrown by a call on TestComponent1
+   * is passed to dispatch-permission-denied. There is no active form in the
+   * tests, so the dispatch itself fails.
+   */
+  private void assertPermissionDenied(String call, boolean staticCalls) throws Throwable {
+    Throwable thrown = null;
+    try {
+      evalComponentCall("TestComponent1", true, call, staticCalls);
+    } catch (Throwable e) {
+      thrown = e;
+    }
+    assertNotNull(call, thrown);
+    for (StackTraceElement frame : thrown.getStackTrace()) {
+      if (frame.getMethodName().equals("dispatchPermissionDenied")) {
+        return;
+      }
+    }
+    throw thrown;
+  }
+
+  /*
+   * Evaluates a call on the component with the given name, which is a new
+   * TestComponent if present is true and was never created otherwise. The
+   * call is expanded as the build server compiles apps if staticCalls is
+   * true, and as in the REPL otherwise. Returns the result of the call, or
+   * the message of the runtime error that it signals.
+   */
+  private String evalComponentCall(String name, boolean present, String call, boolean staticCalls)
+      throws Throwable {
+    String type = TestComponent.class.getName();
+    if (staticCalls) {
+      System.setProperty(STATIC_COMPONENT_CALLS_PROPERTY, "true");
+    }
+    try {
+      // As in a compiled app, the component is both in a field of its type
+      // and in the form environment.
+      return scheme.eval(
+          "(let ((" + name + " :: " + type + (present ? " (make " + type + ")" : " #!null") + "))"
+          + (present ? "  (add-to-current-form-environment '" + name + " " + name + ")" : "")
+          + "  " + call + ")").toString();
+    } catch (YailRuntimeError e) {
+      return e.getMessage();
+    } finally {
+      System.clearProperty(STATIC_COMPONENT_CALLS_PROPERTY);
+    }
+  }
+
 
   public void testYailEqual() throws Throwable {
     assertTrue((Boolean) scheme.eval(
@@ -0,0 +1,63 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.common.testutils;
+
+import java.util.Locale;
+
+/**
+ * Utility methods for the benchmarks, the test classes whose names end in
+ * Benchmark. The test targets only run classes whose names end in Test, so a
+ * benchmark is run on its own, for example with
+ * {@code ant -Dtest_name=com.google.appinventor.components.runtime.util.YailListBenchmark
+ * tests} in appinventor/components.
+ */
+public final class BenchmarkUtils {
+
+  private BenchmarkUtils() {}
+
+  /**
+   * Prints a line of measurements, formatted as by {@link String#format}.
+   */
+  public static void report(String format, Object... args) {
+    System.out.println(String.format(Locale.US, format, args));
+  }
+
+  /**
+   * Returns a time given in nanoseconds as microseconds, such as "12.5us".
+   */
+  public static String micros(long nanos) {
+    return String.format(Locale.US, "%.1fus", nanos / 1e3);
+  }
+
+  /**
+   * Returns a time given in nanoseconds as milliseconds, such as "125 ms".
+   */
+  public static String millis(long nanos) {
+    return String.format(Locale.US, "%d ms", nanos / 1000000);
+  }
+
+  /**
+   * Returns the rate of count things done in the given nanoseconds, such as
+   * "125000 per second".
+   */
+  public static String perSecond(long count, long nanos) {
+    return String.format(Locale.US, "%.0f per second", count * 1e9 / nanos);
+  }
+
+  /**
+   * Returns a size given in bytes as megabytes, such as "12.5 MB".
+   */
+  public static String megabytes(long bytes) {
+    return String.format(Locale.US, "%.1f MB", bytes / (1024.0 * 1024.0));
+  }
+
+  /**
+   * Returns the rate of copying the given number of bytes in the given
+   * nanoseconds, such as "12.5 MB/s".
+   */
+  public static String megabytesPerSecond(long bytes, long nanos) {
+    return String.format(Locale.US, "%.1f MB/s", bytes / (1024.0 * 1024.0) * 1e9 / nanos);
+  }
+}
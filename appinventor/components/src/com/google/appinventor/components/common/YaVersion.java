@@ -460,8 +460,15 @@ public class YaVersion {
   // - SPEECHRECOGNIZER_COMPONENT_VERSION was incremented to 2
   // For YOUNG_ANDROID_VERSION 186:
   // - BLOCKS_LANGUAGE_VERSION was incremented to 27
+  // For YOUNG_ANDROID_VERSION 187:
+  // - BLUETOOTHCLIENT_COMPONENT_VERSION was incremented to 6
+  // - BLUETOOTHSERVER_COMPONENT_VERSION was incremented to 6
+  // For YOUNG_ANDROID_VERSION 188:
+  // - WEB_COMPONENT_VERSION was incremented to 6
+  // For YOUNG_ANDROID_VERSION 189:
+  // - CLOCK_COMPONENT_VERSION was incremented to 5
 
-  public static final int YOUNG_ANDROID_VERSION = 186;
+  public static final int YOUNG_ANDROID_VERSION = 189;
 
   // ............................... Blocks Language Version Number ...............................
 
@@ -630,7 +637,10 @@ public class YaVersion {
   // - The BluetoothClient.DelimiterByte property was added.
   // For BLUETOOTHCLIENT_COMPONENT_VERSION 5:
   // - The BluetoothClient.Secure property was added.
-  public static final int BLUETOOTHCLIENT_COMPONENT_VERSION = 5;
+  // For BLUETOOTHCLIENT_COMPONENT_VERSION 6:
+  // - The BluetoothClient.ReadInBackground and DataReceivedBatchSize properties were added.
+  // - The BluetoothClient.DataReceived event was added.
+  public static final int BLUETOOTHCLIENT_COMPONENT_VERSION = 6;
 
   // For BLUETOOTHSERVER_COMPONENT_VERSION 2:
   // - The BluetoothServer.Enabled property was added.
@@ -640,7 +650,10 @@ public class YaVersion {
   // - The BluetoothServer.DelimiterByte property was added.
   // For BLUETOOTHSERVER_COMPONENT_VERSION 5:
   // - The BluetoothServer.Secure property was added.
-  public static final int BLUETOOTHSERVER_COMPONENT_VERSION = 5;
+  // For BLUETOOTHSERVER_COMPONENT_VERSION 6:
+  // - The BluetoothServer.ReadInBackground and DataReceivedBatchSize properties were added.
+  // - The BluetoothServer.DataReceived event was added.
+  public static final int BLUETOOTHSERVER_COMPONENT_VERSION = 6;
 
   // For BUTTON_COMPONENT_VERSION 2:
   // - The Alignment property was renamed to TextAlignment.
@@ -706,7 +719,9 @@ public class YaVersion {
   // - Duration Support was added
   // For CLOCK_COMPONENT_VERSION 4:
   // - MakeTime, MakeDate, MakeInstantFromParts methods were added
-  public static final int CLOCK_COMPONENT_VERSION = 4;
+  // For CLOCK_COMPONENT_VERSION 5:
+  // - The TimerMode and TimerElapsed properties were added
+  public static final int CLOCK_COMPONENT_VERSION = 5;
 
   // For CONTACTPICKER_COMPONENT_VERSION 2:
   // - The Alignment property was renamed to TextAlignment.
@@ -1209,7 +1224,9 @@ public class YaVersion {
   // - Added method XMLTextDecode
   // For WEB_COMPONENT_VERSION 5:
   // - Added method UriDecode
-  public static final int WEB_COMPONENT_VERSION = 5;
+  // For WEB_COMPONENT_VERSION 6:
+  // - Added events UploadProgress and DownloadProgress
+  public static final int WEB_COMPONENT_VERSION = 6;
 
   // For WEBVIEWER_COMPONENT_VERSION 2:
   // - The CanGoForward and CanGoBack methods were added
@@ -14,6 +14,7 @@ import com.google.appinventor.components.annotations.SimpleObject;
 import com.google.appinventor.components.annotations.SimpleProperty;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.runtime.util.BluetoothReflection;
+import com.google.appinventor.components.runtime.util.ByteRingBuffer;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.SdkLevel;
 import com.google.appinventor.components.runtime.util.YailList;
@@ -30,6 +31,7 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * An abstract base class for the BluetoothClient and BluetoothServer
@@ -41,6 +43,9 @@ import java.util.List;
 public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     implements Component, OnDestroyListener, Deleteable {
 
+  // The number of bytes buffered by the background reader.
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+
   protected final String logTag;
   private final List<BluetoothConnectionListener> bluetoothConnectionListeners =
       new ArrayList<BluetoothConnectionListener>();
@@ -49,11 +54,20 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
   private String encoding;
   private byte delimiter;
   protected boolean secure;
+  private boolean readInBackground;
+  private int dataReceivedBatchSize;
 
   private Object connectedBluetoothSocket;
   private InputStream inputStream;
   private OutputStream outputStream;
 
+  // When reading in background, the bytes read from inputStream by
+  // readerThread, which the Receive functions take out of readBuffer.
+  private ByteRingBuffer readBuffer;
+  private Thread readerThread;
+  // Whether a DataReceived event was posted and hasn't been dispatched yet.
+  private final AtomicBoolean dataReceivedPending = new AtomicBoolean(false);
+
   /**
    * Creates a new BluetoothConnectionBase.
    */
@@ -70,6 +84,8 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     CharacterEncoding("UTF-8");
     DelimiterByte(0);
     Secure(true);
+    ReadInBackground(false);
+    DataReceivedBatchSize(0);
   }
 
   /**
@@ -166,6 +182,9 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
         BluetoothReflection.getInputStream(connectedBluetoothSocket));
     outputStream = new BufferedOutputStream(
         BluetoothReflection.getOutputStream(connectedBluetoothSocket));
+    if (readInBackground) {
+      startReading();
+    }
     fireAfterConnectEvent();
   }
 
@@ -176,6 +195,7 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
   public final void Disconnect() {
     if (connectedBluetoothSocket != null) {
       fireBeforeDisconnectEvent();
+      stopReading();
       try {
         BluetoothReflection.closeBluetoothSocket(connectedBluetoothSocket);
         Log.i(logTag, "Disconnected from Bluetooth device.");
@@ -220,6 +240,78 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     this.secure = secure;
   }
 
+  /**
+   * Returns whether bytes are read from the connected device in the
+   * background.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "Whether to read bytes from the connected Bluetooth device in the " +
+      "background, as soon as they are received, and signal the DataReceived event when " +
+      "they can be received without blocking. Turning this off takes effect when the next " +
+      "connection is made.")
+  public boolean ReadInBackground() {
+    return readInBackground;
+  }
+
+  /**
+   * Specifies whether bytes are read from the connected device in the
+   * background. Reading starts at once if a connection has been made, but
+   * once started, it continues until the connection is closed.
+   *
+   * @param readInBackground {@code true} to read in the background
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN,
+      defaultValue = "False")
+  @SimpleProperty
+  public void ReadInBackground(boolean readInBackground) {
+    this.readInBackground = readInBackground;
+    if (readInBackground && IsConnected() && readBuffer == null) {
+      startReading();
+    }
+  }
+
+  /**
+   * Returns the number of bytes that must be received before the
+   * DataReceived event is signaled.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "The number of bytes that must be received before the DataReceived event " +
+      "is signaled. If this is 0, the event is signaled whenever bytes are received. If this " +
+      "is less than 0, the event is signaled when a delimiter byte value is received.")
+  public int DataReceivedBatchSize() {
+    return dataReceivedBatchSize;
+  }
+
+  /**
+   * Specifies the number of bytes that must be received before the
+   * DataReceived event is signaled. A negative number indicates to wait for
+   * a delimiter byte value, as for the numberOfBytes parameter of
+   * ReceiveText.
+   *
+   * @param batchSize the number of bytes to wait for
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_INTEGER,
+      defaultValue = "0")
+  @SimpleProperty
+  public void DataReceivedBatchSize(int batchSize) {
+    dataReceivedBatchSize = batchSize;
+  }
+
+  /**
+   * Indicates that bytes were received from the connected device in the
+   * background and can be received without blocking.
+   *
+   * @param numberOfBytes the number of bytes that can be received
+   */
+  @SimpleEvent(description = "Indicates that bytes were received from the connected " +
+      "Bluetooth device while ReadInBackground is true. numberOfBytes is the number of bytes " +
+      "that can be received without blocking. The event is signaled again after bytes are " +
+      "received by the event handler, if enough bytes are left, or else when more bytes " +
+      "arrive.")
+  public void DataReceived(int numberOfBytes) {
+    EventDispatcher.dispatchEvent(this, "DataReceived", numberOfBytes);
+  }
+
   /**
    * Returns true if numbers are sent and received with the most significant
    * byte first.
@@ -537,6 +629,10 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
       return 0;
     }
 
+    if (readBuffer != null) {
+      return readBuffer.available();
+    }
+
     try {
       return inputStream.available();
     } catch (IOException e) {
@@ -746,6 +842,10 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
       return new byte[0];
     }
 
+    if (readBuffer != null) {
+      return readFromBuffer(functionName, numberOfBytes);
+    }
+
     ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 
     if (numberOfBytes >= 0) {
@@ -793,6 +893,141 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     return buffer.toByteArray();
   }
 
+  /**
+   * Reads a number of bytes from the bytes read in the background, in the
+   * same way as {@link #read(String, int)}.
+   */
+  private byte[] readFromBuffer(String functionName, int numberOfBytes) {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try {
+      if (numberOfBytes >= 0) {
+        byte[] bytes = new byte[numberOfBytes];
+        int totalBytesRead = 0;
+        while (totalBytesRead < numberOfBytes) {
+          readBuffer.awaitBytes(numberOfBytes - totalBytesRead);
+          int numBytesRead = readBuffer.read(bytes, totalBytesRead, bytes.length - totalBytesRead);
+          if (numBytesRead == 0) {
+            backgroundReadError(functionName);
+            break;
+          }
+          totalBytesRead += numBytesRead;
+        }
+        buffer.write(bytes, 0, totalBytesRead);
+      } else {
+        while (true) {
+          int length = readBuffer.awaitByte(delimiter);
+          if (length == -1) {
+            // The buffer is full or closed without a delimiter byte, so take out what it has.
+            length = readBuffer.available();
+            if (length == 0) {
+              backgroundReadError(functionName);
+              break;
+            }
+          }
+          byte[] bytes = new byte[length];
+          readBuffer.read(bytes, 0, length);
+          buffer.write(bytes, 0, length);
+          if (bytes[length - 1] == delimiter) {
+            break;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return buffer.toByteArray();
+  }
+
+  private void backgroundReadError(String functionName) {
+    IOException e = readBuffer.getError();
+    if (e != null) {
+      bluetoothError(functionName,
+          ErrorMessages.ERROR_BLUETOOTH_UNABLE_TO_READ, e.getMessage());
+    } else {
+      bluetoothError(functionName,
+          ErrorMessages.ERROR_BLUETOOTH_END_OF_STREAM);
+    }
+  }
+
+  /**
+   * Starts a thread that reads bytes from the input stream into a buffer as
+   * soon as they are received.
+   */
+  private void startReading() {
+    final ByteRingBuffer buffer = new ByteRingBuffer(READ_BUFFER_SIZE);
+    final InputStream stream = inputStream;
+    readBuffer = buffer;
+    readerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (buffer.readFrom(stream) != -1) {
+            checkDataReceived(buffer);
+          }
+          buffer.close(null);
+        } catch (IOException e) {
+          buffer.close(e);
+        } catch (InterruptedException e) {
+          buffer.close(null);
+        }
+        // Report the bytes left, even if there are too few.
+        checkDataReceived(buffer);
+      }
+    }, "BluetoothReader");
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  private void stopReading() {
+    if (readBuffer != null) {
+      readBuffer.close(null);
+      readerThread.interrupt();
+      readBuffer = null;
+      readerThread = null;
+    }
+  }
+
+  /**
+   * Posts a DataReceived event if enough bytes were read in the background
+   * and no event is pending already.
+   */
+  private void checkDataReceived(final ByteRingBuffer buffer) {
+    int available = buffer.available();
+    boolean ready;
+    if (dataReceivedBatchSize < 0) {
+      ready = buffer.indexOf(delimiter) != -1;
+    } else {
+      ready = available > 0 && available >= dataReceivedBatchSize;
+    }
+    // A full buffer is reported so that the reader doesn't wait forever, and
+    // the bytes left in a closed buffer so that they aren't forgotten.
+    if ((ready || available == buffer.capacity() || (available > 0 && buffer.isClosed()))
+        && dataReceivedPending.compareAndSet(false, true)) {
+      runOnUiThread(new Runnable() {
+        @Override
+        public void run() {
+          dataReceivedPending.set(false);
+          if (buffer != readBuffer) {
+            return;  // disconnected
+          }
+          int numberOfBytes = buffer.available();
+          DataReceived(numberOfBytes);
+          // Signal the event again for the bytes left, such as more lines of text.
+          if (buffer == readBuffer && buffer.available() < numberOfBytes) {
+            checkDataReceived(buffer);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Runs the given runnable on the UI thread.
+   */
+  protected void runOnUiThread(Runnable runnable) {
+    form.runOnUiThread(runnable);
+  }
+
   // OnDestroyListener implementation
 
   @Override
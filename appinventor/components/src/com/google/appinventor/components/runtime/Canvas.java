@@ -27,6 +27,7 @@ import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.FileUtil;
 import com.google.appinventor.components.runtime.util.MediaUtil;
 import com.google.appinventor.components.runtime.util.PaintUtil;
+import com.google.appinventor.components.runtime.util.SpatialGrid;
 import com.google.appinventor.components.runtime.util.YailList;
 
 import android.app.Activity;
@@ -50,8 +51,13 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -121,11 +127,19 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
   private static final int DEFAULT_BACKGROUND_COLOR = Component.COLOR_WHITE;
   private static final int DEFAULT_TEXTALIGNMENT = Component.ALIGNMENT_CENTER;
   private static final int FLING_INTERVAL = 1000;  // ms
+  private static final int COLLISION_CELL_SIZE = 64;  // pixels
 
   // Keep track of enclosed sprites.  This list should always be
   // sorted by increasing sprite.Z().
   private final List<Sprite> sprites;
 
+  // The position of each sprite in the sprites list, used to check for
+  // collisions in the same order as the list.
+  private final Map<Sprite, Integer> spriteOrder = new HashMap<Sprite, Integer>();
+
+  // Finds the sprites that may be colliding with a moved sprite.
+  private final SpatialGrid<Sprite> spriteGrid = new SpatialGrid<Sprite>(COLLISION_CELL_SIZE);
+
   // Handle touches and drags
   private final MotionEventParser motionEventParser;
 
@@ -760,12 +774,14 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     for (int i = 0; i < sprites.size(); i++) {
       if (sprites.get(i).Z() > sprite.Z()) {
         sprites.add(i, sprite);
+        updateSpriteOrder();
         return;
       }
     }
 
     // Add to end if it has the highest Z value.
     sprites.add(sprite);
+    updateSpriteOrder();
   }
 
   /**
@@ -775,6 +791,8 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    */
   void removeSprite(Sprite sprite) {
     sprites.remove(sprite);
+    updateSpriteOrder();
+    spriteGrid.remove(sprite);
   }
 
   /**
@@ -784,11 +802,19 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * @param sprite the Sprite whose Z property has changed
    */
   void changeSpriteLayer(Sprite sprite) {
-    removeSprite(sprite);
+    sprites.remove(sprite);
     addSprite(sprite);
     view.invalidate();
   }
 
+  private void updateSpriteOrder() {
+    spriteOrder.clear();
+    int position = 0;
+    for (Sprite sprite : sprites) {
+      spriteOrder.put(sprite, position++);
+    }
+  }
+
   @Override
   public Activity $context() {
     return context;
@@ -824,9 +850,22 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    */
   void registerChange(Sprite sprite) {
     view.invalidate();
+    updateSpriteBounds(sprite);
     findSpriteCollisions(sprite);
   }
 
+  /**
+   * Records the new location or size of a sprite, without checking for
+   * collisions.
+   *
+   * @param sprite the sprite whose location or size has changed
+   */
+  void updateSpriteBounds(Sprite sprite) {
+    if (spriteOrder.containsKey(sprite)) {
+      spriteGrid.update(sprite, sprite.getBoundingBox(1));
+    }
+  }
+
 
   // Methods for detecting collisions
 
@@ -843,10 +882,13 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
    * and
    * {@link com.google.appinventor.components.runtime.Sprite#Enabled()}.
    *
+   * <p>Only the sprites near the moved sprite, and those it was colliding
+   * with, are checked.</p>
+   *
    * @param movedSprite the sprite that has just changed position
    */
   protected void findSpriteCollisions(Sprite movedSprite) {
-    for (Sprite sprite : sprites) {
+    for (Sprite sprite : getCollisionCandidates(movedSprite)) {
       if (sprite != movedSprite) {
         // Check whether we already raised an event for their collision.
         if (movedSprite.CollidingWith(sprite)) {
@@ -875,6 +917,25 @@ public final class Canvas extends AndroidViewComponent implements ComponentConta
     }
   }
 
+  /*
+   * Returns the sprites that may be colliding with the moved sprite, or that
+   * it was colliding with, in the order of the sprites list.
+   */
+  private List<Sprite> getCollisionCandidates(Sprite movedSprite) {
+    Set<Sprite> candidates = new HashSet<Sprite>(movedSprite.getCollisions());
+    spriteGrid.query(movedSprite.getBoundingBox(1), candidates);
+    // Sprites that have been deleted are no longer checked.
+    candidates.retainAll(spriteOrder.keySet());
+    List<Sprite> sortedCandidates = new ArrayList<Sprite>(candidates);
+    Collections.sort(sortedCandidates, new Comparator<Sprite>() {
+      @Override
+      public int compare(Sprite sprite1, Sprite sprite2) {
+        return spriteOrder.get(sprite1) - spriteOrder.get(sprite2);
+      }
+    });
+    return sortedCandidates;
+  }
+
 
   // Properties
 
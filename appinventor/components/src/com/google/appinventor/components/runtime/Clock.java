@@ -172,6 +172,58 @@ public final class Clock extends AndroidNonvisibleComponent
     timerAlwaysFires = always;
   }
 
+  /**
+   * TimerMode property getter method.
+   *
+   * @return one of Delay, FixedRate and Frame
+   */
+  @SimpleProperty(
+      category = PropertyCategory.BEHAVIOR,
+      description = "How the timer events are scheduled. Delay waits for TimerInterval after "
+      + "each Timer event has been handled, so the time the event takes to handle is added to "
+      + "every interval. FixedRate fires every TimerInterval whatever the event takes, and "
+      + "skips the events that are missed when an event takes longer than the interval. Frame "
+      + "fires on the screen refresh nearest to every TimerInterval, or on every refresh if "
+      + "TimerInterval is 0, and is best for animations. Frame does not fire while the screen "
+      + "is off.")
+  public String TimerMode() {
+    return timerInternal.Mode();
+  }
+
+  /**
+   * TimerMode property setter method: sets how the timer events are scheduled.
+   *
+   * @param mode one of Delay, FixedRate and Frame
+   */
+  @DesignerProperty(
+      editorType = PropertyTypeConstants.PROPERTY_TYPE_CHOICES,
+      editorArgs = {TimerInternal.MODE_DELAY, TimerInternal.MODE_FIXED_RATE,
+          TimerInternal.MODE_FRAME},
+      defaultValue = TimerInternal.MODE_DELAY)
+  @SimpleProperty
+  public void TimerMode(String mode) {
+    try {
+      timerInternal.Mode(mode);
+    } catch (IllegalArgumentException e) {
+      throw new YailRuntimeError(
+          "TimerMode should be Delay, FixedRate or Frame", "Sorry to be so picky.");
+    }
+  }
+
+  /**
+   * TimerElapsed property getter method.
+   *
+   * @return the time between the last two timer events, in ms
+   */
+  @SimpleProperty(
+      category = PropertyCategory.BEHAVIOR,
+      description = "The time in ms that actually passed between the last Timer event and the "
+      + "one before it, which can be longer than TimerInterval if the phone is busy. Moving "
+      + "things by a speed times TimerElapsed keeps animations smooth.")
+  public long TimerElapsed() {
+    return timerInternal.Elapsed();
+  }
+
   // AlarmHandler implementation
 
   @Override
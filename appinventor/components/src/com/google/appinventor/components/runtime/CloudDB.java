@@ -7,9 +7,6 @@ package com.google.appinventor.components.runtime;
 
 import android.app.Activity;
 
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 
@@ -50,11 +47,14 @@ import java.security.cert.X509Certificate;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicReference;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
@@ -65,6 +65,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 import redis.clients.jedis.exceptions.JedisDataException;
 import redis.clients.jedis.exceptions.JedisException;
@@ -234,8 +236,19 @@ public final class CloudDB extends AndroidNonvisibleComponent implements Compone
   // effecient as possible, we have a queue of pending store requests and we
   // have a background task that drains this queue as fast as possible and
   // iterates over the queue until it is drained.
+  // Successive stores to a tag are merged, and each drain of the queue is sent
+  // as a single pipeline, so that a burst of stores costs one round trip to
+  // the server rather than one for each tag.
   private final List<storedValue> storeQueue = Collections.synchronizedList(new ArrayList());
 
+  // Likewise, GetValue requests wait in getQueue and the requests of a batch
+  // are looked up with one MGET. A store closes the last batch, so that a
+  // GetValue made after a StoreValue is looked up after the store is sent,
+  // in a new batch. Each batch has its own run of getWorker, submitted when
+  // the batch is started.
+  private final LinkedList<List<pendingGet>> getQueue = new LinkedList<List<pendingGet>>();
+  private boolean getBatchOpen = false;
+
   private ConnectivityManager cm;
 
   private static class storedValue {
@@ -255,6 +268,15 @@ public final class CloudDB extends AndroidNonvisibleComponent implements Compone
     }
   }
 
+  private static class pendingGet {
+    private final String tag;
+    private final Object valueIfTagNotThere;
+    pendingGet(String tag, Object valueIfTagNotThere) {
+      this.tag = tag;
+      this.valueIfTagNotThere = valueIfTagNotThere;
+    }
+  }
+
   /**
    * Creates a new CloudDB component.
    * @param container the Form that this component is contained in.
@@ -579,122 +601,127 @@ public final class CloudDB extends AndroidNonvisibleComponent implements Compone
       if (DEBUG) {
         Log.d(LOG_TAG,"Device is online...");
       }
-      synchronized(storeQueue) {
-        boolean kickit = false;
-        if (storeQueue.size() == 0) { // Need to kick off the background task
-          if (DEBUG) {
-            Log.d(LOG_TAG, "storeQueue is zero length, kicking background");
-          }
-          kickit = true;
-        } else {
-          if (DEBUG) {
-            Log.d(LOG_TAG, "storeQueue has " + storeQueue.size() + " entries");
-          }
+      JSONArray valueList = new JSONArray();
+      try {
+        valueList.put(0, value);
+      } catch (JSONException e) {
+        throw new YailRuntimeError("JSON Error putting value.", "value is not convertable");
+      }
+      enqueueStore(new storedValue(tag, valueList));
+    } else {
+      CloudDBError("Cannot store values off-line.");
+    }
+  }
+
+  /*
+   * Adds a store (or a clear, if the value list is null) to storeQueue, and
+   * starts the store worker if it is not already waiting to run.
+   */
+  private void enqueueStore(storedValue work) {
+    synchronized(storeQueue) {
+      boolean kickit = storeQueue.size() == 0; // Need to kick off the background task
+      if (DEBUG) {
+        Log.d(LOG_TAG, "storeQueue has " + storeQueue.size() + " entries");
+      }
+      storeQueue.add(work);
+      if (kickit) {
+        background.submit(storeWorker);
+      }
+    }
+    synchronized(getQueue) {
+      getBatchOpen = false;
+    }
+  }
+
+  // Takes everything in storeQueue and sends it to Redis in one pipeline.
+  // Stores that are queued while a batch is being sent start a new worker,
+  // which runs after this one and sends them as the next batch.
+  private final Runnable storeWorker = new Runnable() {
+      public void run() {
+        List<storedValue> work;
+        synchronized(storeQueue) {
+          work = new ArrayList<storedValue>(storeQueue);
+          storeQueue.clear();
+        }
+        if (DEBUG) {
+          Log.d(LOG_TAG, "store background task running with " + work.size() + " entries");
+        }
+        if (work.isEmpty()) {
+          return;
         }
-        JSONArray valueList = new JSONArray();
         try {
-          valueList.put(0, value);
-        } catch (JSONException e) {
-          throw new YailRuntimeError("JSON Error putting value.", "value is not convertable");
+          sendStores(coalesceStores(work));
+        } catch (JedisException e) {
+          CloudDBError(e.getMessage());
+          flushJedis(true);
+          storeQueue.clear();     // Flush pending changes, we are in
+                                  // an error state
+        } catch (Exception e) {
+          Log.e(LOG_TAG, "Exception in store worker!", e);
         }
-        storedValue work  = new storedValue(tag, valueList);
-        storeQueue.add(work);
-        if (kickit) {
-          background.submit(new Runnable() {
-              public void run() {
-                JSONArray pendingValueList = null;
-                String pendingTag = null;
-                String pendingValue = null;
-                try {
-                  storedValue work;
-                  if (DEBUG) {
-                    Log.d(LOG_TAG, "store background task running.");
-                  }
-                  while (true) {
-                    synchronized(storeQueue) {
-                      if (DEBUG) {
-                        Log.d(LOG_TAG, "store: In background synchronized block");
-                      }
-                      int size = storeQueue.size();
-                      if (size == 0) {
-                        if (DEBUG) {
-                          Log.d(LOG_TAG, "store background task exiting.");
-                        }
-                        work = null;
-                      } else {
-                        if (DEBUG) {
-                          Log.d(LOG_TAG, "store: storeQueue.size() == " + size);
-                        }
-                        work = storeQueue.remove(0);
-                        if (DEBUG) {
-                          Log.d(LOG_TAG, "store: got work.");
-                        }
-                      }
-                    }
-                    if (DEBUG) {
-                      Log.d(LOG_TAG, "store: left synchronized block");
-                    }
-                    if (work == null) {
-                      try {
-                        if (pendingTag != null) {
-                          String jsonValueList = pendingValueList.toString();
-                          if (DEBUG) {
-                            Log.d(LOG_TAG, "Workqueue empty, sending pendingTag, valueListLength = " + pendingValueList.length());
-                          }
-                          jEval(SET_SUB_SCRIPT, SET_SUB_SCRIPT_SHA1, 1, pendingTag, pendingValue, jsonValueList, projectID);
-                        }
-                      } catch (JedisException e) {
-                        CloudDBError(e.getMessage());
-                        flushJedis(true);
-                      }
-                      return;
-                    }
-
-                    String tag = work.getTag();
-                    JSONArray valueList = work.getValueList();
-                    if (tag == null || valueList == null) {
-                      if (DEBUG) {
-                        Log.d(LOG_TAG, "Either tag or value is null!");
-                      }
-                    } else {
-                      if (DEBUG) {
-                        Log.d(LOG_TAG, "Got Work: tag = " + tag + " value = " + valueList.get(0));
-                      }
-                    }
-                    if (pendingTag == null) { // First time through this invocation
-                      pendingTag = tag;
-                      pendingValueList = valueList;
-                      pendingValue = valueList.getString(0);
-                    } else if (pendingTag.equals(tag)) { // work is for the same tag
-                      pendingValue = valueList.getString(0);
-                      pendingValueList.put(pendingValue);
-                    } else {    // Work is for a different tag, send what we have
-                      try {     // and add the new tag,incoming valuelist for the next round
-                        String jsonValueList = pendingValueList.toString();
-                        if (DEBUG) {
-                          Log.d(LOG_TAG, "pendingTag changed sending pendingTag, valueListLength = " + pendingValueList.length());
-                        }
-                        jEval(SET_SUB_SCRIPT, SET_SUB_SCRIPT_SHA1, 1, pendingTag, pendingValue, jsonValueList, projectID);
-                      } catch (JedisException e) {
-                        CloudDBError(e.getMessage());
-                        flushJedis(true);
-                        storeQueue.clear(); // Flush pending changes, we are in
-                        return;             // an error state
-                      }
-                      pendingTag = tag;
-                      pendingValueList = valueList;
-                      pendingValue = valueList.getString(0);
-                    }
-                  }
-                } catch (Exception e) {
-                Log.e(LOG_TAG, "Exception in store worker!", e);
-                }
-              }
-            });
+      }
+    };
+
+  /*
+   * Merges the queued work for each tag into one entry, keeping the tags in
+   * the order they were first stored. Successive stores to a tag collect
+   * their values in one value list, so that every value is still published
+   * to the other devices and the last one is the one set. A clear replaces
+   * any stores before it, and is represented by a null value list.
+   */
+  private static Map<String, JSONArray> coalesceStores(List<storedValue> work)
+      throws JSONException {
+    Map<String, JSONArray> pending = new LinkedHashMap<String, JSONArray>();
+    for (storedValue item : work) {
+      String tag = item.getTag();
+      JSONArray valueList = item.getValueList();
+      JSONArray pendingValueList = pending.get(tag);
+      if (valueList == null || pendingValueList == null) {
+        pending.put(tag, valueList);
+      } else {
+        pendingValueList.put(valueList.getString(0));
+      }
+    }
+    return pending;
+  }
+
+  /*
+   * Sends the coalesced stores and clears in one round trip. Scripts that the
+   * server does not have loaded yet are sent again with EVAL afterwards.
+   */
+  private void sendStores(Map<String, JSONArray> pending) throws JSONException {
+    Jedis jedis = getJedis();
+    if (jedis == null) {        // getJedis has already reported the error
+      storeQueue.clear();
+      return;
+    }
+    Pipeline pipeline = jedis.pipelined();
+    List<Response<?>> responses = new ArrayList<Response<?>>(pending.size());
+    for (Map.Entry<String, JSONArray> entry : pending.entrySet()) {
+      String tag = entry.getKey();
+      JSONArray valueList = entry.getValue();
+      if (valueList == null) {
+        responses.add(pipeline.del(projectID + ":" + tag));
+      } else {
+        if (DEBUG) {
+          Log.d(LOG_TAG, "sending tag " + tag + ", valueListLength = " + valueList.length());
         }
+        responses.add(pipeline.evalsha(SET_SUB_SCRIPT_SHA1, 1, tag,
+            valueList.getString(valueList.length() - 1), valueList.toString(), projectID));
+      }
+    }
+    pipeline.sync();
+    int i = 0;
+    for (Map.Entry<String, JSONArray> entry : pending.entrySet()) {
+      try {
+        responses.get(i++).get();
+      } catch (JedisNoScriptException e) {
+        JSONArray valueList = entry.getValue();
+        jEval(SET_SUB_SCRIPT, SET_SUB_SCRIPT_SHA1, 1, entry.getKey(),
+            valueList.getString(valueList.length() - 1), valueList.toString(), projectID);
+      } catch (JedisDataException e) {
+        CloudDBError(e.getMessage());
       }
-    } else {
-      CloudDBError("Cannot store values off-line.");
     }
   }
 
@@ -715,61 +742,18 @@ public final class CloudDB extends AndroidNonvisibleComponent implements Compone
     if (DEBUG) {
       Log.d(LOG_TAG, "getting value ... for tag: " + tag);
     }
-    final AtomicReference<Object> value = new AtomicReference<Object>();
-    Cursor cursor = null;
-    SQLiteDatabase db = null;
     NetworkInfo networkInfo = cm.getActiveNetworkInfo();
     boolean isConnected = networkInfo != null && networkInfo.isConnected();
 
     if (isConnected) {
-      // Set value to either the JSON from the CloudDB
-      // or the JSON representation of valueIfTagNotThere
-      background.submit(new Runnable() {
-          public void run() {
-            Jedis jedis = getJedis();
-            try {
-              if (DEBUG) {
-                Log.d(LOG_TAG,"about to call jedis.get()");
-              }
-              String returnValue = jedis.get(projectID + ":" + tag);
-              if (DEBUG) {
-                Log.d(LOG_TAG, "finished call jedis.get()");
-              }
-              if (returnValue != null) {
-                String val = JsonUtil.getJsonRepresentationIfValueFileName(returnValue);
-                if(val != null) value.set(val);
-                else value.set(returnValue);
-              }
-              else {
-                if (DEBUG) {
-                  Log.d(CloudDB.LOG_TAG,"Value retrieved is null");
-                }
-                value.set(JsonUtil.getJsonRepresentation(valueIfTagNotThere));
-              }
-            } catch (JSONException e) {
-              CloudDBError("JSON conversion error for " + tag);
-              return;
-            } catch (NullPointerException e) {
-              CloudDBError("System Error getting tag " + tag);
-              flushJedis(true);
-              return;
-            } catch (JedisException e) {
-              Log.e(LOG_TAG, "Exception in GetValue", e);
-              CloudDBError(e.getMessage());
-              flushJedis(true);
-              return;
-            }
-
-            androidUIHandler.post(new Runnable() {
-                public void run() {
-                  // Signal an event to indicate that the value was
-                  // received.  We post this to run in the Application's main
-                  // UI thread.
-                  GotValue(tag, value.get());
-                }
-              });
-          }
-        });
+      synchronized(getQueue) {
+        if (!getBatchOpen) {
+          getQueue.add(new ArrayList<pendingGet>());
+          getBatchOpen = true;
+          background.submit(getWorker);
+        }
+        getQueue.getLast().add(new pendingGet(tag, valueIfTagNotThere));
+      }
     } else {
       if (DEBUG) {
         Log.d(LOG_TAG, "GetValue(): We're offline");
@@ -778,6 +762,74 @@ public final class CloudDB extends AndroidNonvisibleComponent implements Compone
     }
   }
 
+  // Takes the first batch of GetValue requests and looks up all of their
+  // tags with a single MGET, then signals GotValue for each request in the
+  // order they were made.
+  private final Runnable getWorker = new Runnable() {
+      public void run() {
+        List<pendingGet> work;
+        synchronized(getQueue) {
+          if (getQueue.isEmpty()) {
+            return;
+          }
+          work = getQueue.removeFirst();
+          if (getQueue.isEmpty()) {
+            getBatchOpen = false;
+          }
+        }
+        Jedis jedis = getJedis();
+        if (jedis == null) {    // getJedis has already reported the error
+          return;
+        }
+        Set<String> keys = new LinkedHashSet<String>();
+        for (pendingGet request : work) {
+          keys.add(projectID + ":" + request.tag);
+        }
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        try {
+          if (DEBUG) {
+            Log.d(LOG_TAG, "about to call jedis.mget() for " + keys.size() + " tags");
+          }
+          List<String> returnValues = jedis.mget(keys.toArray(new String[keys.size()]));
+          int i = 0;
+          for (String key : keys) {
+            values.put(key, returnValues.get(i++));
+          }
+        } catch (JedisException e) {
+          Log.e(LOG_TAG, "Exception in GetValue", e);
+          CloudDBError(e.getMessage());
+          flushJedis(true);
+          return;
+        }
+        for (final pendingGet request : work) {
+          final Object value;
+          try {
+            String returnValue = values.get(projectID + ":" + request.tag);
+            if (returnValue != null) {
+              String val = JsonUtil.getJsonRepresentationIfValueFileName(returnValue);
+              value = val != null ? val : returnValue;
+            } else {
+              if (DEBUG) {
+                Log.d(CloudDB.LOG_TAG,"Value retrieved is null");
+              }
+              value = JsonUtil.getJsonRepresentation(request.valueIfTagNotThere);
+            }
+          } catch (JSONException e) {
+            CloudDBError("JSON conversion error for " + request.tag);
+            continue;
+          }
+          androidUIHandler.post(new Runnable() {
+              public void run() {
+                // Signal an event to indicate that the value was
+                // received.  We post this to run in the Application's main
+                // UI thread.
+                GotValue(request.tag, value);
+              }
+            });
+        }
+      }
+    };
+
   @SimpleFunction(description = "returns True if we are on the network and will likely " +
     "be able to connect to the CloudDB server.")
   public boolean CloudConnected() {
@@ -956,17 +1008,9 @@ public final class CloudDB extends AndroidNonvisibleComponent implements Compone
   @SimpleFunction(description = "Remove the tag from CloudDB")
   public void ClearTag(final String tag) {
     checkProjectIDNotBlank();
-    background.submit(new Runnable() {
-        public void run() {
-          try {
-            Jedis jedis = getJedis();
-            jedis.del(projectID + ":" + tag);
-          } catch (Exception e) {
-            CloudDBError(e.getMessage());
-            flushJedis(true);
-          }
-        }
-      });
+    // Sent with the pending stores, so that it is ordered after any store to
+    // the same tag that came before it.
+    enqueueStore(new storedValue(tag, null));
   }
 
   /**
@@ -1168,6 +1212,16 @@ public final class CloudDB extends AndroidNonvisibleComponent implements Compone
             Log.d(LOG_TAG, "Killing background executor, returned tasks = " + tasks);
           }
           background = Executors.newSingleThreadExecutor();
+          // The workers may have been among the tasks killed, leaving
+          // requests in the queues that would never be sent. The store
+          // worker does nothing if its queue is empty, and each batch of
+          // gets left gets a run of the get worker.
+          background.submit(storeWorker);
+          synchronized(getQueue) {
+            for (int i = 0; i < getQueue.size(); i++) {
+              background.submit(getWorker);
+            }
+          }
         }
       });
 
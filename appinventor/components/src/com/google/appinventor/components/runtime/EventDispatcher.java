@@ -56,6 +56,20 @@ public class EventDispatcher {
     }
   }
 
+  /*
+   * An event handler found for a component object. The handler is opaque to this class; it is
+   * kept here for the dispatchDelegate, which looks it up with lookupEventHandler.
+   */
+  private static final class EventHandler {
+    private final String componentId;
+    private final Object handler;
+
+    private EventHandler(String componentId, Object handler) {
+      this.componentId = componentId;
+      this.handler = handler;
+    }
+  }
+
   /*
    * Each EventRegistry is associated with one dispatchDelegate.
    * It contains all the event closures for a single form.
@@ -70,9 +84,24 @@ public class EventDispatcher {
     private final HashMap<String, Set<EventClosure>> eventClosuresMap =
         new HashMap<String, Set<EventClosure>>();
 
+    // Mapping of component objects to their event handlers, indexed by event name.
+    // This lets an event be dispatched with a single lookup rather than by asking the
+    // dispatchDelegate about every event closure with the event's name.
+    private final Map<Component, Map<String, EventHandler>> eventHandlersMap =
+        new HashMap<Component, Map<String, EventHandler>>();
+
+    // True if eventHandlersMap contains a handler for every event closure, so that an event
+    // without an entry has no handler.
+    private boolean eventHandlersComplete = false;
+
     EventRegistry(HandlesEventDispatching dispatchDelegate) {
       this.dispatchDelegate = dispatchDelegate;
     }
+
+    void clearEventHandlers() {
+      eventHandlersMap.clear();
+      eventHandlersComplete = false;
+    }
   }
 
   private static final boolean DEBUG = false;
@@ -116,6 +145,7 @@ public class EventDispatcher {
     }
 
     eventClosures.add(new EventClosure(componentId, eventName));
+    er.clearEventHandlers();
     if (DEBUG) {
       Log.i("EventDispatcher", "Registered event closure for " +
           componentId + "." + eventName);
@@ -151,6 +181,7 @@ public class EventDispatcher {
       }
       eventClosures.remove(eventClosure);
     }
+    er.clearEventHandlers();
   }
 
   /**
@@ -161,6 +192,86 @@ public class EventDispatcher {
   public static void unregisterAllEventsForDelegation() {
     for (EventRegistry er : mapDispatchDelegateToEventRegistry.values()) {
       er.eventClosuresMap.clear();
+      er.clearEventHandlers();
+    }
+  }
+
+  /**
+   * Records the handler for the event with the specified event name raised by the given
+   * component object, which is registered under the specified component id.
+   *
+   * @param dispatchDelegate  object responsible for dispatching the event
+   * @param component  the component object
+   * @param componentId  id of component associated with event handler
+   * @param eventName  name of event
+   * @param handler  the event handler
+   */
+  // Don't delete this method. It's called from runtime.scm.
+  public static void registerEventHandler(HandlesEventDispatching dispatchDelegate,
+                                          Component component, String componentId,
+                                          String eventName, Object handler) {
+    EventRegistry er = getEventRegistry(dispatchDelegate);
+    Map<String, EventHandler> eventHandlers = er.eventHandlersMap.get(component);
+    if (eventHandlers == null) {
+      eventHandlers = new HashMap<String, EventHandler>();
+      er.eventHandlersMap.put(component, eventHandlers);
+    }
+    eventHandlers.put(eventName, new EventHandler(componentId, handler));
+  }
+
+  /**
+   * Indicates that a handler has been recorded with {@link #registerEventHandler} for every
+   * event registered with {@link #registerEventForDelegation}. Events are then dispatched
+   * directly to the recorded handlers, until the events or handlers change.
+   *
+   * @param dispatchDelegate  object responsible for dispatching the event
+   */
+  // Don't delete this method. It's called from runtime.scm.
+  public static void completeEventHandlers(HandlesEventDispatching dispatchDelegate) {
+    getEventRegistry(dispatchDelegate).eventHandlersComplete = true;
+  }
+
+  /**
+   * Returns the handler recorded with {@link #registerEventHandler} for the event with the
+   * specified event name raised by the given component object, if the component object is
+   * registered under the specified component id.
+   *
+   * @param dispatchDelegate  object responsible for dispatching the event
+   * @param component  the component object
+   * @param componentId  id of component associated with event handler
+   * @param eventName  name of event
+   * @return the event handler, or null if none has been recorded
+   */
+  // Don't delete this method. It's called from runtime.scm.
+  public static Object lookupEventHandler(HandlesEventDispatching dispatchDelegate,
+                                          Component component, String componentId,
+                                          String eventName) {
+    EventRegistry er = mapDispatchDelegateToEventRegistry.get(dispatchDelegate);
+    if (er == null) {
+      return null;
+    }
+    Map<String, EventHandler> eventHandlers = er.eventHandlersMap.get(component);
+    if (eventHandlers == null) {
+      return null;
+    }
+    EventHandler eventHandler = eventHandlers.get(eventName);
+    if (eventHandler == null || !eventHandler.componentId.equals(componentId)) {
+      return null;
+    }
+    return eventHandler.handler;
+  }
+
+  /**
+   * Forgets the handlers recorded with {@link #registerEventHandler}, because a component or
+   * an event handler has been redefined.
+   *
+   * @param dispatchDelegate  object responsible for dispatching the event
+   */
+  // Don't delete this method. It's called from runtime.scm.
+  public static void clearEventHandlers(HandlesEventDispatching dispatchDelegate) {
+    EventRegistry er = mapDispatchDelegateToEventRegistry.get(dispatchDelegate);
+    if (er != null) {
+      er.clearEventHandlers();
     }
   }
 
@@ -175,6 +286,7 @@ public class EventDispatcher {
     EventRegistry er = removeEventRegistry(dispatchDelegate);
     if (er != null) {
       er.eventClosuresMap.clear();
+      er.clearEventHandlers();
     }
   }
 
@@ -193,9 +305,18 @@ public class EventDispatcher {
     HandlesEventDispatching dispatchDelegate = component.getDispatchDelegate();
     if (dispatchDelegate.canDispatchEvent(component, eventName)) {
       EventRegistry er = getEventRegistry(dispatchDelegate);
-      Set<EventClosure> eventClosures = er.eventClosuresMap.get(eventName);
-      if (eventClosures != null && eventClosures.size() > 0) {
-        dispatched = delegateDispatchEvent(dispatchDelegate, eventClosures, component, args);
+      if (er.eventHandlersComplete) {
+        Map<String, EventHandler> eventHandlers = er.eventHandlersMap.get(component);
+        EventHandler eventHandler = eventHandlers == null ? null : eventHandlers.get(eventName);
+        if (eventHandler != null) {
+          dispatched = dispatchDelegate.dispatchEvent(component, eventHandler.componentId,
+              eventName, args);
+        }
+      } else {
+        Set<EventClosure> eventClosures = er.eventClosuresMap.get(eventName);
+        if (eventClosures != null && eventClosures.size() > 0) {
+          dispatched = delegateDispatchEvent(dispatchDelegate, eventClosures, component, args);
+        }
       }
       dispatchDelegate.dispatchGenericEvent(component, eventName, !dispatched, args);
     }
@@ -13,6 +13,7 @@ import com.google.appinventor.components.runtime.util.GeoJSONUtil;
 import com.google.appinventor.components.runtime.util.GeometryUtil;
 import com.google.appinventor.components.runtime.util.MapFactory;
 import com.google.appinventor.components.runtime.util.MapFactory.MapScaleUnits;
+import com.google.appinventor.components.runtime.util.MapFeatureIndex;
 import com.google.appinventor.components.runtime.util.YailList;
 import org.osmdroid.util.BoundingBox;
 
@@ -44,6 +45,7 @@ import android.view.View;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * <p>A two-dimensional container that renders map tiles in the background and allows for multiple
@@ -87,6 +89,12 @@ public class Map extends MapFeatureContainerBase implements MapEventListener {
   private static final String ERROR_LATITUDE_OUT_OF_BOUNDS = "Latitude %f is out of bounds.";
   private static final String ERROR_LONGITUDE_OUT_OF_BOUNDS = "Longitude %f is out of bounds.";
 
+  /**
+   * Fraction of the span of the bounding box added on each side of it when culling features, so
+   * that markers and strokes just outside of the bounds are still drawn.
+   */
+  private static final double CULLING_MARGIN = 0.25;
+
   /**
    * <p>Platform-specific map controller returned by {@link MapFactory}.</p>
    */
@@ -94,6 +102,18 @@ public class Map extends MapFeatureContainerBase implements MapEventListener {
 
   private LocationSensor sensor = null;
 
+  /**
+   * <p>Spatial index of all of the features on the map, including those in feature collections,
+   * used to cull the features outside of the bounding box.</p>
+   */
+  private final MapFeatureIndex featureIndex = new MapFeatureIndex(features);
+
+  /**
+   * <p>The features found in the bounding box the last time features were culled, or null if
+   * features have not been culled.</p>
+   */
+  private Set<MapFeature> featuresInView = null;
+
   /**
    * Construct a new map to be rendered within the given container.
    *
@@ -594,6 +614,7 @@ public class Map extends MapFeatureContainerBase implements MapEventListener {
     container.$form().runOnUiThread(new Runnable() {
       @Override
       public void run() {
+        cullFeatures();
         Map.this.BoundsChange();
       }
     });
@@ -604,6 +625,7 @@ public class Map extends MapFeatureContainerBase implements MapEventListener {
     container.$form().runOnUiThread(new Runnable() {
       @Override
       public void run() {
+        cullFeatures();
         Map.this.ZoomChange();
       }
     });
@@ -698,42 +720,121 @@ public class Map extends MapFeatureContainerBase implements MapEventListener {
   // MapFeatureContainerBase optimizations
   @Override
   void addFeature(MapMarker marker) {
-    features.add(marker);
+    appendFeature(marker);
     marker.setMap(this);
     mapController.addFeature(marker);
   }
 
   @Override
   void addFeature(MapLineString lineString) {
-    features.add(lineString);
+    appendFeature(lineString);
     lineString.setMap(this);
     mapController.addFeature(lineString);
   }
 
   @Override
   void addFeature(MapPolygon polygon) {
-    features.add(polygon);
+    appendFeature(polygon);
     polygon.setMap(this);
     mapController.addFeature(polygon);
   }
 
   @Override
   void addFeature(MapRectangle rectangle) {
-    features.add(rectangle);
+    appendFeature(rectangle);
     rectangle.setMap(this);
     mapController.addFeature(rectangle);
   }
 
   @Override
   void addFeature(MapCircle circle) {
-    features.add(circle);
+    appendFeature(circle);
     circle.setMap(this);
     mapController.addFeature(circle);
   }
 
   @Override
   public void removeFeature(MapFeature feature) {
-    features.remove(feature);
+    removeFromFeatures(feature);
     mapController.removeFeature(feature);
   }
+
+  @Override
+  void appendFeature(MapFeature feature) {
+    super.appendFeature(feature);
+    featureIndex.featureAdded(feature);
+    if (featuresInView != null) {
+      // A new feature is drawn until the next cull, which culls it if it is outside.
+      featuresInView.add(feature);
+    }
+  }
+
+  @Override
+  void removeFromFeatures(MapFeature feature) {
+    super.removeFromFeatures(feature);
+    featureIndex.featureRemoved(feature);
+    if (featuresInView != null) {
+      featuresInView.remove(feature);
+    }
+  }
+
+  /**
+   * Called by a feature on the map when its geometry changes.
+   *
+   * @param feature the feature that changed
+   */
+  void featureGeometryChanged(MapFeature feature) {
+    featureIndex.featureChanged(feature);
+    if (featuresInView != null && featuresInView.add(feature)) {
+      // The feature may have moved into the bounding box, so draw it until the next cull, which
+      // culls it again if it is still outside.
+      mapController.setFeatureCulled(feature, false);
+    }
+  }
+
+  /**
+   * Culls the features outside of the bounding box of the map, so that they are not drawn and
+   * do not respond to touches, and restores the features that came into it. After the first
+   * cull, only the features that entered or left the bounding box are changed.
+   */
+  private void cullFeatures() {
+    BoundingBox bbox = mapController.getBoundingBox();
+    double latMargin = bbox.getLatitudeSpan() * CULLING_MARGIN;
+    double lonMargin = bbox.getLongitudeSpan() * CULLING_MARGIN;
+    double north = Math.min(90, bbox.getLatNorth() + latMargin);
+    double south = Math.max(-90, bbox.getLatSouth() - latMargin);
+    double west = -180;
+    double east = 180;
+    if (bbox.getLongitudeSpan() + 2 * lonMargin < 360) {
+      west = wrapLongitude(bbox.getLonWest() - lonMargin);
+      east = wrapLongitude(bbox.getLonEast() + lonMargin);
+    }
+    Set<MapFeature> inView = featureIndex.query(north, west, south, east);
+    if (featuresInView == null) {
+      for (MapFeature feature : features) {
+        mapController.setFeatureCulled(feature, !inView.contains(feature));
+      }
+    } else {
+      for (MapFeature feature : featuresInView) {
+        if (!inView.contains(feature)) {
+          mapController.setFeatureCulled(feature, true);
+        }
+      }
+      for (MapFeature feature : inView) {
+        if (!featuresInView.contains(feature)) {
+          mapController.setFeatureCulled(feature, false);
+        }
+      }
+    }
+    featuresInView = inView;
+  }
+
+  private static double wrapLongitude(double longitude) {
+    if (longitude < -180) {
+      return longitude + 360;
+    } else if (longitude > 180) {
+      return longitude - 360;
+    }
+    return longitude;
+  }
 }
@@ -324,9 +324,15 @@ public abstract class MapFeatureBase implements MapFeature, HasStroke {
   }
 
   @SuppressWarnings("WeakerAccess")
-  protected final synchronized void clearGeometry() {
-    centroid = null;
-    geometry = null;
+  protected final void clearGeometry() {
+    synchronized (this) {
+      centroid = null;
+      geometry = null;
+    }
+    // The map is told outside of the lock, since rebuilding its index locks each feature.
+    if (map != null) {
+      map.featureGeometryChanged(this);
+    }
   }
 
   protected abstract Geometry computeGeometry();
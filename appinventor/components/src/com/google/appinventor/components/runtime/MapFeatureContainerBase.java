@@ -14,16 +14,16 @@ import com.google.appinventor.components.annotations.SimpleObject;
 import com.google.appinventor.components.annotations.SimpleProperty;
 import com.google.appinventor.components.runtime.util.AsynchUtil;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
+import com.google.appinventor.components.runtime.util.GeoJSONReader;
 import com.google.appinventor.components.runtime.util.MapFactory;
 import com.google.appinventor.components.runtime.util.MapFactory.MapFeature;
 import com.google.appinventor.components.runtime.util.YailList;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -47,8 +47,6 @@ public abstract class MapFeatureContainerBase extends AndroidViewComponent imple
   private static final String ERROR_MALFORMED_URL = "The URL is malformed";
   private static final String ERROR_IO_EXCEPTION = "Unable to download content from URL";
   private static final String ERROR_MALFORMED_GEOJSON = "Malformed GeoJSON response. Expected FeatureCollection as root element.";
-  private static final String ERROR_UNKNOWN_TYPE = "Unrecognized/invalid type in JSON object";
-  private static final String GEOJSON_TYPE = "type";
   private static final String GEOJSON_FEATURECOLLECTION = "FeatureCollection";
   private static final String GEOJSON_GEOMETRYCOLLECTION = "GeometryCollection";
   private static final String GEOJSON_FEATURES = "features";
@@ -59,6 +57,12 @@ public abstract class MapFeatureContainerBase extends AndroidViewComponent imple
    */
   protected List<MapFeature> features = new CopyOnWriteArrayList<MapFeature>();
 
+  /**
+   * Features added since {@link #beginFeatureBatch()}, which are appended to {@link #features}
+   * all at once by {@link #endFeatureBatch()} rather than copying the list for each of them.
+   */
+  private List<MapFeature> pendingFeatures = null;
+
   private final MapFactory.MapFeatureVisitor<Void> featureAdder = new MapFactory.MapFeatureVisitor<Void>() {
     @Override
     public Void visit(MapFactory.MapMarker marker, Object... arguments) {
@@ -107,12 +111,17 @@ public abstract class MapFeatureContainerBase extends AndroidViewComponent imple
       feature.removeFromMap();
     }
     this.features.clear();
-    ListIterator<?> it = features.listIterator(1);
-    while (it.hasNext()) {
-      Object o = it.next();
-      if (o instanceof MapFactory.MapFeature) {
-        this.addFeature((MapFactory.MapFeature) o);
+    beginFeatureBatch();
+    try {
+      ListIterator<?> it = features.listIterator(1);
+      while (it.hasNext()) {
+        Object o = it.next();
+        if (o instanceof MapFactory.MapFeature) {
+          this.addFeature((MapFactory.MapFeature) o);
+        }
       }
+    } finally {
+      endFeatureBatch();
     }
     getMap().getView().invalidate();
   }
@@ -226,10 +235,15 @@ public abstract class MapFeatureContainerBase extends AndroidViewComponent imple
   public void GotFeatures(String url, YailList features) {
     if (!EventDispatcher.dispatchEvent(this, "GotFeatures", url, features)) {
       // If the app inventor hasn't defined GotFeatures, we by default create the features for them
-      Iterator it = features.iterator();
-      it.next();  // skip *list* symbol
-      while (it.hasNext()) {
-        FeatureFromDescription((YailList) it.next());
+      beginFeatureBatch();
+      try {
+        Iterator it = features.iterator();
+        it.next();  // skip *list* symbol
+        while (it.hasNext()) {
+          FeatureFromDescription((YailList) it.next());
+        }
+      } finally {
+        endFeatureBatch();
       }
     }
   }
@@ -277,35 +291,76 @@ public abstract class MapFeatureContainerBase extends AndroidViewComponent imple
   }
 
   public void removeFeature(MapFactory.MapFeature feature) {
-    features.remove(feature);
+    removeFromFeatures(feature);
     getMap().removeFeature(feature);
   }
 
   void addFeature(MapFactory.MapMarker marker) {
-    features.add(marker);
+    appendFeature(marker);
     getMap().addFeature(marker);
   }
 
   void addFeature(MapFactory.MapLineString polyline) {
-    features.add(polyline);
+    appendFeature(polyline);
     getMap().addFeature(polyline);
   }
 
   void addFeature(MapFactory.MapPolygon polygon) {
-    features.add(polygon);
+    appendFeature(polygon);
     getMap().addFeature(polygon);
   }
 
   void addFeature(MapFactory.MapCircle circle) {
-    features.add(circle);
+    appendFeature(circle);
     getMap().addFeature(circle);
   }
 
   void addFeature(MapFactory.MapRectangle rectangle) {
-    features.add(rectangle);
+    appendFeature(rectangle);
     getMap().addFeature(rectangle);
   }
 
+  /**
+   * Starts collecting the features added to this container, and to the map it is on, so that
+   * they are added to the features list in one step by {@link #endFeatureBatch()}. Adding
+   * features one at a time copies the whole list for each feature.
+   */
+  void beginFeatureBatch() {
+    if (pendingFeatures == null) {
+      pendingFeatures = new ArrayList<MapFeature>();
+    }
+    if (getMap() != this) {
+      getMap().beginFeatureBatch();
+    }
+  }
+
+  /**
+   * Adds the features collected since {@link #beginFeatureBatch()} to the features list.
+   */
+  void endFeatureBatch() {
+    if (pendingFeatures != null) {
+      features.addAll(pendingFeatures);
+      pendingFeatures = null;
+    }
+    if (getMap() != this) {
+      getMap().endFeatureBatch();
+    }
+  }
+
+  void appendFeature(MapFeature feature) {
+    if (pendingFeatures != null) {
+      pendingFeatures.add(feature);
+    } else {
+      features.add(feature);
+    }
+  }
+
+  void removeFromFeatures(MapFeature feature) {
+    if (pendingFeatures == null || !pendingFeatures.remove(feature)) {
+      features.remove(feature);
+    }
+  }
+
   @Override
   public void addFeature(MapFactory.MapFeature feature) {
     feature.accept(featureAdder);
@@ -313,11 +368,19 @@ public abstract class MapFeatureContainerBase extends AndroidViewComponent imple
 
   private void performGet(final String url) {
     try {
-      String jsonContent = loadUrl(url);
-      if (jsonContent == null) {
+      Reader content = openUrl(url);
+      if (content == null) {
         return;
       }
-      processGeoJSON(url, jsonContent);
+      try {
+        processGeoJSON(url, content);
+      } finally {
+        content.close();
+      }
+    } catch(MalformedURLException e) {
+      postLoadError(url, ERROR_CODE_MALFORMED_URL, ERROR_MALFORMED_URL);
+    } catch(IOException e) {
+      postLoadError(url, ERROR_CODE_IO_EXCEPTION, ERROR_IO_EXCEPTION);
     } catch(Exception e) {
       Log.e(TAG, "Exception retreiving GeoJSON", e);
       $form().dispatchErrorOccurredEvent(this, "LoadFromURL", ERROR_CODE_UNKNOWN_TYPE,
@@ -325,69 +388,68 @@ public abstract class MapFeatureContainerBase extends AndroidViewComponent imple
     }
   }
 
-  private String loadUrl(final String url) {
-    try {
-      URLConnection connection = new URL(url).openConnection();
-      connection.connect();
-      if (connection instanceof HttpURLConnection) {
-        HttpURLConnection conn = (HttpURLConnection) connection;
-        final int responseCode = conn.getResponseCode();
-        final String responseMessage = conn.getResponseMessage();
-        if (responseCode != 200) {
-          $form().runOnUiThread(new Runnable() {
-            public void run() {
-              MapFeatureContainerBase.this.LoadError(url, responseCode, responseMessage);
-            }
-          });
-          conn.disconnect();
-          return null;
-        }
-      }
-      BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
-            "UTF-8"));
-      StringBuilder content = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        content.append(line);
-        content.append("\n");
+  /**
+   * Opens the content at the given url, which is read by the caller as it is parsed.
+   *
+   * @return a reader of the content, or null if the server responded with an error, which has
+   * been reported with LoadError
+   */
+  private Reader openUrl(final String url) throws IOException {
+    URLConnection connection = new URL(url).openConnection();
+    connection.connect();
+    if (connection instanceof HttpURLConnection) {
+      HttpURLConnection conn = (HttpURLConnection) connection;
+      final int responseCode = conn.getResponseCode();
+      final String responseMessage = conn.getResponseMessage();
+      if (responseCode != 200) {
+        postLoadError(url, responseCode, responseMessage);
+        conn.disconnect();
+        return null;
       }
-      reader.close();
-      return content.toString();
-    } catch(MalformedURLException e) {
-      $form().runOnUiThread(new Runnable() {
-        public void run() {
-          MapFeatureContainerBase.this.LoadError(url, ERROR_CODE_MALFORMED_URL,
-              ERROR_MALFORMED_URL);
-        }
-      });
-    } catch (IOException e) {
-      $form().runOnUiThread(new Runnable() {
-        public void run() {
-          MapFeatureContainerBase.this.LoadError(url, ERROR_CODE_IO_EXCEPTION,
-              ERROR_IO_EXCEPTION);
-        }
-      });
     }
-    return null;
+    return new InputStreamReader(connection.getInputStream(), "UTF-8");
+  }
+
+  private void postLoadError(final String url, final int responseCode,
+      final String errorMessage) {
+    $form().runOnUiThread(new Runnable() {
+      public void run() {
+        MapFeatureContainerBase.this.LoadError(url, responseCode, errorMessage);
+      }
+    });
   }
 
   @SuppressWarnings("WeakerAccess")
   protected void processGeoJSON(final String url, final String content) throws JSONException {
-    JSONObject parsedData = new JSONObject(stripBOM(content));
-    String type = parsedData.optString(GEOJSON_TYPE);
+    try {
+      processGeoJSON(url, new StringReader(content));
+    } catch (IOException e) {
+      // A StringReader does not throw IOException.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Reads the features of a GeoJSON document one at a time as the document is read, and raises
+   * GotFeatures with them. The document is never held in memory as a whole, and reading stops
+   * with a JSONException if the features would take up more than a quarter of the memory
+   * available to the app.
+   */
+  private void processGeoJSON(final String url, final Reader content)
+      throws IOException, JSONException {
+    GeoJSONReader reader = new GeoJSONReader(content, Runtime.getRuntime().maxMemory() / 4);
+    final List<YailList> yailFeatures = new ArrayList<YailList>();
+    YailList feature;
+    while ((feature = reader.nextFeature()) != null) {
+      yailFeatures.add(feature);
+    }
+    String type = reader.getType();
     if (!GEOJSON_FEATURECOLLECTION.equals(type) && !GEOJSON_GEOMETRYCOLLECTION.equals(type)) {
-      $form().runOnUiThread(new Runnable() {
-        public void run() {
-          MapFeatureContainerBase.this.LoadError(url, ERROR_CODE_MALFORMED_GEOJSON,
-              ERROR_MALFORMED_GEOJSON);
-        }
-      });
+      postLoadError(url, ERROR_CODE_MALFORMED_GEOJSON, ERROR_MALFORMED_GEOJSON);
       return;
     }
-    JSONArray features = parsedData.getJSONArray(GEOJSON_FEATURES);
-    final List<YailList> yailFeatures = new ArrayList<YailList>();
-    for (int i = 0; i < features.length(); i++) {
-      yailFeatures.add(jsonObjectToYail(features.getJSONObject(i)));
+    if (!reader.hasFeatures()) {
+      throw new JSONException("JSONObject[\"" + GEOJSON_FEATURES + "\"] not found.");
     }
     $form().runOnUiThread(new Runnable() {
       public void run() {
@@ -395,60 +457,6 @@ public abstract class MapFeatureContainerBase extends AndroidViewComponent imple
       }
     });
   }
-
-  private YailList jsonObjectToYail(JSONObject object) throws JSONException {
-    List<YailList> pairs = new ArrayList<YailList>();
-    @SuppressWarnings("unchecked")  // json only allows String keys
-        Iterator<String> j = object.keys();
-    while (j.hasNext()) {
-      String key = j.next();
-      Object value = object.get(key);
-      if (value instanceof Boolean ||
-          value instanceof Integer ||
-          value instanceof Long ||
-          value instanceof Double ||
-          value instanceof String) {
-        pairs.add(YailList.makeList(new Object[] { key, value }));
-      } else if (value instanceof JSONArray) {
-        pairs.add(YailList.makeList(new Object[] { key, jsonArrayToYail((JSONArray) value)}));
-      } else if (value instanceof JSONObject) {
-        pairs.add(YailList.makeList(new Object[] { key, jsonObjectToYail((JSONObject) value)}));
-      } else if (!JSONObject.NULL.equals(value)) {
-        Log.wtf(TAG, ERROR_UNKNOWN_TYPE + ": " + value.getClass());
-        throw new IllegalArgumentException(ERROR_UNKNOWN_TYPE);
-      }
-    }
-    return YailList.makeList(pairs);
-  }
-
-  private YailList jsonArrayToYail(JSONArray array) throws JSONException {
-    List<Object> items = new ArrayList<Object>();
-    for (int i = 0; i < array.length(); i++) {
-      Object value = array.get(i);
-      if (value instanceof Boolean ||
-          value instanceof Integer ||
-          value instanceof Long ||
-          value instanceof Double ||
-          value instanceof String) {
-        items.add(value);
-      } else if (value instanceof JSONArray) {
-        items.add(jsonArrayToYail((JSONArray) value));
-      } else if (value instanceof JSONObject) {
-        items.add(jsonObjectToYail((JSONObject) value));
-      } else if (!JSONObject.NULL.equals(value)) {
-        Log.wtf(TAG, ERROR_UNKNOWN_TYPE + ": " + value.getClass());
-        throw new IllegalArgumentException(ERROR_UNKNOWN_TYPE);
-      }
-    }
-    return YailList.makeList(items);
-  }
-
-  private static String stripBOM(String content) {
-    if (content.charAt(0) == '\uFEFF') {
-      return content.substring(1);
-    } else {
-      return content;
-    }
   }
 
 }
@@ -384,6 +384,32 @@ public class ReplForm extends Form {
     form.sendToCompanion(retvals);
   }
 
+  /*
+   * Send a batch of return values that has been compressed with a
+   * Deflater. The Blocks Editor inflates binary messages.
+   */
+  public static void returnCompressedRetvals(final byte[] retvals) {
+    final ReplForm form = (ReplForm)activeForm;
+    Log.d(LOG_TAG, "returnCompressedRetvals: " + retvals.length + " bytes");
+    if (form.webRTCNativeMgr == null) {
+      Log.i(LOG_TAG, "No WebRTCNativeMgr!");
+      return;
+    }
+    form.webRTCNativeMgr.sendBinary(retvals);
+  }
+
+  /*
+   * The number of bytes queued on the data channel to the Blocks Editor
+   * that have not been sent yet, or 0 if there is no data channel.
+   */
+  public static long getRetvalsBufferedAmount() {
+    final ReplForm form = (ReplForm)activeForm;
+    if (form == null || form.webRTCNativeMgr == null) {
+      return 0;
+    }
+    return form.webRTCNativeMgr.getBufferedAmount();
+  }
+
   public void sendToCompanion(String data) {
     if (webRTCNativeMgr == null) {
       Log.i(LOG_TAG, "No WebRTCNativeMgr!");
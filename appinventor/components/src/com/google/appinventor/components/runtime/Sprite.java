@@ -21,7 +21,9 @@ import com.google.appinventor.components.runtime.util.TimerInternal;
 import android.os.Handler;
 import android.util.Log;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -45,6 +47,9 @@ public abstract class Sprite extends VisibleComponent
   private static final boolean DEFAULT_VISIBLE = true;
   private static final double DEFAULT_Z = 1.0;
 
+  // The class declaring containsPoint for each kind of sprite, found by getShape().
+  private static final Map<Class<?>, Class<?>> SHAPES = new HashMap<Class<?>, Class<?>>();
+
   protected final Canvas canvas;              // enclosing Canvas
   private final TimerInternal timerInternal;  // timer to control movement
   private final Handler androidUIHandler;     // for posting actions
@@ -588,6 +593,14 @@ public abstract class Sprite extends VisibleComponent
     return registeredCollisions.contains(other);
   }
 
+  /**
+   * Returns the sprites that this sprite has raised a
+   * {@link #CollidedWith(Sprite)} event for and is still colliding with.
+   */
+  Set<Sprite> getCollisions() {
+    return registeredCollisions;
+  }
+
   /**
    * Moves the sprite back in bounds if part of it extends out of bounds,
    * having no effect otherwise. If the sprite is too wide to fit on the
@@ -665,6 +678,7 @@ public abstract class Sprite extends VisibleComponent
     if (!initialized) {
       // During REPL, components are not initalized, but we still want to repaint the canvas.
       canvas.getView().invalidate();
+      canvas.updateSpriteBounds(this);
       return;
     }
     int edge = hitEdge();
@@ -853,6 +867,19 @@ public abstract class Sprite extends VisibleComponent
       return false;
     }
 
+    // Rectangles and balls can be tested exactly, without scanning any points.
+    Class<?> shape1 = sprite1.getShape();
+    Class<?> shape2 = sprite2.getShape();
+    if (shape1 == Ball.class && shape2 == Ball.class) {
+      return ballsOverlap((Ball) sprite1, (Ball) sprite2);
+    } else if (shape1 == Ball.class && shape2 == Sprite.class) {
+      return ballOverlapsRectangle((Ball) sprite1, sprite2);
+    } else if (shape1 == Sprite.class && shape2 == Ball.class) {
+      return ballOverlapsRectangle((Ball) sprite2, sprite1);
+    } else if (shape1 == Sprite.class && shape2 == Sprite.class) {
+      return rectanglesOverlap(sprite1, sprite2);
+    }
+
     // If we get here, rect1 has been mutated to hold the intersection of the
     // two bounding boxes.  Now check every point in the intersection to see if
     // both sprites contain that point.
@@ -867,6 +894,62 @@ public abstract class Sprite extends VisibleComponent
     return false;
   }
 
+  /*
+   * Returns the class that declares this sprite's containsPoint method, which tells what
+   * shape the sprite has: Sprite.class for rectangles and Ball.class for circles.
+   */
+  private Class<?> getShape() {
+    Class<?> spriteClass = getClass();
+    Class<?> shape = SHAPES.get(spriteClass);
+    if (shape == null) {
+      try {
+        shape = spriteClass.getMethod("containsPoint", double.class, double.class)
+            .getDeclaringClass();
+      } catch (NoSuchMethodException e) {
+        throw new AssertionFailure("Sprite " + spriteClass + " has no containsPoint method");
+      }
+      SHAPES.put(spriteClass, shape);
+    }
+    return shape;
+  }
+
+  // Checks whether two rectangular sprites share a point, as their containsPoint methods
+  // would find.
+  private static boolean rectanglesOverlap(Sprite sprite1, Sprite sprite2) {
+    return sprite1.Width() > 0 && sprite1.Height() > 0
+        && sprite2.Width() > 0 && sprite2.Height() > 0
+        && sprite1.xLeft < sprite2.xLeft + sprite2.Width()
+        && sprite2.xLeft < sprite1.xLeft + sprite1.Width()
+        && sprite1.yTop < sprite2.yTop + sprite2.Height()
+        && sprite2.yTop < sprite1.yTop + sprite1.Height();
+  }
+
+  // Checks whether two balls share a point, by comparing the distance between their centers
+  // with the sum of their radii.
+  private static boolean ballsOverlap(Ball ball1, Ball ball2) {
+    double dx = (ball1.xLeft + ball1.Radius()) - (ball2.xLeft + ball2.Radius());
+    double dy = (ball1.yTop + ball1.Radius()) - (ball2.yTop + ball2.Radius());
+    double radii = ball1.Radius() + ball2.Radius();
+    return dx * dx + dy * dy <= radii * radii;
+  }
+
+  // Checks whether a ball and a rectangular sprite share a point, by finding the point of
+  // the rectangle closest to the center of the ball.
+  private static boolean ballOverlapsRectangle(Ball ball, Sprite rectangle) {
+    if (rectangle.Width() <= 0 || rectangle.Height() <= 0) {
+      return false;
+    }
+    double xCenter = ball.xLeft + ball.Radius();
+    double yCenter = ball.yTop + ball.Radius();
+    double xClosest =
+        Math.max(rectangle.xLeft, Math.min(xCenter, rectangle.xLeft + rectangle.Width()));
+    double yClosest =
+        Math.max(rectangle.yTop, Math.min(yCenter, rectangle.yTop + rectangle.Height()));
+    double dx = xCenter - xClosest;
+    double dy = yCenter - yClosest;
+    return dx * dx + dy * dy <= ball.Radius() * ball.Radius();
+  }
+
   /**
    * Determines whether this sprite intersects with the given rectangle.
    *
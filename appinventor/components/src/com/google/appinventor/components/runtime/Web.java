@@ -39,13 +39,14 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.XML;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.CookieHandler;
 import java.net.HttpURLConnection;
@@ -160,6 +161,12 @@ public class Web extends AndroidNonvisibleComponent implements Component {
 
   private static final String LOG_TAG = "Web";
 
+  // The size of the chunks in which request files and saved responses are copied.
+  private static final int COPY_BUFFER_SIZE = 0x2000;
+
+  // The shortest time between two UploadProgress or DownloadProgress events of a request.
+  private static final long PROGRESS_INTERVAL_MS = 100;
+
   private static final Map<String, String> mimeTypeToExtension;
   static {
     mimeTypeToExtension = Maps.newHashMap();
@@ -354,7 +361,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       @Override
       public void run() {
         try {
@@ -428,7 +435,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       @Override
       public void run() {
         try {
@@ -501,7 +508,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       @Override
       public void run() {
         try {
@@ -538,7 +545,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       @Override
       public void run() {
         try {
@@ -581,7 +588,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       return;
     }
 
-    AsynchUtil.runAsynchronously(new Runnable() {
+    AsynchUtil.runAsynchronously(this, new Runnable() {
       @Override
       public void run() {
         // Convert text to bytes using the encoding.
@@ -644,6 +651,37 @@ public class Web extends AndroidNonvisibleComponent implements Component {
   }
 
 
+  /**
+   * Event indicating the progress of sending the file of a PostFile or PutFile request.
+   *
+   * @param url the URL used for the request
+   * @param bytesSent the number of bytes of the file sent so far
+   * @param totalBytes the size of the file, or -1 if it is not known
+   */
+  @SimpleEvent(description = "Indicates the progress of sending the file of a PostFile or " +
+      "PutFile request. The event is signaled at most ten times a second while the file is " +
+      "sent, and once when all of it has been sent. totalBytes is -1 if the size of the file " +
+      "is not known.")
+  public void UploadProgress(String url, long bytesSent, long totalBytes) {
+    EventDispatcher.dispatchEvent(this, "UploadProgress", url, bytesSent, totalBytes);
+  }
+
+  /**
+   * Event indicating the progress of saving the response of a request when the
+   * SaveResponse property is true.
+   *
+   * @param url the URL used for the request
+   * @param bytesReceived the number of bytes of the response saved so far
+   * @param totalBytes the size of the response, or -1 if it is not known
+   */
+  @SimpleEvent(description = "Indicates the progress of saving the response of a request " +
+      "when SaveResponse is true. The event is signaled at most ten times a second while the " +
+      "response is saved, and once when all of it has been saved, before the GotFile event. " +
+      "totalBytes is -1 if the server did not send the size of the response.")
+  public void DownloadProgress(String url, long bytesReceived, long totalBytes) {
+    EventDispatcher.dispatchEvent(this, "DownloadProgress", url, bytesReceived, totalBytes);
+  }
+
   /**
    * Converts a list of two-element sublists, representing name and value pairs, to a
    * string formatted as application/x-www-form-urlencoded media type, suitable to pass to
@@ -879,7 +917,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
         if (postData != null) {
           writeRequestData(connection, postData);
         } else if (postFile != null) {
-          writeRequestFile(connection, postFile);
+          writeRequestFile(connection, postFile, webProps.urlString);
         }
 
         // Get the response.
@@ -889,7 +927,7 @@ public class Web extends AndroidNonvisibleComponent implements Component {
 
         if (saveResponse) {
           final String path = saveResponseContent(connection, webProps.responseFileName,
-              responseType);
+              responseType, webProps.urlString);
 
           // Dispatch the event.
           activity.runOnUiThread(new Runnable() {
@@ -976,12 +1014,14 @@ public class Web extends AndroidNonvisibleComponent implements Component {
     }
   }
 
-  private void writeRequestFile(HttpURLConnection connection, String path)
+  private void writeRequestFile(HttpURLConnection connection, String path, String url)
       throws IOException {
     // Use MediaUtil.openMedia to open the file. This means that path could be file on the SD card,
     // an asset, a contact picture, etc.
-    BufferedInputStream in = new BufferedInputStream(MediaUtil.openMedia(form, path));
+    InputStream in = MediaUtil.openMedia(form, path);
     try {
+      // The size of other media, such as assets and contact pictures, isn't reported.
+      long totalBytes = (in instanceof FileInputStream) ? in.available() : -1;
       // Write the file's data.
       // According to the documentation at
       // http://developer.android.com/reference/java/net/HttpURLConnection.html
@@ -989,15 +1029,9 @@ public class Web extends AndroidNonvisibleComponent implements Component {
       // been called.
       connection.setDoOutput(true); // This makes it something other than a HTTP GET.
       connection.setChunkedStreamingMode(0);
-      BufferedOutputStream out = new BufferedOutputStream(connection.getOutputStream());
+      OutputStream out = connection.getOutputStream();
       try {
-        while (true) {
-          int b = in.read();
-          if (b == -1) {
-            break;
-          }
-          out.write(b);
-        }
+        copyWithProgress(in, out, url, totalBytes, true);
         out.flush();
       } finally {
         out.close();
@@ -1048,22 +1082,16 @@ public class Web extends AndroidNonvisibleComponent implements Component {
     }
   }
 
-  private static String saveResponseContent(HttpURLConnection connection,
-      String responseFileName, String responseType) throws IOException {
+  private String saveResponseContent(HttpURLConnection connection,
+      String responseFileName, String responseType, String url) throws IOException {
     File file = createFile(responseFileName, responseType);
 
-    BufferedInputStream in = new BufferedInputStream(getConnectionStream(connection), 0x1000);
+    InputStream in = getConnectionStream(connection);
     try {
-      BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file), 0x1000);
+      OutputStream out = new FileOutputStream(file);
       try {
         // Copy the contents from the input stream to the output stream.
-        while (true) {
-          int b = in.read();
-          if (b == -1) {
-            break;
-          }
-          out.write(b);
-        }
+        copyWithProgress(in, out, url, connection.getContentLength(), false);
         out.flush();
       } finally {
         out.close();
@@ -1075,6 +1103,44 @@ public class Web extends AndroidNonvisibleComponent implements Component {
     return file.getAbsolutePath();
   }
 
+  /*
+   * Copies the contents of the input stream to the output stream in chunks,
+   * which is much faster than copying one byte at a time, even through
+   * buffered streams. Signals the UploadProgress or DownloadProgress event at
+   * most every PROGRESS_INTERVAL_MS, and once at the end.
+   */
+  private void copyWithProgress(InputStream in, OutputStream out, String url, long totalBytes,
+      boolean upload) throws IOException {
+    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+    long bytesCopied = 0;
+    long lastProgressTime = System.currentTimeMillis();
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      out.write(buffer, 0, count);
+      bytesCopied += count;
+      long now = System.currentTimeMillis();
+      if (now - lastProgressTime >= PROGRESS_INTERVAL_MS) {
+        lastProgressTime = now;
+        postProgress(url, bytesCopied, totalBytes, upload);
+      }
+    }
+    postProgress(url, bytesCopied, totalBytes, upload);
+  }
+
+  private void postProgress(final String url, final long bytesCopied, final long totalBytes,
+      final boolean upload) {
+    activity.runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        if (upload) {
+          UploadProgress(url, bytesCopied, totalBytes);
+        } else {
+          DownloadProgress(url, bytesCopied, totalBytes);
+        }
+      }
+    });
+  }
+
   private static InputStream getConnectionStream(HttpURLConnection connection) {
     // According to the Android reference documentation for HttpURLConnection: If the HTTP response
     // indicates that an error occurred, getInputStream() will throw an IOException. Use
@@ -1,6 +1,6 @@
 // -*- mode: java; c-basic-offset: 2; -*-
 // Copyright 2009-2011 Google, All Rights reserved
-// Copyright 2011-2012 MIT, All rights reserved
+// Copyright 2011-2019 MIT, All rights reserved
 // Released under the Apache License, Version 2.0
 // http://www.apache.org/licenses/LICENSE-2.0
 
@@ -8,32 +8,197 @@ package com.google.appinventor.components.runtime.util;
 
 import android.os.Handler;
 
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Utilities for handling asynchronous calls.
  *
+ * <p>Calls run on a shared pool of threads. A call runs on an idle thread if
+ * there is one, and otherwise on a new thread, so a call never waits behind
+ * calls that block for a long time, such as a Bluetooth accept or a Web
+ * request without a timeout. Threads stop after being idle for a while, so an
+ * app that makes many short calls reuses a few threads instead of starting a
+ * new thread for each call. Only calls made while {@link #MAX_THREADS} calls
+ * are running wait in a queue.</p>
+ *
+ * <p>Calls can be made on behalf of an owner, usually a component. At most
+ * {@link #MAX_CALLS_PER_OWNER} calls of an owner run at once, so that one
+ * component making many calls, such as a Web component called from a Clock,
+ * cannot take every thread of the pool.</p>
+ *
  * @author markf@google.com (Mark Friedman)
  */
 
 public class AsynchUtil {
 
+  /**
+   * The largest number of threads that run asynchronous calls.
+   */
+  public static final int MAX_THREADS = 64;
+
+  /**
+   * The largest number of calls of one owner that run at once.
+   */
+  public static final int MAX_CALLS_PER_OWNER = 4;
+
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private static final AtomicInteger threadsCreated = new AtomicInteger(0);
+
+  // The number of calls given to the executor that have not finished.
+  private static final AtomicInteger submittedCalls = new AtomicInteger(0);
+
+  /*
+   * The queue of the executor. A ThreadPoolExecutor only starts threads
+   * beyond its core threads when its queue refuses a call, so this queue
+   * refuses calls while there are fewer idle threads than calls to run and
+   * more threads can be started. Calls it refuses when no more threads can be
+   * started are queued by the executor's rejection handler.
+   */
+  private static class CallQueue extends LinkedBlockingQueue<Runnable> {
+    @Override
+    public boolean offer(Runnable call) {
+      if (submittedCalls.get() > executor.getPoolSize()
+          && executor.getPoolSize() < executor.getMaximumPoolSize()) {
+        return false;
+      }
+      return super.offer(call);
+    }
+
+    boolean force(Runnable call) {
+      return super.offer(call);
+    }
+  }
+
+  private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+      0, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+      new CallQueue(),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          return new Thread(runnable, "AsynchUtil-" + threadsCreated.incrementAndGet());
+        }
+      },
+      new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable call, ThreadPoolExecutor executor) {
+          ((CallQueue) executor.getQueue()).force(call);
+        }
+      }) {
+    @Override
+    protected void afterExecute(Runnable call, Throwable thrown) {
+      submittedCalls.decrementAndGet();
+    }
+  };
+
+  // The calls of each owner that are waiting for one of the owner's running calls to finish.
+  private static final Map<Object, OwnerCalls> ownerCalls = new HashMap<Object, OwnerCalls>();
+
+  private static class OwnerCalls {
+    private int running = 0;
+    private final Queue<Runnable> waiting = new LinkedList<Runnable>();
+  }
+
+  /*
+   * A call that can be cancelled. Exceptions thrown by the call are rethrown
+   * on the thread that ran it, just as they were when each call had a thread
+   * of its own, so that they still reach the uncaught exception handler.
+   */
+  private static class Call extends FutureTask<Void> {
+    Call(Runnable call) {
+      super(call, null);
+    }
+
+    @Override
+    protected void done() {
+      if (isCancelled()) {
+        return;
+      }
+      try {
+        get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new RuntimeException(cause);
+      }
+    }
+  }
+
   /**
    * Make an asynchronous call in a separate thread.
    * @param call a {@link Runnable} to run in the thread.
+   * @return a {@link Future} that can be used to cancel the call or wait for it to finish
    */
-  public static void runAsynchronously(final Runnable call) {
-    Thread thread = new Thread(call);
-    thread.start();
+  public static Future<?> runAsynchronously(final Runnable call) {
+    Call task = new Call(call);
+    execute(task);
+    return task;
   }
+
+  /**
+   * Make an asynchronous call in a separate thread on behalf of an owner.
+   * If {@link #MAX_CALLS_PER_OWNER} calls of the owner are already running,
+   * the call waits until one of them finishes.
+   * @param owner the owner of the call, usually the component making it.
+   * @param call a {@link Runnable} to run in the thread.
+   * @return a {@link Future} that can be used to cancel the call or wait for it to finish
+   */
+  public static Future<?> runAsynchronously(final Object owner, final Runnable call) {
+    final Call task = new Call(call);
+    Runnable runnable = new Runnable() {
+      public void run() {
+        try {
+          task.run();
+        } finally {
+          finishOwnerCall(owner);
+        }
+      }
+    };
+    synchronized (ownerCalls) {
+      OwnerCalls calls = ownerCalls.get(owner);
+      if (calls == null) {
+        calls = new OwnerCalls();
+        ownerCalls.put(owner, calls);
+      }
+      if (calls.running >= MAX_CALLS_PER_OWNER) {
+        calls.waiting.add(runnable);
+        return task;
+      }
+      calls.running++;
+    }
+    execute(runnable);
+    return task;
+  }
+
   /**
    * Make an asynchronous call in a separate thread, with a callback that's run on the current
    * Android UI thread.
    * @param androidUIHandler  the Handler from the current Android context
    * @param call a {@link Runnable} to run in the thread.
    * @param callback a {@link Runnable} to run in the Android UI thread when the call above returns
+   * @return a {@link Future} that can be used to cancel the call or wait for it to finish
    */
-  public static void runAsynchronously(final Handler androidUIHandler,
-                                       final Runnable call,
-                                       final Runnable callback) {
+  public static Future<?> runAsynchronously(final Handler androidUIHandler,
+                                            final Runnable call,
+                                            final Runnable callback) {
     Runnable runnable = new Runnable() {
       public void run() {
         call.run();
@@ -46,7 +211,58 @@ public class AsynchUtil {
         }
       }
     };
-    Thread thread = new Thread(runnable);
-    thread.start();
+    return runAsynchronously(runnable);
+  }
+
+  /**
+   * Returns the number of threads that have been created to run asynchronous calls.
+   */
+  public static int getThreadsCreated() {
+    return threadsCreated.get();
+  }
+
+  /**
+   * Returns the number of calls that are running.
+   */
+  public static int getRunningCalls() {
+    return executor.getActiveCount();
+  }
+
+  /**
+   * Returns the number of calls that are waiting, either for a thread or
+   * for another call of their owner to finish.
+   */
+  public static int getWaitingCalls() {
+    int waiting = executor.getQueue().size();
+    synchronized (ownerCalls) {
+      for (OwnerCalls calls : ownerCalls.values()) {
+        waiting += calls.waiting.size();
+      }
+    }
+    return waiting;
+  }
+
+  /*
+   * Starts the next waiting call of the owner, if there is one.
+   */
+  private static void finishOwnerCall(Object owner) {
+    Runnable next;
+    synchronized (ownerCalls) {
+      OwnerCalls calls = ownerCalls.get(owner);
+      next = calls.waiting.poll();
+      if (next == null) {
+        calls.running--;
+        if (calls.running == 0) {
+          ownerCalls.remove(owner);
+        }
+        return;
+      }
+    }
+    execute(next);
+  }
+
+  private static void execute(Runnable call) {
+    submittedCalls.incrementAndGet();
+    executor.execute(call);
   }
 }
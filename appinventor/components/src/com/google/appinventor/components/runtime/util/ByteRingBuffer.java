@@ -0,0 +1,214 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A fixed-size buffer of bytes read from an input stream by one thread and
+ * taken out by another thread.
+ *
+ * <p>The writing thread calls {@link #readFrom(InputStream)}, which reads as
+ * many bytes as the stream has ready, up to the free space of the buffer,
+ * with one call to the stream. The reading thread takes out bytes in bulk
+ * with {@link #read(byte[], int, int)}, after waiting for them with
+ * {@link #awaitBytes(int)} or {@link #awaitByte(byte)} if it must. The
+ * buffer wraps around, so bytes are never moved once they are in it.</p>
+ *
+ * <p>When the buffer is full, the writing thread waits until bytes are taken
+ * out. When the stream ends, or reading it fails, the writing thread calls
+ * {@link #close(IOException)}, after which the reading thread can still take
+ * out the bytes left in the buffer.</p>
+ *
+ */
+public class ByteRingBuffer {
+  private final byte[] buffer;
+  // Index of the first byte in the buffer.
+  private int start;
+  // Number of bytes in the buffer.
+  private int size;
+  private boolean closed;
+  private IOException error;
+
+  /**
+   * Creates a buffer that holds up to the given number of bytes.
+   *
+   * @param capacity  the number of bytes the buffer holds
+   */
+  public ByteRingBuffer(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    buffer = new byte[capacity];
+  }
+
+  /**
+   * Returns the number of bytes the buffer holds when it is full.
+   */
+  public int capacity() {
+    return buffer.length;
+  }
+
+  /**
+   * Returns the number of bytes in the buffer.
+   */
+  public synchronized int available() {
+    return size;
+  }
+
+  /**
+   * Returns whether the buffer was closed. Bytes may be left in a closed
+   * buffer.
+   */
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Returns the exception the buffer was closed with, or null if it is open
+   * or was closed at the end of the stream.
+   */
+  public synchronized IOException getError() {
+    return error;
+  }
+
+  /**
+   * Marks the end of the bytes that will be put in the buffer, and wakes up
+   * any thread waiting on the buffer. Only the first call has an effect.
+   *
+   * @param error  the exception that stopped the stream from being read, or
+   *        null if the stream ended or is no longer read
+   */
+  public synchronized void close(IOException error) {
+    if (!closed) {
+      closed = true;
+      this.error = error;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Reads bytes from the given stream into the free space of the buffer,
+   * waiting for space if the buffer is full. Only one thread may call this.
+   *
+   * @param in  the stream to read from
+   * @return  the number of bytes read, or -1 if the stream ended or the
+   *          buffer was closed
+   * @throws IOException  if reading the stream fails
+   * @throws InterruptedException  if the thread is interrupted while waiting
+   *         for space
+   */
+  public int readFrom(InputStream in) throws IOException, InterruptedException {
+    int end;
+    int length;
+    synchronized (this) {
+      while (size == buffer.length && !closed) {
+        wait();
+      }
+      if (closed) {
+        return -1;
+      }
+      end = (start + size) % buffer.length;
+      // Read into the free bytes up to the end of the array, since the
+      // stream reads into a contiguous range. The bytes at the start of the
+      // array are read into by the next call.
+      length = end < start ? start - end : buffer.length - end;
+    }
+    // The free space is not touched by the reading thread, so the stream is
+    // read without holding the lock.
+    int count = in.read(buffer, end, length);
+    if (count > 0) {
+      synchronized (this) {
+        size += count;
+        notifyAll();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Takes up to the given number of bytes out of the buffer, without
+   * waiting.
+   *
+   * @param dest  the array to copy the bytes into
+   * @param offset  the index in dest of the first byte
+   * @param length  the largest number of bytes to take
+   * @return  the number of bytes taken, which is 0 if the buffer is empty
+   */
+  public synchronized int read(byte[] dest, int offset, int length) {
+    int count = Math.min(length, size);
+    int firstPart = Math.min(count, buffer.length - start);
+    System.arraycopy(buffer, start, dest, offset, firstPart);
+    System.arraycopy(buffer, 0, dest, offset + firstPart, count - firstPart);
+    start = (start + count) % buffer.length;
+    size -= count;
+    if (count > 0) {
+      notifyAll();
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of bytes up to and including the first byte in the
+   * buffer that has the given value, or -1 if no byte has the value.
+   *
+   * @param value  the value to look for
+   */
+  public synchronized int indexOf(byte value) {
+    return indexOf(value, 0);
+  }
+
+  private int indexOf(byte value, int from) {
+    for (int i = from; i < size; i++) {
+      if (buffer[(start + i) % buffer.length] == value) {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Waits until the buffer holds at least the given number of bytes, or is
+   * full, or is closed.
+   *
+   * @param count  the number of bytes to wait for
+   * @return  the number of bytes in the buffer
+   * @throws InterruptedException  if the thread is interrupted while waiting
+   */
+  public synchronized int awaitBytes(int count) throws InterruptedException {
+    while (size < count && size < buffer.length && !closed) {
+      wait();
+    }
+    return size;
+  }
+
+  /**
+   * Waits until the buffer holds a byte with the given value, or is full, or
+   * is closed.
+   *
+   * @param value  the value to wait for
+   * @return  the number of bytes up to and including the first byte with the
+   *          value, or -1 if the buffer was filled or closed without one
+   * @throws InterruptedException  if the thread is interrupted while waiting
+   */
+  public synchronized int awaitByte(byte value) throws InterruptedException {
+    int searched = 0;
+    while (true) {
+      // Bytes are only taken out by the thread calling this, so the bytes
+      // already searched don't need to be searched again.
+      int index = indexOf(value, searched);
+      if (index != -1) {
+        return index;
+      }
+      if (size == buffer.length || closed) {
+        return -1;
+      }
+      searched = size;
+      wait();
+    }
+  }
+}
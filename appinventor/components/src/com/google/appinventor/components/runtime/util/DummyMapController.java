@@ -204,6 +204,11 @@ class DummyMapController implements MapController {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public void setFeatureCulled(MapFeature feature, boolean culled) {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public void showInfobox(MapFeature feature) {
     throw new UnsupportedOperationException();
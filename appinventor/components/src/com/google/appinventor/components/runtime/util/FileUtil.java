@@ -13,8 +13,6 @@ import com.google.appinventor.components.runtime.errors.YailRuntimeError;
 import android.Manifest;
 import android.os.Environment;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -229,16 +227,11 @@ public class FileUtil {
   }
 
   private static void copy(InputStream in, OutputStream out) throws IOException {
-    out = new BufferedOutputStream(out, 0x1000);
-    in = new BufferedInputStream(in, 0x1000);
-
-    // Copy the contents from the input stream to the output stream.
-    while (true) {
-      int b = in.read();
-      if (b == -1) {
-        break;
-      }
-      out.write(b);
+    // Copy the contents from the input stream to the output stream, in chunks.
+    byte[] buffer = new byte[0x1000];
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      out.write(buffer, 0, count);
     }
     out.flush();
   }
@@ -0,0 +1,458 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import org.json.JSONException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the features of a GeoJSON document from a stream, one feature at a
+ * time, without reading the whole document into memory first.
+ *
+ * <p>Each feature is returned as a description: a YailList of (key, value)
+ * pairs for a JSON object and a YailList of items for a JSON array, with JSON
+ * nulls left out. This is the form taken by
+ * {@link GeoJSONUtil#processGeoJSONFeature}. Members of the root object other
+ * than "type" and "features" are skipped without being kept.</p>
+ *
+ * <p>The descriptions returned by a reader are charged against a budget of
+ * bytes, estimated from the number of values and the length of the strings in
+ * them. A document that goes over the budget fails with a JSONException rather
+ * than running out of memory.</p>
+ */
+public class GeoJSONReader implements Closeable {
+  private static final String GEOJSON_FEATURES = "features";
+  private static final String GEOJSON_TYPE = "type";
+
+  // Estimated size of a value in a description, including the list cell that holds it.
+  private static final int BYTES_PER_VALUE = 48;
+  private static final int BUFFER_SIZE = 0x2000;
+
+  private static final int STATE_START = 0;
+  private static final int STATE_ROOT = 1;
+  private static final int STATE_FEATURES = 2;
+  private static final int STATE_END = 3;
+
+  private final Reader in;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private final StringBuilder token = new StringBuilder();
+  private int pos = 0;
+  private int limit = 0;
+  // Number of characters before the start of the buffer, for error messages.
+  private long offset = 0;
+
+  private final long maxBytes;
+  private long bytes = 0;
+
+  private int state = STATE_START;
+  private boolean firstMember = true;
+  private boolean firstFeature = true;
+  private boolean hasFeatures = false;
+  private String type = null;
+
+  /**
+   * Creates a reader of the given stream, which is read as it is needed.
+   *
+   * @param in  the stream of GeoJSON text
+   * @param maxBytes  the estimated number of bytes the returned features may
+   *        take up in total
+   */
+  public GeoJSONReader(Reader in, long maxBytes) {
+    this.in = in;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the next feature of the document, or null after the last one.
+   * After null is returned, {@link #getType()} and {@link #hasFeatures()}
+   * describe the whole document.
+   *
+   * @return  the description of the feature, or null if there are no more
+   * @throws IOException  if reading the stream fails
+   * @throws JSONException  if the document is not a well-formed JSON object,
+   *         a feature is not an object, or the document is over the budget
+   */
+  public YailList nextFeature() throws IOException, JSONException {
+    while (true) {
+      switch (state) {
+        case STATE_START:
+          if (peek() == '\uFEFF') {
+            pos++;
+          }
+          expect('{');
+          state = STATE_ROOT;
+          break;
+        case STATE_ROOT:
+          if (readMember()) {
+            state = STATE_END;
+          }
+          break;
+        case STATE_FEATURES:
+          skipWhitespace();
+          if (peek() == ']') {
+            pos++;
+            state = STATE_ROOT;
+            break;
+          }
+          if (!firstFeature) {
+            expect(',');
+          }
+          firstFeature = false;
+          skipWhitespace();
+          if (peek() != '{') {
+            throw syntaxError("Expected a feature object");
+          }
+          return (YailList) readValue();
+        default:
+          return null;
+      }
+    }
+  }
+
+  /**
+   * Returns the type of the root object, or null if it has none. This is only
+   * known for certain once {@link #nextFeature()} has returned null.
+   */
+  public String getType() {
+    return type;
+  }
+
+  /**
+   * Returns whether the root object has a features member.
+   */
+  public boolean hasFeatures() {
+    return hasFeatures;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /*
+   * Reads the next member of the root object, except that the features array
+   * is only opened. Returns true if the end of the root object was read.
+   */
+  private boolean readMember() throws IOException, JSONException {
+    skipWhitespace();
+    if (peek() == '}') {
+      pos++;
+      skipWhitespace();
+      if (peek() != -1) {
+        throw syntaxError("Unexpected text after the GeoJSON object");
+      }
+      return true;
+    }
+    if (!firstMember) {
+      expect(',');
+      skipWhitespace();
+    }
+    firstMember = false;
+    expect('"');
+    String key = readString();
+    expect(':');
+    skipWhitespace();
+    if (GEOJSON_FEATURES.equals(key)) {
+      expect('[');
+      hasFeatures = true;
+      firstFeature = true;
+      state = STATE_FEATURES;
+    } else if (GEOJSON_TYPE.equals(key) && peek() == '"') {
+      pos++;
+      type = readString();
+    } else {
+      skipValue();
+    }
+    return false;
+  }
+
+  /*
+   * Reads a value, which must start at the current position.
+   */
+  private Object readValue() throws IOException, JSONException {
+    int c = read();
+    switch (c) {
+      case '{': {
+        List<YailList> pairs = new ArrayList<YailList>();
+        skipWhitespace();
+        if (peek() == '}') {
+          pos++;
+        } else {
+          do {
+            skipWhitespace();
+            expect('"');
+            String key = readString();
+            expect(':');
+            skipWhitespace();
+            Object value = readValue();
+            if (value != null) {
+              charge(BYTES_PER_VALUE);
+              pairs.add(YailList.makeList(new Object[] { key, value }));
+            }
+            skipWhitespace();
+          } while (readSeparator('}'));
+        }
+        charge(BYTES_PER_VALUE);
+        return YailList.makeList(pairs);
+      }
+      case '[': {
+        List<Object> items = new ArrayList<Object>();
+        skipWhitespace();
+        if (peek() == ']') {
+          pos++;
+        } else {
+          do {
+            skipWhitespace();
+            Object value = readValue();
+            if (value != null) {
+              items.add(value);
+            }
+            skipWhitespace();
+          } while (readSeparator(']'));
+        }
+        charge(BYTES_PER_VALUE);
+        return YailList.makeList(items);
+      }
+      case '"': {
+        String value = readString();
+        charge(BYTES_PER_VALUE + 2L * value.length());
+        return value;
+      }
+      case -1:
+        throw syntaxError("Unexpected end of GeoJSON");
+      default:
+        pos--;
+        charge(BYTES_PER_VALUE);
+        return readLiteral();
+    }
+  }
+
+  /*
+   * Reads the ',' between members or items, returning true, or the closing
+   * character, returning false.
+   */
+  private boolean readSeparator(char close) throws IOException, JSONException {
+    int c = read();
+    if (c == ',') {
+      return true;
+    } else if (c == close) {
+      return false;
+    }
+    throw syntaxError("Expected ',' or '" + close + "'");
+  }
+
+  /*
+   * Reads a number, true, false or null. Numbers are read as an Integer or
+   * Long if they have no fraction or exponent and fit, and otherwise as a
+   * Double, in the same way as org.json.
+   */
+  private Object readLiteral() throws IOException, JSONException {
+    token.setLength(0);
+    while (true) {
+      int c = peek();
+      if (c == -1 || c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+        break;
+      }
+      token.append((char) c);
+      pos++;
+    }
+    String text = token.toString();
+    if (text.equals("true")) {
+      return Boolean.TRUE;
+    } else if (text.equals("false")) {
+      return Boolean.FALSE;
+    } else if (text.equals("null")) {
+      return null;
+    }
+    try {
+      if (text.indexOf('.') == -1 && text.indexOf('e') == -1 && text.indexOf('E') == -1) {
+        try {
+          long value = Long.parseLong(text);
+          if (value == (int) value) {
+            return (int) value;
+          }
+          return value;
+        } catch (NumberFormatException e) {
+          // Too large for a long, so it is read as a double.
+        }
+      }
+      return Double.parseDouble(text);
+    } catch (NumberFormatException e) {
+      throw syntaxError("Unexpected value \"" + text + "\"");
+    }
+  }
+
+  /*
+   * Reads the rest of a string whose opening quote has been read.
+   */
+  private String readString() throws IOException, JSONException {
+    token.setLength(0);
+    while (true) {
+      // Copy the characters up to the next quote or escape in one step.
+      int start = pos;
+      while (pos < limit && buffer[pos] != '"' && buffer[pos] != '\\') {
+        pos++;
+      }
+      token.append(buffer, start, pos - start);
+      int c = read();
+      if (c == '"') {
+        return token.toString();
+      } else if (c == '\\') {
+        token.append(readEscape());
+      } else if (c == -1) {
+        throw syntaxError("Unterminated string");
+      }
+    }
+  }
+
+  private char readEscape() throws IOException, JSONException {
+    int c = read();
+    switch (c) {
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u': {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(read(), 16);
+          if (digit == -1) {
+            throw syntaxError("Invalid escape sequence");
+          }
+          value = (value << 4) | digit;
+        }
+        return (char) value;
+      }
+      case '"':
+      case '\\':
+      case '/':
+        return (char) c;
+      default:
+        throw syntaxError("Invalid escape sequence");
+    }
+  }
+
+  /*
+   * Skips a value without keeping any of it.
+   */
+  private void skipValue() throws IOException, JSONException {
+    int depth = 0;
+    do {
+      int c = read();
+      switch (c) {
+        case -1:
+          throw syntaxError("Unterminated value");
+        case '{':
+        case '[':
+          depth++;
+          break;
+        case '}':
+        case ']':
+          depth--;
+          break;
+        case '"':
+          skipString();
+          break;
+        default:
+          if (depth == 0) {
+            pos--;
+            readLiteral();
+          }
+          break;
+      }
+    } while (depth > 0);
+  }
+
+  private void skipString() throws IOException, JSONException {
+    while (true) {
+      int c = read();
+      if (c == '"') {
+        return;
+      } else if (c == '\\') {
+        read();
+      } else if (c == -1) {
+        throw syntaxError("Unterminated string");
+      }
+    }
+  }
+
+  private void charge(long size) throws JSONException {
+    bytes += size;
+    if (bytes > maxBytes) {
+      throw new JSONException("GeoJSON document is too large to load");
+    }
+  }
+
+  private void expect(char expected) throws IOException, JSONException {
+    skipWhitespace();
+    if (read() != expected) {
+      throw syntaxError("Expected '" + expected + "'");
+    }
+  }
+
+  private void skipWhitespace() throws IOException {
+    while (true) {
+      while (pos < limit) {
+        if (!isWhitespace(buffer[pos])) {
+          return;
+        }
+        pos++;
+      }
+      if (!fill()) {
+        return;
+      }
+    }
+  }
+
+  private static boolean isWhitespace(int c) {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+  }
+
+  private int peek() throws IOException {
+    if (pos == limit && !fill()) {
+      return -1;
+    }
+    return buffer[pos];
+  }
+
+  private int read() throws IOException {
+    if (pos == limit && !fill()) {
+      return -1;
+    }
+    return buffer[pos++];
+  }
+
+  /*
+   * Reads more of the stream into the buffer, which has been used up.
+   * Returns false at the end of the stream.
+   */
+  private boolean fill() throws IOException {
+    offset += limit;
+    pos = 0;
+    limit = 0;
+    int count = in.read(buffer, 0, buffer.length);
+    if (count <= 0) {
+      return false;
+    }
+    limit = count;
+    return true;
+  }
+
+  private JSONException syntaxError(String message) {
+    return new JSONException(message + " at character " + (offset + pos));
+  }
+}
@@ -8,6 +8,7 @@ package com.google.appinventor.components.runtime.util;
 import android.graphics.Point;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Display;
 
 /**
@@ -23,4 +24,25 @@ public class JellybeanUtil {
     display.getRealSize(outSize);
   }
 
+  /**
+   * Returns a Choreographer.FrameCallback that passes the frame times to a timer. The result
+   * is an Object so that callers that run before Jellybean do not load Choreographer.
+   */
+  public static Object newFrameCallback(final TimerInternal timer) {
+    return new Choreographer.FrameCallback() {
+      @Override
+      public void doFrame(long frameTimeNanos) {
+        timer.doFrame(frameTimeNanos);
+      }
+    };
+  }
+
+  public static void postFrameCallback(Object callback) {
+    Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) callback);
+  }
+
+  public static void removeFrameCallback(Object callback) {
+    Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) callback);
+  }
+
 }
@@ -388,6 +388,16 @@ public final class MapFactory {
      */
     boolean isFeatureVisible(MapFeature feature);
 
+    /**
+     * Sets whether a feature is culled because it is outside of the bounds of the map. A culled
+     * feature is not drawn and does not respond to touches, but its visibility, as reported by
+     * {@link #isFeatureVisible(MapFeature)}, does not change.
+     *
+     * @param feature the feature to cull or restore
+     * @param culled true if the feature is outside of the bounds of the map, otherwise false
+     */
+    void setFeatureCulled(MapFeature feature, boolean culled);
+
     /**
      * Show the infobox attached to a map feature. The feature must have been
      * previously added via one of the addFeature calls and must be shown on the
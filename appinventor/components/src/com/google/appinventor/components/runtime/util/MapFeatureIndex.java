@@ -0,0 +1,165 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import com.google.appinventor.components.runtime.util.MapFactory.MapFeature;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An R-tree over the envelopes of a collection of map features, used to find
+ * the features within an area without looking at every feature.
+ *
+ * <p>The tree is a JTS {@link STRtree}, which is packed with all of the
+ * features at once when it is first queried and cannot be changed after that.
+ * Features that are added, removed or moved after the tree is built are kept
+ * in a small set of changed features instead: queries skip their entries in
+ * the tree and check their current envelopes one by one. The tree is rebuilt
+ * at the next query once that set grows past {@link #MIN_CHANGES_BEFORE_REBUILD}
+ * or a quarter of the features, or after {@link #invalidate()}.</p>
+ *
+ * <p>Envelopes are in degrees, with longitude as x and latitude as y, the same
+ * as {@link MapFeature#getGeometry()}.</p>
+ */
+public class MapFeatureIndex {
+  private static final int NODE_CAPACITY = 10;
+  private static final int MIN_CHANGES_BEFORE_REBUILD = 32;
+
+  private final Collection<? extends MapFeature> features;
+  private STRtree tree = null;
+  private int treeSize = 0;
+  // Features added, removed or moved since the tree was built, and which of them were removed.
+  private final Set<MapFeature> changed = new HashSet<MapFeature>();
+  private final Set<MapFeature> removed = new HashSet<MapFeature>();
+
+  /**
+   * Creates an index of the given features. The collection is read again
+   * every time the index is rebuilt, so it must be safe to iterate while it
+   * is changed, such as a {@link java.util.concurrent.CopyOnWriteArrayList}.
+   *
+   * @param features  the features to index
+   */
+  public MapFeatureIndex(Collection<? extends MapFeature> features) {
+    this.features = features;
+  }
+
+  /**
+   * Marks the whole index stale, so that it is rebuilt at the next query.
+   */
+  public synchronized void invalidate() {
+    tree = null;
+    changed.clear();
+    removed.clear();
+  }
+
+  /**
+   * Records that a feature was added to the collection.
+   *
+   * @param feature  the feature that was added
+   */
+  public synchronized void featureAdded(MapFeature feature) {
+    if (tree != null) {
+      changed.add(feature);
+      removed.remove(feature);
+    }
+  }
+
+  /**
+   * Records that a feature was removed from the collection.
+   *
+   * @param feature  the feature that was removed
+   */
+  public synchronized void featureRemoved(MapFeature feature) {
+    if (tree != null) {
+      changed.add(feature);
+      removed.add(feature);
+    }
+  }
+
+  /**
+   * Records that the geometry of a feature in the collection changed.
+   *
+   * @param feature  the feature that changed
+   */
+  public synchronized void featureChanged(MapFeature feature) {
+    if (tree != null) {
+      changed.add(feature);
+    }
+  }
+
+  /**
+   * Returns whether the index will be rebuilt at the next query.
+   */
+  public synchronized boolean isStale() {
+    return tree == null || changed.size() > Math.max(MIN_CHANGES_BEFORE_REBUILD, treeSize / 4);
+  }
+
+  /**
+   * Returns the features whose envelopes intersect the given bounds. The
+   * bounds cross the antimeridian if west is greater than east.
+   *
+   * @param north  the northern latitude of the bounds
+   * @param west  the western longitude of the bounds
+   * @param south  the southern latitude of the bounds
+   * @param east  the eastern longitude of the bounds
+   * @return  the features in the bounds
+   */
+  public Set<MapFeature> query(double north, double west, double south, double east) {
+    Set<MapFeature> result = new HashSet<MapFeature>();
+    if (west <= east) {
+      query(new Envelope(west, east, south, north), result);
+    } else {
+      query(new Envelope(west, 180, south, north), result);
+      query(new Envelope(-180, east, south, north), result);
+    }
+    return result;
+  }
+
+  private synchronized void query(Envelope envelope, Set<MapFeature> result) {
+    if (isStale()) {
+      invalidate();
+      tree = build();
+    }
+    @SuppressWarnings("unchecked")  // only features are inserted in the tree
+    List<MapFeature> found = tree.query(envelope);
+    for (MapFeature feature : found) {
+      // The envelope in the tree is out of date for a changed feature.
+      if (!changed.contains(feature)) {
+        result.add(feature);
+      }
+    }
+    for (MapFeature feature : changed) {
+      if (!removed.contains(feature)) {
+        Geometry geometry = feature.getGeometry();
+        if (geometry != null && !geometry.isEmpty()
+            && geometry.getEnvelopeInternal().intersects(envelope)) {
+          result.add(feature);
+        }
+      }
+    }
+  }
+
+  private STRtree build() {
+    STRtree tree = new STRtree(NODE_CAPACITY);
+    treeSize = 0;
+    for (MapFeature feature : features) {
+      Geometry geometry = feature.getGeometry();
+      // Features with no points have an empty envelope and are never found.
+      if (geometry != null && !geometry.isEmpty()) {
+        tree.insert(geometry.getEnvelopeInternal(), feature);
+        treeSize++;
+      }
+    }
+    tree.build();
+    return tree;
+  }
+}
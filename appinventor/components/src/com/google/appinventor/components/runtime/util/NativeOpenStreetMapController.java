@@ -570,6 +570,10 @@ class NativeOpenStreetMapController implements MapController, MapListener {
     polyline.setOnClickListener(new Polyline.OnClickListener() {
       @Override
       public boolean onClick(Polyline arg0, MapView arg1, GeoPoint arg2) {
+        if (!arg0.isEnabled()) {
+          // The shape is culled, so its hit area is from when it was last drawn.
+          return false;
+        }
         for (MapEventListener listener : eventListeners) {
           listener.onFeatureClick(aiPolyline);
         }
@@ -581,6 +585,10 @@ class NativeOpenStreetMapController implements MapController, MapListener {
 
       @Override
       public boolean onLongClick(Polyline arg0, MapView arg1, GeoPoint arg2) {
+        if (!arg0.isEnabled()) {
+          // The shape is culled, so its hit area is from when it was last drawn.
+          return false;
+        }
         for (MapEventListener listener : eventListeners) {
           listener.onFeatureLongPress(aiPolyline);
         }
@@ -622,6 +630,10 @@ class NativeOpenStreetMapController implements MapController, MapListener {
     polygon.setOnClickListener(new Polygon.OnClickListener() {
       @Override
       public boolean onLongClick(Polygon arg0, MapView arg1, GeoPoint arg2) {
+        if (!arg0.isEnabled()) {
+          // The shape is culled, so its hit area is from when it was last drawn.
+          return false;
+        }
         for (MapEventListener listener : eventListeners) {
           listener.onFeatureLongPress(component);
         }
@@ -630,6 +642,10 @@ class NativeOpenStreetMapController implements MapController, MapListener {
 
       @Override
       public boolean onClick(Polygon arg0, MapView arg1, GeoPoint arg2) {
+        if (!arg0.isEnabled()) {
+          // The shape is culled, so its hit area is from when it was last drawn.
+          return false;
+        }
         for (MapEventListener listener : eventListeners) {
           listener.onFeatureClick(component);
         }
@@ -1171,6 +1187,16 @@ class NativeOpenStreetMapController implements MapController, MapListener {
     return overlay != null && view.getOverlayManager().contains(overlay);
   }
 
+  @Override
+  public void setFeatureCulled(MapFeature feature, boolean culled) {
+    // Culled overlays stay in the overlay manager, which skips drawing disabled overlays, so that
+    // culling does not change whether the feature is visible.
+    OverlayWithIW overlay = featureOverlays.get(feature);
+    if (overlay != null) {
+      overlay.setEnabled(!culled);
+    }
+  }
+
   @Override
   public void showInfobox(MapFeature feature) {
     OverlayWithIW overlay = featureOverlays.get(feature);
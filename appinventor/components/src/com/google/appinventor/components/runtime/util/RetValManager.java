@@ -6,12 +6,17 @@
 
 package com.google.appinventor.components.runtime.util;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.google.appinventor.components.runtime.PhoneStatus;
 import com.google.appinventor.components.runtime.ReplForm;
 
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.zip.Deflater;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -22,6 +27,17 @@ import org.json.JSONObject;
  * A Class for managing return values from evaluating Repl Forms and
  * stashing them in a JSON Array for return to the Blocks Editor from the
  * Companion.
+ *
+ * When we are using webrtc, return values are sent in batches: a value
+ * waits up to FLUSH_WINDOW ms for others to join it, unless the pending
+ * values already fill a message. A message holds at most MAX_MESSAGE_SIZE
+ * characters, the same limit the Blocks Editor keeps to when it sends to us,
+ * so the pending values are split across as many messages as they need; a
+ * single value that is larger is sent in a message of its own, as before
+ * values were batched. Messages are held back while the data channel has
+ * more than HIGH_WATER_MARK bytes that it has not sent yet, and if the
+ * Blocks Editor has asked for it, messages of COMPRESS_THRESHOLD bytes or
+ * more are sent deflated in binary messages.
  */
 
 public class RetValManager {
@@ -29,10 +45,42 @@ public class RetValManager {
   private static final String LOG_TAG = "RetValManager";
   private static final Object semaphore = new Object();
   private static final long TENSECONDS = 10000; // Ten Seconds (in milliseconds)
+  private static final long FLUSH_WINDOW = 20; // ms
+  private static final int MAX_MESSAGE_SIZE = 15000; // characters
+  private static final String MESSAGE_START = "{\"status\":\"OK\",\"values\":[";
+  private static final String MESSAGE_END = "]}";
+  private static final int RETVAL_OVERHEAD = 64; // characters of JSON around each value
+  private static final int COMPRESS_THRESHOLD = 4 * 1024; // bytes
+  private static final long HIGH_WATER_MARK = 256 * 1024; // bytes
+  private static final long LOW_WATER_MARK = 64 * 1024; // bytes
+  private static final long DRAIN_RETRY = 100; // ms
 
   // There can be only one!
   private static ArrayList<JSONObject> currentArray = new ArrayList<JSONObject>(10);
 
+  // Only used for webrtc. pendingSize and flushScheduled are guarded by
+  // "semaphore". The others are volatile because the webrtc callback thread
+  // reads them without taking any lock.
+  private static int pendingSize = 0;          // Estimated characters in currentArray
+  private static boolean flushScheduled = false;
+  private static volatile boolean waitingForDrain = false;
+  private static volatile boolean compressionEnabled = false;
+  private static Handler handler;
+
+  // Held while a batch is sent, so that batches go out in order. Unlike
+  // "semaphore", it is held across calls into the data channel.
+  private static final Object sendLock = new Object();
+
+  private static final Runnable flusher = new Runnable() {
+      @Override
+      public void run() {
+        synchronized (semaphore) {
+          flushScheduled = false;
+        }
+        webRTCsendCurrent();
+      }
+    };
+
   // Need a better place for this version string, but for various reasons, this is how we
   // are going to do this for now...
 
@@ -49,46 +97,30 @@ public class RetValManager {
    * @param item The item to append
    */
   public static void appendReturnValue(String blockid, String ok, String item) {
-    synchronized (semaphore) {
-      JSONObject retval = new JSONObject();
-      try {
-        retval.put("status", ok);
-        retval.put("type", "return");
-        retval.put("value", item);
-        retval.put("blockid", blockid);
-      } catch (JSONException e) {
-        Log.e(LOG_TAG, "Error building retval", e);
-        return;
-      }
-      boolean sendNotify = currentArray.isEmpty();
-      currentArray.add(retval);
-      if (PhoneStatus.getUseWebRTC()) {
-        webRTCsendCurrent();
-      } else if (sendNotify) {
-        semaphore.notifyAll();
-      }
+    JSONObject retval = new JSONObject();
+    try {
+      retval.put("status", ok);
+      retval.put("type", "return");
+      retval.put("value", item);
+      retval.put("blockid", blockid);
+    } catch (JSONException e) {
+      Log.e(LOG_TAG, "Error building retval", e);
+      return;
     }
+    enqueue(retval);
   }
 
   public static void sendError(String error) {
-    synchronized (semaphore) {
-      JSONObject retval = new JSONObject();
-      try {
-        retval.put("status", "OK");
-        retval.put("type", "error");
-        retval.put("value", error);
-      } catch (JSONException e) {
-        Log.e(LOG_TAG, "Error building retval", e);
-        return;
-      }
-      boolean sendNotify = currentArray.isEmpty();
-      currentArray.add(retval);
-      if (PhoneStatus.getUseWebRTC()) {
-        webRTCsendCurrent();
-      } else if (sendNotify) {
-        semaphore.notifyAll();
-      }
+    JSONObject retval = new JSONObject();
+    try {
+      retval.put("status", "OK");
+      retval.put("type", "error");
+      retval.put("value", error);
+    } catch (JSONException e) {
+      Log.e(LOG_TAG, "Error building retval", e);
+      return;
     }
+    enqueue(retval);
   }
 
   /*
@@ -98,26 +130,18 @@ public class RetValManager {
    * @param value The value to hand it
    */
   public static void pushScreen(String screenName, Object value) {
-    synchronized (semaphore) {
-      JSONObject retval = new JSONObject();
-      try {
-        retval.put("status", "OK");
-        retval.put("type", "pushScreen");
-        retval.put("screen", screenName);
-        if (value != null)
-          retval.put("value", value.toString());
-      } catch (JSONException e) {
-        Log.e(LOG_TAG, "Error building retval", e);
-        return;
-      }
-      boolean sendNotify = currentArray.isEmpty();
-      currentArray.add(retval);
-      if (PhoneStatus.getUseWebRTC()) {
-        webRTCsendCurrent();
-      } else if (sendNotify) {
-        semaphore.notifyAll();
-      }
+    JSONObject retval = new JSONObject();
+    try {
+      retval.put("status", "OK");
+      retval.put("type", "pushScreen");
+      retval.put("screen", screenName);
+      if (value != null)
+        retval.put("value", value.toString());
+    } catch (JSONException e) {
+      Log.e(LOG_TAG, "Error building retval", e);
+      return;
     }
+    enqueue(retval);
   }
 
   /*
@@ -127,25 +151,17 @@ public class RetValManager {
    * @param value The value to hand it
    */
   public static void popScreen(String value) {
-    synchronized (semaphore) {
-      JSONObject retval = new JSONObject();
-      try {
-        retval.put("status", "OK");
-        retval.put("type", "popScreen");
-        if (value != null)
-          retval.put("value", value.toString());
-      } catch (JSONException e) {
-        Log.e(LOG_TAG, "Error building retval", e);
-        return;
-      }
-      boolean sendNotify = currentArray.isEmpty();
-      currentArray.add(retval);
-      if (PhoneStatus.getUseWebRTC()) {
-        webRTCsendCurrent();
-      } else if (sendNotify) {
-        semaphore.notifyAll();
-      }
+    JSONObject retval = new JSONObject();
+    try {
+      retval.put("status", "OK");
+      retval.put("type", "popScreen");
+      if (value != null)
+        retval.put("value", value.toString());
+    } catch (JSONException e) {
+      Log.e(LOG_TAG, "Error building retval", e);
+      return;
     }
+    enqueue(retval);
   }
 
   /*
@@ -154,25 +170,17 @@ public class RetValManager {
    * @param name name of the asset transferred
    */
   public static void assetTransferred(String name) {
-    synchronized (semaphore) {
-      JSONObject retval = new JSONObject();
-      try {
-        retval.put("status", "OK");
-        retval.put("type", "assetTransferred");
-        if (name != null)
-          retval.put("value", name.toString());
-      } catch (JSONException e) {
-        Log.e(LOG_TAG, "Error building retval", e);
-        return;
-      }
-      boolean sendNotify = currentArray.isEmpty();
-      currentArray.add(retval);
-      if (PhoneStatus.getUseWebRTC()) {
-        webRTCsendCurrent();
-      } else if (sendNotify) {
-        semaphore.notifyAll();
-      }
+    JSONObject retval = new JSONObject();
+    try {
+      retval.put("status", "OK");
+      retval.put("type", "assetTransferred");
+      if (name != null)
+        retval.put("value", name.toString());
+    } catch (JSONException e) {
+      Log.e(LOG_TAG, "Error building retval", e);
+      return;
     }
+    enqueue(retval);
   }
 
   /*
@@ -180,23 +188,15 @@ public class RetValManager {
    *
    */
   public static void extensionsLoaded() {
-    synchronized (semaphore) {
-      JSONObject retval = new JSONObject();
-      try {
-        retval.put("status", "OK");
-        retval.put("type", "extensionsLoaded");
-      } catch (JSONException e) {
-        Log.e(LOG_TAG, "Error building retval", e);
-        return;
-      }
-      boolean sendNotify = currentArray.isEmpty();
-      currentArray.add(retval);
-      if (PhoneStatus.getUseWebRTC()) {
-        webRTCsendCurrent();
-      } else if (sendNotify) {
-        semaphore.notifyAll();
-      }
+    JSONObject retval = new JSONObject();
+    try {
+      retval.put("status", "OK");
+      retval.put("type", "extensionsLoaded");
+    } catch (JSONException e) {
+      Log.e(LOG_TAG, "Error building retval", e);
+      return;
     }
+    enqueue(retval);
   }
 
   /*
@@ -233,19 +233,161 @@ public class RetValManager {
     }
   }
 
-  // Only used for webrtc. Note: Our caller is holding "semphore" so we don't
-  // need to worry about multi-thread synchonization here
+  /*
+   * setCompressionEnabled -- Called by the Blocks Editor when it can
+   * inflate binary messages.
+   *
+   * @param enabled true if large batches may be sent compressed
+   */
+  public static void setCompressionEnabled(boolean enabled) {
+    compressionEnabled = enabled;
+  }
+
+  /*
+   * bufferedAmountChanged -- Called by WebRTCNativeMgr when the number of
+   * bytes the data channel has not sent yet changes. Sends the batch that
+   * was held back as soon as the channel has drained.
+   *
+   * We are called on the webrtc signaling thread, which a thread sending a
+   * batch waits for, so we must not take "semaphore" or "sendLock" here. We
+   * only post the flusher, which takes them on the main thread.
+   *
+   * @param bufferedAmount the number of bytes not sent yet
+   */
+  public static void bufferedAmountChanged(long bufferedAmount) {
+    if (waitingForDrain && bufferedAmount <= LOW_WATER_MARK) {
+      waitingForDrain = false;
+      getHandler().post(flusher);
+    }
+  }
+
+  private static void enqueue(JSONObject retval) {
+    boolean sendNow = false;
+    synchronized (semaphore) {
+      boolean sendNotify = currentArray.isEmpty();
+      currentArray.add(retval);
+      if (PhoneStatus.getUseWebRTC()) {
+        pendingSize += estimateSize(retval);
+        if (pendingSize >= MAX_MESSAGE_SIZE && !waitingForDrain) {
+          sendNow = true;
+        } else if (!flushScheduled) {
+          flushScheduled = true;
+          getHandler().postDelayed(flusher, FLUSH_WINDOW);
+        }
+      } else if (sendNotify) {
+        semaphore.notifyAll();
+      }
+    }
+    if (sendNow) {
+      webRTCsendCurrent();
+    }
+  }
+
+  private static synchronized Handler getHandler() {
+    if (handler == null) {
+      handler = new Handler(Looper.getMainLooper());
+    }
+    return handler;
+  }
+
+  private static int estimateSize(JSONObject retval) {
+    return retval.optString("value").length() + RETVAL_OVERHEAD;
+  }
+
+  // Only used for webrtc. Our caller must not hold "semaphore": asking the
+  // data channel for its buffered amount and sending on it both wait for the
+  // webrtc signaling thread.
   private static void webRTCsendCurrent() {
+    synchronized (sendLock) {
+      while (true) {
+        long bufferedAmount = ReplForm.getRetvalsBufferedAmount();
+        String output;
+        synchronized (semaphore) {
+          if (currentArray.isEmpty()) {
+            return;
+          }
+          if (bufferedAmount > HIGH_WATER_MARK) {
+            // The Blocks Editor is not keeping up. Keep the values, and send
+            // them with the ones that arrive meanwhile once the channel
+            // drains. We also retry in case we are never told that it has.
+            waitingForDrain = true;
+            if (!flushScheduled) {
+              flushScheduled = true;
+              getHandler().postDelayed(flusher, DRAIN_RETRY);
+            }
+            return;
+          }
+          waitingForDrain = false;
+          output = takeMessage();
+        }
+        byte[] compressed = compressionEnabled ? compress(output) : null;
+        if (compressed != null) {
+          ReplForm.returnCompressedRetvals(compressed);
+        } else {
+          ReplForm.returnRetvals(output);
+        }
+      }
+    }
+  }
+
+  /*
+   * Remove the values that fit in one message from the front of
+   * currentArray, and return the message. There is always at least one
+   * value in the message. Our caller must hold "semaphore".
+   */
+  private static String takeMessage() {
+    StringBuilder output = new StringBuilder(MESSAGE_START);
+    int count = 0;
+    for (JSONObject retval : currentArray) {
+      String value = retval.toString();
+      int size = output.length() + value.length() + MESSAGE_END.length() + 1;
+      if (count > 0 && size > MAX_MESSAGE_SIZE) {
+        break;
+      }
+      if (count > 0) {
+        output.append(',');
+      }
+      output.append(value);
+      pendingSize -= estimateSize(retval);
+      count++;
+    }
+    currentArray.subList(0, count).clear();
+    if (currentArray.isEmpty()) {
+      pendingSize = 0;
+    }
+    return output.append(MESSAGE_END).toString();
+  }
+
+  /*
+   * Deflate a batch for sending, or return null if it is too small to be
+   * worth it or does not get smaller.
+   */
+  private static byte[] compress(String output) {
+    byte[] input;
     try {
-      JSONObject output = new JSONObject();
-      output.put("status", "OK");
-      output.put("values", new JSONArray(currentArray));
-      ReplForm.returnRetvals(output.toString());
-    } catch (JSONException e) {
-      Log.e(LOG_TAG, "Error building retval", e);
-      return;
+      input = output.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      return null;            // Cannot happen, UTF-8 is always supported
+    }
+    if (input.length < COMPRESS_THRESHOLD) {
+      return null;
+    }
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(input);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 4);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+        if (out.size() >= input.length) {
+          return null;
+        }
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
     }
-    currentArray.clear();
   }
 
 }
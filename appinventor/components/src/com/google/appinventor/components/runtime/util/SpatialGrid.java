@@ -0,0 +1,173 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A uniform grid of square cells that finds the items whose bounding boxes
+ * may intersect a given bounding box, without looking at every item.
+ *
+ * <p>Each item is recorded in every cell that its bounding box touches.
+ * Items that would touch more than {@link #MAX_CELLS_PER_ITEM} cells are
+ * kept in a separate list and are returned by every query.</p>
+ *
+ * @param <T> the type of the items
+ */
+public final class SpatialGrid<T> {
+  /**
+   * The largest number of cells an item is recorded in.
+   */
+  public static final int MAX_CELLS_PER_ITEM = 64;
+
+  private final double cellSize;
+
+  // The items in each cell, keyed by the packed column and row of the cell.
+  private final Map<Long, List<T>> cells = new HashMap<Long, List<T>>();
+
+  // The columns and rows of the cells that each item is recorded in, as
+  // { first column, first row, last column, last row }, or null for items that
+  // are too big to record in cells.
+  private final Map<T, int[]> ranges = new HashMap<T, int[]>();
+
+  private final List<T> oversizedItems = new ArrayList<T>();
+
+  /**
+   * Creates a SpatialGrid.
+   *
+   * @param cellSize the width and height of each cell
+   */
+  public SpatialGrid(double cellSize) {
+    if (cellSize <= 0) {
+      throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+    }
+    this.cellSize = cellSize;
+  }
+
+  /**
+   * Adds an item to the grid, or moves it if it is already in the grid.
+   *
+   * @param item the item
+   * @param bounds the bounding box of the item
+   */
+  public void update(T item, BoundingBox bounds) {
+    int[] range = getRange(bounds);
+    boolean oversized = countCells(range) > MAX_CELLS_PER_ITEM;
+    if (ranges.containsKey(item)) {
+      int[] oldRange = ranges.get(item);
+      if (oversized ? oldRange == null : oldRange != null && sameRange(oldRange, range)) {
+        // The item still touches the same cells.
+        return;
+      }
+      remove(item);
+    }
+    if (oversized) {
+      oversizedItems.add(item);
+      ranges.put(item, null);
+      return;
+    }
+    for (int column = range[0]; column <= range[2]; column++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        Long key = getKey(column, row);
+        List<T> cell = cells.get(key);
+        if (cell == null) {
+          cell = new ArrayList<T>();
+          cells.put(key, cell);
+        }
+        cell.add(item);
+      }
+    }
+    ranges.put(item, range);
+  }
+
+  /**
+   * Removes an item from the grid. Does nothing if the item is not in the grid.
+   *
+   * @param item the item
+   */
+  public void remove(T item) {
+    if (!ranges.containsKey(item)) {
+      return;
+    }
+    int[] range = ranges.remove(item);
+    if (range == null) {
+      oversizedItems.remove(item);
+      return;
+    }
+    for (int column = range[0]; column <= range[2]; column++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        Long key = getKey(column, row);
+        List<T> cell = cells.get(key);
+        cell.remove(item);
+        if (cell.isEmpty()) {
+          cells.remove(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the items whose bounding boxes may intersect the given bounding box.
+   * Every item whose bounding box does intersect it is found, but some items
+   * whose bounding boxes do not may be found too.
+   *
+   * @param bounds the bounding box to search
+   * @param result the set to which the items found are added
+   */
+  public void query(BoundingBox bounds, Set<T> result) {
+    result.addAll(oversizedItems);
+    int[] range = getRange(bounds);
+    if (countCells(range) > cells.size()) {
+      // Looking at every occupied cell is cheaper than looking at every cell in the range.
+      for (List<T> cell : cells.values()) {
+        result.addAll(cell);
+      }
+      return;
+    }
+    for (int column = range[0]; column <= range[2]; column++) {
+      for (int row = range[1]; row <= range[3]; row++) {
+        List<T> cell = cells.get(getKey(column, row));
+        if (cell != null) {
+          result.addAll(cell);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of items in the grid.
+   */
+  public int size() {
+    return ranges.size();
+  }
+
+  private int[] getRange(BoundingBox bounds) {
+    return new int[] {
+        toCell(bounds.getLeft()), toCell(bounds.getTop()),
+        toCell(bounds.getRight()), toCell(bounds.getBottom()) };
+  }
+
+  private int toCell(double coordinate) {
+    return (int) Math.floor(coordinate / cellSize);
+  }
+
+  private static long countCells(int[] range) {
+    return ((long) range[2] - range[0] + 1) * ((long) range[3] - range[1] + 1);
+  }
+
+  private static boolean sameRange(int[] range1, int[] range2) {
+    return range1[0] == range2[0] && range1[1] == range2[1]
+        && range1[2] == range2[2] && range1[3] == range2[3];
+  }
+
+  private static Long getKey(int column, int row) {
+    return ((long) column << 32) | (row & 0xffffffffL);
+  }
+}
@@ -1,6 +1,6 @@
 // -*- mode: java; c-basic-offset: 2; -*-
 // Copyright 2009-2011 Google, All Rights reserved
-// Copyright 2011-2012 MIT, All rights reserved
+// Copyright 2011-2019 MIT, All rights reserved
 // Released under the Apache License, Version 2.0
 // http://www.apache.org/licenses/LICENSE-2.0
 
@@ -9,13 +9,48 @@ package com.google.appinventor.components.runtime.util;
 import com.google.appinventor.components.runtime.AlarmHandler;
 
 import android.os.Handler;
+import android.os.SystemClock;
 
 /**
  * Helper class for components containing timers, such as Timer and Sprite.
  *
+ * <p>The timer has three modes:</p>
+ * <ul>
+ * <li>{@link #MODE_DELAY} waits for the interval after each alarm returns, so
+ *     the time the alarm takes is added to every tick.</li>
+ * <li>{@link #MODE_FIXED_RATE} schedules the ticks every interval from the
+ *     time the timer was enabled, whatever the alarm takes. If the alarm takes
+ *     longer than the interval, the ticks that were missed are coalesced into
+ *     one tick that fires as soon as the alarm returns.</li>
+ * <li>{@link #MODE_FRAME} fires on the display frame nearest to each tick of
+ *     a fixed rate, or on every frame if the interval is 0. It needs Jelly
+ *     Bean; on earlier versions it behaves like {@link #MODE_FIXED_RATE}.</li>
+ * </ul>
+ *
+ * <p>In every mode, {@link #Elapsed()} returns the time that actually passed
+ * between the last two ticks.</p>
  */
 public final class TimerInternal implements Runnable {
 
+  /**
+   * Mode in which the timer fires the interval after the previous alarm
+   * returns.
+   */
+  public static final String MODE_DELAY = "Delay";
+
+  /**
+   * Mode in which the timer fires every interval, coalescing missed ticks.
+   */
+  public static final String MODE_FIXED_RATE = "FixedRate";
+
+  /**
+   * Mode in which the timer fires on display frames.
+   */
+  public static final String MODE_FRAME = "Frame";
+
+  // The time of the last tick before the first one, in Delay mode.
+  private static final long NOT_STARTED = -1;
+
   // Android message handler used as a timer
   private Handler handler;
 
@@ -25,9 +60,37 @@ public final class TimerInternal implements Runnable {
   // Interval between timer events in ms
   private int interval;  // set in constructor
 
+  // One of the MODE_ constants
+  private String mode = MODE_DELAY;
+
   // Component that should be called by timer
   private AlarmHandler component;
 
+  // Uptime at which the next tick is due, in FixedRate mode
+  private long dueTime;
+
+  // Uptime of the last tick, or of when the timer was enabled
+  private long lastTickTime = NOT_STARTED;
+
+  // Time between the last two ticks, in ms
+  private long elapsed;
+
+  // Counts the calls to start(). A tick whose alarm restarts the timer, by
+  // changing the interval, the mode or whether it is enabled, sees it change
+  // and leaves the scheduling of the next tick to start().
+  private int generation;
+
+  // The Choreographer.FrameCallback used in Frame mode, created when it is
+  // first needed.
+  private Object frameCallback;
+
+  // Frame times, in ns, in Frame mode. dueFrameTime is 0 until the first
+  // frame after the timer is enabled.
+  private long dueFrameTime;
+  private long lastFrameTime;
+  private long lastFrameTickTime;
+  private long framePeriod;
+
   /**
    * Timer constructor
    *
@@ -60,7 +123,7 @@ public final class TimerInternal implements Runnable {
     this.enabled = enabled;
     this.interval = interval;
     if (enabled) {
-      handler.postDelayed(this, interval);
+      start();
     }
   }
 
@@ -81,8 +144,8 @@ public final class TimerInternal implements Runnable {
   public void Interval(int interval) {
     this.interval = interval;
     if (enabled) {
-      handler.removeCallbacks(this);
-      handler.postDelayed(this, interval);
+      stop();
+      start();
     }
   }
 
@@ -103,13 +166,87 @@ public final class TimerInternal implements Runnable {
    */
   public void Enabled(boolean enabled) {
     if (this.enabled) {
-      handler.removeCallbacks(this);
+      stop();
     }
 
     this.enabled = enabled;
 
     if (enabled) {
+      start();
+    }
+  }
+
+  /**
+   * Mode getter.
+   *
+   * @return  one of {@link #MODE_DELAY}, {@link #MODE_FIXED_RATE} and
+   *          {@link #MODE_FRAME}
+   */
+  public String Mode() {
+    return mode;
+  }
+
+  /**
+   * Mode setter: sets how the ticks are scheduled. A running timer starts
+   * again from now.
+   *
+   * @param mode  one of {@link #MODE_DELAY}, {@link #MODE_FIXED_RATE} and
+   *              {@link #MODE_FRAME}
+   * @throws IllegalArgumentException if mode is not one of the modes
+   */
+  public void Mode(String mode) {
+    if (!mode.equals(MODE_DELAY) && !mode.equals(MODE_FIXED_RATE) && !mode.equals(MODE_FRAME)) {
+      throw new IllegalArgumentException("Unknown timer mode " + mode);
+    }
+    if (enabled) {
+      stop();
+    }
+    this.mode = mode;
+    if (enabled) {
+      start();
+    }
+  }
+
+  /**
+   * Returns the time between the last two ticks, or between the timer being
+   * enabled and the first tick.
+   *
+   * @return  the elapsed time in ms
+   */
+  public long Elapsed() {
+    return elapsed;
+  }
+
+  private boolean useFrames() {
+    return mode.equals(MODE_FRAME) && SdkLevel.getLevel() >= SdkLevel.LEVEL_JELLYBEAN;
+  }
+
+  private void start() {
+    generation++;
+    if (useFrames()) {
+      dueFrameTime = 0;
+      lastFrameTime = 0;
+      framePeriod = 0;
+      if (frameCallback == null) {
+        frameCallback = JellybeanUtil.newFrameCallback(this);
+      }
+      JellybeanUtil.postFrameCallback(frameCallback);
+    } else if (mode.equals(MODE_DELAY)) {
+      // Delay mode does not read the clock until the first tick, as it did
+      // before the other modes existed.
+      lastTickTime = NOT_STARTED;
       handler.postDelayed(this, interval);
+    } else {
+      lastTickTime = SystemClock.uptimeMillis();
+      dueTime = lastTickTime + Math.max(interval, 0);
+      handler.postAtTime(this, dueTime);
+    }
+  }
+
+  private void stop() {
+    handler.removeCallbacks(this);
+    if (frameCallback != null) {
+      JellybeanUtil.removeFrameCallback(frameCallback);
     }
   }
 
@@ -117,13 +254,87 @@ public final class TimerInternal implements Runnable {
 
   public void run() {
     if (enabled) {
+      long now = SystemClock.uptimeMillis();
+      elapsed = lastTickTime == NOT_STARTED ? interval : now - lastTickTime;
+      lastTickTime = now;
+      int tickGeneration = generation;
+
       component.alarm();
 
-      // During the call to component.alarm, the enabled field may have changed.
-      // We need to make sure that enabled is still true before we call handler.postDelayed.
-      if (enabled) {
-        handler.postDelayed(this, interval);
+      // During the call to component.alarm, the timer may have been stopped,
+      // or restarted, which already scheduled the next tick.
+      if (enabled && tickGeneration == generation) {
+        if (mode.equals(MODE_DELAY)) {
+          handler.postDelayed(this, interval);
+        } else {
+          scheduleNextTick();
+        }
       }
     }
   }
+
+  /*
+   * Schedules the tick after the one that just fired, in FixedRate mode. If
+   * the alarm took so long that the next tick is already due, the ticks that
+   * were missed are coalesced into one that runs now, and the ticks after it
+   * stay on the schedule.
+   */
+  private void scheduleNextTick() {
+    long now = SystemClock.uptimeMillis();
+    if (interval <= 0) {
+      dueTime = now;
+    } else {
+      dueTime += interval;
+      if (dueTime < now) {
+        dueTime += (now - dueTime) / interval * interval;
+      }
+    }
+    handler.postAtTime(this, dueTime);
+  }
+
+  /*
+   * Called by the frame callback on every display frame in Frame mode.
+   */
+  void doFrame(long frameTimeNanos) {
+    if (!enabled || !useFrames()) {
+      return;
+    }
+    long intervalNanos = Math.max(interval, 0) * 1000000L;
+    if (lastFrameTime != 0) {
+      framePeriod = frameTimeNanos - lastFrameTime;
+    }
+    lastFrameTime = frameTimeNanos;
+    if (dueFrameTime == 0) {
+      // The first frame starts the schedule.
+      dueFrameTime = frameTimeNanos + intervalNanos;
+      lastFrameTickTime = frameTimeNanos;
+      if (intervalNanos > 0) {
+        JellybeanUtil.postFrameCallback(frameCallback);
+        return;
+      }
+    }
+    // Fire on the frame nearest to the tick, rather than the first frame
+    // after it, so that an interval close to the frame period fires on every
+    // frame.
+    if (frameTimeNanos < dueFrameTime - framePeriod / 2) {
+      JellybeanUtil.postFrameCallback(frameCallback);
+      return;
+    }
+    elapsed = (frameTimeNanos - lastFrameTickTime) / 1000000L;
+    lastFrameTickTime = frameTimeNanos;
+    lastTickTime = SystemClock.uptimeMillis();
+    dueFrameTime += intervalNanos;
+    if (dueFrameTime < frameTimeNanos) {
+      // Frames were dropped; coalesce the ticks that were missed.
+      dueFrameTime = frameTimeNanos + intervalNanos;
+    }
+    int tickGeneration = generation;
+
+    component.alarm();
+
+    // A restart during the alarm has already posted the frame callback.
+    if (enabled && tickGeneration == generation) {
+      JellybeanUtil.postFrameCallback(frameCallback);
+    }
+  }
 }
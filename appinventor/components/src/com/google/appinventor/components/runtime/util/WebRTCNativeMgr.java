@@ -212,7 +212,11 @@ public class WebRTCNativeMgr {
 
   /* Callback to process incoming data from the browser */
   DataChannel.Observer dataObserver = new DataChannel.Observer() {
-      public void onBufferedAmountChange(long j) {
+      public void onBufferedAmountChange(long previousAmount) {
+        DataChannel channel = dataChannel;
+        if (channel != null) {
+          RetValManager.bufferedAmountChanged(channel.bufferedAmount());
+        }
       }
 
       public void onMessage(Buffer buffer) {
@@ -271,6 +275,9 @@ public class WebRTCNativeMgr {
 
     this.form = form;
     rCode = code;
+    /* The Blocks Editor at the other end of the new connection may not
+       inflate compressed batches. It turns compression on when it can. */
+    RetValManager.setCompressionEnabled(false);
     /* Initialize WebRTC globally */
     PeerConnectionFactory.initializeAndroidGlobals(context, false);
     /* Setup factory options */
@@ -476,4 +483,22 @@ public class WebRTCNativeMgr {
     }
   }
 
+  public void sendBinary(byte[] output) {
+    if (dataChannel == null) {
+      Log.w(LOG_TAG, "No Data Channel in sendBinary");
+      return;
+    }
+    Buffer buffer = new Buffer(ByteBuffer.wrap(output), true); // true = binary
+    dataChannel.send(buffer);
+  }
+
+  /*
+   * The number of bytes queued on the data channel that have not been
+   * sent yet.
+   */
+  public long getBufferedAmount() {
+    DataChannel channel = dataChannel;
+    return channel == null ? 0 : channel.bufferedAmount();
+  }
+
 }
@@ -14,6 +14,7 @@ import gnu.math.IntNum;
 
 import org.json.JSONException;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -29,6 +30,16 @@ public class YailList extends Pair {
 
   private static final String LOG_TAG = "YailList";
 
+  // The pairs holding the items of this list, in order, so that items can be reached in
+  // constant time instead of by walking the list. The index is built on first use and is
+  // only kept while every pair of the list is a Cell of this list: a Cell tells its list when
+  // its cdr is set, and so does the list itself. The methods below that change the shape of
+  // the list keep the index up to date. A list that holds pairs made elsewhere, which may be
+  // shared with other lists, is walked each time instead.
+  private transient Pair[] cells;
+  private transient int cellCount;
+  private transient boolean indexed;
+
   // Component writers take note!
   // If you want to pass back a list to the blocks language, the
   // straightforward way to do this is simply to pass
@@ -46,10 +57,6 @@ public class YailList extends Pair {
     super(YailConstants.YAIL_HEADER, LList.Empty);
   }
 
-  private YailList(Object cdrval) {
-    super(YailConstants.YAIL_HEADER, cdrval);
-  }
-
   /**
    * Create an empty YailList YailList from an array.
    */
@@ -61,24 +68,23 @@ public class YailList extends Pair {
    * Create a YailList from an array.
    */
   public static YailList makeList(Object[] objects) {
-    LList newCdr = Pair.makeList(objects, 0);
-    return new YailList(newCdr);
+    YailList list = new YailList();
+    list.appendValues(objects);
+    return list;
   }
 
   /**
    * Create a YailList from a List.
    */
   public static YailList makeList(List vals) {
-    LList newCdr = Pair.makeList(vals);
-    return new YailList(newCdr);
+    return makeList(vals.toArray());
   }
 
   /**
    * Create a YailList from a Collection.
    */
   public static YailList makeList(Collection vals) {
-    LList newCdr = Pair.makeList(vals.toArray(), 0);
-    return new YailList(newCdr);
+    return makeList(vals.toArray());
   }
 
   /**
@@ -161,7 +167,19 @@ public class YailList extends Pair {
    */
   @Override
   public int size() {
-    return super.size() - 1;
+    ensureIndex();
+    return cellCount;
+  }
+
+  /**
+   * Return the element at the given index, where index 0 is the list header.
+   */
+  @Override
+  public Object get(int index) {
+    if (index == 0) {
+      return car;
+    }
+    return getCell(index - 1).getCar();
   }
 
   /**
@@ -191,4 +209,160 @@ public class YailList extends Pair {
   public Object getObject(int index) {
     return get(index + 1);
   }
+
+  /**
+   * Replace the Object at the given index.
+   */
+  public void setObject(int index, Object value) {
+    getCell(index).setCar(value);
+  }
+
+  /**
+   * Insert an Object at the given index, which may be the size of this YailList.
+   */
+  public void insertObject(int index, Object value) {
+    ensureIndex();
+    if (index < 0 || index > cellCount) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + cellCount);
+    }
+    boolean wasIndexed = indexed;
+    Pair previous = index == 0 ? this : cells[index - 1];
+    Pair cell = new Cell(this, value, previous.getCdr());
+    previous.setCdr(cell);
+    ensureCapacity(cellCount + 1);
+    System.arraycopy(cells, index, cells, index + 1, cellCount - index);
+    cells[index] = cell;
+    cellCount++;
+    indexed = wasIndexed;
+  }
+
+  /**
+   * Remove the Object at the given index.
+   */
+  public void removeObject(int index) {
+    Pair cell = getCell(index);
+    boolean wasIndexed = indexed;
+    Pair previous = index == 0 ? this : cells[index - 1];
+    previous.setCdr(cell.getCdr());
+    if (cell instanceof Cell && ((Cell) cell).list == this) {
+      // The pair may still be held elsewhere, but it is no longer part of this list.
+      ((Cell) cell).list = null;
+    }
+    System.arraycopy(cells, index + 1, cells, index, cellCount - index - 1);
+    cells[--cellCount] = null;
+    indexed = wasIndexed;
+  }
+
+  /**
+   * Append the Objects of another YailList to this YailList. The Objects are
+   * shared, but the pairs that hold them are not.
+   */
+  public void appendList(YailList other) {
+    appendValues(other.toArray());
+  }
+
+  /**
+   * Sets the cdr of this YailList, which replaces all of its items.
+   */
+  @Override
+  public void setCdr(Object cdr) {
+    super.setCdr(cdr);
+    indexed = false;
+  }
+
+  @Override
+  public void setCdrBackdoor(Object cdr) {
+    super.setCdrBackdoor(cdr);
+    indexed = false;
+  }
+
+  private void appendValues(Object[] values) {
+    ensureIndex();
+    boolean wasIndexed = indexed;
+    ensureCapacity(cellCount + values.length);
+    Pair last = cellCount == 0 ? this : cells[cellCount - 1];
+    for (Object value : values) {
+      Pair cell = new Cell(this, value, LList.Empty);
+      last.setCdr(cell);
+      cells[cellCount++] = cell;
+      last = cell;
+    }
+    indexed = wasIndexed;
+  }
+
+  private Pair getCell(int index) {
+    ensureIndex();
+    if (index < 0 || index >= cellCount) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + cellCount);
+    }
+    return cells[index];
+  }
+
+  /*
+   * Makes cells and cellCount describe the list. If the index was not kept, the list is walked,
+   * and the index is kept afterwards only if every pair of the list is a Cell of this list.
+   */
+  private void ensureIndex() {
+    if (indexed) {
+      return;
+    }
+    cellCount = 0;
+    if (cells == null) {
+      cells = new Pair[8];
+    }
+    boolean allCells = true;
+    Object rest = cdr;
+    while (rest instanceof Pair) {
+      ensureCapacity(cellCount + 1);
+      cells[cellCount++] = (Pair) rest;
+      allCells = allCells && rest instanceof Cell && ((Cell) rest).list == this;
+      rest = ((Pair) rest).getCdr();
+    }
+    Arrays.fill(cells, cellCount, cells.length, null);
+    indexed = allCells && rest == LList.Empty;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (cells == null) {
+      cells = new Pair[Math.max(capacity, 8)];
+    } else if (capacity > cells.length) {
+      cells = Arrays.copyOf(cells, Math.max(capacity, cells.length * 2));
+    }
+  }
+
+  /*
+   * A pair made by a YailList to hold one of its items. Setting its cdr changes the shape of
+   * the list, so the list's index is dropped.
+   */
+  private static final class Cell extends Pair {
+    private YailList list;
+
+    Cell(YailList list, Object car, Object cdr) {
+      super(car, cdr);
+      this.list = list;
+    }
+
+    @Override
+    public void setCdr(Object cdr) {
+      super.setCdr(cdr);
+      invalidate();
+    }
+
+    @Override
+    public void setCdrBackdoor(Object cdr) {
+      super.setCdrBackdoor(cdr);
+      invalidate();
+    }
+
+    private void invalidate() {
+      if (list != null) {
+        list.indexed = false;
+      }
+    }
+
+    // Serialized as a plain pair, which has the public constructor that deserialization needs.
+    private Object writeReplace() {
+      return new Pair(car, cdr);
+    }
+  }
 }
@@ -16,6 +16,8 @@ import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -28,6 +30,7 @@ public class BluetoothConnectionBaseTest extends TestCase {
   private ByteArrayOutputStream outputStream;
   private int recordedErrorNumber;
   private PipedOutputStream pipe;
+  private final List<String> receivedText = Collections.synchronizedList(new ArrayList<String>());
 
   @Override
   protected void setUp() throws Exception {
@@ -58,9 +61,36 @@ public class BluetoothConnectionBaseTest extends TestCase {
           throw new RuntimeException(e);
         }
       }
+      @Override
+      protected void runOnUiThread(Runnable runnable) {
+        runnable.run();
+      }
+      @Override
+      public void DataReceived(int numberOfBytes) {
+        receivedText.add(ReceiveText(DataReceivedBatchSize()));
+      }
     };
   }
 
+  /*
+   * Waits for the bytes sent to be read in the background.
+   */
+  private void awaitBytesAvailable(int numberOfBytes) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (connection.BytesAvailableToReceive() < numberOfBytes
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(numberOfBytes, connection.BytesAvailableToReceive());
+  }
+
+  private void awaitReceivedText(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (receivedText.size() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
   public void testSendAndReceiveText() {
     connection.SendText("Hello");
     assertEquals(5, connection.BytesAvailableToReceive());
@@ -454,4 +484,46 @@ public class BluetoothConnectionBaseTest extends TestCase {
     assertEquals((byte) 0xFF, bytes[i++]);  // 0xFF
     assertEquals((byte) 0xAB, bytes[i++]);  // 0xab
   }
+
+  public void testReceiveInBackground() throws Exception {
+    connection.DataReceivedBatchSize(100);  // no DataReceived events
+    connection.ReadInBackground(true);
+    connection.DelimiterByte(10);
+    connection.SendText("Hello\nWorld\n");
+    awaitBytesAvailable(12);
+    assertEquals("Hello", connection.ReceiveText(-1));
+    assertEquals("World", connection.ReceiveText(-1));
+
+    connection.Send2ByteNumber("0x1234");
+    assertEquals(0x1234, connection.ReceiveUnsigned2ByteNumber());
+    connection.SendText("abc");
+    assertEquals("abc", connection.ReceiveText(3));
+    assertEquals(0, connection.BytesAvailableToReceive());
+    assertEquals(0, recordedErrorNumber);
+  }
+
+  public void testDataReceivedWithDelimiter() throws Exception {
+    connection.DataReceivedBatchSize(-1);
+    connection.ReadInBackground(true);
+    connection.DelimiterByte(10);
+    connection.SendText("Hello\nWorld\nAgain");
+    awaitReceivedText(2);
+    assertEquals(Arrays.asList("Hello", "World"), receivedText);
+    // The event is signaled for the rest of the text once its delimiter arrives.
+    connection.SendText("\n");
+    awaitReceivedText(3);
+    assertEquals(Arrays.asList("Hello", "World", "Again"), receivedText);
+    assertEquals(0, recordedErrorNumber);
+  }
+
+  public void testDataReceivedWithBatchSize() throws Exception {
+    connection.DataReceivedBatchSize(4);
+    connection.ReadInBackground(true);
+    connection.SendText("abc");
+    connection.SendText("defghij");
+    awaitReceivedText(2);
+    assertEquals(Arrays.asList("abcd", "efgh"), receivedText);
+    assertEquals(2, connection.BytesAvailableToReceive());
+    assertEquals(0, recordedErrorNumber);
+  }
 }
@@ -0,0 +1,127 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import static com.google.appinventor.common.testutils.BenchmarkUtils.micros;
+import static com.google.appinventor.common.testutils.BenchmarkUtils.report;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appinventor.components.runtime.util.BoundingBox;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the cost of checking for collisions when every sprite on a Canvas
+ * moves once, as happens in each frame of a game, for different numbers of
+ * sprites.
+ *
+ * <p>Each frame is timed twice: once as the Canvas checks it, looking only at
+ * the sprites near each moved sprite, and once as the Canvas used to, checking
+ * every pair of sprites by scanning the points their bounding boxes share.</p>
+ */
+public class CanvasCollisionBenchmark extends RobolectricTestBase {
+  private static final int[] SPRITE_COUNTS = { 10, 50, 200 };
+  private static final int CANVAS_SIZE = 1000;
+  private static final int WARMUP_FRAMES = 20;
+  private static final int MEASURED_FRAMES = 100;
+
+  @Test
+  public void testFrameCost() {
+    for (int count : SPRITE_COUNTS) {
+      Canvas canvas = new Canvas(getForm());
+      Random random = new Random(count);
+      List<Sprite> sprites = new ArrayList<Sprite>();
+      for (int i = 0; i < count; i++) {
+        Sprite sprite;
+        if (i % 2 == 0) {
+          Ball ball = new Ball(canvas);
+          ball.Radius(10);
+          sprite = ball;
+        } else {
+          ImageSprite imageSprite = new ImageSprite(canvas);
+          imageSprite.Width(30);
+          imageSprite.Height(20);
+          sprite = imageSprite;
+        }
+        sprite.MoveTo(random.nextInt(CANVAS_SIZE), random.nextInt(CANVAS_SIZE));
+        sprite.Initialize();
+        sprites.add(sprite);
+      }
+
+      for (int i = 0; i < WARMUP_FRAMES; i++) {
+        moveAll(sprites, random);
+        checkAllPairs(sprites);
+      }
+      long indexed = 0;
+      long allPairs = 0;
+      int collisions = 0;
+      for (int i = 0; i < MEASURED_FRAMES; i++) {
+        long start = System.nanoTime();
+        moveAll(sprites, random);
+        indexed += System.nanoTime() - start;
+        start = System.nanoTime();
+        collisions += checkAllPairs(sprites);
+        allPairs += System.nanoTime() - start;
+      }
+      runAllEvents();
+
+      report("%d sprites (%d colliding pairs per frame): indexed %s per frame, all pairs by "
+          + "point scan %s per frame", count, collisions / MEASURED_FRAMES,
+          micros(indexed / MEASURED_FRAMES), micros(allPairs / MEASURED_FRAMES));
+      assertTrue(indexed > 0);
+    }
+  }
+
+  /*
+   * Moves every sprite a few pixels, which makes the Canvas check it for collisions.
+   */
+  private static void moveAll(List<Sprite> sprites, Random random) {
+    for (Sprite sprite : sprites) {
+      double x = Math.max(0, Math.min(CANVAS_SIZE, sprite.X() + random.nextInt(11) - 5));
+      double y = Math.max(0, Math.min(CANVAS_SIZE, sprite.Y() + random.nextInt(11) - 5));
+      sprite.MoveTo(x, y);
+    }
+  }
+
+  /*
+   * Checks every pair of sprites for a collision, and returns the number of colliding pairs.
+   */
+  private static int checkAllPairs(List<Sprite> sprites) {
+    int collisions = 0;
+    for (Sprite movedSprite : sprites) {
+      for (Sprite sprite : sprites) {
+        if (sprite != movedSprite && pixelScanColliding(sprite, movedSprite)) {
+          collisions++;
+        }
+      }
+    }
+    return collisions / 2;
+  }
+
+  /*
+   * Checks two sprites for a collision the way Sprite.colliding did before it
+   * tested rectangles and balls analytically.
+   */
+  private static boolean pixelScanColliding(Sprite sprite1, Sprite sprite2) {
+    BoundingBox rect1 = sprite1.getBoundingBox(1);
+    BoundingBox rect2 = sprite2.getBoundingBox(1);
+    if (!rect1.intersectDestructively(rect2)) {
+      return false;
+    }
+    for (double x = rect1.getLeft(); x <= rect1.getRight(); x++) {
+      for (double y = rect1.getTop(); y <= rect1.getBottom(); y++) {
+        if (sprite1.containsPoint(x, y) && sprite2.containsPoint(x, y)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
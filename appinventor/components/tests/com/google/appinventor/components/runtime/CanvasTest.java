@@ -0,0 +1,124 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appinventor.components.runtime.shadows.ShadowEventDispatcher;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests collision detection between the sprites of a Canvas.
+ */
+public class CanvasTest extends RobolectricTestBase {
+
+  private Canvas canvas;
+
+  @Before
+  public void setUp() {
+    super.setUp();
+    canvas = new Canvas(getForm());
+  }
+
+  @Test
+  public void testBallsCollideOnlyWhenCirclesOverlap() {
+    Ball ball1 = createBall(10, 0, 0);
+    // The bounding boxes overlap, but the circles do not.
+    Ball ball2 = createBall(10, 16, 16);
+    assertFalse(Sprite.colliding(ball1, ball2));
+    assertFalse(Sprite.colliding(ball2, ball1));
+
+    ball2.MoveTo(12, 12);
+    assertTrue(Sprite.colliding(ball1, ball2));
+    assertTrue(Sprite.colliding(ball2, ball1));
+  }
+
+  @Test
+  public void testBallAndRectangle() {
+    ImageSprite box = createImageSprite(20, 20, 20, 20);
+    // The bounding boxes overlap at the corner of the box, but the ball does not reach it.
+    Ball ball = createBall(10, 1, 1);
+    assertFalse(Sprite.colliding(ball, box));
+    assertFalse(Sprite.colliding(box, ball));
+
+    ball.MoveTo(8, 20);
+    assertTrue(Sprite.colliding(ball, box));
+    assertTrue(Sprite.colliding(box, ball));
+  }
+
+  @Test
+  public void testCollidedWith() {
+    Ball ball = createBall(10, 0, 0);
+    ImageSprite near = createImageSprite(20, 20, 100, 100);
+    ImageSprite far = createImageSprite(20, 20, 400, 400);
+
+    ball.MoveTo(95, 95);
+    runAllEvents();
+    assertTrue(ball.CollidingWith(near));
+    assertTrue(near.CollidingWith(ball));
+    assertFalse(ball.CollidingWith(far));
+    ShadowEventDispatcher.assertEventFired(ball, "CollidedWith", near);
+    ShadowEventDispatcher.assertEventFired(near, "CollidedWith", ball);
+
+    // Moving far away must still end the collision with the sprite left behind.
+    ball.MoveTo(395, 395);
+    runAllEvents();
+    assertFalse(ball.CollidingWith(near));
+    assertFalse(near.CollidingWith(ball));
+    assertTrue(ball.CollidingWith(far));
+    ShadowEventDispatcher.assertEventFired(ball, "NoLongerCollidingWith", near);
+  }
+
+  @Test
+  public void testCollisionAfterChangingLayer() {
+    Ball ball = createBall(10, 0, 0);
+    ImageSprite box = createImageSprite(20, 20, 100, 100);
+    box.Z(2.0);
+
+    ball.MoveTo(95, 95);
+    assertTrue(ball.CollidingWith(box));
+  }
+
+  @Test
+  public void testNoCollisionWithDeletedSprite() {
+    Ball ball = createBall(10, 0, 0);
+    ImageSprite box = createImageSprite(20, 20, 100, 100);
+    box.onDelete();
+
+    ball.MoveTo(95, 95);
+    assertFalse(ball.CollidingWith(box));
+  }
+
+  @Test
+  public void testNoCollisionWhenInvisible() {
+    Ball ball = createBall(10, 0, 0);
+    ImageSprite box = createImageSprite(20, 20, 100, 100);
+
+    ball.MoveTo(95, 95);
+    assertTrue(ball.CollidingWith(box));
+    box.Visible(false);
+    assertFalse(ball.CollidingWith(box));
+  }
+
+  private Ball createBall(int radius, double x, double y) {
+    Ball ball = new Ball(canvas);
+    ball.Radius(radius);
+    ball.MoveTo(x, y);
+    ball.Initialize();
+    return ball;
+  }
+
+  private ImageSprite createImageSprite(int width, int height, double x, double y) {
+    ImageSprite sprite = new ImageSprite(canvas);
+    sprite.Width(width);
+    sprite.Height(height);
+    sprite.MoveTo(x, y);
+    sprite.Initialize();
+    return sprite;
+  }
+}
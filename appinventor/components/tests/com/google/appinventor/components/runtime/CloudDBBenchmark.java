@@ -0,0 +1,58 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import static com.google.appinventor.common.testutils.BenchmarkUtils.millis;
+import static com.google.appinventor.common.testutils.BenchmarkUtils.report;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+
+/**
+ * Compares the time CloudDB takes to send a burst of stores to different
+ * tags in one pipeline with the time taken by one request and reply for each
+ * tag, as the store worker used to send them. The server waits a fixed time
+ * before each reply it sends, like a server on a mobile network.
+ */
+public class CloudDBBenchmark extends CloudDBTestBase {
+  private static final int TAGS = 50;
+  private static final int LATENCY_MILLIS = 20;
+
+  @Test
+  public void testPipelinedStores() throws Exception {
+    // Connect before the latency is added.
+    db.StoreValue("warmup", 0);
+    finishBackground();
+    server.setLatency(LATENCY_MILLIS);
+
+    Jedis jedis = new Jedis("127.0.0.1", server.getPort(), false);
+    jedis.auth("token");
+    int before = server.getRoundTrips();
+    long start = System.nanoTime();
+    for (int i = 0; i < TAGS; i++) {
+      jedis.evalsha(SCRIPT_SHA1, 1, "tag" + i, "1", "[\"1\"]", PROJECT_ID);
+    }
+    long oneAtATimeNanos = System.nanoTime() - start;
+    int oneAtATimeRoundTrips = server.getRoundTrips() - before;
+    jedis.close();
+
+    blockBackground();
+    for (int i = 0; i < TAGS; i++) {
+      db.StoreValue("tag" + i, 2);
+    }
+    before = server.getRoundTrips();
+    start = System.nanoTime();
+    finishBackground();
+    long pipelinedNanos = System.nanoTime() - start;
+    int pipelinedRoundTrips = server.getRoundTrips() - before;
+
+    assertEquals("2", server.get(PROJECT_ID + ":tag" + (TAGS - 1)));
+    report("%d stores with %d ms latency: one at a time %s in %d round trips, pipelined %s in "
+        + "%d round trips", TAGS, LATENCY_MILLIS, millis(oneAtATimeNanos), oneAtATimeRoundTrips,
+        millis(pipelinedNanos), pipelinedRoundTrips);
+  }
+}
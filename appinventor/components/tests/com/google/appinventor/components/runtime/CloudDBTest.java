@@ -0,0 +1,144 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import com.google.appinventor.components.runtime.shadows.ShadowEventDispatcher;
+import org.json.JSONArray;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that CloudDB merges stores to the same tag and sends them, and the
+ * values asked for by GetValue, in batches.
+ */
+public class CloudDBTest extends CloudDBTestBase {
+
+  @Test
+  public void testStoresAreCoalesced() throws Exception {
+    blockBackground();
+    for (int i = 0; i < 10; i++) {
+      db.StoreValue("a", "a" + i);
+      db.StoreValue("b", "b" + i);
+    }
+    db.StoreValue("c", "c");
+    finishBackground();
+
+    assertEquals("\"a9\"", server.get(PROJECT_ID + ":a"));
+    assertEquals("\"b9\"", server.get(PROJECT_ID + ":b"));
+    assertEquals("\"c\"", server.get(PROJECT_ID + ":c"));
+    // One EVALSHA for each tag, sent together after connecting.
+    assertEquals(3, server.getCount("EVALSHA"));
+    assertEquals(0, server.getCount("EVAL"));
+    assertEquals(2, server.getRoundTrips());
+    // Every value stored was still published.
+    JSONArray published = new JSONArray(server.getPublished("a"));
+    assertEquals(10, published.length());
+    assertEquals("\"a0\"", published.getString(0));
+    assertEquals("\"a9\"", published.getString(9));
+    ShadowEventDispatcher.assertEventNotFired(db, "CloudDBError");
+  }
+
+  @Test
+  public void testScriptNotLoaded() throws Exception {
+    server.setScriptLoaded(false);
+    blockBackground();
+    db.StoreValue("a", "a");
+    db.StoreValue("b", "b");
+    finishBackground();
+
+    assertEquals("\"a\"", server.get(PROJECT_ID + ":a"));
+    assertEquals("\"b\"", server.get(PROJECT_ID + ":b"));
+    // The pipelined EVALSHAs both failed, and the first EVAL loaded the script.
+    assertEquals(1, server.getCount("EVAL"));
+    ShadowEventDispatcher.assertEventNotFired(db, "CloudDBError");
+  }
+
+  @Test
+  public void testClearAfterStore() throws Exception {
+    server.put(PROJECT_ID + ":b", "\"old\"");
+    blockBackground();
+    db.StoreValue("a", "a");
+    db.ClearTag("a");
+    db.ClearTag("b");
+    db.StoreValue("b", "new");
+    finishBackground();
+
+    assertNull(server.get(PROJECT_ID + ":a"));
+    assertEquals("\"new\"", server.get(PROJECT_ID + ":b"));
+    assertEquals(1, server.getCount("DEL"));
+    assertEquals(1, server.getCount("EVALSHA"));
+    assertEquals(2, server.getRoundTrips());
+    ShadowEventDispatcher.assertEventNotFired(db, "CloudDBError");
+  }
+
+  @Test
+  public void testGetValuesAreBatched() throws Exception {
+    server.put(PROJECT_ID + ":a", "\"x\"");
+    server.put(PROJECT_ID + ":b", "\"y\"");
+    blockBackground();
+    db.GetValue("a", "none");
+    db.GetValue("b", "none");
+    db.GetValue("a", "none");
+    db.GetValue("missing", "none");
+    finishBackground();
+    runAllEvents();
+
+    assertEquals(1, server.getCount("MGET"));
+    assertEquals(0, server.getCount("GET"));
+    ShadowEventDispatcher.assertEventFired(db, "GotValue", "a", "x");
+    ShadowEventDispatcher.assertEventFired(db, "GotValue", "b", "y");
+    ShadowEventDispatcher.assertEventFired(db, "GotValue", "missing", "none");
+    ShadowEventDispatcher.assertEventNotFired(db, "CloudDBError");
+  }
+
+  @Test
+  public void testStoreThenGet() throws Exception {
+    db.StoreValue("a", "stored");
+    db.GetValue("a", "none");
+    finishBackground();
+    runAllEvents();
+
+    ShadowEventDispatcher.assertEventFired(db, "GotValue", "a", "stored");
+  }
+
+  @Test
+  public void testGetAfterStore() throws Exception {
+    server.put(PROJECT_ID + ":a", "\"old\"");
+    blockBackground();
+    db.GetValue("a", "none");
+    db.StoreValue("a", "new");
+    db.GetValue("a", "none");
+    finishBackground();
+    runAllEvents();
+
+    // The get made after the store is looked up after the store is sent, in
+    // a batch of its own.
+    assertEquals(2, server.getCount("MGET"));
+    ShadowEventDispatcher.assertEventFired(db, "GotValue", "a", "old");
+    ShadowEventDispatcher.assertEventFired(db, "GotValue", "a", "new");
+    ShadowEventDispatcher.assertEventNotFired(db, "CloudDBError");
+  }
+
+  @Test
+  public void testStoresArePipelined() throws Exception {
+    // Few enough stores that the pipeline is written to the server at once.
+    final int tags = 10;
+    db.StoreValue("warmup", 0);
+    finishBackground();
+
+    blockBackground();
+    for (int i = 0; i < tags; i++) {
+      db.StoreValue("tag" + i, 2);
+    }
+    int before = server.getRoundTrips();
+    finishBackground();
+
+    assertEquals(1, server.getRoundTrips() - before);
+    assertEquals("2", server.get(PROJECT_ID + ":tag" + (tags - 1)));
+  }
+}
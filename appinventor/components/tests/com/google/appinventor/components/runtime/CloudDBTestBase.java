@@ -0,0 +1,324 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.Scheduler.IdleState;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Sets up a CloudDB component that talks to a local server, which speaks
+ * enough of the Redis protocol for CloudDB, for the CloudDB tests and
+ * benchmark.
+ */
+public abstract class CloudDBTestBase extends RobolectricTestBase {
+  static final String PROJECT_ID = "test";
+  static final String SCRIPT_SHA1 = "765978e4c340012f50733280368a0ccc4a14dfb7";
+
+  RedisStub server;
+  CloudDB db;
+  private CountDownLatch blocked;
+
+  @Before
+  public void setUp() {
+    super.setUp();
+    // GotValue and CloudDBError are posted from the background thread, so
+    // keep them until runAllEvents is called on this thread.
+    ShadowLooper.getShadowMainLooper().getScheduler().setIdleState(IdleState.PAUSED);
+    try {
+      server = new RedisStub();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to start server", e);
+    }
+    db = new CloudDB(getForm());
+    db.ProjectID(PROJECT_ID);
+    db.Token("token");
+    db.RedisServer("127.0.0.1");
+    db.RedisPort(server.getPort());
+    db.UseSSL(false);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (blocked != null) {
+      blocked.countDown();
+    }
+    db.onDestroy();
+    server.close();
+  }
+
+  /*
+   * Keeps the background thread busy, so that requests made until
+   * finishBackground is called are queued together.
+   */
+  void blockBackground() {
+    final CountDownLatch latch = new CountDownLatch(1);
+    blocked = latch;
+    db.getBackground().submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          latch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+  }
+
+  /*
+   * Lets the background thread run, and waits until it has finished the
+   * work queued so far.
+   */
+  void finishBackground() throws InterruptedException, ExecutionException {
+    if (blocked != null) {
+      blocked.countDown();
+      blocked = null;
+    }
+    db.getBackground().submit(new Runnable() {
+      @Override
+      public void run() {
+      }
+    }).get();
+  }
+
+  /**
+   * A server that answers the Redis commands CloudDB sends: AUTH, EVALSHA and
+   * EVAL of the script that stores a value, GET, MGET, DEL, KEYS and QUIT.
+   * Commands that arrive together are answered together, after waiting for
+   * the latency once, so a pipeline costs one round trip.
+   */
+  static class RedisStub {
+    private final ServerSocket socket;
+    private final Map<String, String> data = new HashMap<String, String>();
+    private final Map<String, String> published = new HashMap<String, String>();
+    private final Map<String, Integer> counts = new HashMap<String, Integer>();
+    private int roundTrips = 0;
+    private volatile int latencyMillis = 0;
+    private boolean scriptLoaded = true;
+
+    RedisStub() throws IOException {
+      socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+      Thread acceptor = new Thread() {
+        @Override
+        public void run() {
+          while (!socket.isClosed()) {
+            try {
+              final Socket connection = socket.accept();
+              Thread server = new Thread() {
+                @Override
+                public void run() {
+                  serve(connection);
+                }
+              };
+              server.setDaemon(true);
+              server.start();
+            } catch (IOException e) {
+              return;  // closed
+            }
+          }
+        }
+      };
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+
+    int getPort() {
+      return socket.getLocalPort();
+    }
+
+    synchronized void setScriptLoaded(boolean loaded) {
+      scriptLoaded = loaded;
+    }
+
+    void setLatency(int millis) {
+      latencyMillis = millis;
+    }
+
+    void close() throws IOException {
+      socket.close();
+    }
+
+    synchronized void put(String key, String value) {
+      data.put(key, value);
+    }
+
+    synchronized String get(String key) {
+      return data.get(key);
+    }
+
+    synchronized String getPublished(String tag) {
+      return published.get(tag);
+    }
+
+    synchronized int getCount(String command) {
+      Integer count = counts.get(command);
+      return count == null ? 0 : count;
+    }
+
+    synchronized int getRoundTrips() {
+      return roundTrips;
+    }
+
+    private void serve(Socket connection) {
+      try {
+        InputStream in = new BufferedInputStream(connection.getInputStream());
+        OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+        try {
+          List<String> command;
+          while ((command = readCommand(in)) != null) {
+            boolean quit = command.get(0).equalsIgnoreCase("QUIT");
+            execute(command, out);
+            if (quit || in.available() == 0) {
+              reply(out);
+            }
+            if (quit) {
+              return;
+            }
+          }
+        } finally {
+          connection.close();
+        }
+      } catch (IOException e) {
+        // The client went away.
+      }
+    }
+
+    private void reply(OutputStream out) throws IOException {
+      if (latencyMillis > 0) {
+        try {
+          Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      synchronized (this) {
+        roundTrips++;
+      }
+      out.flush();
+    }
+
+    private synchronized void execute(List<String> command, OutputStream out)
+        throws IOException {
+      String name = command.get(0).toUpperCase();
+      counts.put(name, getCount(name) + 1);
+      if (name.equals("AUTH") || name.equals("QUIT")) {
+        writeLine(out, "+OK");
+      } else if (name.equals("EVALSHA") && !scriptLoaded) {
+        writeLine(out, "-NOSCRIPT No matching script. Please use EVAL.");
+      } else if (name.equals("EVALSHA") || name.equals("EVAL")) {
+        scriptLoaded = true;
+        // key, value, values to publish, project
+        data.put(command.get(6) + ":" + command.get(3), command.get(4));
+        published.put(command.get(3), command.get(5));
+        writeLine(out, "+OK");
+      } else if (name.equals("GET")) {
+        writeBulk(out, data.get(command.get(1)));
+      } else if (name.equals("MGET")) {
+        writeLine(out, "*" + (command.size() - 1));
+        for (String key : command.subList(1, command.size())) {
+          writeBulk(out, data.get(key));
+        }
+      } else if (name.equals("DEL")) {
+        int deleted = 0;
+        for (String key : command.subList(1, command.size())) {
+          if (data.remove(key) != null) {
+            deleted++;
+          }
+        }
+        writeLine(out, ":" + deleted);
+      } else if (name.equals("KEYS")) {
+        String prefix = command.get(1).substring(0, command.get(1).length() - 1);
+        List<String> keys = new ArrayList<String>();
+        for (String key : data.keySet()) {
+          if (key.startsWith(prefix)) {
+            keys.add(key);
+          }
+        }
+        writeLine(out, "*" + keys.size());
+        for (String key : keys) {
+          writeBulk(out, key);
+        }
+      } else {
+        writeLine(out, "-ERR unknown command '" + name + "'");
+      }
+    }
+
+    private static List<String> readCommand(InputStream in) throws IOException {
+      String line = readLine(in);
+      if (line == null) {
+        return null;
+      }
+      if (!line.startsWith("*")) {
+        throw new IOException("Expected an array, got " + line);
+      }
+      int count = Integer.parseInt(line.substring(1));
+      List<String> command = new ArrayList<String>(count);
+      for (int i = 0; i < count; i++) {
+        line = readLine(in);
+        if (line == null || !line.startsWith("$")) {
+          throw new IOException("Expected a bulk string, got " + line);
+        }
+        byte[] bytes = new byte[Integer.parseInt(line.substring(1))];
+        int read = 0;
+        while (read < bytes.length) {
+          int n = in.read(bytes, read, bytes.length - read);
+          if (n < 0) {
+            throw new IOException("Unexpected end of stream");
+          }
+          read += n;
+        }
+        readLine(in);  // the CRLF after the string
+        command.add(new String(bytes, "UTF-8"));
+      }
+      return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      StringBuilder line = new StringBuilder();
+      int c;
+      while ((c = in.read()) != '\n') {
+        if (c < 0) {
+          return null;
+        } else if (c != '\r') {
+          line.append((char) c);
+        }
+      }
+      return line.toString();
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+      out.write((line + "\r\n").getBytes("UTF-8"));
+    }
+
+    private static void writeBulk(OutputStream out, String value) throws IOException {
+      if (value == null) {
+        writeLine(out, "$-1");
+      } else {
+        byte[] bytes = value.getBytes("UTF-8");
+        writeLine(out, "$" + bytes.length);
+        out.write(bytes);
+        writeLine(out, "");
+      }
+    }
+  }
+}
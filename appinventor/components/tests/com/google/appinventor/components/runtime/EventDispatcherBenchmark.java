@@ -0,0 +1,84 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import static com.google.appinventor.common.testutils.BenchmarkUtils.perSecond;
+import static com.google.appinventor.common.testutils.BenchmarkUtils.report;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how many events per second the EventDispatcher dispatches, as
+ * when several Clocks with Timer handlers fire, for different numbers of
+ * Clocks.
+ *
+ * <p>Events are dispatched both with the handlers recorded in the
+ * EventDispatcher, as compiled apps do, and by asking the form to look up
+ * every handler with the event's name, as forms did before handlers were
+ * recorded.</p>
+ *
+ * <p>This does not use Robolectric, because the Robolectric tests replace the
+ * EventDispatcher with a shadow.</p>
+ */
+public class EventDispatcherBenchmark extends TestCase {
+  private static final int[] CLOCK_COUNTS = { 1, 10, 50 };
+  private static final int WARMUP_EVENTS = 100000;
+  private static final int MEASURED_EVENTS = 1000000;
+
+  public void testEventsPerSecond() {
+    for (int count : CLOCK_COUNTS) {
+      long byName = timeEvents(count, false);
+      long recorded = timeEvents(count, true);
+      report("%d clocks: by name %s, recorded handlers %s", count,
+          perSecond(MEASURED_EVENTS, byName), perSecond(MEASURED_EVENTS, recorded));
+    }
+  }
+
+  /*
+   * Fires the Timer events of the given number of clocks in turn, and returns
+   * the time taken by the measured events.
+   */
+  private static long timeEvents(int count, boolean recordHandlers) {
+    EventDispatcherTest.FakeForm form = new EventDispatcherTest.FakeForm();
+    form.recordsHandlers = recordHandlers;
+    try {
+      List<Component> clocks = new ArrayList<Component>();
+      final int[] handled = new int[1];
+      for (int i = 0; i < count; i++) {
+        String componentId = "Clock" + i;
+        clocks.add(form.addComponent(componentId));
+        form.addHandler(componentId, "Timer", new Runnable() {
+          @Override
+          public void run() {
+            handled[0]++;
+          }
+        });
+      }
+      if (recordHandlers) {
+        form.registerEventHandlers();
+      }
+
+      fireEvents(clocks, WARMUP_EVENTS);
+      handled[0] = 0;
+      long start = System.nanoTime();
+      fireEvents(clocks, MEASURED_EVENTS);
+      long nanos = System.nanoTime() - start;
+      assertEquals(MEASURED_EVENTS, handled[0]);
+      return nanos;
+    } finally {
+      EventDispatcher.removeDispatchDelegate(form);
+    }
+  }
+
+  private static void fireEvents(List<Component> clocks, int events) {
+    for (int i = 0; i < events; i++) {
+      EventDispatcher.dispatchEvent(clocks.get(i % clocks.size()), "Timer");
+    }
+  }
+}
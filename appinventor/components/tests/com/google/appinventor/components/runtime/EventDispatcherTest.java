@@ -0,0 +1,175 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests EventDispatcher.java.
+ */
+public class EventDispatcherTest extends TestCase {
+
+  /**
+   * Dispatches events the way the forms defined in runtime.scm do: the
+   * handler recorded in the EventDispatcher is used if there is one, and
+   * otherwise the component and the handler are looked up by name.
+   */
+  static class FakeForm implements HandlesEventDispatching {
+    final Map<String, Component> components = new HashMap<String, Component>();
+    final Map<String, Runnable> handlers = new HashMap<String, Runnable>();
+    boolean recordsHandlers = true;
+    int dispatchCalls = 0;
+
+    Component addComponent(String componentId) {
+      Component component = new Component() {
+        @Override
+        public HandlesEventDispatching getDispatchDelegate() {
+          return FakeForm.this;
+        }
+      };
+      components.put(componentId, component);
+      return component;
+    }
+
+    void addHandler(String componentId, String eventName, Runnable handler) {
+      handlers.put(EventDispatcher.makeFullEventName(componentId, eventName), handler);
+      EventDispatcher.registerEventForDelegation(this, componentId, eventName);
+    }
+
+    /*
+     * Records the handler of every event, as the $define method of a form does.
+     */
+    void registerEventHandlers() {
+      for (Map.Entry<String, Runnable> entry : handlers.entrySet()) {
+        String[] names = entry.getKey().split("\\$");
+        EventDispatcher.registerEventHandler(this, components.get(names[0]), names[0], names[1],
+            entry.getValue());
+      }
+      EventDispatcher.completeEventHandlers(this);
+    }
+
+    @Override
+    public boolean canDispatchEvent(Component component, String eventName) {
+      return true;
+    }
+
+    @Override
+    public boolean dispatchEvent(Component component, String componentName, String eventName,
+        Object[] args) {
+      dispatchCalls++;
+      Runnable handler =
+          (Runnable) EventDispatcher.lookupEventHandler(this, component, componentName, eventName);
+      if (handler == null) {
+        if (components.get(componentName) != component) {
+          return false;
+        }
+        handler = handlers.get(EventDispatcher.makeFullEventName(componentName, eventName));
+        if (handler == null) {
+          return false;
+        }
+        if (recordsHandlers) {
+          EventDispatcher.registerEventHandler(this, component, componentName, eventName, handler);
+        }
+      }
+      handler.run();
+      return true;
+    }
+
+    @Override
+    public void dispatchErrorOccurredEvent(Component component, String functionName,
+        int errorCode, Object... args) {
+    }
+
+    @Override
+    public void dispatchGenericEvent(Component component, String eventName,
+        boolean notAlreadyHandled, Object[] args) {
+    }
+  }
+
+  private static class CountingHandler implements Runnable {
+    int count = 0;
+
+    @Override
+    public void run() {
+      count++;
+    }
+  }
+
+  private FakeForm form;
+  private Component clock1;
+  private Component clock2;
+  private Component clock3;
+  private CountingHandler clock1Timer;
+  private CountingHandler clock2Timer;
+
+  @Override
+  protected void setUp() {
+    form = new FakeForm();
+    clock1 = form.addComponent("Clock1");
+    clock2 = form.addComponent("Clock2");
+    clock3 = form.addComponent("Clock3");
+    clock1Timer = new CountingHandler();
+    clock2Timer = new CountingHandler();
+    form.addHandler("Clock1", "Timer", clock1Timer);
+    form.addHandler("Clock2", "Timer", clock2Timer);
+  }
+
+  @Override
+  protected void tearDown() {
+    EventDispatcher.removeDispatchDelegate(form);
+  }
+
+  public void testDispatchByName() {
+    assertTrue(EventDispatcher.dispatchEvent(clock2, "Timer"));
+    assertEquals(0, clock1Timer.count);
+    assertEquals(1, clock2Timer.count);
+    assertFalse(EventDispatcher.dispatchEvent(clock3, "Timer"));
+  }
+
+  public void testDispatchWithRecordedHandlers() {
+    form.registerEventHandlers();
+    assertTrue(EventDispatcher.dispatchEvent(clock2, "Timer"));
+    assertEquals(1, clock2Timer.count);
+    // Only the form of the component's own handler is asked to dispatch the event.
+    assertEquals(1, form.dispatchCalls);
+
+    form.dispatchCalls = 0;
+    assertFalse(EventDispatcher.dispatchEvent(clock3, "Timer"));
+    assertEquals(0, form.dispatchCalls);
+  }
+
+  public void testLookupEventHandler() {
+    form.registerEventHandlers();
+    assertSame(clock1Timer, EventDispatcher.lookupEventHandler(form, clock1, "Clock1", "Timer"));
+    assertNull(EventDispatcher.lookupEventHandler(form, clock1, "Clock2", "Timer"));
+    assertNull(EventDispatcher.lookupEventHandler(form, clock3, "Clock3", "Timer"));
+  }
+
+  public void testRegisteringEventForgetsHandlers() {
+    form.registerEventHandlers();
+    CountingHandler clock3Timer = new CountingHandler();
+    form.addHandler("Clock3", "Timer", clock3Timer);
+    assertNull(EventDispatcher.lookupEventHandler(form, clock1, "Clock1", "Timer"));
+
+    // The new handler is found by name.
+    assertTrue(EventDispatcher.dispatchEvent(clock3, "Timer"));
+    assertEquals(1, clock3Timer.count);
+  }
+
+  public void testClearEventHandlers() {
+    form.registerEventHandlers();
+    CountingHandler newClock1Timer = new CountingHandler();
+    form.handlers.put(EventDispatcher.makeFullEventName("Clock1", "Timer"), newClock1Timer);
+    EventDispatcher.clearEventHandlers(form);
+
+    assertTrue(EventDispatcher.dispatchEvent(clock1, "Timer"));
+    assertEquals(0, clock1Timer.count);
+    assertEquals(1, newClock1Timer.count);
+  }
+}
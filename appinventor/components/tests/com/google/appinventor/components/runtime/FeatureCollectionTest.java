@@ -40,6 +40,17 @@ public class FeatureCollectionTest extends MapTestBase {
     ShadowEventDispatcher.assertEventFiredAny(collection, "GotFeatures");
   }
 
+  @Test
+  public void testFeaturesFromGeoJSONAddsAllFeatures() {
+    collection.FeaturesFromGeoJSON("{\"type\":\"FeatureCollection\",\"features\":[" +
+        "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[-71.0,42]}}," +
+        "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[-72.0,43]}}," +
+        "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[-73.0,44]}}]}");
+    runAllEvents();
+    assertEquals(3, collection.Features().size());
+    assertEquals(3, getMap().Features().size());
+  }
+
   @Test
   public void testFeaturesFromGeoJSONBadInput() {
     collection.FeaturesFromGeoJSON("[bad]");
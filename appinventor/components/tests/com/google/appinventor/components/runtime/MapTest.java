@@ -383,6 +383,26 @@ public class MapTest extends MapTestBase {
     assertEquals(0, map.Features().size());
   }
 
+  /**
+   * Tests that culling features outside of the bounding box does not change their visibility.
+   */
+  @Test
+  public void testCullingKeepsVisibility() {
+    map.BoundingBox(YailList.makeList(new Object[] {
+        GeometryUtil.asYailList(new GeoPoint(1.0, -1.0)),
+        GeometryUtil.asYailList(new GeoPoint(-1.0, 1.0))
+    }));
+    Marker inside = new Marker(map);
+    inside.SetLocation(0.0, 0.0);
+    Marker outside = new Marker(map);
+    outside.SetLocation(40.0, 40.0);
+    map.onBoundsChanged();
+    assertTrue(map.getController().isFeatureVisible(inside));
+    assertTrue(map.getController().isFeatureVisible(outside));
+    outside.Visible(false);
+    assertFalse(map.getController().isFeatureVisible(outside));
+  }
+
   /**
    * Tests that setting the feature list to an empty list results in clearing out of the overlays
    * in the map.
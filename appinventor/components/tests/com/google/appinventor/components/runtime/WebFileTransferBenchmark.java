@@ -0,0 +1,147 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import android.Manifest;
+import android.os.Environment;
+import com.google.appinventor.components.runtime.shadows.ShadowAsynchUtil;
+import com.google.appinventor.components.runtime.shadows.ShadowEventDispatcher;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.Shadows;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import static com.google.appinventor.common.testutils.BenchmarkUtils.megabytesPerSecond;
+import static com.google.appinventor.common.testutils.BenchmarkUtils.report;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the time the Web component takes to save a response, which it
+ * copies in chunks, with the time taken by copying it one byte at a time, as
+ * the Web component used to, using a local server.
+ */
+public class WebFileTransferBenchmark extends RobolectricTestBase {
+  private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+  private HttpServer server;
+  private String baseUrl;
+  private Web web;
+
+  @Before
+  public void setUp() {
+    super.setUp();
+    Shadows.shadowOf(getForm()).grantPermissions(Manifest.permission.READ_EXTERNAL_STORAGE);
+    Shadows.shadowOf(getForm()).grantPermissions(Manifest.permission.WRITE_EXTERNAL_STORAGE);
+    ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+
+    final byte[] content = new byte[FILE_SIZE];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i * 31 + i / 256);
+    }
+    try {
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to start server", e);
+    }
+    server.createContext("/file", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, content.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(content);
+        out.close();
+      }
+    });
+    server.start();
+    baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    web = new Web(getForm());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testSaveResponseThroughput() throws IOException {
+    // Warm up both ways of copying before timing them.
+    copyOneByteAtATime();
+    saveResponse();
+
+    long start = System.nanoTime();
+    copyOneByteAtATime();
+    long byteAtATimeNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    saveResponse();
+    long chunkedNanos = System.nanoTime() - start;
+    report("Saved %d bytes: one byte at a time %s, in chunks %s", FILE_SIZE,
+        megabytesPerSecond(FILE_SIZE, byteAtATimeNanos),
+        megabytesPerSecond(FILE_SIZE, chunkedNanos));
+  }
+
+  /*
+   * Saves the content with the Web component.
+   */
+  private void saveResponse() {
+    ShadowEventDispatcher.clearEvents();
+    web.Url(baseUrl + "/file");
+    web.SaveResponse(true);
+    web.ResponseFileName("WebFileTransferBenchmark.bin");
+    web.Get();
+    ShadowAsynchUtil.runAllPendingRunnables();
+    runAllEvents();
+    ShadowEventDispatcher.assertEventFiredAny(web, "GotFile");
+  }
+
+  /*
+   * Saves the content as the Web component did before it copied in chunks.
+   */
+  private void copyOneByteAtATime() throws IOException {
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL(baseUrl + "/file").openConnection();
+    java.io.File file = new java.io.File(Environment.getExternalStorageDirectory(),
+        "WebFileTransferBenchmark-bytes.bin");
+    file.deleteOnExit();
+    try {
+      InputStream in = new BufferedInputStream(connection.getInputStream(), 0x1000);
+      try {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 0x1000);
+        try {
+          while (true) {
+            int b = in.read();
+            if (b == -1) {
+              break;
+            }
+            out.write(b);
+          }
+          out.flush();
+        } finally {
+          out.close();
+        }
+      } finally {
+        in.close();
+      }
+    } finally {
+      connection.disconnect();
+    }
+    assertEquals(FILE_SIZE, file.length());
+  }
+}
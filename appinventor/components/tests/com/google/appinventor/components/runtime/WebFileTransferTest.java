@@ -0,0 +1,153 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import android.Manifest;
+import android.os.Environment;
+import com.google.appinventor.components.runtime.shadows.ShadowAsynchUtil;
+import com.google.appinventor.components.runtime.shadows.ShadowEventDispatcher;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.Shadows;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the Web component sends and saves files in chunks, using a
+ * local server.
+ */
+public class WebFileTransferTest extends RobolectricTestBase {
+  private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+  private HttpServer server;
+  private byte[] content;
+  private String baseUrl;
+  private Web web;
+
+  @Before
+  public void setUp() {
+    super.setUp();
+    Shadows.shadowOf(getForm()).grantPermissions(Manifest.permission.READ_EXTERNAL_STORAGE);
+    Shadows.shadowOf(getForm()).grantPermissions(Manifest.permission.WRITE_EXTERNAL_STORAGE);
+    ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+
+    content = new byte[FILE_SIZE];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i * 31 + i / 256);
+    }
+    try {
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to start server", e);
+    }
+    // Serves the content.
+    server.createContext("/file", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, content.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(content);
+        out.close();
+      }
+    });
+    // Responds with the size of the request body, after checking that it is the content.
+    server.createContext("/upload", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = readAll(exchange.getRequestBody());
+        byte[] response = (Arrays.equals(content, body) ? "" + body.length : "mismatch")
+            .getBytes("UTF-8");
+        exchange.getResponseHeaders().add("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(200, response.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(response);
+        out.close();
+      }
+    });
+    server.start();
+    baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    web = new Web(getForm());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testSaveResponse() throws IOException {
+    String url = baseUrl + "/file";
+    web.Url(url);
+    web.SaveResponse(true);
+    web.ResponseFileName("WebFileTransferTest.bin");
+    web.Get();
+    ShadowAsynchUtil.runAllPendingRunnables();
+    runAllEvents();
+
+    Object[] args = ShadowEventDispatcher.getArgumentsForEventFired(web, "GotFile");
+    assertEquals(200, args[1]);
+    java.io.File file = new java.io.File((String) args[3]);
+    file.deleteOnExit();
+    assertArrayEquals(content, readAll(new FileInputStream(file)));
+    ShadowEventDispatcher.assertEventFired(web, "DownloadProgress", url, (long) FILE_SIZE,
+        (long) FILE_SIZE);
+  }
+
+  @Test
+  public void testPostFile() throws IOException {
+    java.io.File file = new java.io.File(Environment.getExternalStorageDirectory(),
+        "WebFileTransferTest-upload.bin");
+    file.deleteOnExit();
+    file.getParentFile().mkdirs();
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content);
+    } finally {
+      out.close();
+    }
+
+    String url = baseUrl + "/upload";
+    web.Url(url);
+    web.PostFile(file.getAbsolutePath());
+    ShadowAsynchUtil.runAllPendingRunnables();
+    runAllEvents();
+
+    ShadowEventDispatcher.assertEventFired(web, "GotText", url, 200, "text/plain",
+        "" + FILE_SIZE);
+    ShadowEventDispatcher.assertEventFired(web, "UploadProgress", url, (long) FILE_SIZE,
+        (long) FILE_SIZE);
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[0x2000];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -12,6 +12,7 @@ import org.robolectric.annotation.Implements;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 @Implements(AsynchUtil.class)
 public class ShadowAsynchUtil {
@@ -33,15 +34,23 @@ public class ShadowAsynchUtil {
   }
 
   @Implementation
-  public static void runAsynchronously(final Runnable call) {
+  public static Future<?> runAsynchronously(final Runnable call) {
     runnables.add(call);
+    return null;
   }
 
   @Implementation
-  public static void runAsynchronously(final Handler androidUIHandler,
-                                       final Runnable call,
-                                       final Runnable callback) {
+  public static Future<?> runAsynchronously(final Object owner, final Runnable call) {
+    runnables.add(call);
+    return null;
+  }
+
+  @Implementation
+  public static Future<?> runAsynchronously(final Handler androidUIHandler,
+                                            final Runnable call,
+                                            final Runnable callback) {
     runnables.add(call);
     runnables.add(callback);
+    return null;
   }
 }
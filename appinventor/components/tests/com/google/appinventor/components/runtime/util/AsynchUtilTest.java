@@ -0,0 +1,130 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests AsynchUtil class.
+ */
+public class AsynchUtilTest extends TestCase {
+  private static final long TIMEOUT_SECONDS = 10;
+  private static final int BLOCKED_CALLS = 8;
+
+  public void testThreadsAreReused() throws Exception {
+    int threadsBefore = AsynchUtil.getThreadsCreated();
+    for (int i = 0; i < 3 * AsynchUtil.MAX_THREADS; i++) {
+      AsynchUtil.runAsynchronously(new Runnable() {
+        public void run() {
+        }
+      }).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+    assertTrue(AsynchUtil.getThreadsCreated() - threadsBefore <= AsynchUtil.MAX_THREADS);
+  }
+
+  public void testBlockedCallsDoNotStarveOthers() throws Exception {
+    // More blocked calls than most phones have processors, as when several components wait
+    // for connections or for Web requests without a timeout, but fewer than MAX_THREADS so
+    // that a thread is left for the next call.
+    final CountDownLatch release = new CountDownLatch(1);
+    List<Future<?>> blocked = new ArrayList<Future<?>>();
+    for (int i = 0; i < BLOCKED_CALLS; i++) {
+      blocked.add(AsynchUtil.runAsynchronously(new Runnable() {
+        public void run() {
+          try {
+            release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }));
+    }
+    try {
+      AsynchUtil.runAsynchronously(new Runnable() {
+        public void run() {
+        }
+      }).get(1, TimeUnit.SECONDS);
+    } finally {
+      release.countDown();
+    }
+    for (Future<?> call : blocked) {
+      call.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+  }
+
+  public void testCallsPerOwnerAreLimited() throws Exception {
+    Object owner = new Object();
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger running = new AtomicInteger(0);
+    final AtomicInteger maxRunning = new AtomicInteger(0);
+    List<Future<?>> calls = new ArrayList<Future<?>>();
+    for (int i = 0; i < AsynchUtil.MAX_CALLS_PER_OWNER + 2; i++) {
+      calls.add(AsynchUtil.runAsynchronously(owner, new Runnable() {
+        public void run() {
+          int now = running.incrementAndGet();
+          synchronized (maxRunning) {
+            maxRunning.set(Math.max(maxRunning.get(), now));
+          }
+          try {
+            release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          running.decrementAndGet();
+        }
+      }));
+    }
+    assertTrue(AsynchUtil.getWaitingCalls() >= 2);
+    release.countDown();
+    for (Future<?> call : calls) {
+      call.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+    assertTrue(maxRunning.get() <= AsynchUtil.MAX_CALLS_PER_OWNER);
+  }
+
+  public void testCancelWaitingCall() throws Exception {
+    Object owner = new Object();
+    final CountDownLatch release = new CountDownLatch(1);
+    List<Future<?>> calls = new ArrayList<Future<?>>();
+    for (int i = 0; i < AsynchUtil.MAX_CALLS_PER_OWNER; i++) {
+      calls.add(AsynchUtil.runAsynchronously(owner, new Runnable() {
+        public void run() {
+          try {
+            release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }));
+    }
+    final AtomicBoolean ran = new AtomicBoolean(false);
+    Future<?> cancelled = AsynchUtil.runAsynchronously(owner, new Runnable() {
+      public void run() {
+        ran.set(true);
+      }
+    });
+    assertTrue(cancelled.cancel(false));
+    release.countDown();
+    for (Future<?> call : calls) {
+      call.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Calls of the owner still run after the cancelled call is skipped.
+    AsynchUtil.runAsynchronously(owner, new Runnable() {
+      public void run() {
+      }
+    }).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertFalse(ran.get());
+  }
+}
@@ -0,0 +1,127 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+/**
+ * Tests ByteRingBuffer.java.
+ */
+public class ByteRingBufferTest extends TestCase {
+
+  private static InputStream stream(String text) {
+    return new ByteArrayInputStream(text.getBytes());
+  }
+
+  private static String read(ByteRingBuffer buffer, int length) {
+    byte[] bytes = new byte[length];
+    int count = buffer.read(bytes, 0, length);
+    return new String(bytes, 0, count);
+  }
+
+  public void testReadAndWrap() throws Exception {
+    ByteRingBuffer buffer = new ByteRingBuffer(8);
+    assertEquals(6, buffer.readFrom(stream("abcdef")));
+    assertEquals("abcd", read(buffer, 4));
+    assertEquals(2, buffer.available());
+
+    // The free space wraps around, so it is read into in two parts.
+    InputStream in = stream("ghijkl");
+    assertEquals(2, buffer.readFrom(in));
+    assertEquals(4, buffer.readFrom(in));
+    assertEquals(8, buffer.available());
+    assertEquals("efghijkl", read(buffer, 100));
+    assertEquals(0, buffer.available());
+    assertEquals(-1, buffer.readFrom(in));
+  }
+
+  public void testIndexOf() throws Exception {
+    ByteRingBuffer buffer = new ByteRingBuffer(8);
+    buffer.readFrom(stream("abcdef"));
+    read(buffer, 5);
+    InputStream in = stream("gh\nij");
+    assertEquals(2, buffer.readFrom(in));
+    assertEquals(3, buffer.readFrom(in));
+    assertEquals(4, buffer.indexOf((byte) '\n'));
+    assertEquals(4, buffer.awaitByte((byte) '\n'));
+    assertEquals(-1, buffer.indexOf((byte) 'a'));
+    assertEquals("fgh\n", read(buffer, 4));
+  }
+
+  public void testAwaitOnClosedBuffer() throws Exception {
+    ByteRingBuffer buffer = new ByteRingBuffer(8);
+    buffer.readFrom(stream("abc"));
+    IOException error = new IOException("socket closed");
+    buffer.close(error);
+    assertTrue(buffer.isClosed());
+    assertSame(error, buffer.getError());
+    assertEquals(3, buffer.awaitBytes(5));
+    assertEquals(-1, buffer.awaitByte((byte) '\n'));
+    assertEquals("abc", read(buffer, 5));
+    assertEquals(-1, buffer.readFrom(stream("def")));
+  }
+
+  public void testAwaitOnFullBuffer() throws Exception {
+    ByteRingBuffer buffer = new ByteRingBuffer(4);
+    buffer.readFrom(stream("abcdef"));
+    assertEquals(4, buffer.awaitBytes(10));
+    assertEquals(-1, buffer.awaitByte((byte) '\n'));
+  }
+
+  public void testTransferBetweenThreads() throws Exception {
+    final int count = 100000;
+    final ByteRingBuffer buffer = new ByteRingBuffer(64);
+    final PipedOutputStream out = new PipedOutputStream();
+    final PipedInputStream in = new PipedInputStream(out);
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (buffer.readFrom(in) != -1) {
+          }
+          buffer.close(null);
+        } catch (Exception e) {
+          buffer.close(new IOException(e.getMessage()));
+        }
+      }
+    });
+    reader.start();
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < count; i++) {
+            out.write(i);
+          }
+          out.close();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    writer.start();
+
+    byte[] bytes = new byte[10];
+    int received = 0;
+    while (buffer.awaitBytes(bytes.length) > 0) {
+      int n = buffer.read(bytes, 0, bytes.length);
+      for (int i = 0; i < n; i++) {
+        assertEquals((byte) (received + i), bytes[i]);
+      }
+      received += n;
+    }
+    assertEquals(count, received);
+    assertNull(buffer.getError());
+    writer.join();
+    reader.join();
+  }
+}
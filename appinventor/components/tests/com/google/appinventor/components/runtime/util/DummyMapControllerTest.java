@@ -218,6 +218,11 @@ public class DummyMapControllerTest {
     mapController.isFeatureVisible(null);
   }
 
+  @Test(expected = UnsupportedOperationException.class)
+  public void testSetFeatureCulled() {
+    mapController.setFeatureCulled(null, true);
+  }
+
   @Test(expected = UnsupportedOperationException.class)
   public void testShowInfobox() {
     mapController.showInfobox(null);
@@ -0,0 +1,212 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import static com.google.appinventor.common.testutils.BenchmarkUtils.megabytes;
+import static com.google.appinventor.common.testutils.BenchmarkUtils.millis;
+import static com.google.appinventor.common.testutils.BenchmarkUtils.report;
+
+import junit.framework.TestCase;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares reading the features of a 20MB GeoJSON file with
+ * {@link GeoJSONReader} with reading the whole file into a string, parsing it
+ * with org.json and converting the parsed objects into YailLists, which is how
+ * Map and FeatureCollection used to load GeoJSON.
+ *
+ * <p>The file is a FeatureCollection of polygons with a few properties each,
+ * like the parcel and building outlines that cities publish, and is written
+ * to a temporary file before it is read. For each way of reading it, the time
+ * taken and the memory in use at the point where the most is held are
+ * reported.</p>
+ */
+public class GeoJSONReaderBenchmark extends TestCase {
+  private static final long FILE_SIZE = 20L * 1024 * 1024;
+  private static final int POINTS_PER_POLYGON = 12;
+
+  private File fixture;
+  private int featureCount;
+
+  @Override
+  protected void setUp() throws IOException {
+    fixture = File.createTempFile("GeoJSONReaderBenchmark", ".geojson");
+    fixture.deleteOnExit();
+    Random random = new Random(42);
+    Writer out = new OutputStreamWriter(new FileOutputStream(fixture), "UTF-8");
+    try {
+      out.write("{\"type\": \"FeatureCollection\", \"features\": [\n");
+      while (fixture.length() < FILE_SIZE) {
+        if (featureCount > 0) {
+          out.write(",\n");
+        }
+        writePolygon(out, random, featureCount++);
+        if (featureCount % 1000 == 0) {
+          out.flush();
+        }
+      }
+      out.write("\n]}\n");
+    } finally {
+      out.close();
+    }
+  }
+
+  @Override
+  protected void tearDown() {
+    fixture.delete();
+  }
+
+  public void testLoad() throws Exception {
+    // Warm up both ways of reading before measuring them.
+    readWithJSONObject();
+    readWithGeoJSONReader();
+
+    long start = System.nanoTime();
+    long jsonObjectBytes = readWithJSONObject();
+    long jsonObjectNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    long streamingBytes = readWithGeoJSONReader();
+    long streamingNanos = System.nanoTime() - start;
+
+    report("%d features in %s: string and JSONObject %s, %s held; GeoJSONReader %s, %s held",
+        featureCount, megabytes(fixture.length()), millis(jsonObjectNanos),
+        megabytes(jsonObjectBytes), millis(streamingNanos), megabytes(streamingBytes));
+  }
+
+  /*
+   * Reads the fixture with a GeoJSONReader, and returns the memory in use
+   * once all of the features are read.
+   */
+  private long readWithGeoJSONReader() throws IOException, JSONException {
+    long before = usedMemory();
+    GeoJSONReader reader = new GeoJSONReader(
+        new InputStreamReader(new FileInputStream(fixture), "UTF-8"), Long.MAX_VALUE);
+    try {
+      List<YailList> features = new ArrayList<YailList>();
+      YailList feature;
+      while ((feature = reader.nextFeature()) != null) {
+        features.add(feature);
+      }
+      assertEquals(featureCount, features.size());
+      return usedMemory() - before;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /*
+   * Reads the fixture as Map and FeatureCollection used to, and returns the
+   * memory in use once the features are converted, while the string and the
+   * parsed objects are still held.
+   */
+  private long readWithJSONObject() throws IOException, JSONException {
+    long before = usedMemory();
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(fixture), "UTF-8"));
+    StringBuilder content = new StringBuilder();
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        content.append(line);
+        content.append("\n");
+      }
+    } finally {
+      reader.close();
+    }
+    String text = content.toString();
+    JSONObject parsedData = new JSONObject(text);
+    JSONArray features = parsedData.getJSONArray("features");
+    List<YailList> yailFeatures = new ArrayList<YailList>();
+    for (int i = 0; i < features.length(); i++) {
+      yailFeatures.add(jsonObjectToYail(features.getJSONObject(i)));
+    }
+    assertEquals(featureCount, yailFeatures.size());
+    long held = usedMemory() - before;
+    // Keep the string and the parsed objects reachable until they are measured.
+    assertTrue(text.length() > 0 && parsedData.length() > 0);
+    return held;
+  }
+
+  private static YailList jsonObjectToYail(JSONObject object) throws JSONException {
+    List<YailList> pairs = new ArrayList<YailList>();
+    @SuppressWarnings("unchecked")  // json only allows String keys
+    Iterator<String> j = object.keys();
+    while (j.hasNext()) {
+      String key = j.next();
+      Object value = object.get(key);
+      if (value instanceof JSONArray) {
+        value = jsonArrayToYail((JSONArray) value);
+      } else if (value instanceof JSONObject) {
+        value = jsonObjectToYail((JSONObject) value);
+      }
+      if (!JSONObject.NULL.equals(value)) {
+        pairs.add(YailList.makeList(new Object[] { key, value }));
+      }
+    }
+    return YailList.makeList(pairs);
+  }
+
+  private static YailList jsonArrayToYail(JSONArray array) throws JSONException {
+    List<Object> items = new ArrayList<Object>();
+    for (int i = 0; i < array.length(); i++) {
+      Object value = array.get(i);
+      if (value instanceof JSONArray) {
+        items.add(jsonArrayToYail((JSONArray) value));
+      } else if (value instanceof JSONObject) {
+        items.add(jsonObjectToYail((JSONObject) value));
+      } else if (!JSONObject.NULL.equals(value)) {
+        items.add(value);
+      }
+    }
+    return YailList.makeList(items);
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static void writePolygon(Writer out, Random random, int id) throws IOException {
+    double latitude = 42.2 + random.nextDouble() * 0.2;
+    double longitude = -71.2 + random.nextDouble() * 0.2;
+    out.write("{\"type\": \"Feature\", \"properties\": {\"title\": \"Parcel ");
+    out.write(Integer.toString(id));
+    out.write("\", \"description\": \"Zoned residential\", \"fill\": \"#3388ff\", " +
+        "\"stroke-width\": 1}, \"geometry\": {\"type\": \"Polygon\", \"coordinates\": [[");
+    for (int i = 0; i <= POINTS_PER_POLYGON; i++) {
+      // The last point closes the ring.
+      double angle = 2 * Math.PI * (i % POINTS_PER_POLYGON) / POINTS_PER_POLYGON;
+      if (i > 0) {
+        out.write(", ");
+      }
+      out.write("[");
+      out.write(Double.toString(longitude + 0.0005 * Math.cos(angle)));
+      out.write(", ");
+      out.write(Double.toString(latitude + 0.0005 * Math.sin(angle)));
+      out.write("]");
+    }
+    out.write("]]}}");
+  }
+}
@@ -0,0 +1,110 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import junit.framework.TestCase;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Tests GeoJSONReader.java.
+ */
+public class GeoJSONReaderTest extends TestCase {
+  private static final long MAX_BYTES = 1 << 20;
+
+  private static GeoJSONReader reader(String geojson) {
+    return new GeoJSONReader(new StringReader(geojson), MAX_BYTES);
+  }
+
+  public void testFeatures() throws Exception {
+    GeoJSONReader reader = reader("\uFEFF{\"type\": \"FeatureCollection\", \"features\": [\n" +
+        "  {\"type\": \"Feature\", \"geometry\": {\"type\": \"Point\", \"coordinates\": [-71.5, 42]}},\n" +
+        "  {\"type\": \"Feature\", \"properties\": {\"title\": \"caf\\u00e9 \\\"1\\\"\", \"n\": null}}\n" +
+        "]}");
+    YailList feature = reader.nextFeature();
+    assertEquals(2, feature.size());
+    YailList geometry = (YailList) ((YailList) feature.getObject(1)).getObject(1);
+    assertEquals("coordinates", ((YailList) geometry.getObject(1)).getString(0));
+    YailList coordinates = (YailList) ((YailList) geometry.getObject(1)).getObject(1);
+    assertEquals(-71.5, coordinates.getObject(0));
+    assertEquals(42, coordinates.getObject(1));
+
+    feature = reader.nextFeature();
+    YailList properties = (YailList) ((YailList) feature.getObject(1)).getObject(1);
+    // The null property is left out.
+    assertEquals(1, properties.size());
+    assertEquals("caf\u00e9 \"1\"", ((YailList) properties.getObject(0)).getObject(1));
+
+    assertNull(reader.nextFeature());
+    assertNull(reader.nextFeature());
+    assertEquals("FeatureCollection", reader.getType());
+    assertTrue(reader.hasFeatures());
+  }
+
+  public void testNumbers() throws Exception {
+    GeoJSONReader reader = reader("{\"features\": [{\"n\": [1, 12345678901, 1e3, -0.5, " +
+        "123456789012345678901234]}]}");
+    YailList numbers = (YailList) ((YailList) reader.nextFeature().getObject(0)).getObject(1);
+    assertEquals(1, numbers.getObject(0));
+    assertEquals(12345678901L, numbers.getObject(1));
+    assertEquals(1000.0, numbers.getObject(2));
+    assertEquals(-0.5, numbers.getObject(3));
+    assertEquals(123456789012345678901234.0, numbers.getObject(4));
+  }
+
+  public void testOtherMembersSkipped() throws Exception {
+    GeoJSONReader reader = reader("{\"crs\": {\"a\": [1, {\"b\": \"]}\\\"\"}]}, \"features\": []," +
+        " \"bbox\": [1, 2, 3, 4], \"type\": \"GeometryCollection\"}");
+    assertNull(reader.nextFeature());
+    assertEquals("GeometryCollection", reader.getType());
+    assertTrue(reader.hasFeatures());
+  }
+
+  public void testNoFeatures() throws Exception {
+    GeoJSONReader reader = reader("{\"type\": \"Garbage\"}");
+    assertNull(reader.nextFeature());
+    assertEquals("Garbage", reader.getType());
+    assertFalse(reader.hasFeatures());
+  }
+
+  public void testMalformed() throws Exception {
+    assertMalformed("[bad]");
+    assertMalformed("{\"features\": [1]}");
+    assertMalformed("{\"features\": [{\"a\": 1}");
+    assertMalformed("{\"features\": [{\"a\": tru}]}");
+    assertMalformed("{\"features\": [{\"a\": \"b}]}");
+    assertMalformed("{\"features\": []} extra");
+  }
+
+  public void testTooLarge() throws Exception {
+    StringBuilder geojson = new StringBuilder("{\"features\": [");
+    for (int i = 0; i < 100000; i++) {
+      geojson.append(i == 0 ? "" : ",").append("{\"n\": ").append(i).append("}");
+    }
+    geojson.append("]}");
+    GeoJSONReader reader = reader(geojson.toString());
+    try {
+      while (reader.nextFeature() != null) {
+      }
+      fail();
+    } catch (JSONException e) {
+      // this is the intended behavior
+    }
+  }
+
+  private static void assertMalformed(String geojson) throws IOException {
+    GeoJSONReader reader = reader(geojson);
+    try {
+      while (reader.nextFeature() != null) {
+      }
+      fail(geojson);
+    } catch (JSONException e) {
+      // this is the intended behavior
+    }
+  }
+}
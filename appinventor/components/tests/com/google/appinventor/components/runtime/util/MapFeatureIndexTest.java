@@ -0,0 +1,117 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import com.google.appinventor.components.runtime.LineString;
+import com.google.appinventor.components.runtime.MapTestBase;
+import com.google.appinventor.components.runtime.Marker;
+import com.google.appinventor.components.runtime.util.MapFactory.MapFeature;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests MapFeatureIndex.java.
+ */
+public class MapFeatureIndexTest extends MapTestBase {
+
+  private List<MapFeature> features;
+  private MapFeatureIndex index;
+
+  @Before
+  public void setUp() {
+    super.setUp();
+    features = new ArrayList<MapFeature>();
+    index = new MapFeatureIndex(features);
+  }
+
+  private Marker makeMarker(double latitude, double longitude) {
+    Marker marker = new Marker(getMap());
+    marker.SetLocation(latitude, longitude);
+    features.add(marker);
+    return marker;
+  }
+
+  @Test
+  public void testQuery() {
+    Marker inside = makeMarker(0.5, 0.5);
+    makeMarker(10.0, 10.0);
+    LineString crossing = makeLineString(getMap(), 5.0, 0.0, -5.0, 0.0);
+    features.add(crossing);
+    // The envelope of this line is north of the bounds.
+    features.add(makeLineString(getMap(), 5.0, -5.0, 5.0, 5.0));
+    assertEquals(new HashSet<MapFeature>(Arrays.asList(inside, crossing)),
+        index.query(1.0, -1.0, -1.0, 1.0));
+  }
+
+  @Test
+  public void testQueryAcrossAntimeridian() {
+    Marker east = makeMarker(0.0, 179.5);
+    Marker west = makeMarker(0.0, -179.5);
+    makeMarker(0.0, 0.0);
+    assertEquals(new HashSet<MapFeature>(Arrays.asList(east, west)),
+        index.query(1.0, 179.0, -1.0, -179.0));
+  }
+
+  @Test
+  public void testInvalidate() {
+    Marker marker = makeMarker(0.0, 0.0);
+    assertTrue(index.isStale());
+    assertEquals(1, index.query(1.0, -1.0, -1.0, 1.0).size());
+    assertFalse(index.isStale());
+
+    marker.SetLocation(20.0, 20.0);
+    index.invalidate();
+    assertTrue(index.isStale());
+    assertTrue(index.query(1.0, -1.0, -1.0, 1.0).isEmpty());
+    assertEquals(1, index.query(21.0, 19.0, 19.0, 21.0).size());
+  }
+
+  @Test
+  public void testChangedFeatures() {
+    Marker moved = makeMarker(0.0, 0.0);
+    Marker removed = makeMarker(0.5, 0.5);
+    assertEquals(2, index.query(1.0, -1.0, -1.0, 1.0).size());
+
+    moved.SetLocation(20.0, 20.0);
+    index.featureChanged(moved);
+    features.remove(removed);
+    index.featureRemoved(removed);
+    Marker added = makeMarker(-0.5, -0.5);
+    index.featureAdded(added);
+    // A few changes do not rebuild the tree.
+    assertFalse(index.isStale());
+    assertEquals(new HashSet<MapFeature>(Arrays.asList(added)),
+        index.query(1.0, -1.0, -1.0, 1.0));
+    assertEquals(new HashSet<MapFeature>(Arrays.asList(moved)),
+        index.query(21.0, 19.0, 19.0, 21.0));
+  }
+
+  @Test
+  public void testManyChangesRebuild() {
+    List<Marker> markers = new ArrayList<Marker>();
+    for (int i = 0; i < 40; i++) {
+      markers.add(makeMarker(0.0, 0.0));
+    }
+    assertEquals(40, index.query(1.0, -1.0, -1.0, 1.0).size());
+    for (Marker marker : markers) {
+      marker.SetLocation(20.0, 20.0);
+      index.featureChanged(marker);
+    }
+    assertTrue(index.isStale());
+    assertTrue(index.query(1.0, -1.0, -1.0, 1.0).isEmpty());
+    assertFalse(index.isStale());
+    assertEquals(40, index.query(21.0, 19.0, 19.0, 21.0).size());
+  }
+}
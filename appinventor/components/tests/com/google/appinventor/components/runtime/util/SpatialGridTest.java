@@ -0,0 +1,90 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests SpatialGrid class.
+ */
+public class SpatialGridTest extends TestCase {
+  private SpatialGrid<String> grid;
+
+  @Override
+  protected void setUp() {
+    grid = new SpatialGrid<String>(10);
+  }
+
+  private Set<String> query(double left, double top, double right, double bottom) {
+    Set<String> result = new HashSet<String>();
+    grid.query(new BoundingBox(left, top, right, bottom), result);
+    return result;
+  }
+
+  public void testQuery() {
+    grid.update("a", new BoundingBox(0, 0, 5, 5));
+    grid.update("b", new BoundingBox(50, 50, 55, 55));
+    grid.update("c", new BoundingBox(-25, -25, -21, -21));
+    assertEquals(3, grid.size());
+
+    Set<String> result = query(4, 4, 8, 8);
+    assertTrue(result.contains("a"));
+    assertFalse(result.contains("b"));
+    assertFalse(result.contains("c"));
+
+    result = query(-24, -24, -22, -22);
+    assertTrue(result.contains("c"));
+    assertFalse(result.contains("a"));
+  }
+
+  public void testItemAcrossCells() {
+    grid.update("a", new BoundingBox(5, 5, 25, 25));
+    assertTrue(query(22, 22, 23, 23).contains("a"));
+    assertTrue(query(0, 0, 1, 1).contains("a"));
+  }
+
+  public void testUpdateMovesItem() {
+    grid.update("a", new BoundingBox(0, 0, 5, 5));
+    grid.update("a", new BoundingBox(100, 100, 105, 105));
+    assertEquals(1, grid.size());
+    assertFalse(query(0, 0, 5, 5).contains("a"));
+    assertTrue(query(100, 100, 105, 105).contains("a"));
+  }
+
+  public void testRemove() {
+    grid.update("a", new BoundingBox(0, 0, 5, 5));
+    grid.remove("a");
+    grid.remove("never added");
+    assertEquals(0, grid.size());
+    assertTrue(query(0, 0, 5, 5).isEmpty());
+  }
+
+  public void testOversizedItem() {
+    grid.update("big", new BoundingBox(0, 0, 1000, 1000));
+    grid.update("a", new BoundingBox(2000, 2000, 2005, 2005));
+    assertTrue(query(2000, 2000, 2005, 2005).contains("big"));
+
+    // Shrinking the item records it in cells again.
+    grid.update("big", new BoundingBox(0, 0, 5, 5));
+    assertFalse(query(2000, 2000, 2005, 2005).contains("big"));
+    assertTrue(query(0, 0, 5, 5).contains("big"));
+
+    grid.update("big", new BoundingBox(0, 0, 1000, 1000));
+    grid.remove("big");
+    assertFalse(query(2000, 2000, 2005, 2005).contains("big"));
+  }
+
+  public void testLargeQuery() {
+    grid.update("a", new BoundingBox(0, 0, 5, 5));
+    grid.update("b", new BoundingBox(5000, 5000, 5005, 5005));
+    Set<String> result = query(-10000, -10000, 10000, 10000);
+    assertTrue(result.contains("a"));
+    assertTrue(result.contains("b"));
+  }
+}
@@ -0,0 +1,158 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import android.os.SystemClock;
+import com.google.appinventor.components.runtime.AlarmHandler;
+import com.google.appinventor.components.runtime.RobolectricTestBase;
+import org.junit.After;
+import org.junit.Test;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the tick rate of TimerInternal in each of its modes when the alarm handler is slow.
+ */
+public class TimerInternalTest extends RobolectricTestBase {
+
+  private static final int INTERVAL = 20;  // ms
+
+  private SlowAlarmHandler handler = new SlowAlarmHandler();
+  private TimerInternal timer;
+
+  /**
+   * An alarm handler that counts its calls and takes a given time to return.
+   */
+  private static class SlowAlarmHandler implements AlarmHandler {
+    int ticks = 0;
+    long busyMillis = 0;
+
+    @Override
+    public void alarm() {
+      ticks++;
+      if (busyMillis > 0) {
+        SystemClock.sleep(busyMillis);
+      }
+    }
+  }
+
+  @After
+  public void tearDown() {
+    if (timer != null) {
+      timer.Enabled(false);
+    }
+  }
+
+  @Test
+  public void testDelayDriftsByHandlerTime() {
+    handler.busyMillis = 5;
+    timer = new TimerInternal(handler, true, INTERVAL);
+    runFor(1000);
+    // Each tick takes the interval plus the time spent in the handler.
+    assertTrue("Too many ticks: " + handler.ticks, handler.ticks <= 1000 / (INTERVAL + 5) + 1);
+    assertTrue("Too few ticks: " + handler.ticks, handler.ticks >= 1000 / (INTERVAL + 5) - 1);
+  }
+
+  @Test
+  public void testFixedRateDoesNotDrift() {
+    handler.busyMillis = 5;
+    timer = new TimerInternal(handler, false, INTERVAL);
+    timer.Mode(TimerInternal.MODE_FIXED_RATE);
+    timer.Enabled(true);
+    runFor(1000);
+    assertTrue("Too many ticks: " + handler.ticks, handler.ticks <= 1000 / INTERVAL + 1);
+    assertTrue("Too few ticks: " + handler.ticks, handler.ticks >= 1000 / INTERVAL - 1);
+    assertEquals(INTERVAL, timer.Elapsed());
+  }
+
+  @Test
+  public void testFixedRateCoalescesMissedTicks() {
+    handler.busyMillis = 30;
+    timer = new TimerInternal(handler, false, INTERVAL);
+    timer.Mode(TimerInternal.MODE_FIXED_RATE);
+    timer.Enabled(true);
+    runFor(1000);
+    // The handler takes longer than the interval, so every tick runs as soon as the one before
+    // it returns, and the ticks that were missed are not queued up.
+    assertTrue("Too many ticks: " + handler.ticks, handler.ticks <= 1000 / 30 + 1);
+    assertTrue("Too few ticks: " + handler.ticks, handler.ticks >= 1000 / 30 - 1);
+    assertEquals(30, timer.Elapsed());
+
+    // Once the handler is fast again, the timer returns to its rate without a burst of the
+    // ticks that were missed.
+    handler.busyMillis = 0;
+    handler.ticks = 0;
+    runFor(200);
+    assertTrue("Burst of " + handler.ticks + " ticks", handler.ticks <= 200 / INTERVAL + 1);
+    assertTrue("Too few ticks: " + handler.ticks, handler.ticks >= 200 / INTERVAL - 1);
+  }
+
+  @Test
+  public void testFrameModeTicks() {
+    timer = new TimerInternal(handler, false, INTERVAL);
+    timer.Mode(TimerInternal.MODE_FRAME);
+    timer.Enabled(true);
+    runFor(1000);
+    assertTrue("No ticks in Frame mode", handler.ticks > 0);
+    assertTrue("Too many ticks: " + handler.ticks, handler.ticks <= 1000 / INTERVAL + 1);
+    assertTrue(timer.Elapsed() > 0);
+  }
+
+  @Test
+  public void testModeChangeRestartsTimer() {
+    timer = new TimerInternal(handler, true, INTERVAL);
+    runFor(INTERVAL / 2);
+    timer.Mode(TimerInternal.MODE_FIXED_RATE);
+    runFor(INTERVAL / 2);
+    assertEquals(0, handler.ticks);
+    runFor(INTERVAL / 2);
+    assertEquals(1, handler.ticks);
+    assertEquals(TimerInternal.MODE_FIXED_RATE, timer.Mode());
+  }
+
+  @Test
+  public void testRestartFromAlarmDoesNotAddTicks() {
+    for (final String mode : new String[] { TimerInternal.MODE_DELAY,
+        TimerInternal.MODE_FIXED_RATE, TimerInternal.MODE_FRAME }) {
+      final int[] ticks = new int[1];
+      final TimerInternal[] restarted = new TimerInternal[1];
+      restarted[0] = new TimerInternal(new AlarmHandler() {
+        @Override
+        public void alarm() {
+          ticks[0]++;
+          // As a Timer handler that sets TimerInterval, TimerEnabled or TimerMode does.
+          restarted[0].Interval(INTERVAL);
+          restarted[0].Enabled(false);
+          restarted[0].Enabled(true);
+          restarted[0].Mode(mode);
+        }
+      }, false, INTERVAL);
+      timer = restarted[0];
+      timer.Mode(mode);
+      timer.Enabled(true);
+      runFor(1000);
+      // Every restart schedules the next tick an interval later, so there is only ever one
+      // tick pending.
+      assertTrue(mode + ": too many ticks: " + ticks[0], ticks[0] <= 1000 / INTERVAL + 1);
+      assertTrue(mode + ": no ticks", ticks[0] > 0);
+      timer.Enabled(false);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownMode() {
+    timer = new TimerInternal(handler, false, INTERVAL);
+    timer.Mode("Sometimes");
+  }
+
+  private static void runFor(long millis) {
+    ShadowLooper.idleMainLooper(millis, TimeUnit.MILLISECONDS);
+  }
+}
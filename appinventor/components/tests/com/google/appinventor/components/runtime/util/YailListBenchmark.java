@@ -0,0 +1,91 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2019 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import static com.google.appinventor.common.testutils.BenchmarkUtils.micros;
+import static com.google.appinventor.common.testutils.BenchmarkUtils.report;
+
+import gnu.lists.LList;
+import gnu.lists.Pair;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares indexed access to a {@link YailList} with walking its pairs, which
+ * is what "select list item", "replace list item" and "length of list" used
+ * to do.
+ *
+ * <p>Each case loops over every item of the list by index, as a "for each
+ * number from 1 to length of list" block does. Each case is run a few times
+ * to warm up the JIT before it is timed.</p>
+ */
+public class YailListBenchmark extends TestCase {
+  private static final int[] LIST_SIZES = { 100, 1000, 5000, 20000 };
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASURED_ITERATIONS = 5;
+
+  public void testIndexedLoop() {
+    for (int size : LIST_SIZES) {
+      Object[] items = new Object[size];
+      for (int i = 0; i < size; i++) {
+        items[i] = "item" + i;
+      }
+      final YailList list = YailList.makeList(items);
+
+      long pairs = measure(new Loop() {
+        @Override
+        public Object run() {
+          // (list-ref (yail-list-contents list) i) and (set-car! (list-tail ...) ...)
+          Object contents = list.getCdr();
+          Object last = null;
+          int length = LList.length(contents);
+          for (int i = 0; i < length; i++) {
+            last = ((LList) contents).get(i);
+            ((Pair) LList.listTail(contents, i)).setCar(last);
+          }
+          return last;
+        }
+      });
+
+      long indexed = measure(new Loop() {
+        @Override
+        public Object run() {
+          Object last = null;
+          int length = list.size();
+          for (int i = 0; i < length; i++) {
+            last = list.getObject(i);
+            list.setObject(i, last);
+          }
+          return last;
+        }
+      });
+
+      report("%d items: pairs %s per loop, indexed %s per loop", size, micros(pairs),
+          micros(indexed));
+    }
+  }
+
+  private interface Loop {
+    Object run();
+  }
+
+  /*
+   * Returns the average time of the measured iterations of the loop, in nanoseconds.
+   */
+  private static long measure(Loop loop) {
+    Object sink = null;
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      sink = loop.run();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      sink = loop.run();
+    }
+    long elapsed = System.nanoTime() - start;
+    assertNotNull(sink);
+    return elapsed / MEASURED_ITERATIONS;
+  }
+}
@@ -7,6 +7,8 @@
 package com.google.appinventor.components.runtime.util;
 
 import gnu.lists.FString;
+import gnu.lists.LList;
+import gnu.lists.Pair;
 import gnu.math.IntNum;
 
 import junit.framework.TestCase;
@@ -205,6 +207,82 @@ public class YailListTest extends TestCase {
     }
   }
 
+  public void testSetInsertAndRemove() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b", "c"});
+    yailList.setObject(1, "B");
+    yailList.insertObject(0, "first");
+    yailList.insertObject(4, "last");
+    yailList.insertObject(2, "middle");
+    assertEquals("(first a middle B c last)", yailList.toString());
+    assertEquals(6, yailList.size());
+    yailList.removeObject(0);
+    yailList.removeObject(4);
+    yailList.removeObject(1);
+    assertEquals("(a B c)", yailList.toString());
+    assertEquals(3, yailList.size());
+    assertEquals("c", yailList.getObject(2));
+    try {
+      yailList.insertObject(4, "too far");
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // this is the intended behavior
+    }
+    try {
+      yailList.removeObject(3);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // this is the intended behavior
+    }
+  }
+
+  public void testAppendList() {
+    YailList yailList = new YailList();
+    YailList other = YailList.makeList(new Object[] {"a", "b"});
+    yailList.appendList(other);
+    yailList.appendList(yailList);
+    assertEquals("(a b a b)", yailList.toString());
+    assertEquals(4, yailList.size());
+    // The items are copied, so changing the list does not change the other one.
+    yailList.setObject(0, "A");
+    assertEquals("(a b)", other.toString());
+  }
+
+  public void testChangesMadeToPairs() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b"});
+    assertEquals(2, yailList.size());
+    // Changes made directly to the head or the tail of the list are still seen.
+    ((Pair) yailList.getCdr()).lastPair().setCdr(LList.list2("c", "d"));
+    assertEquals(4, yailList.size());
+    assertEquals("d", yailList.getObject(3));
+    yailList.setCdr(LList.list1("e"));
+    assertEquals("e", yailList.getObject(0));
+    yailList.setCdr(LList.Empty);
+    assertEquals(0, yailList.size());
+  }
+
+  public void testChangesMadeInTheMiddle() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b", "c", "d"});
+    assertEquals(4, yailList.size());
+    // (set-cdr! (cdr (yail-list-contents yailList)) (cdddr (yail-list-contents yailList)))
+    Pair second = (Pair) ((Pair) yailList.getCdr()).getCdr();
+    second.setCdr(((Pair) second.getCdr()).getCdr());
+    assertEquals(3, yailList.size());
+    assertEquals("d", yailList.getObject(2));
+    // Pairs made elsewhere are seen too, even after they change.
+    Pair shared = (Pair) LList.list2("x", "y");
+    second.setCdr(shared);
+    assertEquals(4, yailList.size());
+    shared.setCdr(LList.list1("z"));
+    assertEquals(4, yailList.size());
+    assertEquals("z", yailList.getObject(3));
+    shared.setCdr(LList.Empty);
+    assertEquals(3, yailList.size());
+    // The list's own changes still work on a list that holds pairs made elsewhere.
+    yailList.insertObject(3, "last");
+    yailList.removeObject(0);
+    assertEquals("(b x last)", yailList.toString());
+  }
+
   public void testBigNumsInStringArray() {
     YailList list = YailList.makeList(new Object[] { IntNum.make(Long.MAX_VALUE), (Long) Long.MAX_VALUE });
     String[] strings = list.toStringArray();